@@ -19,14 +19,18 @@
  */
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.helper.HelpScreenException;
 import net.sourceforge.argparse4j.inf.*;
 import org.sngroup.Configuration;
 import org.sngroup.test.evaluator.Evaluator;
 import org.sngroup.test.evaluator.BurstEvaluator;
-//import org.sngroup.test.evaluator.IncrementalEvaluator;
+import org.sngroup.test.evaluator.IncrementalEvaluator;
 import org.sngroup.test.runner.*;
+import org.sngroup.util.FibSnapshot;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -45,6 +49,16 @@ public class Main {
         cbs.addArgument("network").type(String.class).help("Network name. All configurations will be set automatically.");
         cbs.addArgument("-t", "--times").type(Integer.class).setDefault(1).help("The times of burst update");
         Evaluator.setParser(cbs);
+        Subparser cis = subparser.addParser("cis").help("Incremental update evaluator. All FIBs are verified once, then the rule updates are applied and verified one by one.");
+        cis.addArgument("network").type(String.class).help("Network name. All configurations will be set automatically.");
+        cis.addArgument("-t", "--times").type(Integer.class).setDefault(-1).help("The number of rule updates to apply, all by default");
+        cis.addArgument("--update_file").type(String.class).help("The rule update sequence, default <network>/update");
+        Evaluator.setParser(cis);
+        Subparser snapshot = subparser.addParser("snapshot").help("Convert the text FIBs of a network into a binary snapshot, which is then loaded instead of them.");
+        snapshot.addArgument("network").type(String.class).help("Network name. All configurations will be set automatically.");
+        snapshot.addArgument("--rule_path").type(String.class).help("Manually set the rule files path");
+        snapshot.addArgument("--text_address").action(Arguments.storeTrue()).help("Keep addresses as text (IPv6 and IPv4_S networks)");
+        snapshot.addArgument("-o", "--output").type(String.class).help("The snapshot file, default <rule path>.fibsnap");
         Namespace namespace;
         try {
             namespace = parser.parseArgs(args);
@@ -62,6 +76,30 @@ public class Main {
                 evaluator.start(new TopoRunner());
                 return;
             }
+            case "cis": {
+                evaluator = new IncrementalEvaluator(namespace);
+                evaluator.start(new TopoRunner());
+                return;
+            }
+            case "snapshot": {
+                Configuration configuration = Configuration.getConfiguration();
+                if (namespace.getString("rule_path") != null) configuration.setRuleFile(namespace.getString("rule_path"));
+                configuration.readDirectory(namespace.getString("network"), false);
+                if (configuration.getRuleFile() == null) {
+                    System.err.println("Rule path not found for network " + namespace.getString("network"));
+                    return;
+                }
+                File ruleDir = new File(configuration.getRuleFile()).getAbsoluteFile();
+                File output = new File(namespace.getString("output") != null ? namespace.getString("output") : ruleDir.getPath() + ".fibsnap");
+                try {
+                    long start = System.currentTimeMillis();
+                    int devices = FibSnapshot.write(ruleDir, output, namespace.getBoolean("text_address"));
+                    System.out.println("Wrote " + devices + " devices to " + output + " in " + (System.currentTimeMillis() - start) + " ms");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return;
+            }
             case "list": {
                 System.out.println("Network list:");
                 for (String n : Configuration.getNetworkList()) {
@@ -4,21 +4,32 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jdd.util.Configuration;
 import jdd.util.*;
 import jdd.util.math.*;
+import jdd.bdd.debug.BDDDebuger;
 import org.sngroup.verifier.BDDEngine;
 import org.sngroup.verifier.TSBDD;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * BDD main class with caching removed for apply operations.
- * This version removes caching to reduce memory usage.
+ * BDD main class.
+ * Binary and unary apply operations (and, or, not, ...) and ite are memoized in
+ * operation caches that are partially cleaned on garbage collection.
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class BDD extends NodeTable implements Cloneable, Serializable {
 
 	public int num_vars, last_sat_vars;
-	// Cache removed - only keeping sat_cache as it's for different purpose
+
+	// operation codes for the binary op-cache
+	protected static final int CACHE_AND = 0, CACHE_OR = 1, CACHE_XOR = 2, CACHE_BIIMP = 3,
+		CACHE_IMP = 4, CACHE_NAND = 5, CACHE_NOR = 6, CACHE_DIFF = 7, CACHE_LEQ = 8, CACHE_DISJOINT = 9;
+
+	protected OptimizedCache op_cache;	// (BDD, BDD, op) => BDD
+	protected OptimizedCache not_cache;	// BDD => BDD
+	protected OptimizedCache ite_cache;	// (BDD, BDD, BDD) => BDD
 	protected DoubleCache sat_cache;
 
 	// quantification stuff
@@ -32,15 +43,31 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	public BDDNames nodeNames = new BDDNames();
 	private Permutation firstPermutation;
 
+	// variable order: level2var[l] is the variable (numbered in creation order) at level l.
+	// both arrays are the identity until the BDD is reordered, see reorder()
+	protected int [] level2var = new int[0], var2level = new int[0];
+	protected int order_version;	// 0 for the initial order, a new unique number after each change; copies keep it
+	private static final AtomicInteger order_versions = new AtomicInteger();
+	protected int reorder_threshold;	// live nodes that trigger maybeReorder(), 0 if disabled
+	public int stat_reorder_count;
+	public long stat_reorder_time;
+
 	@Override
 	public Object clone() {
 		BDD bddCopy = null;
 		try{
-			bddCopy = (BDD) super.clone();
+			bddCopy = (BDD) super.clone(); // the node storage is shared, BDD(BDD) makes an independent copy
 			bddCopy.sat_cache = (DoubleCache) this.sat_cache.clone();
+			// SimpleCache.clone() shares the data array, give the copy its own (empty) caches
+			bddCopy.op_cache = new OptimizedCache("OP", this.op_cache.getSize(), 3, 2);
+			bddCopy.not_cache = new OptimizedCache("NOT", this.not_cache.getSize(), 1, 1);
+			bddCopy.ite_cache = new OptimizedCache("ITE", this.ite_cache.getSize(), 3, 3);
 			bddCopy.nodeNames = (BDDNames) this.nodeNames.clone();
 			bddCopy.nstack = (NodeStack) this.nstack.clone();
 			bddCopy.mstack = (NodeStack) this.mstack.clone();
+			bddCopy.base_marks = null;
+			bddCopy.level2var = this.level2var.clone();
+			bddCopy.var2level = this.var2level.clone();
 			if(firstPermutation != null) bddCopy.firstPermutation = (Permutation) this.firstPermutation.clone();
 		}catch(CloneNotSupportedException e) {
 			e.printStackTrace();
@@ -57,9 +84,32 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	}
 
 	public BDD(int nodesize, int cache_size) {
-		super(Prime.prevPrime(nodesize));
+		this(nodesize, cache_size, false);
+	}
 
-		// Only keep SAT cache
+	/**
+	 * create a BDD with an initial node table of <tt>nodesize</tt> nodes.
+	 * if <tt>offHeap</tt> is true, the node table is kept outside the Java heap.
+	 *
+	 * @see NodeTable#NodeTable(int, boolean)
+	 */
+	public BDD(int nodesize, int cache_size, boolean offHeap) {
+		this(nodesize, cache_size, offHeap, false);
+	}
+
+	/**
+	 * as above, with complement edges if <tt>complement</tt> is true: not() is O(1) and a BDD
+	 * and its negation share all nodes. handles of negated BDDs carry NODE_COMPLEMENT,
+	 * the API is unchanged otherwise.
+	 *
+	 * @see NodeTable#NodeTable(int, boolean, boolean)
+	 */
+	public BDD(int nodesize, int cache_size, boolean offHeap, boolean complement) {
+		super(Prime.prevPrime(nodesize), offHeap, complement);
+
+		op_cache = new OptimizedCache("OP", cache_size / Configuration.bddOpcacheDiv, 3, 2);
+		not_cache = new OptimizedCache("NOT", cache_size / Configuration.bddNegcacheDiv, 1, 1);
+		ite_cache = new OptimizedCache("ITE", cache_size / Configuration.bddItecacheDiv, 3, 3);
 		sat_cache = new DoubleCache("SAT", cache_size / Configuration.bddSatcountDiv);
 
 		num_vars = 0;
@@ -74,17 +124,17 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	}
 
 	public BDD(int nodesize, int cache_size, BDDEngine srcBdd, boolean isCopy) {
-		super(Prime.prevPrime(nodesize));
+		super(Prime.prevPrime(nodesize), srcBdd.bdd.bdd.isOffHeap()); // the copy is stored like the original
 		BDD original = srcBdd.bdd.bdd;
+		attach_base(original.base); // an overlay copy shares the base of the original
+		this.complement = original.complement;
 		this.table_size = original.table_size;
 		this.stat_nt_grow = original.stat_nt_grow;
 		this.dead_nodes = original.dead_nodes;
 		this.nodesminfree = original.nodesminfree;
 
-		// Deep copy of arrays
-		this.t_nodes = original.t_nodes.clone();
-		this.t_list = original.t_list.clone();
-		this.t_ref = original.t_ref.clone();
+		// Deep copy of the node storage
+		copy_storage(original);
 
 		this.first_free_node = original.first_free_node;
 		this.free_nodes_count = original.free_nodes_count;
@@ -105,8 +155,10 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		this.mstack = new NodeStack(32);
 		this.mstack = (NodeStack) original.mstack.clone();
 
-		// Only keep SAT cache
-		sat_cache = new DoubleCache("SAT", cache_size / Configuration.bddSatcountDiv);
+		// operation caches start empty, the SAT cache is shared with the original
+		op_cache = new OptimizedCache("OP", cache_size / Configuration.bddOpcacheDiv, 3, 2);
+		not_cache = new OptimizedCache("NOT", cache_size / Configuration.bddNegcacheDiv, 1, 1);
+		ite_cache = new OptimizedCache("ITE", cache_size / Configuration.bddItecacheDiv, 3, 3);
 		this.sat_cache = (DoubleCache) original.sat_cache.clone();
 
 		num_vars = 0;
@@ -123,25 +175,140 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		this.varset_vec = original.varset_vec;
 		this.sign_vec = original.sign_vec;
 		this.support_buffer = original.support_buffer;
+		this.level2var = original.level2var.clone();
+		this.var2level = original.var2level.clone();
+		this.order_version = original.order_version;
 
 		enableStackMarking();
 	}
 
+	/**
+	 * create an overlay BDD on top of a frozen BDD.
+	 * all BDDs of <tt>base</tt> can be used directly with their node ids, new nodes are
+	 * created in a private node table of (initially) <tt>nodesize</tt> nodes.
+	 * the overlay uses the variables of the base and cannot create new ones.
+	 *
+	 * @see NodeTable#freeze
+	 */
+	public BDD(BDD base, int nodesize, int cache_size) {
+		super(base, Prime.prevPrime(nodesize));
+
+		op_cache = new OptimizedCache("OP", cache_size / Configuration.bddOpcacheDiv, 3, 2);
+		not_cache = new OptimizedCache("NOT", cache_size / Configuration.bddNegcacheDiv, 1, 1);
+		ite_cache = new OptimizedCache("ITE", cache_size / Configuration.bddItecacheDiv, 3, 3);
+		sat_cache = new DoubleCache("SAT", cache_size / Configuration.bddSatcountDiv);
+
+		num_vars = base.num_vars;
+		last_sat_vars = -1;
+		varset_last = -1;
+		varset_vec = Allocator.allocateBooleanArray(Math.max(24, num_vars * 3));
+		sign_vec = Allocator.allocateBooleanArray(varset_vec.length);
+		support_buffer = new boolean[varset_vec.length];
+		level2var = base.level2var.clone();
+		var2level = base.var2level.clone();
+		order_version = base.order_version;
+
+		firstPermutation = null;
+		nstack.grow(6 * num_vars + 1);
+		tree_depth_changed(num_vars);
+		enableStackMarking();
+	}
+
+	/**
+	 * fork a child BDD: this BDD is frozen (if not already) and the child becomes an overlay
+	 * of it. the child sees all nodes of this BDD with the same ids without copying anything,
+	 * its own nodes, reference counts and free-list live in a private table that starts
+	 * at <tt>nodesize</tt> nodes and grows on demand, the caches start at <tt>cache_size</tt>
+	 * and grow with their hit-rate.
+	 *
+	 * <p>after the first fork, this BDD can no longer create nodes.
+	 */
+	public BDD fork(int nodesize, int cache_size) {
+		if(base != null) throw new IllegalStateException("cannot fork an overlay");
+		if(!frozen) freeze();
+		return new BDD(this, nodesize, cache_size);
+	}
+
+	/**
+	 * snapshot constructor: a copy of <tt>src</tt> with the same nodes (and node ids)
+	 * and the same variables. the node arrays are copied in bulk, the caches are
+	 * created empty with the same sizes and permutations are not copied.
+	 */
+	public BDD(BDD src) {
+		super(src);
+
+		op_cache = new OptimizedCache("OP", src.op_cache.getSize(), 3, 2);
+		not_cache = new OptimizedCache("NOT", src.not_cache.getSize(), 1, 1);
+		ite_cache = new OptimizedCache("ITE", src.ite_cache.getSize(), 3, 3);
+		sat_cache = new DoubleCache("SAT", src.sat_cache.getSize());
+
+		num_vars = src.num_vars;
+		last_sat_vars = -1;
+		varset_last = -1;
+		varset_vec = Allocator.allocateBooleanArray(src.varset_vec.length);
+		sign_vec = Allocator.allocateBooleanArray(varset_vec.length);
+		support_buffer = new boolean[src.support_buffer.length];
+
+		nodeNames = (BDDNames) src.nodeNames.clone();
+		firstPermutation = null;
+		level2var = src.level2var.clone();
+		var2level = src.var2level.clone();
+		order_version = src.order_version;
+	}
+
+	/**
+	 * drop all nodes created in this overlay and wipe the caches.
+	 * BDDs of the base stay valid, BDDs created in the overlay are lost.
+	 */
+	public void resetOverlay() {
+		if(base == null) throw new IllegalStateException("not an overlay");
+		nstack.reset();
+		clear_overlay();
+		stat_gc_count++; // everything we had is gone, as after a GC
+
+		op_cache.invalidate_cache();
+		not_cache.invalidate_cache();
+		ite_cache.invalidate_cache();
+		sat_cache.invalidate_cache();
+	}
+
 	public void cleanup() {
 		super.cleanup();
 		sign_vec = varset_vec = null;
 		oneSat_buffer = null;
+		op_cache = null;
+		not_cache = null;
+		ite_cache = null;
 		sat_cache = null;
 	}
 
+	// ---------------------------------------------------------------
+	// Debugging stuff
+	@SuppressWarnings("unchecked") // the debugger API uses a raw Collection
+	public Collection addDebugger(BDDDebuger d) {
+		Collection v = super.addDebugger( d );
+		v.add( op_cache );
+		v.add( not_cache );
+		v.add( ite_cache );
+		v.add( sat_cache );
+		return v;
+	}
+	// ---------------------------------------------------------------
+
 	public final int getOne() { return 1; }
 	public final int getZero() { return 0; }
 	public int numberOfVariables() { return num_vars; }
 
 	public int createVar() {
+		if(base != null) throw new IllegalStateException("cannot create variables in an overlay");
 		int var = nstack.push( mk(num_vars, 0, 1) );
 		int nvar = mk(num_vars, 1, 0);
 		nstack.pop();
+		if(level2var.length == num_vars) {
+			level2var = Arrays.copyOf(level2var, num_vars * 2 + 8);
+			var2level = Arrays.copyOf(var2level, level2var.length);
+		}
+		level2var[num_vars] = var2level[num_vars] = num_vars; // new variables go to the bottom
 		num_vars++;
 
 		saturate(var);
@@ -173,16 +340,120 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		return ret;
 	}
 
+	// ---------------------------------------------------------------
+	// variable order
+
+	/** the level of the <tt>var</tt>-th created variable. equal to var unless the BDD was reordered */
+	public int getLevel(int var) { return var2level[var]; }
+
+	/** the variable at <tt>level</tt>, the inverse of getLevel() */
+	public int getVariableAt(int level) { return level2var[level]; }
+
+	/** the current variable order: the variables from the top level down */
+	public int [] getVariableOrder() { return Arrays.copyOf(level2var, num_vars); }
+
+	/**
+	 * identifies the variable order: 0 for the creation order, a new number (unique in this JVM)
+	 * after each reorder() or setVariableOrder(). copies keep the version of their source,
+	 * so two tables with the same version have the same variable order.
+	 */
+	public int getOrderVersion() { return order_version; }
+
+	/**
+	 * reorder the variables by sifting: each variable is moved through all levels with
+	 * swaps of adjacent levels and left where the table was smallest.
+	 * node ids keep their functions, so referenced BDDs stay valid. unreferenced nodes
+	 * are collected as in a GC and all caches are flushed.
+	 * permutations and variable sets must be created again afterwards, they are kept as levels.
+	 *
+	 * <p>must not be called while an operation is running, only between operations.
+	 * @return the number of live nodes afterwards
+	 */
+	public int reorder() {
+		if(base != null || frozen) throw new IllegalStateException("cannot reorder an overlay or a frozen table");
+		long time = System.currentTimeMillis();
+		Sifting sifting = new Sifting(this);
+		int before = sifting.size();
+		int after = sifting.sift();
+		reordered();
+		stat_reorder_count++;
+		stat_reorder_time += System.currentTimeMillis() - time;
+
+		if(Options.verbose) {
+			JDDConsole.out.printf("Reordering #%d: %d -> %d nodes, time=%d\n",
+					stat_reorder_count, before, after, stat_reorder_time);
+		}
+		return after;
+	}
+
+	/**
+	 * move the variables to the given order (from the top level down), for example to
+	 * rebuild stored BDDs in the order they were saved with. same restrictions as reorder().
+	 */
+	public void setVariableOrder(int [] order) {
+		if(base != null || frozen) throw new IllegalStateException("cannot reorder an overlay or a frozen table");
+		if(order.length != num_vars) throw new IllegalArgumentException("order must list all " + num_vars + " variables");
+		boolean [] seen = new boolean[num_vars];
+		for(int var : order) {
+			if(var < 0 || var >= num_vars || seen[var]) throw new IllegalArgumentException("not a permutation of the variables");
+			seen[var] = true;
+		}
+		if(Arrays.equals(order, getVariableOrder())) return;
+		new Sifting(this).moveTo(order);
+		reordered();
+	}
+
+	/**
+	 * enable automatic reordering: maybeReorder() sifts once the table holds at least
+	 * <tt>threshold</tt> live nodes, then the threshold becomes twice the size after sifting.
+	 * 0 disables it.
+	 */
+	public void setAutoReorder(int threshold) { reorder_threshold = Math.max(threshold, 0); }
+
+	/**
+	 * reorder if automatic reordering is enabled and the table has grown past the threshold.
+	 * this is the safe point for automatic reordering: call it between operations only.
+	 * @return true if the variables were reordered
+	 */
+	public boolean maybeReorder() {
+		if(reorder_threshold == 0 || base != null || frozen) return false;
+		if(table_size - free_nodes_count < reorder_threshold) return false;
+		gc(); // dead nodes do not count
+		if(table_size - free_nodes_count < reorder_threshold) return false;
+		int live = reorder();
+		reorder_threshold = Math.max(reorder_threshold, 2 * live);
+		return true;
+	}
+
+	/** the levels of the nodes have changed: everything cached by level or node is gone */
+	private void reordered() {
+		op_cache.invalidate_cache();
+		not_cache.invalidate_cache();
+		ite_cache.invalidate_cache();
+		sat_cache.invalidate_cache();
+		varset_last = -1;
+		last_sat_vars = -1;
+		order_version = order_versions.incrementAndGet();
+		stat_gc_count++; // nodes have been freed, as after a GC
+		signal_removed();
+	}
+
 	protected void post_removal_callbak() {
+		op_cache.free_or_grow(this);
+		not_cache.free_or_grow(this);
+		ite_cache.free_or_grow(this);
 		sat_cache.invalidate_cache();
 	}
 
 	public int mk(int i, int l, int h) {
 		if(l == h) return l;
+		// keep the low edge regular, store NOT(i,l,h) = (i,NOT l,NOT h) instead
+		if(complement && is_complemented(l))
+			return add(i, complement_edge(l), complement_edge(h)) | NODE_COMPLEMENT;
 		return add(i,l,h);
 	}
 
-	public final int cube(boolean [] v) {
+	public int cube(boolean [] v) {
 		int last = 1, len = Math.min(v.length, num_vars);
 		for(int i = 0; i < len; i++) {
 			int var = len - i - 1;
@@ -193,7 +464,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		return last;
 	}
 
-	public final int cube(String s) {
+	public int cube(String s) {
 		int len = s.length(), last = 1;
 		for(int i = 0; i < len;i++) {
 			int var = len - i - 1;
@@ -204,7 +475,120 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		return last;
 	}
 
-	public final int minterm(boolean [] v) {
+	/**
+	 * build the cube of the <tt>len</tt> highest bits of a <tt>bits</tt> wide value directly with mk(),
+	 * bottom-up and without any apply calls. this is the BDD of an address prefix.
+	 * <p><tt>vars[i]</tt> is the variable BDD for bit i of the value. when it is above
+	 * <tt>vars[i-1]</tt> in the variable order (the default, most significant bit on top)
+	 * the cube is built in a single pass, otherwise the literals are sorted by level first.
+	 * the returned BDD is not referenced.
+	 */
+	public int prefixCube(int [] vars, int bits, long value, int len) {
+		if(!descending(vars, bits - len, bits)) return cube_by_level(vars, bits - len, bits, new long[] { value });
+		int last = 1;
+		for(int i = bits - len; i < bits; i++) {
+			int var = getVar(vars[i]);
+			nstack.push(last);
+			last = ((value >>> i) & 1) != 0 ? mk(var, 0, last) : mk(var, last, 0);
+			nstack.pop();
+		}
+		return last;
+	}
+
+	/**
+	 * same as prefixCube(int[], int, long, int) for values wider than 64 bits.
+	 * bit i of the value is bit (i % 64) of <tt>value[i / 64]</tt>.
+	 */
+	public int prefixCube(int [] vars, int bits, long [] value, int len) {
+		if(!descending(vars, bits - len, bits)) return cube_by_level(vars, bits - len, bits, value);
+		int last = 1;
+		for(int i = bits - len; i < bits; i++) {
+			int var = getVar(vars[i]);
+			nstack.push(last);
+			last = ((value[i >>> 6] >>> (i & 63)) & 1) != 0 ? mk(var, 0, last) : mk(var, last, 0);
+			nstack.pop();
+		}
+		return last;
+	}
+
+	/** true if each of <tt>vars[from..to)</tt> is above the one before it in the variable order */
+	protected final boolean descending(int [] vars, int from, int to) {
+		for(int i = from + 1; i < to; i++)
+			if(getVar(vars[i]) > getVar(vars[i - 1])) return false;
+		return true;
+	}
+
+	/** prefixCube() for variables in any order: the literals are sorted by level and built bottom-up */
+	private int cube_by_level(int [] vars, int from, int to, long [] value) {
+		long [] literals = new long[to - from];
+		for(int i = from; i < to; i++)
+			literals[i - from] = ((long) getVar(vars[i]) << 1) | ((value[i >>> 6] >>> (i & 63)) & 1);
+		Arrays.sort(literals);
+
+		int last = 1;
+		for(int k = literals.length - 1; k >= 0; k--) {
+			int var = (int) (literals[k] >>> 1);
+			nstack.push(last);
+			last = (literals[k] & 1) != 0 ? mk(var, 0, last) : mk(var, last, 0);
+			nstack.pop();
+		}
+		return last;
+	}
+
+	/**
+	 * build the set of <tt>bits</tt> wide values in [lo, hi] directly with mk(), bottom-up, without
+	 * splitting the range into prefixes. <tt>vars</tt> is as in prefixCube().
+	 * <p>one pass from the lowest bit up keeps three BDDs over the bits seen so far:
+	 * "value >= lo", "value <= hi" and "lo <= value <= hi", so the result has at most three nodes per bit.
+	 * when the variables are not in the default order the two bounds are built with and/or instead.
+	 * the bounds are clipped to [0, 2^bits - 1]. the returned BDD is not referenced.
+	 */
+	public int rangeCube(int [] vars, int bits, long lo, long hi) {
+		final long max = bits >= 63 ? Long.MAX_VALUE : (1L << bits) - 1;
+		lo = Math.max(lo, 0);
+		hi = Math.min(hi, max);
+		if(lo > hi) return 0;
+		if(lo == 0 && hi == max) return 1;
+		if(!descending(vars, 0, bits)) return range_by_apply(vars, bits, lo, hi);
+
+		int ge = 1, le = 1, in = 1;
+		for(int i = 0; i < bits; i++) {
+			int var = getVar(vars[i]);
+			boolean l = ((lo >>> i) & 1) != 0, h = ((hi >>> i) & 1) != 0;
+			nstack.push(ge);
+			nstack.push(le);
+			nstack.push(in);
+			if(l == h) in = l ? mk(var, 0, in) : mk(var, in, 0);
+			else in = l ? 0 : mk(var, ge, le); // here lo has 1 and hi has 0: the lower bits alone cannot fit
+			nstack.push(in);
+			ge = l ? mk(var, 0, ge) : mk(var, ge, 1);
+			nstack.push(ge);
+			le = h ? mk(var, 1, le) : mk(var, le, 0);
+			nstack.drop(5);
+		}
+		return in;
+	}
+
+	/** rangeCube() for variables in any order: "value >= lo" and "value <= hi" are built bit by bit with and/or */
+	private int range_by_apply(int [] vars, int bits, long lo, long hi) {
+		int ge = 1, le = 1;
+		for(int i = 0; i < bits; i++) {
+			int t = ref(((lo >>> i) & 1) != 0 ? and(vars[i], ge) : or(vars[i], ge));
+			deref(ge);
+			ge = t;
+			int not_var = ref(not(vars[i]));
+			t = ref(((hi >>> i) & 1) != 0 ? or(not_var, le) : and(not_var, le));
+			deref(not_var);
+			deref(le);
+			le = t;
+		}
+		int ret = and(ge, le);
+		deref(ge);
+		deref(le);
+		return ret;
+	}
+
+	public int minterm(boolean [] v) {
 		int last = 1, len = Math.min(v.length, num_vars);
 		for(int i = 0; i < len; i++) {
 			int var = len - i - 1;
@@ -215,7 +599,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		return last;
 	}
 
-	public final int minterm(String s) {
+	public int minterm(String s) {
 		int len = s.length(), last = 1;
 		for(int i = 0; i < len;i++) {
 			int var = len - i - 1;
@@ -261,7 +645,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 			return tmp;
 		}
 
-		// No cache lookup/insert
+		if(ite_cache.lookup(f, g, h)) return ite_cache.answer;
+		int hash = ite_cache.hash_value;
+
 		int v = Math.min(getVar(f), Math.min(getVar(g), getVar(h)));
 		int l = nstack.push( ite_rec(
 				(v == getVar(f)) ? getLow(f) : f, (v == getVar(g)) ? getLow(g) : g, (v == getVar(h)) ? getLow(h) : h));
@@ -272,6 +658,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		l = mk(v,l,H);
 		nstack.drop(2);
 
+		ite_cache.insert(hash, f, g, h, l);
 		return l;
 	}
 
@@ -291,7 +678,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		int l, h, v = getVar(u1);
 		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);	}
 
-		// No cache lookup/insert
+		if(op_cache.lookup(u1, u2, CACHE_AND)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
 		if( v == getVar(u2)) {
 			l = nstack.push(and_rec(getLow(u1), getLow(u2)));
 			h = nstack.push(and_rec(getHigh(u1), getHigh(u2)));
@@ -303,6 +692,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if(l != h) l = mk(v,l,h);
 		nstack.drop(2);
 
+		op_cache.insert(hash, u1, u2, CACHE_AND, l);
 		return l;
 	}
 
@@ -322,7 +712,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		int l, h, v = getVar(u1);
 		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);}
 
-		// No cache lookup/insert
+		if(op_cache.lookup(u1, u2, CACHE_NAND)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
 		if( v == getVar(u2)) {
 			l = nstack.push( nand_rec(getLow(u1), getLow(u2)));
 			h = nstack.push( nand_rec(getHigh(u1), getHigh(u2)));
@@ -333,6 +725,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 		if(l != h) l = mk(v,l,h);
 		nstack.drop(2);
+		op_cache.insert(hash, u1, u2, CACHE_NAND, l);
 		return l;
 	}
 
@@ -356,7 +749,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 			v = getVar(u1);
 		}
 
-		// No cache lookup/insert
+		if (op_cache.lookup(u1, u2, CACHE_OR)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
 		if (v == getVar(u2)) {
 			l = nstack.push(or_rec(getLow(u1), getLow(u2)));
 			h = nstack.push(or_rec(getHigh(u1), getHigh(u2)));
@@ -367,6 +762,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 		if (l != h) l = mk(v, l, h);
 		nstack.drop(2);
+		op_cache.insert(hash, u1, u2, CACHE_OR, l);
 		return l;
 	}
 
@@ -386,7 +782,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		int l, h, v = getVar(u1);
 		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);}
 
-		// No cache lookup/insert
+		if(op_cache.lookup(u1, u2, CACHE_NOR)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
 		if( v == getVar(u2)) {
 			l = nstack.push( nor_rec(getLow(u1), getLow(u2)));
 			h = nstack.push( nor_rec(getHigh(u1), getHigh(u2)));
@@ -397,6 +795,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 		if(l != h) l = mk(v,l,h);
 		nstack.drop(2);
+		op_cache.insert(hash, u1, u2, CACHE_NOR, l);
 		return l;
 	}
 
@@ -418,7 +817,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		int l, h, v = getVar(u1);
 		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);}
 
-		// No cache lookup/insert
+		if(op_cache.lookup(u1, u2, CACHE_XOR)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
 		if( v == getVar(u2)) {
 			l = nstack.push( xor_rec(getLow(u1), getLow(u2)));
 			h = nstack.push( xor_rec(getHigh(u1), getHigh(u2)));
@@ -429,6 +830,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 		if(l != h) l = mk(v,l,h);
 		nstack.drop(2);
+		op_cache.insert(hash, u1, u2, CACHE_XOR, l);
 		return l;
 	}
 
@@ -450,7 +852,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		int l, h, v = getVar(u1);
 		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);}
 
-		// No cache lookup/insert
+		if(op_cache.lookup(u1, u2, CACHE_BIIMP)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
 		if( v == getVar(u2)) {
 			l = nstack.push( biimp_rec(getLow(u1), getLow(u2)));
 			h = nstack.push( biimp_rec(getHigh(u1), getHigh(u2)));
@@ -461,6 +865,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 		if(l != h) l = mk(v,l,h);
 		nstack.drop(2);
+		op_cache.insert(hash, u1, u2, CACHE_BIIMP, l);
 		return l;
 	}
 
@@ -477,7 +882,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if(u1 == 1) return u2;
 		if(u2 == 0) return not_rec(u1);
 
-		// No cache lookup/insert
+		if(op_cache.lookup(u1, u2, CACHE_IMP)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
 		int l, h, v = getVar(u1);
 		if( getVar(u1) == getVar(u2)) {
 			l = nstack.push( imp_rec(getLow(u1), getLow(u2)));
@@ -492,6 +899,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		}
 		if(l != h) l = mk(v,l,h);
 		nstack.drop(2);
+		op_cache.insert(hash, u1, u2, CACHE_IMP, l);
 		return l;
 	}
 
@@ -504,16 +912,147 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 	private final int not_rec(int bdd) {
 		if(bdd < 2) return (bdd ^ 1);
+		if(complement) return bdd ^ NODE_COMPLEMENT;
+
+		if(not_cache.lookup(bdd)) return not_cache.answer;
+		int hash = not_cache.hash_value;
 
-		// No cache lookup/insert
 		int l = nstack.push( not_rec(getLow(bdd)));
 		int h = nstack.push( not_rec(getHigh(bdd)));
 		if(l != h)  l = mk( getVar(bdd), l, h);
 		nstack.drop(2);
 
+		not_cache.insert(hash, bdd, l);
 		return l;
 	}
 
+	// ---------------------------------------------------------------
+	// intersect-and-split and the tests that avoid it
+
+	private int split_out;	/** second result of split_rec */
+
+	/**
+	 * split f by g in one pass: returns {f AND g, f AND NOT g}, both unreferenced like and().
+	 * the two halves are cached as CACHE_AND and CACHE_DIFF entries of the op-cache
+	 */
+	public int [] split(int f, int g) {
+		nstack.push(f);
+		nstack.push(g);
+		int in = split_rec(f, g);
+		int out = split_out;
+		nstack.drop(2);
+		return new int[] { in, out };
+	}
+
+	private final int split_rec(int f, int g) {
+		if(f == 0 || g == 0) { split_out = f; return 0; }
+		if(g == 1 || f == g) { split_out = 0; return f; }
+		if(f == 1) { split_out = not_rec(g); return g; }
+
+		boolean in_hit = op_cache.lookup(f, g, CACHE_AND);
+		int in = op_cache.answer, in_hash = op_cache.hash_value;
+		boolean out_hit = op_cache.lookup(f, g, CACHE_DIFF);
+		int out = op_cache.answer, out_hash = op_cache.hash_value;
+		if(in_hit && out_hit) { split_out = out; return in; }
+
+		int v = Math.min(getVar(f), getVar(g));
+		int fl = f, fh = f, gl = g, gh = g;
+		if(getVar(f) == v) { fl = getLow(f); fh = getHigh(f); }
+		if(getVar(g) == v) { gl = getLow(g); gh = getHigh(g); }
+
+		int l = nstack.push( split_rec(fl, gl));
+		int lo = nstack.push( split_out);
+		int h = nstack.push( split_rec(fh, gh));
+		int ho = nstack.push( split_out);
+		in = nstack.push( l == h ? l : mk(v, l, h));
+		out = lo == ho ? lo : mk(v, lo, ho);
+		nstack.drop(5);
+
+		if(!in_hit) op_cache.insert(in_hash, f, g, CACHE_AND, in);
+		if(!out_hit) op_cache.insert(out_hash, f, g, CACHE_DIFF, out);
+		split_out = out;
+		return in;
+	}
+
+	/**
+	 * f AND NOT g without building NOT g. unreferenced like and().
+	 * shares the CACHE_DIFF entries with split()
+	 */
+	public int diff(int f, int g) {
+		nstack.push(f);
+		nstack.push(g);
+		int ret = diff_rec(f, g);
+		nstack.drop(2);
+		return ret;
+	}
+
+	private final int diff_rec(int f, int g) {
+		if(f == 0 || g == 1 || f == g) return 0;
+		if(g == 0) return f;
+		if(f == 1) return not_rec(g);
+
+		if(op_cache.lookup(f, g, CACHE_DIFF)) return op_cache.answer;
+		int hash = op_cache.hash_value;
+
+		int v = Math.min(getVar(f), getVar(g));
+		int fl = f, fh = f, gl = g, gh = g;
+		if(getVar(f) == v) { fl = getLow(f); fh = getHigh(f); }
+		if(getVar(g) == v) { gl = getLow(g); gh = getHigh(g); }
+
+		int l = nstack.push( diff_rec(fl, gl));
+		int h = nstack.push( diff_rec(fh, gh));
+		if(l != h) l = mk(v, l, h);
+		nstack.drop(2);
+
+		op_cache.insert(hash, f, g, CACHE_DIFF, l);
+		return l;
+	}
+
+	/** true if u1 implies u2 (u1 AND NOT u2 == 0). no node is created */
+	public boolean leq(int u1, int u2) {
+		return leq_rec(u1, u2);
+	}
+
+	private final boolean leq_rec(int u1, int u2) {
+		if(u1 == 0 || u2 == 1 || u1 == u2) return true;
+		if(u1 == 1 || u2 == 0) return false;
+
+		if(op_cache.lookup(u1, u2, CACHE_LEQ)) return op_cache.answer == 1;
+		int hash = op_cache.hash_value;
+
+		boolean ret;
+		int v1 = getVar(u1), v2 = getVar(u2);
+		if(v1 == v2)	ret = leq_rec(getLow(u1), getLow(u2)) && leq_rec(getHigh(u1), getHigh(u2));
+		else if(v1 < v2)	ret = leq_rec(getLow(u1), u2) && leq_rec(getHigh(u1), u2);
+		else			ret = leq_rec(u1, getLow(u2)) && leq_rec(u1, getHigh(u2));
+
+		op_cache.insert(hash, u1, u2, CACHE_LEQ, ret ? 1 : 0);
+		return ret;
+	}
+
+	/** true if u1 AND u2 == 0. no node is created */
+	public boolean disjoint(int u1, int u2) {
+		return disjoint_rec(u1, u2);
+	}
+
+	private final boolean disjoint_rec(int u1, int u2) {
+		if(u1 == 0 || u2 == 0) return true;
+		if(u1 == 1 || u2 == 1 || u1 == u2) return false;
+		if(u1 > u2) { int tmp = u1; u1 = u2; u2 = tmp; }
+
+		if(op_cache.lookup(u1, u2, CACHE_DISJOINT)) return op_cache.answer == 1;
+		int hash = op_cache.hash_value;
+
+		boolean ret;
+		int v1 = getVar(u1), v2 = getVar(u2);
+		if(v1 == v2)	ret = disjoint_rec(getLow(u1), getLow(u2)) && disjoint_rec(getHigh(u1), getHigh(u2));
+		else if(v1 < v2)	ret = disjoint_rec(getLow(u1), u2) && disjoint_rec(getHigh(u1), u2);
+		else			ret = disjoint_rec(u1, getLow(u2)) && disjoint_rec(u1, getHigh(u2));
+
+		op_cache.insert(hash, u1, u2, CACHE_DISJOINT, ret ? 1 : 0);
+		return ret;
+	}
+
 	private void varset(int bdd) {
 		Test.check(bdd > 1, "BAD varset");
 		for(int i = num_vars; i != 0; ) varset_vec[--i] = false;
@@ -759,7 +1298,7 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 	}
 
 	public boolean isVariable(int bdd) {
-		if(bdd < 2 || bdd > table_size || !isValid(bdd)) return false;
+		if(bdd < 2 || bdd >= base_size + table_size || !isValid(bdd)) return false;
 		return (getLow(bdd) == 0 && getHigh(bdd) == 1);
 	}
 
@@ -888,6 +1427,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 
 	public void showStats() {
 		super.showStats();
+		if(op_cache != null) op_cache.showStats();
+		if(not_cache != null) not_cache.showStats();
+		if(ite_cache != null) ite_cache.showStats();
 		if(sat_cache != null) sat_cache.showStats();
 	}
 
@@ -898,6 +1440,9 @@ public class BDD extends NodeTable implements Cloneable, Serializable {
 		if(oneSat_buffer != null) ret += oneSat_buffer.length * 4;
 		if(support_buffer != null) ret += support_buffer.length * 1;
 
+		if(op_cache != null) ret += op_cache.getMemoryUsage();
+		if(not_cache != null) ret += not_cache.getMemoryUsage();
+		if(ite_cache != null) ret += ite_cache.getMemoryUsage();
 		if(sat_cache != null) ret += sat_cache.getMemoryUsage();
 
 		Permutation tmp = firstPermutation ;
@@ -0,0 +1,647 @@
+package jdd.bdd;
+
+import jdd.util.Configuration;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * a BDD whose node space can be shared by several threads.
+ *
+ * <p>and, or, xor, not, mk, prefixCube, ref and deref (and everything built only on them,
+ * such as andTo/orTo) can be called from several threads at the same time:
+ * <ul>
+ * <li>the unique table is striped, a hash bucket is guarded by one of STRIPES locks and
+ * each thread takes new nodes from a private batch of free nodes.</li>
+ * <li>reference counts are updated under the same striped locks.</li>
+ * <li>the operation cache is a lossy cache of immutable entries shared by all threads.</li>
+ * </ul>
+ * all other operations (ite, quantification, replace, satCount, printing, ...) take the
+ * table exclusively and run the sequential algorithms of BDD.
+ *
+ * <p>garbage collection is stop-the-world: an operation that runs out of free nodes is
+ * abandoned, the table is collected (or grown) once all running operations have left and
+ * the operation is restarted. the roots are the referenced nodes plus, for every thread, the
+ * operands of its current operation and the result of its last one. as in the sequential
+ * BDD the result of an operation must be referenced before the same thread starts its next
+ * operation, and a result must be referenced before it is handed to another thread.
+ *
+ * <p>the plain node accessors (getVar, getLow, getHigh, ...) do not lock. a gc marks nodes in
+ * place, so they may only be used on referenced nodes while no other thread can start a gc.
+ *
+ * <p>the node table is always on-heap.
+ */
+public class ConcurrentBDD extends BDD {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int STRIPES = 1024; /** number of unique-table/ref-count locks, power of two */
+	private static final int FREE_BATCH = 64; /** free nodes a thread takes at once */
+	private static final int CACHE_NOT = 10, OP_MK = 11, OP_PREFIX = 12; /** op codes next to CACHE_AND ... CACHE_DISJOINT */
+
+	/** thrown (without stack trace) when the table runs out of free nodes in the middle of an operation */
+	private static final class TableFull extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		TableFull() { super("node table full", null, false, false); }
+	}
+	private static final TableFull TABLE_FULL = new TableFull();
+
+	/** what the table knows about one thread */
+	private static final class Worker {
+		final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+		int op1, op2, last, last2;	/** gc roots: operands of the current and results of the last operation */
+		final int [] free = new int[FREE_BATCH];	/** private free nodes, valid for free_gen only */
+		int free_count, free_gen = -1;
+		int mk_var, prefix_bits;	/** extra arguments of mk and prefixCube */
+		int [] prefix_vars;
+		long [] prefix_value;
+		final long [] prefix_word = new long[1];
+
+		boolean isAlive() {
+			Thread t = owner.get();
+			return t != null && t.isAlive();
+		}
+	}
+
+	private transient ReentrantReadWriteLock world;	/** read: concurrent operations, write: stop-the-world */
+	private transient Object [] stripes;
+	private transient Object free_lock;
+	private transient ConcurrentOpCache cache;
+	private transient ThreadLocal<Worker> local;
+	private transient ArrayList<Worker> workers;
+	private transient AtomicInteger dead;	/** nodes whose ref-count dropped to zero since the last gc */
+	private transient int generation;	/** changed (under the write lock) on every gc/grow */
+
+	public ConcurrentBDD(int nodesize) {
+		this(nodesize, Configuration.DEFAULT_BDD_CACHE_SIZE);
+	}
+
+	public ConcurrentBDD(int nodesize, int cache_size) {
+		this(nodesize, cache_size, false);
+	}
+
+	/** @see BDD#BDD(int, int, boolean, boolean) */
+	public ConcurrentBDD(int nodesize, int cache_size, boolean complement) {
+		super(nodesize, cache_size, false, complement);
+		init_concurrent(cache_size / Configuration.bddOpcacheDiv);
+	}
+
+	private void init_concurrent(int cache_size) {
+		world = new ReentrantReadWriteLock();
+		stripes = new Object[STRIPES];
+		for(int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+		free_lock = new Object();
+		cache = new ConcurrentOpCache(cache_size);
+		local = new ThreadLocal<Worker>();
+		workers = new ArrayList<Worker>();
+		dead = new AtomicInteger();
+		generation = 0;
+	}
+
+	@Override
+	public Object clone() {
+		ConcurrentBDD copy = (ConcurrentBDD) super.clone();
+		copy.init_concurrent(cache.getSize()); // nothing of the concurrent state is shared
+		return copy;
+	}
+
+	public void cleanup() {
+		super.cleanup();
+		cache = null;
+		workers = null;
+	}
+
+	// ---------------------------------------------------------------
+	// threads, locking and gc
+
+	private Worker worker() {
+		Worker w = local.get();
+		if(w == null) {
+			w = new Worker();
+			local.set(w);
+			synchronized(workers) { workers.add(w); }
+		}
+		return w;
+	}
+
+	/** take the table exclusively, the running concurrent operations are finished first */
+	private void enter() { world.writeLock().lock(); }
+	private void leave() { world.writeLock().unlock(); }
+
+	/** pin the result of an exclusive operation until the next operation of this thread */
+	private int done(int bdd) {
+		Worker w = worker();
+		w.last = bdd;
+		w.last2 = 0;
+		return bdd;
+	}
+
+	/**
+	 * collect or grow the table after an operation found it full.
+	 * if someone else already did that since the operation started, just return
+	 */
+	private void collect(int seen_generation) {
+		enter();
+		try {
+			if(generation == seen_generation) grow();
+		} finally {
+			leave();
+		}
+	}
+
+	/** put the nodes pinned by all threads on nstack. called with the write lock held */
+	private int push_pins() {
+		int count = 0;
+		synchronized(workers) {
+			nstack.grow(nstack.getTOS() + 4 * workers.size());
+			for(Iterator<Worker> it = workers.iterator(); it.hasNext(); ) {
+				Worker w = it.next();
+				if(!w.isAlive()) { it.remove(); continue; }
+				nstack.push(w.op1);
+				nstack.push(w.op2);
+				nstack.push(w.last);
+				nstack.push(w.last2);
+				count += 4;
+			}
+		}
+		return count;
+	}
+
+	protected void grow() {
+		// the exact dead-node count is kept in "dead", the inherited counter is not thread-safe
+		if(dead.getAndSet(0) > 0) dead_nodes = Math.max(dead_nodes, 1);
+		int pins = push_pins();
+		super.grow();
+		nstack.drop(pins);
+	}
+
+	public int gc() {
+		enter();
+		try {
+			int pins = push_pins();
+			int ret = super.gc();
+			nstack.drop(pins);
+			dead.set(0);
+			return ret;
+		} finally {
+			leave();
+		}
+	}
+
+	/** reordering is stop-the-world, the nodes pinned by the threads are kept */
+	public int reorder() {
+		enter();
+		try {
+			int pins = push_pins();
+			int ret = super.reorder();
+			nstack.drop(pins);
+			dead.set(0);
+			return ret;
+		} finally {
+			leave();
+		}
+	}
+
+	public void setVariableOrder(int [] order) {
+		enter();
+		try {
+			int pins = push_pins();
+			super.setVariableOrder(order);
+			nstack.drop(pins);
+		} finally {
+			leave();
+		}
+	}
+
+	protected void post_removal_callbak() {
+		super.post_removal_callbak();
+		cache.invalidate();
+		generation++; // private free nodes of all threads are back in the free-list now
+	}
+
+	// ---------------------------------------------------------------
+	// concurrent kernel, runs with the read lock held
+
+	/** run one concurrent operation, restarting it after a gc if the table was full */
+	private int run(Worker w, int op, int u1, int u2) {
+		w.op1 = u1;
+		w.op2 = u2;
+		for(;;) {
+			int seen = -1;
+			world.readLock().lock();
+			try {
+				seen = generation;
+				int ret;
+				switch(op) {
+					case CACHE_AND: ret = and_c(w, u1, u2); break;
+					case CACHE_OR:  ret = or_c(w, u1, u2); break;
+					case CACHE_XOR: ret = xor_c(w, u1, u2); break;
+					case CACHE_NOT: ret = not_c(w, u1); break;
+					case CACHE_DIFF: ret = diff_c(w, u1, u2); break;
+					case OP_MK:     ret = mk_c(w, w.mk_var, u1, u2); break;
+					default:        ret = prefix_c(w, u1); break;
+				}
+				w.last = ret;
+				w.last2 = 0;
+				w.op1 = w.op2 = 0;
+				return ret;
+			} catch(TableFull full) {
+				// fall through, collect and try again
+			} finally {
+				world.readLock().unlock();
+			}
+			collect(seen);
+		}
+	}
+
+	private int take_free(Worker w) {
+		if(w.free_gen != generation) {
+			w.free_count = 0;
+			w.free_gen = generation;
+		}
+		if(w.free_count == 0) {
+			synchronized(free_lock) { w.free_count = take_free_nodes(w.free, FREE_BATCH); }
+			if(w.free_count == 0) return -1;
+		}
+		return w.free[--w.free_count];
+	}
+
+	private int mk_c(Worker w, int v, int l, int h) {
+		if(l == h) return l;
+		if(complement && is_complemented(l)) return mk_c(w, v, complement_edge(l), complement_edge(h)) | NODE_COMPLEMENT;
+		int hash = compute_hash(v, l, h);
+		synchronized(stripes[hash & (STRIPES - 1)]) {
+			int n = find_in_bucket(hash, v, l, h);
+			if(n != 0) return n;
+			if(frozen) throw new IllegalStateException("node table is frozen");
+			n = take_free(w);
+			if(n == -1) throw TABLE_FULL;
+			insert_in_bucket(n, hash, v, l, h);
+			return n;
+		}
+	}
+
+	private int and_c(Worker w, int u1, int u2) {
+		if(u1 == u2 || u2 == 1) return u1;
+		if(u1 == 0 || u2 == 0) return 0;
+		if(u1 == 1) return u2;
+
+		int l, h, v = getVar(u1);
+		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);	}
+
+		int ret = cache.lookup(u1, u2, CACHE_AND);
+		if(ret != -1) return ret;
+
+		if( v == getVar(u2)) {
+			l = and_c(w, getLow(u1), getLow(u2));
+			h = and_c(w, getHigh(u1), getHigh(u2));
+		} else {
+			l = and_c(w, getLow(u1), u2);
+			h = and_c(w, getHigh(u1), u2);
+		}
+
+		l = mk_c(w, v, l, h);
+		cache.insert(u1, u2, CACHE_AND, l);
+		return l;
+	}
+
+	private int or_c(Worker w, int u1, int u2) {
+		if (u1 == 1 || u2 == 1) return 1;
+		if (u1 == 0 || u1 == u2) return u2;
+		if (u2 == 0) return u1;
+
+		int l, h, v = getVar(u1);
+		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);	}
+
+		int ret = cache.lookup(u1, u2, CACHE_OR);
+		if(ret != -1) return ret;
+
+		if( v == getVar(u2)) {
+			l = or_c(w, getLow(u1), getLow(u2));
+			h = or_c(w, getHigh(u1), getHigh(u2));
+		} else {
+			l = or_c(w, getLow(u1), u2);
+			h = or_c(w, getHigh(u1), u2);
+		}
+
+		l = mk_c(w, v, l, h);
+		cache.insert(u1, u2, CACHE_OR, l);
+		return l;
+	}
+
+	private int xor_c(Worker w, int u1, int u2) {
+		if(u1 == u2) return 0;
+		if(u1 == 0) return u2;
+		if(u2 == 0) return u1;
+		if(u1 == 1) return not_c(w, u2);
+		if(u2 == 1) return not_c(w, u1);
+
+		int l, h, v = getVar(u1);
+		if(v > getVar(u2)) {v = u1; u1 = u2; u2 = v; v = getVar(u1);	}
+
+		int ret = cache.lookup(u1, u2, CACHE_XOR);
+		if(ret != -1) return ret;
+
+		if( v == getVar(u2)) {
+			l = xor_c(w, getLow(u1), getLow(u2));
+			h = xor_c(w, getHigh(u1), getHigh(u2));
+		} else {
+			l = xor_c(w, getLow(u1), u2);
+			h = xor_c(w, getHigh(u1), u2);
+		}
+
+		l = mk_c(w, v, l, h);
+		cache.insert(u1, u2, CACHE_XOR, l);
+		return l;
+	}
+
+	private int diff_c(Worker w, int f, int g) {
+		if(f == 0 || g == 1 || f == g) return 0;
+		if(g == 0) return f;
+		if(f == 1) return not_c(w, g);
+
+		int ret = cache.lookup(f, g, CACHE_DIFF);
+		if(ret != -1) return ret;
+
+		int v = Math.min(getVar(f), getVar(g));
+		int fl = f, fh = f, gl = g, gh = g;
+		if(getVar(f) == v) { fl = getLow(f); fh = getHigh(f); }
+		if(getVar(g) == v) { gl = getLow(g); gh = getHigh(g); }
+
+		int l = diff_c(w, fl, gl);
+		int h = diff_c(w, fh, gh);
+		l = mk_c(w, v, l, h);
+		cache.insert(f, g, CACHE_DIFF, l);
+		return l;
+	}
+
+	private int not_c(Worker w, int bdd) {
+		if(bdd < 2) return (bdd ^ 1);
+		if(complement) return bdd ^ NODE_COMPLEMENT;
+
+		int ret = cache.lookup(bdd, 0, CACHE_NOT);
+		if(ret != -1) return ret;
+
+		int l = not_c(w, getLow(bdd));
+		int h = not_c(w, getHigh(bdd));
+		l = mk_c(w, getVar(bdd), l, h);
+
+		cache.insert(bdd, 0, CACHE_NOT, l);
+		return l;
+	}
+
+	private int prefix_c(Worker w, int len) {
+		final int [] vars = w.prefix_vars;
+		final long [] value = w.prefix_value;
+		final int bits = w.prefix_bits;
+		int last = 1;
+		for(int i = bits - len; i < bits; i++) {
+			int var = getVar(vars[i]);
+			last = ((value[i >>> 6] >>> (i & 63)) & 1) != 0 ? mk_c(w, var, 0, last) : mk_c(w, var, last, 0);
+		}
+		return last;
+	}
+
+	public int and(int u1, int u2) { return run(worker(), CACHE_AND, u1, u2); }
+	public int or(int u1, int u2) { return run(worker(), CACHE_OR, u1, u2); }
+	public int xor(int u1, int u2) { return run(worker(), CACHE_XOR, u1, u2); }
+	public int not(int u1) { return run(worker(), CACHE_NOT, u1, 0); }
+	public int diff(int u1, int u2) { return run(worker(), CACHE_DIFF, u1, u2); }
+
+	public int mk(int i, int l, int h) {
+		if(l == h) return l;
+		if(world.isWriteLockedByCurrentThread()) return super.mk(i, l, h); // called from an exclusive operation
+		Worker w = worker();
+		w.mk_var = i;
+		return run(w, OP_MK, l, h);
+	}
+
+	public int prefixCube(int [] vars, int bits, long value, int len) {
+		Worker w = worker();
+		w.prefix_word[0] = value;
+		return prefixCube(w, vars, bits, w.prefix_word, len);
+	}
+
+	public int prefixCube(int [] vars, int bits, long [] value, int len) {
+		return prefixCube(worker(), vars, bits, value, len);
+	}
+
+	private int prefixCube(Worker w, int [] vars, int bits, long [] value, int len) {
+		if(!descending(vars, bits - len, bits)) { // reordered variables, the literals are sorted first
+			enter();
+			try { return done(super.prefixCube(vars, bits, value, len)); } finally { leave(); }
+		}
+		w.prefix_vars = vars;
+		w.prefix_bits = bits;
+		w.prefix_value = value;
+		int ret = run(w, OP_PREFIX, len, 0);
+		w.prefix_vars = null;
+		w.prefix_value = null;
+		return ret;
+	}
+
+	// ---------------------------------------------------------------
+	// reference counting, under the striped locks
+
+	public int ref(int bdd) {
+		world.readLock().lock();
+		try {
+			synchronized(stripes[bdd & (STRIPES - 1)]) { return super.ref(bdd); }
+		} finally {
+			world.readLock().unlock();
+		}
+	}
+
+	public int deref(int bdd) {
+		world.readLock().lock();
+		try {
+			synchronized(stripes[bdd & (STRIPES - 1)]) {
+				if(getRefPlain(bdd) == 1) dead.incrementAndGet();
+				return super.deref(bdd);
+			}
+		} finally {
+			world.readLock().unlock();
+		}
+	}
+
+	public void saturate(int bdd) {
+		world.readLock().lock();
+		try {
+			synchronized(stripes[bdd & (STRIPES - 1)]) { super.saturate(bdd); }
+		} finally {
+			world.readLock().unlock();
+		}
+	}
+
+	public int [] split(int f, int g) {
+		enter();
+		try {
+			int [] ret = super.split(f, g);
+			Worker w = worker();
+			w.last = ret[0];
+			w.last2 = ret[1];
+			return ret;
+		} finally { leave(); }
+	}
+
+	public boolean leq(int u1, int u2) {
+		enter();
+		try { return super.leq(u1, u2); } finally { leave(); }
+	}
+
+	public boolean disjoint(int u1, int u2) {
+		enter();
+		try { return super.disjoint(u1, u2); } finally { leave(); }
+	}
+
+	/** member reads whole paths, so it must not overlap a gc (which marks nodes in place) */
+	public boolean member(int bdd, boolean [] minterm) {
+		world.readLock().lock();
+		try { return super.member(bdd, minterm); } finally { world.readLock().unlock(); }
+	}
+
+	// ---------------------------------------------------------------
+	// everything else runs exclusively
+
+	public int createVar() {
+		enter();
+		try { return super.createVar(); } finally { leave(); }
+	}
+
+	public int cube(boolean [] v) {
+		enter();
+		try { return done(super.cube(v)); } finally { leave(); }
+	}
+
+	public int cube(String s) {
+		enter();
+		try { return done(super.cube(s)); } finally { leave(); }
+	}
+
+	public int minterm(boolean [] v) {
+		enter();
+		try { return done(super.minterm(v)); } finally { leave(); }
+	}
+
+	public int minterm(String s) {
+		enter();
+		try { return done(super.minterm(s)); } finally { leave(); }
+	}
+
+	public int ite(int f, int then_, int else_) {
+		enter();
+		try { return done(super.ite(f, then_, else_)); } finally { leave(); }
+	}
+
+	public int nand(int u1, int u2) {
+		enter();
+		try { return done(super.nand(u1, u2)); } finally { leave(); }
+	}
+
+	public int nor(int u1, int u2) {
+		enter();
+		try { return done(super.nor(u1, u2)); } finally { leave(); }
+	}
+
+	public int biimp(int u1, int u2) {
+		enter();
+		try { return done(super.biimp(u1, u2)); } finally { leave(); }
+	}
+
+	public int imp(int u1, int u2) {
+		enter();
+		try { return done(super.imp(u1, u2)); } finally { leave(); }
+	}
+
+	public int rangeCube(int [] vars, int bits, long lo, long hi) {
+		enter();
+		try { return done(super.rangeCube(vars, bits, lo, hi)); } finally { leave(); }
+	}
+
+	public int exists(int bdd, int cube) {
+		enter();
+		try { return done(super.exists(bdd, cube)); } finally { leave(); }
+	}
+
+	public int forall(int bdd, int cube) {
+		enter();
+		try { return done(super.forall(bdd, cube)); } finally { leave(); }
+	}
+
+	public int relProd(int u1, int u2, int c) {
+		enter();
+		try { return done(super.relProd(u1, u2, c)); } finally { leave(); }
+	}
+
+	public Permutation createPermutation(int [] cube_from, int [] cube_to) {
+		enter();
+		try { return super.createPermutation(cube_from, cube_to); } finally { leave(); }
+	}
+
+	public int replace(int bdd, Permutation perm) {
+		enter();
+		try { return done(super.replace(bdd, perm)); } finally { leave(); }
+	}
+
+	public int restrict(int u, int v) {
+		enter();
+		try { return done(super.restrict(u, v)); } finally { leave(); }
+	}
+
+	public int simplify(int d, int u) {
+		enter();
+		try { return done(super.simplify(d, u)); } finally { leave(); }
+	}
+
+	public double satCount(int bdd) {
+		enter();
+		try { return super.satCount(bdd); } finally { leave(); }
+	}
+
+	public int nodeCount(int bdd) {
+		enter();
+		try { return super.nodeCount(bdd); } finally { leave(); }
+	}
+
+	public int oneSat(int bdd) {
+		enter();
+		try { return done(super.oneSat(bdd)); } finally { leave(); }
+	}
+
+	public int [] oneSat(int bdd, int [] buffer) {
+		enter();
+		try { return super.oneSat(bdd, buffer); } finally { leave(); }
+	}
+
+	public int support(int bdd) {
+		enter();
+		try { return done(super.support(bdd)); } finally { leave(); }
+	}
+
+	public void print(int bdd) {
+		enter();
+		try { super.print(bdd); } finally { leave(); }
+	}
+
+	public void printDot(String fil, int bdd) {
+		enter();
+		try { super.printDot(fil, bdd); } finally { leave(); }
+	}
+
+	public void printSet(int bdd) {
+		enter();
+		try { super.printSet(bdd); } finally { leave(); }
+	}
+
+	public void printCubes(int bdd) {
+		enter();
+		try { super.printCubes(bdd); } finally { leave(); }
+	}
+
+	public long getMemoryUsage() {
+		return super.getMemoryUsage() + (cache == null ? 0 : cache.getMemoryUsage());
+	}
+}
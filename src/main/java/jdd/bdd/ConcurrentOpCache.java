@@ -0,0 +1,62 @@
+package jdd.bdd;
+
+import jdd.util.math.HashFunctions;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * lossy (a, b, op) => result cache that can be used by several threads at the same time.
+ * <p>an entry is an immutable object that is published with release semantics, so a reader
+ * either sees a complete entry (and the nodes it points to) or none. an entry overwritten
+ * by another thread is simply lost. there is no partial cleaning, the owner wipes the whole
+ * cache when nodes are removed.
+ *
+ * @see ConcurrentBDD
+ */
+final class ConcurrentOpCache {
+
+	private static final class Entry {
+		final int a, b, op, result;
+		Entry(int a, int b, int op, int result) {
+			this.a = a; this.b = b; this.op = op; this.result = result;
+		}
+	}
+
+	private final AtomicReferenceArray<Entry> table;
+	private final int mask;
+
+	/** create a cache of at least <tt>size</tt> entries (rounded up to a power of two) */
+	ConcurrentOpCache(int size) {
+		int n = 1024;
+		while(n < size && n < (1 << 30)) n <<= 1;
+		table = new AtomicReferenceArray<Entry>(n);
+		mask = n - 1;
+	}
+
+	private int slot(int a, int b, int op) {
+		int h = HashFunctions.hash_prime(a, b, op);
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/** @return the cached result or -1 if (a, b, op) is not in the cache */
+	int lookup(int a, int b, int op) {
+		Entry e = table.get(slot(a, b, op));
+		if(e != null && e.a == a && e.b == b && e.op == op) return e.result;
+		return -1;
+	}
+
+	void insert(int a, int b, int op, int result) {
+		table.lazySet(slot(a, b, op), new Entry(a, b, op, result));
+	}
+
+	/** remove all entries. must not run concurrently with lookup/insert */
+	void invalidate() {
+		for(int i = table.length(); i != 0; ) table.lazySet(--i, null);
+	}
+
+	int getSize() { return table.length(); }
+
+	long getMemoryUsage() {
+		return 16L + 4L * table.length(); // the entries themselves are not counted
+	}
+}
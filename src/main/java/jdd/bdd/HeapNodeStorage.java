@@ -0,0 +1,116 @@
+package jdd.bdd;
+
+import jdd.util.Allocator;
+import jdd.util.Array;
+
+/**
+ * the default node storage: three Java arrays, as in the original monolithic node table.
+ *
+ * <p>public with a public no-arg constructor only so that reflective deep copies of a
+ * node table (see ReflectDeepCopy) can copy it.
+ */
+
+public final class HeapNodeStorage extends NodeStorage {
+
+	private static final long serialVersionUID = 1L;
+
+	// monolithic nodetable stuff
+	private static final int NODE_WIDTH = 3; // how many ints a node occupy
+	private static final int OFFSET_VAR = 1; // offset of the var member
+	private static final int OFFSET_LOW = 0; // offset of the low member
+	private static final int OFFSET_HIGH = 2; // offset of the high member
+
+	// monolithic double linked-list stuff
+	private static final int LIST_WIDTH = 2; // how many ints a linked list occupy
+	private static final int OFFSET_NEXT = 0; // offset of the next pointer
+	private static final int OFFSET_PREV = 1; // offset of the prev pointer
+
+	private int [] t_nodes;	/** for monolithic nodetable */
+	private int [] t_list;	/** for the linked list */
+	private short [] t_ref;	/** the reference counter */
+
+	public HeapNodeStorage() {
+	}
+
+	HeapNodeStorage(int nodes) {
+		t_ref = Allocator.allocateShortArray(nodes);
+		t_nodes = Allocator.allocateIntArray(nodes * NODE_WIDTH);
+		t_list = Allocator.allocateIntArray(nodes * LIST_WIDTH);
+	}
+
+	final int getVar(int i) { return t_nodes[OFFSET_VAR + NODE_WIDTH * i]; }
+	final int getLow(int i) { return t_nodes[OFFSET_LOW + NODE_WIDTH * i]; }
+	final int getHigh(int i) { return t_nodes[OFFSET_HIGH + NODE_WIDTH * i]; }
+	final void setVar(int i, int v) { t_nodes[OFFSET_VAR + NODE_WIDTH * i] = v; }
+	final void setLow(int i, int v) { t_nodes[OFFSET_LOW + NODE_WIDTH * i] = v; }
+	final void setHigh(int i, int v) { t_nodes[OFFSET_HIGH + NODE_WIDTH * i] = v; }
+
+	final int getNext(int i) { return t_list[OFFSET_NEXT + LIST_WIDTH * i]; }
+	final int getPrev(int i) { return t_list[OFFSET_PREV + LIST_WIDTH * i]; }
+	final void setNext(int i, int v) { t_list[OFFSET_NEXT + LIST_WIDTH * i] = v; }
+	final void setPrev(int i, int v) { t_list[OFFSET_PREV + LIST_WIDTH * i] = v; }
+
+	final short getRef(int i) { return t_ref[i]; }
+	final void setRef(int i, short r) { t_ref[i] = r; }
+
+	final void setAll(int i, int v, int l, int h) {
+		t_nodes[NODE_WIDTH * i + OFFSET_VAR]= v;
+		t_nodes[NODE_WIDTH * i + OFFSET_LOW]= l;
+		t_nodes[NODE_WIDTH * i + OFFSET_HIGH]= h;
+	}
+
+	final boolean match(int i, int var, int low, int high) {
+		int offset = i * NODE_WIDTH;
+		return t_nodes[offset + OFFSET_VAR] == var && t_nodes[offset + OFFSET_LOW] == low &&
+				t_nodes[offset + OFFSET_HIGH] == high;
+	}
+
+	final void clearPrev(int from, int upto) {
+		from = from * LIST_WIDTH + OFFSET_PREV;
+		upto = upto * LIST_WIDTH + OFFSET_PREV;
+
+		// TODO: we should unroll this at least once!
+		while(from < upto) {
+			t_list[from] = 0;
+			from += LIST_WIDTH;
+		}
+	}
+
+	void resize(int old_size, int new_size) {
+		t_ref = Array.resize(t_ref, old_size, new_size);
+		t_nodes = Array.resize(t_nodes, NODE_WIDTH * old_size, NODE_WIDTH * new_size);
+		t_list = Array.resize(t_list, LIST_WIDTH * old_size, LIST_WIDTH * new_size);
+	}
+
+	void copyFrom(NodeStorage src, int nodes) {
+		HeapNodeStorage s = (HeapNodeStorage) src;
+		t_ref = Allocator.allocateShortArray(nodes);
+		t_nodes = Allocator.allocateIntArray(nodes * NODE_WIDTH);
+		t_list = Allocator.allocateIntArray(nodes * LIST_WIDTH);
+		System.arraycopy(s.t_ref, 0, t_ref, 0, nodes);
+		System.arraycopy(s.t_nodes, 0, t_nodes, 0, nodes * NODE_WIDTH);
+		System.arraycopy(s.t_list, 0, t_list, 0, nodes * LIST_WIDTH);
+	}
+
+	NodeStorage copy(int nodes) {
+		HeapNodeStorage ret = new HeapNodeStorage();
+		ret.copyFrom(this, nodes);
+		return ret;
+	}
+
+	void release() {
+		t_ref = null;
+		t_nodes = null;
+		t_list = null;
+	}
+
+	boolean isOffHeap() { return false; }
+
+	long getMemoryUsage() {
+		long ret = 0;
+		if (t_nodes!= null) ret += t_nodes.length * 4L;
+		if (t_list!= null) ret += t_list.length * 4L;
+		if (t_ref != null) ret += t_ref.length * 2L;
+		return ret;
+	}
+}
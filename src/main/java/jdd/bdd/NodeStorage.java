@@ -0,0 +1,61 @@
+package jdd.bdd;
+
+import java.io.Serializable;
+
+/**
+ * storage of the node table: (var, low, high, next, prev, ref) of each node.
+ *
+ * <p>the implementation is chosen once, when the node table is created, so the accessors of
+ * NodeTable never test which storage is in use. a process that only uses on-heap tables never
+ * loads another implementation and the JIT binds the calls directly to {@link HeapNodeStorage}.
+ *
+ * <p>indices are local: NodeTable subtracts base_size before calling. "prev" is the head of a
+ * hash bucket and is indexed by bucket, everything else by node.
+ *
+ * @see NodeTable#NodeTable(int, boolean)
+ */
+
+abstract class NodeStorage implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	abstract int getVar(int i);
+	abstract int getLow(int i);
+	abstract int getHigh(int i);
+	abstract void setVar(int i, int v);
+	abstract void setLow(int i, int v);
+	abstract void setHigh(int i, int v);
+
+	abstract int getNext(int i);
+	abstract int getPrev(int i);
+	abstract void setNext(int i, int v);
+	abstract void setPrev(int i, int v);
+
+	abstract short getRef(int i);
+	abstract void setRef(int i, short r);
+
+	/** set (var, low, high) of one node */
+	abstract void setAll(int i, int v, int l, int h);
+
+	/** returns true if node <tt>i</tt> is (var, low, high) */
+	abstract boolean match(int i, int var, int low, int high);
+
+	/** set prev of the buckets [from, upto) to 0 */
+	abstract void clearPrev(int from, int upto);
+
+	/** make room for <tt>new_size</tt> nodes, the first <tt>old_size</tt> are kept */
+	abstract void resize(int old_size, int new_size);
+
+	/** replace our contents with a copy of the first <tt>nodes</tt> nodes of <tt>src</tt>, which has the same type */
+	abstract void copyFrom(NodeStorage src, int nodes);
+
+	/** a copy of the first <tt>nodes</tt> nodes */
+	abstract NodeStorage copy(int nodes);
+
+	/** drop the node data, see NodeTable.cleanup() */
+	abstract void release();
+
+	abstract boolean isOffHeap();
+
+	abstract long getMemoryUsage();
+}
@@ -17,9 +17,27 @@ import java.util.*;
 // the nodes are unique, which is guaranteed by a double linked list hash-table-alike structure.
 // this structure is very similar to the double-hashed list in BuDDy.
 //
-// we divide the node list and the linked-list into to parts (t_nodes, t_list).
+// we divide the node list and the linked-list into to parts (t_nodes, t_list, see HeapNodeStorage).
 // this gives a bad cache performance (CPU cache, not BDD operation caches),
 // but it might help to keep  the memory peek down a little bit.
+//
+// a node table can also be an "overlay" on top of a frozen base table. the base nodes
+// keep their ids [0, base_size) and are shared read-only by all overlays, the overlay
+// only stores the nodes it creates itself, with ids starting at base_size.
+// inside the overlay, node ids are translated to local slots by subtracting base_size,
+// while the hash buckets (the "prev" member of t_list) are always local.
+//
+// the node data lives in a NodeStorage chosen when the table is created: the Java arrays
+// of HeapNodeStorage, or direct buffers (OffHeapNodeStorage). the low-level accessors never
+// test which one is in use. overlays are always on-heap, but their base may be off-heap.
+//
+// with complement edges, a BDD handle is a node id with the NODE_COMPLEMENT bit possibly set,
+// meaning the negation of that node. 0 and 1 are still the two terminals and 1 counts as the
+// complement of 0, so NOT is just flipping the bit. the stored low child is never complemented
+// (never 1 or tagged), which makes the representation canonical (see BDD.mk).
+// getVar/getLow/getHigh take handles and return the cofactors of the function, so code that
+// walks a BDD through them does not need to know about complement edges. the table internals
+// (marking, ref-counts, hashing) always work on the untagged node id.
 
 public class NodeTable implements Serializable {
 
@@ -27,16 +45,8 @@ public class NodeTable implements Serializable {
 	public static final int NODE_MARK = 0x80000000, NODE_UNMARK = 0x7FFFFFFF;
 	public static final short MAX_REFCOUNT = 32767; /** the largest possible ref-count */
 
-	// monolithic nodetable stuff
-	private static final int NODE_WIDTH = 3; // how many ints a node occupy
-	private static final int OFFSET_VAR = 1; // offset of the var member
-	private static final int OFFSET_LOW = 0; // offset of the low member
-	private static final int OFFSET_HIGH = 2; // offset of the high member
-
-	// monolithic double linked-list stuff
-	private static final int LIST_WIDTH = 2; // how many ints a linked list occupy
-	private static final int OFFSET_NEXT = 0; // offset of the next pointer
-	private static final int OFFSET_PREV = 1; // offset of the prev pointer
+	/** tag of a complemented handle, and the mask that removes it. */
+	public static final int NODE_COMPLEMENT = 0x40000000, NODE_INDEX = ~NODE_COMPLEMENT;
 
 
 	/** the "debuggers" connected to this NodeTable. see for example ProfibedBDD2 */
@@ -44,10 +54,7 @@ public class NodeTable implements Serializable {
 
 	public int table_size, stat_nt_grow, dead_nodes;
 	public int nodesminfree /* , bddmaxnodeincrease, minfreenodes */ ;
-//	private int [] t_nodes;	 /** for monolithic nodetable */
-	public int [] t_nodes;	 /** for monolithic nodetable */
-	public int [] t_list;	 /** for the linked list */
-	public short [] t_ref; /** the reference counter */
+	protected final NodeStorage storage;	/** nodes, linked list and reference counters, see NodeStorage */
 	public int first_free_node, free_nodes_count;
 	public boolean stack_marking_enabled; /** if true, we will use the faster version of mark_tree() */
 
@@ -61,10 +68,39 @@ public class NodeTable implements Serializable {
 //	final private NodeStack mstack = new NodeStack(32);
 	public NodeStack mstack = new NodeStack(32);
 
-	public NodeTable(){
+	// overlay stuff
+	protected NodeTable base;	/** the frozen table we are an overlay of, or null */
+	protected int base_size;	/** number of node ids owned by the base, 0 if no base */
+	private NodeStorage base_storage;	/** base.storage, never written by us */
+	private int own_floor = 2;	/** smallest node id that is stored in this table */
+	protected long [][] base_marks;	/** mark bits for base nodes in lazily allocated pages, the base itself is never marked */
+	private static final int MARK_PAGE_BITS = 16;	/** 64k base nodes (8 KB) per mark page */
+	protected boolean frozen;	/** a frozen table can no longer be changed */
+	protected boolean complement;	/** true if handles may carry NODE_COMPLEMENT, fixed at construction */
 
+	public NodeTable(){
+		storage = new HeapNodeStorage();
 	}
 	public NodeTable(int nodesize) {
+		this(nodesize, false);
+	}
+
+	/**
+	 * create a node table of <tt>nodesize</tt> nodes.
+	 * if <tt>offHeap</tt> is true, the nodes are stored outside the Java heap.
+	 * this keeps very large tables out of the way of the Java GC and lets the table
+	 * grow without copying, at the price of slightly slower node access.
+	 */
+	public NodeTable(int nodesize, boolean offHeap) {
+		this(nodesize, offHeap, false);
+	}
+
+	/**
+	 * create a node table of <tt>nodesize</tt> nodes, with complement edges if <tt>complement</tt> is true.
+	 * in that mode the negation of a BDD is computed in O(1) and shares all nodes with the BDD.
+	 */
+	public NodeTable(int nodesize, boolean offHeap, boolean complement) {
+		this.complement = complement;
 		debugers = new LinkedList();
 
 		// we dont like nodetables that are too small
@@ -73,9 +109,7 @@ public class NodeTable implements Serializable {
 		// allocate the initial arraus
 		table_size = nodesize;
 //		System.out.println("nodeSize +    " + nodesize);
-		t_ref = Allocator.allocateShortArray(table_size);
-		t_nodes = Allocator.allocateIntArray(table_size * NODE_WIDTH);
-		t_list = Allocator.allocateIntArray(table_size * LIST_WIDTH);
+		storage = offHeap ? new OffHeapNodeStorage(table_size) : new HeapNodeStorage(table_size);
 
 
 		first_free_node = 2;
@@ -105,12 +139,148 @@ public class NodeTable implements Serializable {
 		stack_marking_enabled = false; // disable by default
 	}
 
+	/**
+	 * create an overlay of a frozen node table.
+	 * the nodes of <tt>base</tt> are visible (read-only) with their original ids,
+	 * new nodes are allocated in a private table of <tt>nodesize</tt> nodes.
+	 *
+	 * @see #freeze
+	 */
+	public NodeTable(NodeTable base, int nodesize) {
+		if(!base.frozen) throw new IllegalStateException("base node table must be frozen");
+		if(base.base != null) throw new IllegalStateException("cannot build an overlay on top of an overlay");
+
+		debugers = new LinkedList();
+		if(nodesize < Configuration.MIN_NODETABLE_SIZE) nodesize = Configuration.MIN_NODETABLE_SIZE;
+
+		attach_base(base);
+		complement = base.complement;
+		table_size = nodesize;
+		storage = new HeapNodeStorage(table_size);
+		clear_overlay();
+
+		update_grow_parameters();
+		stat_nt_grow = 0;
+		stat_gc_count = stat_lookup_count = 0;
+		stat_gc_freed = stat_gc_time = stat_grow_time = stat_notify_time = 0L;
+		ht_chain = 0;
+		stack_marking_enabled = base.stack_marking_enabled;
+	}
+
+	/**
+	 * snapshot constructor: copy the node table of <tt>src</tt> with bulk array copies.
+	 * node ids are preserved. if <tt>src</tt> is an overlay, the copy shares its base.
+	 * the copy is never frozen and has no debuggers attached.
+	 */
+	protected NodeTable(NodeTable src) {
+		debugers = new LinkedList();
+		attach_base(src.base);
+		complement = src.complement;
+
+		table_size = src.table_size;
+		storage = src.storage.copy(table_size);
+
+		first_free_node = src.first_free_node;
+		free_nodes_count = src.free_nodes_count;
+		dead_nodes = src.dead_nodes;
+		nodesminfree = src.nodesminfree;
+		stack_marking_enabled = src.stack_marking_enabled;
+		nstack = (NodeStack) src.nstack.clone();
+		mstack = (NodeStack) src.mstack.clone();
+
+		// the GC count is kept, it is used as an epoch by external caches
+		stat_nt_grow = src.stat_nt_grow;
+		stat_gc_count = src.stat_gc_count;
+		stat_lookup_count = 0;
+		stat_gc_freed = stat_gc_time = stat_grow_time = stat_notify_time = 0L;
+		ht_chain = 0;
+	}
+
+	/** replace our node data with a copy of the one in <tt>src</tt>, which must be stored the same way (on-heap or off-heap) */
+	protected final void copy_storage(NodeTable src) {
+		if(storage.isOffHeap() != src.storage.isOffHeap())
+			throw new IllegalStateException("cannot copy between on-heap and off-heap node tables");
+		storage.copyFrom(src.storage, src.table_size);
+	}
+
+	/** bind this table to a frozen base, used by the overlay constructors */
+	protected final void attach_base(NodeTable base) {
+		this.base = base;
+		this.base_size = (base == null) ? 0 : base.table_size;
+		this.base_storage = (base == null) ? null : base.storage;
+		this.own_floor = Math.max(2, base_size);
+		this.base_marks = null;
+	}
+
+	/**
+	 * drop all nodes created in this overlay. the base nodes are not affected.
+	 * slots 0 and 1 are kept unused, so the loops in gc() and grow() work unchanged.
+	 */
+	protected void clear_overlay() {
+		first_free_node = base_size + 2;
+		free_nodes_count = table_size - 2;
+		for(int i = 0; i < table_size; i++) {
+			int n = i + base_size;
+			invalidate(n);
+			setRef(n, (short) 0);
+			setPrev(i, 0);
+			setNext(n, n + 1);
+		}
+		setNext(base_size + table_size - 1, 0);
+		dead_nodes = 0;
+		base_marks = null;
+	}
+
+	/**
+	 * freeze this table: no new nodes can be created and no GC is done anymore.
+	 * a frozen table can be shared by any number of overlays.
+	 */
+	public void freeze() {
+		if(base != null) throw new IllegalStateException("cannot freeze an overlay");
+		frozen = true;
+	}
+
+	public boolean isFrozen() { return frozen; }
+
+	/**
+	 * undo freeze(): nodes can be created and collected again.
+	 * only valid once no overlay of this table is in use any more, since growing or
+	 * collecting the table invalidates the node arrays the overlays read from.
+	 */
+	public void thaw() {
+		if(base != null) throw new IllegalStateException("cannot thaw an overlay");
+		frozen = false;
+	}
+
+	/** returns true if this table uses complement edges */
+	public boolean hasComplementEdges() { return complement; }
+
+	/** the negation of a handle in a table with complement edges */
+	public static final int complement_edge(int bdd) {
+		return bdd < 2 ? bdd ^ 1 : bdd ^ NODE_COMPLEMENT;
+	}
+
+	/** returns true if the handle is 1 or a tagged node, i.e. may not be stored as a low child */
+	public static final boolean is_complemented(int bdd) {
+		return bdd == 1 || (bdd & NODE_COMPLEMENT) != 0;
+	}
+
+	/** returns true if the nodes are stored outside the Java heap */
+	public boolean isOffHeap() { return storage.isOffHeap(); }
+
+	/** returns true if this table is an overlay of a frozen base */
+	public boolean isOverlay() { return base != null; }
+
+	/** the number of node ids owned by the base table (0 if this is not an overlay) */
+	public int getBaseSize() { return base_size; }
+
 	// --------------------------------------------------------------------
 	public void cleanup() { // to help GC
 		stopDebuggers();
-		t_ref = null;
-		t_nodes = null;
-		t_list = null;
+		storage.release();
+		base = null;
+		base_storage = null;
+		base_marks = null;
 	}
 
 	/**
@@ -124,7 +294,7 @@ public class NodeTable implements Serializable {
 	// --- [ HT stuff ] ----------------------------------------------------------------
 	// compute hash for the triple (i,l,h)
 	// this function can change very much between the releases :)
-	private final int compute_hash(int i, int l, int h) {
+	protected final int compute_hash(int i, int l, int h) {
 		return (HashFunctions.hash_prime(i,l,h) & 0x7FFFFFFF) %  table_size;
 	}
 
@@ -173,7 +343,7 @@ public class NodeTable implements Serializable {
 	 * do a garbage collection.
 	 * @return number of freed nodes
 	 */
-	public int gc() { return gc(true); }
+	public int gc() { return frozen ? 0 : gc(true); }
 
 	/**
 	 * this is the internal version of gc(). when called from NodeTable internally,
@@ -194,14 +364,15 @@ public class NodeTable implements Serializable {
 		// 1.5 go backward to get the list in correct direction. doesnt really matter :(
 		for(int i = table_size; i > 2; ) {
 			i--;
-			if(isValid(i) && isNodeMarked(i)) {
-				unmark_node(i);
-				int pos = compute_hash( getVar(i), getLow(i), getHigh(i));
-				connect_list(i, pos);
+			int n = i + base_size;
+			if(isValid(n) && isNodeMarked(n)) {
+				unmark_node(n);
+				int pos = compute_hash( getVar(n), getLowPlain(n), getHighPlain(n));
+				connect_list(n, pos);
 			} else {
-				invalidate(i);
-				setNext(i, first_free_node);
-				first_free_node = i;
+				invalidate(n);
+				setNext(n, first_free_node);
+				first_free_node = n;
 				free_nodes_count ++;
 			}
 		}
@@ -237,7 +408,8 @@ public class NodeTable implements Serializable {
 		// it looks inefficient, but you cant do it much faster than this :(
 		for(int i = table_size; i != 0; ) {
 			i--;
-			if( isValid(i)  && getRefPlain(i) > 0) mark_tree(i);
+			int n = i + base_size;
+			if( isValid(n)  && getRefPlain(n) > 0) mark_tree(n);
 			setPrev(i, 0);
 		}
 	}
@@ -264,7 +436,14 @@ public class NodeTable implements Serializable {
 			}
 		}
 
-		// could  not GC, start growing:
+		expand();
+	}
+
+	/**
+	 * resize the node table without trying a GC first. node ids do not change,
+	 * all valid nodes are re-hashed and the invalid ones form the new free-list.
+	 */
+	protected final void expand() {
 		long time = System.currentTimeMillis();
 
 		// 1. grow node table:
@@ -288,10 +467,11 @@ public class NodeTable implements Serializable {
 		// 3.b) invalidate the new nodes and insert them into the linked list
 		for(int i = new_size; i > old_size; )  {
 			i--;
-			invalidate(i);
+			int n = i + base_size;
+			invalidate(n);
 			setPrev(i, 0);
-			setNext(i, first_free_node);
-			first_free_node = i;
+			setNext(n, first_free_node);
+			first_free_node = n;
 			free_nodes_count++;
 		}
 
@@ -301,12 +481,13 @@ public class NodeTable implements Serializable {
 		// 3.d) now separate the old and new invalid nodes
 		for(int i = old_size; i > 2; ) {
 			i--;
-			if(isValid(i)) {
-				int hash = compute_hash( getVar(i), getLow(i), getHigh(i));
-				connect_list(i, hash);
+			int n = i + base_size;
+			if(isValid(n)) {
+				int hash = compute_hash( getVar(n), getLowPlain(n), getHighPlain(n));
+				connect_list(n, hash);
 			} else {
-				setNext(i, first_free_node);
-				first_free_node = i;
+				setNext(n, first_free_node);
+				first_free_node = n;
 				free_nodes_count++;
 			}
 		}
@@ -328,8 +509,59 @@ public class NodeTable implements Serializable {
 		}
 	}
 
+	// --- [ in-place node updates, see Sifting ] -----------------------------------------
+	// the caller keeps the unique-table consistent: a node is unlinked before its tuple is
+	// changed and linked again afterwards. nothing here grows the table or runs a GC.
+
+	/** make sure at least <tt>count</tt> nodes can be taken from the free-list without a grow() */
+	protected final void reserve(int count) {
+		while(free_nodes_count < count + 2) expand();
+	}
+
+	/** remove node <tt>n</tt> from its hash bucket. the node must still hold the tuple it was linked with */
+	protected final void unlink_node(int n) {
+		int hash = compute_hash(getVar(n), getLowPlain(n), getHighPlain(n));
+		int curr = getPrev(hash);
+		if(curr == n) {
+			setPrev(hash, getNext(n));
+			return;
+		}
+		while(getNext(curr) != n) curr = getNext(curr);
+		setNext(curr, getNext(n));
+	}
+
+	/** put node <tt>n</tt> in the hash bucket of its current tuple */
+	protected final void link_node(int n) {
+		connect_list(n, compute_hash(getVar(n), getLowPlain(n), getHighPlain(n)));
+	}
+
+	/** unlink node <tt>n</tt> and return it to the free-list */
+	protected final void free_node(int n) {
+		unlink_node(n);
+		invalidate(n);
+		setNext(n, first_free_node);
+		first_free_node = n;
+		free_nodes_count++;
+	}
+
+	/** take a node from the free-list (see reserve), write it as (v,l,h) and link it */
+	protected final int new_node(int v, int l, int h) {
+		int n = first_free_node;
+		first_free_node = getNext(n);
+		free_nodes_count--;
+		setAll(n, v,l,h, (short)-1);
+		link_node(n);
+		return n;
+	}
+
 	public int add(int v, int l, int h) {
 
+		// a node with two base children may already be in the base
+		if(base != null && (l & NODE_INDEX) < base_size && (h & NODE_INDEX) < base_size) {
+			int found = base.lookup_frozen(v,l,h);
+			if(found != 0) return found;
+		}
+
 		int hash = compute_hash(v,l,h);
 		int curr = getPrev(hash);
 
@@ -344,6 +576,8 @@ public class NodeTable implements Serializable {
 		}
 
 
+		if(frozen) throw new IllegalStateException("node table is frozen");
+
 		// see if we have room for it!
 		if(free_nodes_count < 2 ) { // dont change "2" to "0" !
 			grow();
@@ -362,6 +596,58 @@ public class NodeTable implements Serializable {
 		return curr;
 	}
 
+	/**
+	 * read-only version of the unique-table lookup, used by overlays on the frozen base.
+	 * does not touch any statistics so it can be called from several threads.
+	 * @return the node or 0 if not found
+	 */
+	private final int lookup_frozen(int v, int l, int h) {
+		int curr = getPrev(compute_hash(v,l,h));
+		while(curr != 0) {
+			if( match_table(curr, v,l,h)) return curr;
+			curr = getNext(curr);
+		}
+		return 0;
+	}
+
+	// --- [ concurrent unique-table access, see ConcurrentBDD ] ---------------------------
+	// these do no locking themselves. the caller guards a hash bucket with a lock of its own
+	// and the free-list with another one, and makes sure no gc/grow runs at the same time.
+
+	/**
+	 * find (v,l,h) in the hash bucket <tt>hash</tt>.
+	 * @return the node or 0 if not found
+	 */
+	protected final int find_in_bucket(int hash, int v, int l, int h) {
+		int curr = getPrev(hash);
+		while(curr != 0) {
+			if( match_table(curr, v,l,h)) return curr;
+			curr = getNext(curr);
+		}
+		return 0;
+	}
+
+	/** write the free node <tt>node</tt> as (v,l,h) and put it first in the hash bucket <tt>hash</tt> */
+	protected final void insert_in_bucket(int node, int hash, int v, int l, int h) {
+		setAll(node, v,l,h, (short)-1);
+		connect_list(node, hash);
+	}
+
+	/**
+	 * move up to <tt>max</tt> nodes from the free-list to <tt>buffer</tt>.
+	 * as in add(), the last two free nodes are never taken.
+	 * @return number of nodes moved
+	 */
+	protected final int take_free_nodes(int [] buffer, int max) {
+		int n = 0;
+		while(n < max && free_nodes_count > 2) {
+			buffer[n++] = first_free_node;
+			first_free_node = getNext(first_free_node);
+			free_nodes_count--;
+		}
+		return n;
+	}
+
 	// --------------------------------------------------------------------
 
 	/**
@@ -402,11 +688,8 @@ public class NodeTable implements Serializable {
 
 	/** resize the tables */
 	private void resize(int new_size) {
-
-		t_ref = Array.resize(t_ref, table_size, new_size);
 		try {
-			t_nodes = Array.resize(t_nodes, NODE_WIDTH * table_size, NODE_WIDTH * new_size);
-			t_list = Array.resize(t_list, LIST_WIDTH * table_size, LIST_WIDTH * new_size);
+			storage.resize(table_size, new_size);
 		} catch(OutOfMemoryError e) {
 			fatal(e, "NodeTable.resize failed...");
 		}
@@ -417,29 +700,33 @@ public class NodeTable implements Serializable {
 	 * increase the reference-count of this BDD once
 	 * @return bdd
 	 */
-	public final int ref(int bdd) {
-		short ref = getRefPlain(bdd);
+	public int ref(int bdd) {
+		final int n = bdd & NODE_INDEX;
+		if(n < base_size) return bdd; // base nodes are never collected
+		short ref = getRefPlain(n);
 		if(ref == -1) ref = 1;
 		else if(ref == 0) {
 			ref = 1;
 			dead_nodes --;
 		} else if(ref != MAX_REFCOUNT) ref++;
-		setRef(bdd, ref);
+		setRef(n, ref);
 		return bdd;
 	}
 	/**
 	 * decrease the reference-count of this BDD once.
 	 * @return bdd
 	 */
-	public final int deref(int bdd) {
-		short ref = getRefPlain(bdd);
+	public int deref(int bdd) {
+		final int n = bdd & NODE_INDEX;
+		if(n < base_size) return bdd;
+		short ref = getRefPlain(n);
 		if(ref == 1) {
 			ref = (short) 0;
 			dead_nodes++;
 		} else if(ref!= MAX_REFCOUNT && ref > 0) {
 			ref--;
 		}
-		setRef(bdd, ref);
+		setRef(n, ref);
 		return bdd;
 
 	}
@@ -449,7 +736,9 @@ public class NodeTable implements Serializable {
 	 * after that, the ref-count cant be changed and the node cannot be garbage collected anymore.
 	 * <p>DO NOT USE, unless you know what you are doing (note: you probably don't).
 	 */
-	public final void saturate(int bdd) {
+	public void saturate(int bdd) {
+		bdd &= NODE_INDEX;
+		if(bdd < base_size) return;
 		setRef(bdd, MAX_REFCOUNT);
 	}
 
@@ -458,15 +747,22 @@ public class NodeTable implements Serializable {
 
 
 	// low-level access to the ref-counter
-	/* package */ final short getRefPlain(int bdd) { return t_ref[bdd]; }	/** just return the number */
-	private final void setRef(final int bdd, final short r) {		t_ref[bdd] = r;	}
+	/* package */ final short getRefPlain(int bdd) {	/** just return the number */
+		bdd &= NODE_INDEX;
+		if(bdd < base_size) return MAX_REFCOUNT;
+		return storage.getRef(bdd - base_size);
+	}
+	private final void setRef(final int bdd, final short r) {
+		storage.setRef(bdd - base_size, r);
+	}
 
 	/**
 	 * get the number of references to this BDD.
 	 */
 	public final short getRef(int bdd) {
-		if(t_ref[bdd] == -1) return 0;
-		return t_ref[bdd];
+		short ref = getRefPlain(bdd);
+		if(ref == -1) return 0;
+		return ref;
 	}
 
 
@@ -474,76 +770,100 @@ public class NodeTable implements Serializable {
 
 	// -----------------------------------------------------------------------------------------
 	// low-level access to the node table
-	private final void setVar(final int bdd, int v) { t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] = v; }
-	private final void setLow(int bdd, int v) { t_nodes[OFFSET_LOW + NODE_WIDTH * bdd] = v; }
-	private final void setHigh(int bdd, int v) { t_nodes[OFFSET_HIGH + NODE_WIDTH * bdd] = v; }
+	// the setters only write nodes owned by this table, the getters also read the base.
+	// for a table without base, base_size is 0 and the first branch is never taken.
+	private final void setVar(final int bdd, int v) {
+		storage.setVar(bdd - base_size, v);
+	}
+	private final void setLow(int bdd, int v) {
+		storage.setLow(bdd - base_size, v);
+	}
+	private final void setHigh(int bdd, int v) {
+		storage.setHigh(bdd - base_size, v);
+	}
 
-	public final int getVar(final int bdd) {	return t_nodes[OFFSET_VAR + NODE_WIDTH * bdd];	}
-	public final int getLow(final int bdd) {	return t_nodes[OFFSET_LOW + NODE_WIDTH * bdd];	}
-	public final int getHigh(final int bdd) {	return t_nodes[OFFSET_HIGH + NODE_WIDTH * bdd];	}
+	public final int getVar(int bdd) {
+		bdd &= NODE_INDEX;
+		if(bdd < base_size) return base_storage.getVar(bdd);
+		return storage.getVar(bdd - base_size);
+	}
+	// for a complemented handle, the children of the node are negated on the way out
+	public final int getLow(final int bdd) {
+		final int low = getLowPlain(bdd & NODE_INDEX);
+		return (bdd & NODE_COMPLEMENT) == 0 ? low : complement_edge(low);
+	}
+	public final int getHigh(final int bdd) {
+		final int high = getHighPlain(bdd & NODE_INDEX);
+		return (bdd & NODE_COMPLEMENT) == 0 ? high : complement_edge(high);
+	}
+	private final int getLowPlain(final int bdd) {
+		if(bdd < base_size) return base_storage.getLow(bdd);
+		return storage.getLow(bdd - base_size);
+	}
+	private final int getHighPlain(final int bdd) {
+		if(bdd < base_size) return base_storage.getHigh(bdd);
+		return storage.getHigh(bdd - base_size);
+	}
 
 	/** return the associated variable. works even when the table is marked */
-	public final int getVarUnmasked(int bdd) {	return t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] & NODE_UNMARK; }
+	public final int getVarUnmasked(int bdd) {
+		bdd &= NODE_INDEX;
+		if(bdd < base_size) return getVar(bdd);
+		return storage.getVar(bdd - base_size) & NODE_UNMARK;
+	}
 
 	/** returns true if this bdd is a valid bdd */
-	public final boolean isValid(int bdd) {	return t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] != -1; }
+	public final boolean isValid(int bdd) {	return getVar(bdd) != -1; }
 
 	/** make the node invalid */
-	protected final void invalidate(int bdd) {		t_nodes[OFFSET_VAR + NODE_WIDTH * bdd] = -1; }
+	protected final void invalidate(int bdd) {		setVar(bdd, -1); }
 
 
 
 	// set multiple members (including ref) at the same time. not called very often
 	protected final void setAll(final int bdd, final int v, final int l, final int h, final short r) {
-		t_nodes[NODE_WIDTH * bdd + OFFSET_VAR]= v;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_LOW]= l;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_HIGH]= h;
-		t_ref[bdd] = r;
+		final int i = bdd - base_size;
+		storage.setAll(i, v, l, h);
+		storage.setRef(i, r);
 	}
 
 	// set multiple members at the same time. not called very often
 	protected final void setAll(final int bdd, final int v, final int l, final int h) {
-		t_nodes[NODE_WIDTH * bdd + OFFSET_VAR]= v;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_LOW]= l;
-		t_nodes[NODE_WIDTH * bdd + OFFSET_HIGH]= h;
+		storage.setAll(bdd - base_size, v, l, h);
 	}
 
 	/** returns true of the bdd <tt>bdd</tt> is the same as (var,low,high) */
 	protected final boolean match_table(final int bdd, final int var, final int low, final int high) {
 		// WAS: return getVar(bdd) == var && getLow(bdd) == low && getHigh(bdd) == high;
-
-		int offset = bdd * NODE_WIDTH;
-		return t_nodes[offset + OFFSET_VAR] == var && t_nodes[offset + OFFSET_LOW] == low &&
-				t_nodes[offset + OFFSET_HIGH] == high;
+		return storage.match(bdd - base_size, var, low, high);
 	}
 
 
 	// -----------------------------------------------------------------------------------------
-	// low-level access to the linked list
-	private final void setNext(int bdd, int v) { t_list[OFFSET_NEXT + LIST_WIDTH * bdd] = v; }
-	private final void setPrev(int bdd, int v) { t_list[OFFSET_PREV + LIST_WIDTH * bdd] = v; }
-	private final int getNext(final int bdd) {	return t_list[OFFSET_NEXT + LIST_WIDTH * bdd];	}
-	private final int getPrev(final int bdd) {	return t_list[OFFSET_PREV + LIST_WIDTH * bdd];	}
+	// low-level access to the linked list.
+	// "next" is per node (node id), "prev" is the head of a hash bucket (local index)
+	private final void setNext(int bdd, int v) {
+		storage.setNext(bdd - base_size, v);
+	}
+	private final void setPrev(int bdd, int v) {
+		storage.setPrev(bdd, v);
+	}
+	private final int getNext(final int bdd) {
+		return storage.getNext(bdd - base_size);
+	}
+	private final int getPrev(final int bdd) {
+		return storage.getPrev(bdd);
+	}
 
 	/** a more clever way to set all the prev members up to <tt>upto</tt> to 0 */
 	private final void clearPrev(int from, int upto) {
-		from = from * LIST_WIDTH + OFFSET_PREV;
-		upto = upto * LIST_WIDTH + OFFSET_PREV;
-
-		// TODO: we should unroll this at least once!
-		while(from < upto) {
-			t_list[from] = 0;
-			from += LIST_WIDTH;
-		}
+		storage.clearPrev(from, upto);
 	}
 
-	/** put <tt>a</tt> before <tt>b</tt> in the linked list */
+	/** put node <tt>a</tt> first in the hash bucket <tt>b</tt> */
 	private final void connect_list(int a, int b) {
-		int o1 = a * LIST_WIDTH;
-		int o2 = b * LIST_WIDTH;
-
-		t_list[o1 + OFFSET_NEXT] = t_list[o2 + OFFSET_PREV];
-		t_list[o2 + OFFSET_PREV] = a;
+		storage.setNext(a - base_size, storage.getPrev(b));
+		storage.setPrev(b, a);
 	}
 
 
@@ -566,17 +886,18 @@ public class NodeTable implements Serializable {
 	 * @see #mark_node
 	 */
 	public final void mark_tree(int bdd) {
+		bdd &= NODE_INDEX;
 		if(stack_marking_enabled) mark_tree_stack(bdd);
 		else mark_tree_rec(bdd);
 	}
 
 	/** the recursive version f mark_tree */
 	private final void mark_tree_rec(int bdd) {
-		if(bdd < 2) return;
+		if(bdd < own_floor) return; // base nodes are never collected, no need to mark them
 		if( isNodeMarked(bdd)) return;
 		mark_node(bdd);
-		mark_tree( getLow(bdd) );
-		mark_tree_rec( getHigh(bdd) );
+		mark_tree( getLowPlain(bdd) );
+		mark_tree_rec( getHighPlain(bdd) & NODE_INDEX );
 	}
 
 
@@ -596,8 +917,8 @@ public class NodeTable implements Serializable {
 		// recursive_mark_tree() as soon as the tree depth changes
 
 
-		// if its terminal, then we are already done
-		if(bdd < 2 ) return;
+		// if its terminal (or in the base), then we are already done
+		if(bdd < own_floor ) return;
 
 		// insert the first one
 		mstack.reset();
@@ -607,14 +928,14 @@ public class NodeTable implements Serializable {
 		// here we go, recursively mark the nodes in this tree:
 		while(mstack.getTOS() > 0) {
 			int next = mstack.pop();
-			int tmp = getLow(next);
-			if( tmp > 1 && !isNodeMarked(tmp)) {
+			int tmp = getLowPlain(next) & NODE_INDEX;
+			if( tmp >= own_floor && !isNodeMarked(tmp)) {
 				mark_node(tmp);
 				mstack.push(tmp);
 			}
 
-			tmp = getHigh(next);
-			if( tmp > 1 && !isNodeMarked(tmp)) {
+			tmp = getHighPlain(next) & NODE_INDEX;
+			if( tmp >= own_floor && !isNodeMarked(tmp)) {
 				mark_node(tmp);
 				mstack.push(tmp);
 			}
@@ -625,36 +946,69 @@ public class NodeTable implements Serializable {
 
 	/** recursively unmark nodes, used by some internal functions */
 	public final void unmark_tree(int bdd) {
+		bdd &= NODE_INDEX;
 		if(bdd < 2) return;
 		if( !isNodeMarked(bdd)) return;
 		unmark_node(bdd);
-		unmark_tree( getLow(bdd) );
-		unmark_tree( getHigh(bdd) );
+		unmark_tree( getLowPlain(bdd) );
+		unmark_tree( getHighPlain(bdd) );
 	}
 
+	// the base is shared, so base nodes are marked in a private bitmap instead.
+	// the bitmap is paged, only the parts of the base we actually visit are allocated
 	public final void mark_node(int bdd) {
-		t_nodes[OFFSET_VAR + NODE_WIDTH*bdd] |= NODE_MARK;
+		bdd &= NODE_INDEX;
+		if(bdd < base_size) {
+			if(base_marks == null) base_marks = new long[(base_size >>> MARK_PAGE_BITS) + 1][];
+			long [] page = base_marks[bdd >>> MARK_PAGE_BITS];
+			if(page == null) page = base_marks[bdd >>> MARK_PAGE_BITS] = new long[1 << (MARK_PAGE_BITS - 6)];
+			page[(bdd >>> 6) & ((1 << (MARK_PAGE_BITS - 6)) - 1)] |= 1L << bdd;
+			return;
+		}
+		storage.setVar(bdd - base_size, storage.getVar(bdd - base_size) | NODE_MARK);
 	}
 
 	public final void unmark_node(int bdd) {
-		t_nodes[OFFSET_VAR + NODE_WIDTH*bdd] &= NODE_UNMARK;
+		bdd &= NODE_INDEX;
+		if(bdd < base_size) {
+			long [] page = (base_marks == null) ? null : base_marks[bdd >>> MARK_PAGE_BITS];
+			if(page != null) page[(bdd >>> 6) & ((1 << (MARK_PAGE_BITS - 6)) - 1)] &= ~(1L << bdd);
+			return;
+		}
+		storage.setVar(bdd - base_size, storage.getVar(bdd - base_size) & NODE_UNMARK);
 	}
 
 	public final boolean isNodeMarked(int bdd) {
-		return (t_nodes[OFFSET_VAR + NODE_WIDTH*bdd] & NODE_MARK) != 0;
+		bdd &= NODE_INDEX;
+		if(bdd < base_size) {
+			long [] page = (base_marks == null) ? null : base_marks[bdd >>> MARK_PAGE_BITS];
+			return page != null && (page[(bdd >>> 6) & ((1 << (MARK_PAGE_BITS - 6)) - 1)] & (1L << bdd)) != 0;
+		}
+		return (storage.getVar(bdd - base_size) & NODE_MARK) != 0;
 	}
 
 	// ------- [ debug ] -----------------------------------------------------------------------
 
+	/** returns true if <tt>other</tt> stores the same nodes with the same ids and ref-counts as this table */
+	public boolean sameNodes(NodeTable other) {
+		if(other.table_size != table_size || other.base_size != base_size) return false;
+		for(int i = 0; i < table_size; i++) {
+			if(storage.getVar(i) != other.storage.getVar(i) || storage.getLow(i) != other.storage.getLow(i)
+					|| storage.getHigh(i) != other.storage.getHigh(i) || storage.getRef(i) != other.storage.getRef(i))
+				return false;
+		}
+		return true;
+	}
+
 	/* return the amount of internally allocated memory in bytes */
 	public long getMemoryUsage() {
 		long ret = 0;
 
-		if (t_nodes!= null) ret += t_nodes.length * 4;
-		if (t_list!= null) ret += t_list.length * 4;
-		if (t_ref != null) ret += t_ref.length * 2;
+		ret += storage.getMemoryUsage();
 		if (nstack != null) ret += nstack.getCapacity() * 4;
 		if (mstack != null) ret += mstack.getCapacity() * 4;
+		if (base_marks != null)
+			for(long [] page : base_marks) if(page != null) ret += page.length * 8;
 
 		return ret;
 	}
@@ -705,7 +1059,7 @@ public class NodeTable implements Serializable {
 	 */
 	public int debug_compute_root_nodes() {
 		int c = 0;
-		for(int i = 0; i < table_size; i++)
+		for(int i = base_size; i < base_size + table_size; i++)
 			if(isValid(i) && (getRef(i) > 0 && getRef(i) != MAX_REFCOUNT)) c++;
 		return c;
 	}
@@ -0,0 +1,144 @@
+package jdd.bdd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * off-heap storage for the node table: (var, low, high, next, prev, ref) of each node
+ * in direct ByteBuffers.
+ *
+ * <p>the storage is a list of equally sized chunks. growing only adds chunks, existing nodes
+ * are never moved, and the Java GC never has to copy or scan the node data. the chunk size is
+ * the initial size of the table rounded up to a power of two, at most 1M nodes, so a small
+ * table does not reserve a full 24 MB chunk.
+ *
+ * <p>direct buffers can neither be serialized nor deep-copied by reflection, copies must
+ * go through the node table (BDD copy constructor or snapshot).
+ *
+ * @see NodeTable#NodeTable(int, boolean)
+ */
+
+final class OffHeapNodeStorage extends NodeStorage {
+
+	private static final long serialVersionUID = 1L;
+
+	// one node record: 5 ints + a short, padded to 24 bytes
+	static final int VAR = 0, LOW = 4, HIGH = 8, NEXT = 12, PREV = 16, REF = 20;
+	private static final int NODE_BYTES = 24;
+
+	private static final int MIN_CHUNK_BITS = 10; // 1K nodes (24 KB)
+	private static final int MAX_CHUNK_BITS = 20; // 1M nodes (24 MB)
+
+	private int chunk_bits, chunk_mask;	/** nodes per chunk, fixed when the storage is created */
+	private ByteBuffer [] chunks;
+	private int capacity;
+
+	OffHeapNodeStorage(int nodes) {
+		int bits = MIN_CHUNK_BITS;
+		while(bits < MAX_CHUNK_BITS && (1 << bits) < nodes) bits++;
+		allocate(bits, nodes);
+	}
+
+	private OffHeapNodeStorage() {
+	}
+
+	private void allocate(int chunk_bits, int nodes) {
+		this.chunk_bits = chunk_bits;
+		chunk_mask = (1 << chunk_bits) - 1;
+		chunks = new ByteBuffer[0];
+		capacity = 0;
+		ensureCapacity(nodes);
+	}
+
+	/** make room for at least <tt>nodes</tt> nodes. new nodes are zero */
+	void ensureCapacity(int nodes) {
+		if(nodes <= capacity) return;
+		int needed = (int) (((long) nodes + chunk_mask) >>> chunk_bits);
+		ByteBuffer [] tmp = new ByteBuffer[needed];
+		System.arraycopy(chunks, 0, tmp, 0, chunks.length);
+		for(int i = chunks.length; i < needed; i++)
+			tmp[i] = ByteBuffer.allocateDirect(NODE_BYTES << chunk_bits).order(ByteOrder.nativeOrder());
+		chunks = tmp;
+		capacity = needed << chunk_bits;
+	}
+
+	final int get(int node, int field) {
+		return chunks[node >>> chunk_bits].getInt((node & chunk_mask) * NODE_BYTES + field);
+	}
+
+	final void set(int node, int field, int value) {
+		chunks[node >>> chunk_bits].putInt((node & chunk_mask) * NODE_BYTES + field, value);
+	}
+
+	final int getVar(int i) { return get(i, VAR); }
+	final int getLow(int i) { return get(i, LOW); }
+	final int getHigh(int i) { return get(i, HIGH); }
+	final void setVar(int i, int v) { set(i, VAR, v); }
+	final void setLow(int i, int v) { set(i, LOW, v); }
+	final void setHigh(int i, int v) { set(i, HIGH, v); }
+
+	final int getNext(int i) { return get(i, NEXT); }
+	final int getPrev(int i) { return get(i, PREV); }
+	final void setNext(int i, int v) { set(i, NEXT, v); }
+	final void setPrev(int i, int v) { set(i, PREV, v); }
+
+	final short getRef(int node) {
+		return chunks[node >>> chunk_bits].getShort((node & chunk_mask) * NODE_BYTES + REF);
+	}
+
+	final void setRef(int node, short ref) {
+		chunks[node >>> chunk_bits].putShort((node & chunk_mask) * NODE_BYTES + REF, ref);
+	}
+
+	final void setAll(int i, int v, int l, int h) {
+		set(i, VAR, v);
+		set(i, LOW, l);
+		set(i, HIGH, h);
+	}
+
+	final boolean match(int i, int var, int low, int high) {
+		return get(i, VAR) == var && get(i, LOW) == low && get(i, HIGH) == high;
+	}
+
+	final void clearPrev(int from, int upto) {
+		for(int i = from; i < upto; i++) set(i, PREV, 0);
+	}
+
+	/** nothing is copied, chunks are only added */
+	void resize(int old_size, int new_size) {
+		ensureCapacity(new_size);
+	}
+
+	/** the copy has the same layout as <tt>src</tt>, so the buffers are copied in bulk */
+	void copyFrom(NodeStorage src, int nodes) {
+		OffHeapNodeStorage s = (OffHeapNodeStorage) src;
+		allocate(s.chunk_bits, nodes);
+		for(int i = 0; i < chunks.length; i++) copyBuffer(s.chunks[i], chunks[i]);
+	}
+
+	private static void copyBuffer(ByteBuffer from, ByteBuffer to) {
+		ByteBuffer src = from.duplicate();
+		ByteBuffer dst = to.duplicate();
+		src.clear();
+		dst.clear();
+		dst.put(src);
+	}
+
+	NodeStorage copy(int nodes) {
+		OffHeapNodeStorage ret = new OffHeapNodeStorage();
+		ret.copyFrom(this, nodes);
+		return ret;
+	}
+
+	/** the direct memory is returned once the buffers are collected */
+	void release() {
+		chunks = new ByteBuffer[0];
+		capacity = 0;
+	}
+
+	boolean isOffHeap() { return true; }
+
+	int getCapacity() { return capacity; }
+
+	long getMemoryUsage() { return (long) capacity * NODE_BYTES; }
+}
@@ -0,0 +1,236 @@
+package jdd.bdd;
+
+import java.util.Arrays;
+
+/**
+ * dynamic variable reordering of a BDD by swapping adjacent levels in place (Rudell's sifting).
+ *
+ * <p>a swap rewrites the nodes of the upper level so that every node id keeps its function:
+ * BDDs held outside (user code, the predicate registry, ...) stay valid.
+ * nodes of the lower level that lose their last parent are freed on the spot.
+ * while reordering, the nodes of each level and the parent count of each node are kept here,
+ * so a swap only touches the two levels involved and never scans the whole table.
+ *
+ * <p>the table must not be an overlay or frozen and no operation may be running.
+ */
+final class Sifting {
+	/** stop moving a variable in one direction once the table is this much larger than the best seen */
+	private static final double MAX_GROWTH = 1.2;
+
+	private final BDD bdd;
+	private final int vars;
+	private int [] parents;		/** parents of each node, an entry on nstack counts as a parent */
+	private int [] position;	/** index of each node in the list of its level */
+	private final int [][] levels;	/** the nodes of each level */
+	private final int [] count;	/** number of nodes in each level */
+	private int live;
+
+	Sifting(BDD bdd) {
+		this.bdd = bdd;
+		this.vars = bdd.num_vars;
+
+		bdd.gc(); // only nodes reachable from a root are left, so every node without a parent is a root
+		bdd.dead_nodes = 0;
+
+		parents = new int[bdd.table_size];
+		position = new int[bdd.table_size];
+		levels = new int[vars][];
+		count = new int[vars];
+		for(int i = 0; i < vars; i++) levels[i] = new int[8];
+
+		for(int n = 2; n < bdd.table_size; n++) {
+			if(!bdd.isValid(n)) continue;
+			add(bdd.getVar(n), n);
+			count_parent(bdd.getLow(n));
+			count_parent(bdd.getHigh(n));
+			live++;
+		}
+
+		final int tos = bdd.nstack.getTOS();
+		final int [] stack = bdd.nstack.getData();
+		for(int i = 0; i < tos; i++) count_parent(stack[i]);
+	}
+
+	/** number of live nodes, terminals not included */
+	int size() { return live; }
+
+	/**
+	 * sift each variable once, the largest levels first.
+	 * @return the number of live nodes afterwards
+	 */
+	int sift() {
+		final int [] size = new int[vars];
+		Integer [] order = new Integer[vars];
+		for(int v = 0; v < vars; v++) {
+			size[v] = count[bdd.var2level[v]];
+			order[v] = v;
+		}
+		Arrays.sort(order, (a, b) -> size[b] - size[a]);
+
+		for(int v : order) {
+			// a level with nothing but the variable itself (and its negation) cannot shrink anything
+			if(count[bdd.var2level[v]] <= 2) continue;
+			sift_var(v);
+		}
+		return live;
+	}
+
+	/** move the variables to <tt>order</tt>, from the top level down */
+	void moveTo(int [] order) {
+		for(int target = 0; target < vars; target++) {
+			for(int level = bdd.var2level[order[target]]; level > target; level--) swap(level - 1);
+		}
+	}
+
+	/** move one variable through all levels and leave it where the table was smallest */
+	private void sift_var(int var) {
+		int level = bdd.var2level[var];
+		int best = live, best_level = level;
+		boolean down = level >= vars / 2; // start towards the nearer end
+
+		for(int pass = 0; pass < 2; pass++, down = !down) {
+			while(down ? level < vars - 1 : level > 0) {
+				if(down) swap(level++);
+				else swap(--level);
+
+				if(live < best) {
+					best = live;
+					best_level = level;
+				} else if(live > best * MAX_GROWTH) break;
+			}
+		}
+
+		while(level < best_level) swap(level++);
+		while(level > best_level) swap(--level);
+	}
+
+	/**
+	 * swap the variables at level <tt>l</tt> (x) and <tt>l+1</tt> (y).
+	 * the y-nodes move up unchanged, the x-nodes that do not depend on y move down unchanged.
+	 * an x-node f = (x, f0, f1) that has a y-child becomes (y, (x, f00, f10), (x, f01, f11)),
+	 * where fab is f with x=a and y=b.
+	 */
+	private void swap(int l) {
+		final int x_count = count[l], y_count = count[l + 1];
+		bdd.reserve(2 * x_count); // at most two new nodes per x-node, reserved so nothing moves below
+		if(parents.length < bdd.table_size) {
+			parents = Arrays.copyOf(parents, bdd.table_size);
+			position = Arrays.copyOf(position, bdd.table_size);
+		}
+
+		final int [] xs = levels[l];
+		levels[l] = levels[l + 1];
+		count[l] = y_count;
+		levels[l + 1] = new int[Math.max(8, x_count)];
+		count[l + 1] = 0;
+
+		for(int i = 0; i < y_count; i++) relabel(levels[l][i], l);
+
+		// first move the independent x-nodes, the new nodes below may be equal to them
+		int dependent = 0;
+		for(int i = 0; i < x_count; i++) {
+			int n = xs[i];
+			if(at(bdd.getLow(n), l) || at(bdd.getHigh(n), l)) xs[dependent++] = n;
+			else {
+				relabel(n, l + 1);
+				add(l + 1, n);
+			}
+		}
+
+		for(int i = 0; i < dependent; i++) {
+			int n = xs[i];
+			int f0 = bdd.getLow(n), f1 = bdd.getHigh(n);
+			int f00 = f0, f01 = f0, f10 = f1, f11 = f1;
+			if(at(f0, l)) {
+				f00 = bdd.getLow(f0);
+				f01 = bdd.getHigh(f0);
+			}
+			if(at(f1, l)) {
+				f10 = bdd.getLow(f1);
+				f11 = bdd.getHigh(f1);
+			}
+			int g0 = node(l + 1, f00, f10);
+			int g1 = node(l + 1, f01, f11);
+			count_parent(g0);
+			count_parent(g1);
+
+			bdd.unlink_node(n);
+			bdd.setAll(n, l, g0, g1); // g0 is regular since f00 is
+			bdd.link_node(n);
+			add(l, n);
+
+			release(f0);
+			release(f1);
+		}
+
+		int x = bdd.level2var[l], y = bdd.level2var[l + 1];
+		bdd.level2var[l] = y;
+		bdd.level2var[l + 1] = x;
+		bdd.var2level[y] = l;
+		bdd.var2level[x] = l + 1;
+	}
+
+	/** true if <tt>node</tt> is an internal node at level <tt>l</tt> */
+	private boolean at(int node, int l) {
+		return (node & NodeTable.NODE_INDEX) >= 2 && bdd.getVar(node) == l;
+	}
+
+	/** mk() at level v, without growing the table or touching the caches */
+	private int node(int v, int l, int h) {
+		if(l == h) return l;
+		boolean negate = bdd.complement && NodeTable.is_complemented(l);
+		if(negate) {
+			l = NodeTable.complement_edge(l);
+			h = NodeTable.complement_edge(h);
+		}
+		int n = bdd.find_in_bucket(bdd.compute_hash(v, l, h), v, l, h);
+		if(n == 0) {
+			n = bdd.new_node(v, l, h);
+			parents[n] = 0;
+			add(v, n);
+			count_parent(l);
+			count_parent(h);
+			live++;
+		}
+		return negate ? n | NodeTable.NODE_COMPLEMENT : n;
+	}
+
+	/** give node <tt>n</tt> the level <tt>v</tt>, keeping its children */
+	private void relabel(int n, int v) {
+		int l = bdd.getLow(n), h = bdd.getHigh(n);
+		bdd.unlink_node(n);
+		bdd.setAll(n, v, l, h);
+		bdd.link_node(n);
+	}
+
+	private void count_parent(int node) {
+		node &= NodeTable.NODE_INDEX;
+		if(node >= 2) parents[node]++;
+	}
+
+	/** drop one parent of <tt>node</tt>, freeing it (and then its children) when it was the last one */
+	private void release(int node) {
+		node &= NodeTable.NODE_INDEX;
+		if(node < 2 || --parents[node] != 0 || bdd.getRefPlain(node) > 0) return;
+
+		int l = bdd.getLow(node), h = bdd.getHigh(node);
+		remove(bdd.getVar(node), node);
+		bdd.free_node(node);
+		live--;
+		release(l);
+		release(h);
+	}
+
+	private void add(int level, int n) {
+		if(count[level] == levels[level].length) levels[level] = Arrays.copyOf(levels[level], count[level] * 2);
+		position[n] = count[level];
+		levels[level][count[level]++] = n;
+	}
+
+	private void remove(int level, int n) {
+		int i = position[n];
+		int last = levels[level][--count[level]];
+		levels[level][i] = last;
+		position[last] = i;
+	}
+}
@@ -76,13 +76,6 @@ public class Milner extends ProfiledBDD2 {
 		return res;
 	}
 
-	private int diff(int bdd1, int bdd2) {
-		int tmp = ref( not(bdd2) );
-		int ret = and(tmp, bdd1) ;
-		deref(tmp);
-		return ret;
-	}
-
 	private int transitions( int []t, int []tp, int []h, int []hp, int []c, int []cp) {
 		int tran = 0;
 		for(int i = 0; i < N; i++) {
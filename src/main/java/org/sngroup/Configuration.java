@@ -25,6 +25,11 @@ public class Configuration {
 
     private String spaceFile;
 
+    // 策略（ACL/PBR）文件目录，每个设备一个文件，文件名为设备名；没有该目录时为null
+    private String aclFile;
+
+    private String updateFile;
+
     private boolean showResult;
 
     private boolean useOneThreadOneDpvnet;
@@ -49,15 +54,44 @@ public class Configuration {
         this.spaceFile = spaceFile;
     }
 
+    public void setAclFile(String aclFile) {
+        this.aclFile = aclFile;
+    }
+
+    public void setUpdateFile(String updateFile) {
+        this.updateFile = updateFile;
+    }
+
+    public String getUpdateFile() {
+        return updateFile;
+    }
+
+    public String getTopologyFile() {
+        return topologyFile;
+    }
+
     public String getSpaceFile() {
         return spaceFile;
     }
 
+    public String getRuleFile() {
+        return ruleFile;
+    }
+
     public String getDeviceRuleFile(String device){
         String path = this.ruleFile;
 
         return path+((path.endsWith("/")?"":"/")+device);
     }
+
+    /**
+     * 设备的策略文件，没有策略目录时为null；文件可以不存在（该设备没有策略）
+     */
+    public String getDeviceAclFile(String device){
+        String path = this.aclFile;
+        if(path == null) return null;
+        return path+((path.endsWith("/")?"":"/")+device);
+    }
     public static void main(String[] args) {
 
     }
@@ -94,6 +128,12 @@ public class Configuration {
                 configuration.setTopologyFile(topologyFile.getAbsolutePath());
                 configuration.setSpaceFile(spaceFile.getAbsolutePath());
                 configuration.setRuleFile(ruleFile.getAbsolutePath()+"/");
+                // 策略文件目录，默认为网络目录下的acl目录，可选
+                String aclFilePath = configuration.aclFile == null ? dirname + "/acl/" : configuration.aclFile;
+                File aclFile = new File(aclFilePath);
+                configuration.setAclFile(aclFile.isDirectory() ? aclFile.getAbsolutePath() + "/" : null);
+                // 增量验证的规则更新序列，默认为网络目录下的update文件
+                if(isIncrementalRule && configuration.updateFile == null) configuration.setUpdateFile(dirname + "/" + "update");
             }else{
                 System.out.println("File is not exists in: ");
                 System.out.println(topologyFile);
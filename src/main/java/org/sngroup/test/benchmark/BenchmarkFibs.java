@@ -0,0 +1,96 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+import org.sngroup.util.FibReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 编码类基准测试共用的IPv4 FIB读取、生成和最长前缀匹配编码
+ *
+ * 每个规则为 {地址, 前缀长度, 转发动作编号}，一个设备的规则按前缀长度从长到短排序。
+ */
+final class BenchmarkFibs {
+
+    static final int BITS = 32;
+
+    private BenchmarkFibs() {
+    }
+
+    /**
+     * 读取规则目录，每个文件是一个设备的IPv4规则
+     */
+    static List<long[][]> readFibs(File dir) throws IOException {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) throw new IOException("不是规则目录: " + dir);
+        Arrays.sort(files);
+        List<long[][]> fibs = new ArrayList<>();
+        for (File file : files) {
+            FibReader fib = FibReader.read(file.getPath(), false, false);
+            long[][] rules = new long[fib.size][];
+            for (int i = 0; i < fib.size; i++) rules[i] = new long[]{fib.ip[i], fib.prefixLen[i], fib.actionId[i]};
+            fibs.add(sort(rules));
+        }
+        return fibs;
+    }
+
+    /**
+     * 随机生成devices个设备、每个rules条规则的FIB，前缀长度在[8, 32]之间，转发动作16种
+     */
+    static List<long[][]> generate(int devices, int rules) {
+        Random random = new Random(42);
+        List<long[][]> fibs = new ArrayList<>();
+        for (int d = 0; d < devices; d++) {
+            long[][] fib = new long[rules][];
+            for (int i = 0; i < rules; i++) {
+                int len = 8 + random.nextInt(BITS - 8 + 1);
+                long addr = (random.nextLong() & 0xFFFFFFFFL) >>> (BITS - len) << (BITS - len);
+                fib[i] = new long[]{addr, len, random.nextInt(16)};
+            }
+            fibs.add(sort(fib));
+        }
+        return fibs;
+    }
+
+    static long countRules(List<long[][]> fibs) {
+        long rules = 0;
+        for (long[][] fib : fibs) rules += fib.length;
+        return rules;
+    }
+
+    /**
+     * 按Device的方式编码全部设备的FIB：hit = match AND NOT allBdd，再按转发动作合并为LEC
+     *
+     * @param dst 目的地址的变量，dst[i]为第i位（最低位为第0位）
+     * @return 各设备的LEC，均已引用
+     */
+    static List<Integer> encodeLecs(BDD bdd, int[] dst, List<long[][]> fibs) {
+        List<Integer> lecs = new ArrayList<>();
+        for (long[][] fib : fibs) {
+            Map<Long, Integer> lecOfAction = new HashMap<>();
+            int allBdd = 0;
+            for (long[] rule : fib) {
+                int match = bdd.ref(bdd.prefixCube(dst, BITS, rule[0], (int) rule[1]));
+                int tmp = bdd.ref(bdd.not(allBdd));
+                int hit = bdd.ref(bdd.and(match, tmp));
+                bdd.deref(tmp);
+                allBdd = bdd.orTo(allBdd, match);
+                bdd.deref(match);
+
+                Integer lec = lecOfAction.get(rule[2]);
+                lecOfAction.put(rule[2], lec == null ? hit : bdd.orTo(lec, hit));
+                if (lec != null) bdd.deref(hit);
+            }
+            bdd.deref(allBdd);
+            lecs.addAll(lecOfAction.values());
+        }
+        return lecs;
+    }
+
+    private static long[][] sort(long[][] rules) {
+        Arrays.sort(rules, (a, b) -> Long.compare(b[1], a[1]));
+        return rules;
+    }
+}
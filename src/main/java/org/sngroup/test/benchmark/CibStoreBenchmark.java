@@ -0,0 +1,117 @@
+package org.sngroup.test.benchmark;
+
+import org.sngroup.util.ForwardAction;
+import org.sngroup.util.ForwardType;
+import org.sngroup.verifier.CibStore;
+import org.sngroup.verifier.CibTuple;
+
+import java.util.*;
+
+/**
+ * 单个TopoNet的LocCIB内存基准测试
+ *
+ * 为每个节点构造相同数量的LocCIB记录（随机的谓词编号，从固定的若干转发动作中选取），
+ * 分别用原来的 Vector<CibTuple> + Hashtable<String, List<CibTuple>> + HashSet<CibTuple>
+ * 和 CibStore 保存，比较两者在堆上的实际占用和遍历全部记录的耗时。
+ * 记录不经过BDD，谓词只是整数，因此只反映CIB结构本身的开销。
+ *
+ * 用法: CibStoreBenchmark [节点数, 默认10000] [每个节点的记录数, 默认200] [端口数, 默认8]
+ */
+public class CibStoreBenchmark {
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int ports = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        ForwardType.init();
+        List<ForwardAction> actions = actions(ports);
+
+        long before = usedHeap();
+        List<LegacyCib> legacy = new ArrayList<>(nodes);
+        Random random = new Random(42);
+        for (int n = 0; n < nodes; n++) {
+            LegacyCib cib = new LegacyCib();
+            for (int e = 0; e < entries; e++) cib.add(random.nextInt(), actions.get(random.nextInt(actions.size())));
+            legacy.add(cib);
+        }
+        long legacyBytes = usedHeap() - before;
+        long legacyScanNs = scanLegacy(legacy);
+        legacy = null;
+
+        before = usedHeap();
+        List<CibStore> stores = new ArrayList<>(nodes);
+        random = new Random(42);
+        for (int n = 0; n < nodes; n++) {
+            CibStore store = new CibStore();
+            for (int e = 0; e < entries; e++) store.add(random.nextInt(), actions.get(random.nextInt(actions.size())), true);
+            stores.add(store);
+        }
+        long storeBytes = usedHeap() - before;
+        long storeScanNs = scanStores(stores);
+
+        System.out.println("节点数: " + nodes + ", 每个节点的记录数: " + entries + ", 端口数: " + ports);
+        System.out.printf("Vector<CibTuple>: %.2f MB, %.1f 字节/记录, 遍历 %.2f ms%n",
+                legacyBytes / 1048576.0, legacyBytes / (double) nodes / entries, legacyScanNs / 1e6);
+        System.out.printf("CibStore:         %.2f MB, %.1f 字节/记录, 遍历 %.2f ms%n",
+                storeBytes / 1048576.0, storeBytes / (double) nodes / entries, storeScanNs / 1e6);
+        System.out.println("(保持引用 " + stores.size() + ")");
+    }
+
+    /**
+     * 单端口转发、两个端口的ECMP和丢弃各若干种
+     */
+    private static List<ForwardAction> actions(int ports) {
+        List<ForwardAction> actions = new ArrayList<>();
+        for (int p = 0; p < ports; p++) {
+            actions.add(new ForwardAction(ForwardType.ALL, Collections.singletonList("p" + p)));
+            actions.add(new ForwardAction(ForwardType.ANY, Arrays.asList("p" + p, "p" + (p + 1) % ports)));
+        }
+        actions.add(new ForwardAction(ForwardType.ALL, Collections.singletonList("drop")));
+        return actions;
+    }
+
+    private static long scanLegacy(List<LegacyCib> cibs) {
+        long start = System.nanoTime(), sum = 0;
+        for (LegacyCib cib : cibs) {
+            for (CibTuple tuple : cib.locCib) sum += tuple.predicate + tuple.count.count.get(0);
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42) System.out.println();
+        return time;
+    }
+
+    private static long scanStores(List<CibStore> stores) {
+        long start = System.nanoTime(), sum = 0;
+        for (CibStore store : stores) {
+            for (int i = 0; i < store.size(); i++) sum += store.predicate(i) + store.countId(i);
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42) System.out.println();
+        return time;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 原来Node中的LocCIB结构
+     */
+    private static class LegacyCib {
+        final Set<CibTuple> todoList = new HashSet<>();
+        final Vector<CibTuple> locCib = new Vector<>();
+        final Map<String, List<CibTuple>> portToCib = new Hashtable<>();
+
+        void add(int predicate, ForwardAction action) {
+            CibTuple tuple = new CibTuple(predicate, action, 1);
+            locCib.add(tuple);
+            for (String port : action.ports) {
+                portToCib.putIfAbsent(port, new Vector<>());
+                portToCib.get(port).add(tuple);
+            }
+            todoList.add(tuple);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.sngroup.test.benchmark.BenchmarkFibs.BITS;
+
+/**
+ * 补边节点表基准测试
+ *
+ * 读取一个网络的规则目录（每个设备一个IPv4规则文件），按Device的最长前缀匹配方式编码
+ * （BenchmarkFibs.encodeLecs：hit = match AND NOT allBdd，再按转发动作合并为LEC）。
+ * 分别在普通节点表和补边节点表（new BDD(..., complement=true)）上编码，
+ * 比较耗时和GC后仍存活的节点数，并检查两者得到的每个LEC的解个数相同。
+ * 不给规则目录时，随机生成若干设备的FIB。
+ *
+ * 用法: ComplementEdgeBenchmark [规则目录, 默认随机生成] [计时轮数, 默认3]
+ */
+public class ComplementEdgeBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        List<long[][]> fibs = args.length > 0 ? BenchmarkFibs.readFibs(new File(args[0])) : BenchmarkFibs.generate(8, 2000);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        System.out.println("设备数: " + fibs.size() + ", 规则数: " + BenchmarkFibs.countRules(fibs));
+
+        double[] expected = encode(fibs, false).satCounts;
+        double[] actual = encode(fibs, true).satCounts;
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException("补边节点表编码出的LEC与普通节点表不一致");
+        }
+
+        System.out.println("节点表\t平均耗时(ms)\t存活节点数");
+        for (boolean complement : new boolean[]{false, true}) {
+            long ns = 0;
+            int nodes = 0;
+            for (int r = 0; r < rounds; r++) {
+                Result result = encode(fibs, complement);
+                ns += result.ns;
+                nodes = result.liveNodes;
+            }
+            System.out.println((complement ? "补边" : "普通") + "\t" + String.format("%.2f", ns / 1e6 / rounds) + "\t" + nodes);
+        }
+    }
+
+    private static class Result {
+        long ns;
+        int liveNodes;
+        double[] satCounts;
+    }
+
+    /**
+     * 在新建的BDD上编码全部设备的FIB，LEC保持引用，最后GC一次统计存活节点
+     */
+    private static Result encode(List<long[][]> fibs, boolean complement) {
+        BDD bdd = new BDD(1000000, 1000000, false, complement);
+        int[] vars = new int[BITS];
+        for (int i = BITS - 1; i >= 0; i--) {
+            vars[i] = bdd.createVar(); // 与BDDEngine.DeclareVars相同，最高位在最上层
+        }
+
+        long start = System.nanoTime();
+        List<Integer> lecs = BenchmarkFibs.encodeLecs(bdd, vars, fibs);
+        Result result = new Result();
+        result.ns = System.nanoTime() - start;
+
+        bdd.gc();
+        result.liveNodes = bdd.table_size - bdd.free_nodes_count;
+        result.satCounts = new double[lecs.size()];
+        for (int i = 0; i < lecs.size(); i++) result.satCounts[i] = bdd.satCount(lecs.get(i));
+        bdd.cleanup();
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+import org.sngroup.util.CopyHelper.ReflectDeepCopy;
+import org.sngroup.verifier.BDDEngine;
+
+import java.util.Random;
+
+/**
+ * BDD引擎拷贝基准测试
+ *
+ * 构造一个节点表约有指定节点数的BDDEngine，分别用ReflectDeepCopy（DVNet.copyBdd("Reflect")）
+ * 和BDDEngine.snapshot()（DVNet.copyBdd("Snapshot")）拷贝，先预热再计时，
+ * 并检查两种副本的节点数组与原引擎一致。
+ *
+ * 用法: EngineCopyBenchmark [节点数, 默认1000000] [计时轮数, 默认5]
+ */
+public class EngineCopyBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int targetNodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        BDDEngine engine = new BDDEngine();
+        BDD bdd = engine.getBDD().bdd;
+        fill(bdd, targetNodes);
+        System.out.println("节点表大小: " + bdd.table_size + ", 已用节点: " + (bdd.table_size - bdd.free_nodes_count));
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            verify(bdd, reflectCopy(engine));
+            verify(bdd, engine.snapshot());
+        }
+
+        long reflectNs = 0, snapshotNs = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            BDDEngine copy = reflectCopy(engine);
+            reflectNs += System.nanoTime() - start;
+            verify(bdd, copy);
+
+            start = System.nanoTime();
+            copy = engine.snapshot();
+            snapshotNs += System.nanoTime() - start;
+            verify(bdd, copy);
+        }
+
+        System.out.println("拷贝方式\t平均耗时(ms)");
+        System.out.println("Reflect\t" + String.format("%.2f", reflectNs / 1e6 / rounds));
+        System.out.println("Snapshot\t" + String.format("%.2f", snapshotNs / 1e6 / rounds));
+    }
+
+    private static BDDEngine reflectCopy(BDDEngine engine) throws Exception {
+        return (BDDEngine) new ReflectDeepCopy().deepCopy(engine);
+    }
+
+    /**
+     * 不断加入随机cube直到已用节点数达到目标，每个cube都被引用，不会被GC回收
+     */
+    private static void fill(BDD bdd, int targetNodes) {
+        Random random = new Random(42);
+        int numVars = bdd.numberOfVariables();
+        while (bdd.table_size - bdd.free_nodes_count < targetNodes) {
+            int cube = bdd.ref(1);
+            for (int v = 0; v < numVars; v++) {
+                if (random.nextInt(3) != 0) continue;
+                int var = bdd.ref(bdd.mk(v, 0, 1));
+                int lit = random.nextBoolean() ? var : bdd.ref(bdd.not(var));
+                int next = bdd.ref(bdd.and(cube, lit));
+                bdd.deref(cube);
+                if (lit != var) bdd.deref(lit);
+                bdd.deref(var);
+                cube = next;
+            }
+        }
+    }
+
+    private static void verify(BDD original, BDDEngine copy) {
+        BDD c = copy.getBDD().bdd;
+        if (c.table_size != original.table_size || !c.sameNodes(original)) {
+            throw new IllegalStateException("副本与原引擎的节点表不一致");
+        }
+    }
+}
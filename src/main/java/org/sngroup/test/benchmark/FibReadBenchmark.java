@@ -0,0 +1,87 @@
+package org.sngroup.test.benchmark;
+
+import org.sngroup.util.FibReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 规则文件读取基准测试
+ *
+ * 生成一个随机的"fw ip prefix port..."规则文件，分别用原来的BufferedReader + split逐行解析
+ * 和FibReader读取，检查两者得到的规则相同并比较耗时。
+ *
+ * 用法: FibReadBenchmark [规则数, 默认5000000] [规则文件, 默认临时文件]
+ */
+public class FibReadBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        File file = args.length > 1 ? new File(args[1]) : File.createTempFile("fib", ".txt");
+        if (args.length <= 1) file.deleteOnExit();
+        if (!file.exists() || file.length() == 0) generate(file, count);
+
+        long start = System.nanoTime();
+        List<long[]> expected = new ArrayList<>();
+        List<Set<String>> expectedPorts = new ArrayList<>();
+        readBySplit(file, expected, expectedPorts);
+        long splitMs = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        FibReader fib = FibReader.read(file.getPath(), false, false);
+        long fibMs = (System.nanoTime() - start) / 1000000;
+
+        if (fib.size != expected.size()) {
+            throw new IllegalStateException("规则数不一致: " + fib.size + " != " + expected.size());
+        }
+        for (int i = 0; i < fib.size; i++) {
+            long[] rule = expected.get(i);
+            if (fib.ip[i] != rule[0] || fib.prefixLen[i] != rule[1] || !fib.portSet(fib.actionId[i]).equals(expectedPorts.get(i))) {
+                throw new IllegalStateException("第" + i + "条规则不一致");
+            }
+        }
+
+        System.out.println("规则数: " + fib.size + ", 文件大小(MB): " + file.length() / (1024 * 1024)
+                + ", 端口数: " + fib.portCount() + ", 转发动作数: " + fib.actionCount());
+        System.out.println("BufferedReader+split(ms): " + splitMs);
+        System.out.println("FibReader(ms): " + fibMs);
+    }
+
+    private static void generate(File file, int count) throws IOException {
+        Random random = new Random(42);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(random.nextInt(10) == 0 ? "ANY " : "fw ");
+                writer.write(Long.toString(random.nextLong() & 0xFFFFFFFFL));
+                writer.write(' ');
+                writer.write(Integer.toString(8 + random.nextInt(25)));
+                int ports = 1 + random.nextInt(3);
+                for (int p = 0; p < ports; p++) {
+                    writer.write(" Ethernet" + random.nextInt(48));
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    /** 与原Device.readOnlyRulesFile相同的解析方式 */
+    private static void readBySplit(File file, List<long[]> rules, List<Set<String>> ports) throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] token = line.split("\\s+");
+                if (token[0].equals("fw") || token[0].equals("ALL") || token[0].equals("ANY") || token[0].equals("any")) {
+                    Set<String> forward = new HashSet<>();
+                    for (int i = 3; i < token.length; i++) {
+                        if (!token[i].trim().isEmpty()) forward.add(token[i]);
+                    }
+                    if (!forward.isEmpty()) {
+                        rules.add(new long[]{Long.parseLong(token[1]), Integer.parseInt(token[2])});
+                        ports.add(forward);
+                    }
+                }
+            }
+        }
+    }
+}
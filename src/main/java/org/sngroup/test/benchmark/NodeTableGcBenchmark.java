@@ -0,0 +1,87 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * 堆内/堆外节点表的Java GC停顿基准测试
+ *
+ * 构造一个已用节点数达到指定值的BDD（与EngineCopyBenchmark相同的随机cube），
+ * 构造过程中穿插分配短生命周期对象，模拟验证阶段的堆压力，
+ * 统计构造耗时、节点表扩容次数，以及期间Java GC的次数和累计耗时。
+ * 节点表放在堆外时，扩容只追加分块，Java GC也不再复制和扫描节点数组。
+ *
+ * 用法: NodeTableGcBenchmark [节点数, 默认20000000] [--offheap]
+ * 建议配合 -Xmx 和 -XX:MaxDirectMemorySize 运行，堆内、堆外各跑一次对比
+ */
+public class NodeTableGcBenchmark {
+
+    public static void main(String[] args) {
+        int targetNodes = 20000000;
+        boolean offHeap = false;
+        for (String arg : args) {
+            if (arg.equals("--offheap")) offHeap = true;
+            else targetNodes = Integer.parseInt(arg);
+        }
+
+        long gcCountBefore = gcCount(), gcTimeBefore = gcTime();
+        long start = System.nanoTime();
+
+        BDD bdd = new BDD(500000, 1000000, offHeap);
+        for (int i = 0; i < 104; i++) bdd.createVar();
+        long garbage = fill(bdd, targetNodes);
+
+        long buildMs = (System.nanoTime() - start) / 1000000;
+        long gcCount = gcCount() - gcCountBefore, gcMs = gcTime() - gcTimeBefore;
+
+        System.out.println("节点表位置: " + (offHeap ? "堆外" : "堆内"));
+        System.out.println("节点表大小: " + bdd.table_size + ", 已用节点: " + (bdd.table_size - bdd.free_nodes_count)
+                + ", 扩容次数: " + bdd.stat_nt_grow + ", BDD GC次数: " + bdd.stat_gc_count);
+        System.out.println("节点表内存(MB): " + bdd.getMemoryUsage() / (1024 * 1024));
+        System.out.println("构造耗时(ms): " + buildMs);
+        System.out.println("Java GC次数: " + gcCount + ", Java GC累计耗时(ms): " + gcMs);
+        System.out.println("(校验值 " + garbage + ")");
+    }
+
+    /**
+     * 不断加入随机cube直到已用节点数达到目标，每个cube都被引用，不会被BDD GC回收。
+     * 每个cube额外分配一个短生命周期数组，返回值只是为了防止被优化掉
+     */
+    private static long fill(BDD bdd, int targetNodes) {
+        Random random = new Random(42);
+        int numVars = bdd.numberOfVariables();
+        long sum = 0;
+        while (bdd.table_size - bdd.free_nodes_count < targetNodes) {
+            int cube = bdd.ref(1);
+            for (int v = 0; v < numVars; v++) {
+                if (random.nextInt(3) != 0) continue;
+                int var = bdd.ref(bdd.mk(v, 0, 1));
+                int lit = random.nextBoolean() ? var : bdd.ref(bdd.not(var));
+                int next = bdd.ref(bdd.and(cube, lit));
+                bdd.deref(cube);
+                if (lit != var) bdd.deref(lit);
+                bdd.deref(var);
+                cube = next;
+            }
+            int[] temp = new int[64];
+            temp[cube & 63] = cube;
+            sum += temp[cube & 63];
+        }
+        return sum;
+    }
+
+    private static long gcCount() {
+        long ret = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) ret += Math.max(0, gc.getCollectionCount());
+        return ret;
+    }
+
+    private static long gcTime() {
+        long ret = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) ret += Math.max(0, gc.getCollectionTime());
+        return ret;
+    }
+}
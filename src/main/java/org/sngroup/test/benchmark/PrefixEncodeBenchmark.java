@@ -0,0 +1,99 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+import org.sngroup.verifier.BDDEngine;
+
+import java.util.Random;
+
+/**
+ * IP前缀编码基准测试
+ *
+ * 1. 在32个变量的BDD上，对同一批随机前缀分别用逐位and（原EncodePrefix的做法）
+ *    和BDD.prefixCube（直接mk建链）编码，检查两者节点ID相同并比较吞吐量；
+ * 2. 测量BDDEngine.encodeDstIPPrefix的端到端吞吐量。
+ *
+ * 用法: PrefixEncodeBenchmark [前缀数, 默认1000000] [计时轮数, 默认3]
+ */
+public class PrefixEncodeBenchmark {
+
+    private static final int BITS = 32;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        long[] addrs = new long[count];
+        int[] lens = new int[count];
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            addrs[i] = random.nextLong() & 0xFFFFFFFFL;
+            lens[i] = 8 + random.nextInt(BITS - 8 + 1);
+        }
+
+        BDD bdd = new BDD(1000000, 1000000);
+        int[] vars = new int[BITS];
+        for (int i = BITS - 1; i >= 0; i--) {
+            vars[i] = bdd.createVar(); // 与BDDEngine.DeclareVars相同，最高位在最上层
+        }
+
+        for (int i = 0; i < Math.min(count, 100000); i++) {
+            int expected = byApply(bdd, vars, addrs[i], lens[i]);
+            int actual = bdd.prefixCube(vars, BITS, addrs[i], lens[i]);
+            bdd.deref(expected);
+            if (expected != actual) {
+                throw new IllegalStateException("第" + i + "个前缀编码结果不一致");
+            }
+        }
+
+        BDDEngine engine = new BDDEngine();
+        long applyNs = 0, cubeNs = 0, engineNs = 0;
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                int p = byApply(bdd, vars, addrs[i], lens[i]);
+                sink += p;
+                bdd.deref(p);
+            }
+            applyNs += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sink += bdd.prefixCube(vars, BITS, addrs[i], lens[i]);
+            }
+            cubeNs += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                int p = engine.encodeDstIPPrefix(addrs[i], lens[i]);
+                sink += p;
+                engine.bdd.deref(p);
+            }
+            engineNs += System.nanoTime() - start;
+        }
+
+        System.out.println("编码方式\t百万前缀/秒");
+        System.out.println("逐位and\t" + rate(count, rounds, applyNs));
+        System.out.println("prefixCube\t" + rate(count, rounds, cubeNs));
+        System.out.println("encodeDstIPPrefix\t" + rate(count, rounds, engineNs));
+        System.out.println("(校验值 " + sink + ")");
+    }
+
+    /**
+     * 原EncodePrefix的做法：从最高位开始，每一位都与之前的结果做一次and
+     */
+    private static int byApply(BDD bdd, int[] vars, long addr, int len) {
+        int result = bdd.ref(1);
+        for (int i = BITS - 1; i >= BITS - len; i--) {
+            int lit = ((addr >>> i) & 1) != 0 ? vars[i] : bdd.not(vars[i]);
+            int next = bdd.ref(bdd.and(result, lit));
+            bdd.deref(result);
+            result = next;
+        }
+        return result;
+    }
+
+    private static String rate(int count, int rounds, long ns) {
+        return String.format("%.2f", (double) count * rounds / (ns / 1e9) / 1e6);
+    }
+}
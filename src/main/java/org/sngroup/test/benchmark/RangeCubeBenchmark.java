@@ -0,0 +1,149 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+import jdd.bdd.ConcurrentBDD;
+
+import java.util.Random;
+
+/**
+ * 端口范围编码基准测试
+ *
+ * 比较BDD.rangeCube直接构造[lo, hi]与把范围拆成前缀、逐个prefixCube再OR起来的耗时。
+ * 计时前先做等价性检查：在普通、补边、并发、并发补边四种节点表上，分别用最高位在上、
+ * 最低位在上和随机打乱的变量顺序，随机范围（含越界和很窄的范围）的rangeCube结果
+ * 必须与前缀拆分的结果是同一个节点，且解个数等于范围内的端口数。
+ *
+ * 用法: RangeCubeBenchmark [范围个数, 默认200000] [计时轮数, 默认3]
+ */
+public class RangeCubeBenchmark {
+
+    private static final int BITS = 16;
+    private static final long MAX_PORT = (1L << BITS) - 1;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        check(300);
+
+        Random random = new Random(3);
+        long[][] ranges = new long[count][];
+        for (int i = 0; i < count; i++) {
+            long lo = random.nextInt(1 << BITS), hi = random.nextInt(1 << BITS);
+            ranges[i] = new long[]{Math.min(lo, hi), Math.max(lo, hi)};
+        }
+
+        BDD bdd = new BDD(1000000, 100000);
+        int[] vars = declare(bdd, true);
+        long prefixes = 0;
+        for (long[] range : ranges) prefixes += countPrefixes(range[0], range[1]);
+        System.out.println("范围数: " + count + ", 平均每个范围拆成 " + String.format("%.1f", prefixes / (double) count) + " 个前缀");
+
+        System.out.println("轮次\trangeCube(ms)\t前缀OR(ms)");
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            for (long[] range : ranges) {
+                bdd.deref(bdd.ref(bdd.rangeCube(vars, BITS, range[0], range[1])));
+            }
+            long direct = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long[] range : ranges) {
+                bdd.deref(prefixUnion(bdd, vars, range[0], range[1]));
+            }
+            long union = System.nanoTime() - start;
+            System.out.println(r + "\t" + String.format("%.1f", direct / 1e6) + "\t" + String.format("%.1f", union / 1e6));
+        }
+        bdd.cleanup();
+    }
+
+    /**
+     * 在每种节点表和变量顺序上检查tests个随机范围
+     */
+    private static void check(int tests) {
+        Random random = new Random(1);
+        String[] tables = {"普通", "补边", "并发", "并发补边"};
+        String[] orders = {"msb", "lsb", "shuffle"};
+        for (int t = 0; t < tables.length; t++) {
+            for (int o = 0; o < orders.length; o++) {
+                BDD bdd = t < 2 ? new BDD(10000, 10000, false, t == 1) : new ConcurrentBDD(10000, 10000, t == 3);
+                int[] vars = declare(bdd, o != 1);
+                if (o == 2) bdd.setVariableOrder(shuffle(random));
+
+                for (int i = 0; i < tests; i++) {
+                    long lo = random.nextInt(70000) - 2000, hi = random.nextInt(70000) - 2000;
+                    if (i % 3 == 0) hi = lo + random.nextInt(40);
+                    int range = bdd.ref(bdd.rangeCube(vars, BITS, lo, hi));
+                    int union = prefixUnion(bdd, vars, lo, hi);
+                    long width = Math.max(0, Math.min(hi, MAX_PORT) - Math.max(lo, 0) + 1);
+                    if (range != union || bdd.satCount(range) != width) {
+                        throw new IllegalStateException(tables[t] + "节点表, " + orders[o] + "顺序下rangeCube(" + lo + ", " + hi + ")与前缀拆分不一致");
+                    }
+                    bdd.deref(range);
+                    bdd.deref(union);
+                }
+                bdd.cleanup();
+            }
+        }
+        System.out.println("等价性检查通过: " + tables.length + " 种节点表 x " + orders.length + " 种变量顺序 x " + tests + " 个范围");
+    }
+
+    /**
+     * vars[i]为第i位；msb为true时最高位在最上层（与BDDEngine的默认布局相同）
+     */
+    private static int[] declare(BDD bdd, boolean msb) {
+        int[] vars = new int[BITS];
+        if (msb) {
+            for (int i = BITS - 1; i >= 0; i--) vars[i] = bdd.createVar();
+        } else {
+            for (int i = 0; i < BITS; i++) vars[i] = bdd.createVar();
+        }
+        return vars;
+    }
+
+    private static int[] shuffle(Random random) {
+        int[] order = new int[BITS];
+        for (int i = 0; i < BITS; i++) order[i] = i;
+        for (int i = BITS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return order;
+    }
+
+    /**
+     * 把[lo, hi]（截到端口范围内）拆成最少的对齐前缀并OR起来，返回的结果已引用
+     */
+    private static int prefixUnion(BDD bdd, int[] vars, long lo, long hi) {
+        int acc = bdd.ref(bdd.getZero());
+        for (lo = Math.max(lo, 0), hi = Math.min(hi, MAX_PORT); lo <= hi; ) {
+            int len = prefixLength(lo, hi);
+            int cube = bdd.ref(bdd.prefixCube(vars, BITS, lo, len));
+            acc = bdd.orTo(acc, cube);
+            bdd.deref(cube);
+            lo += 1L << (BITS - len);
+        }
+        return acc;
+    }
+
+    private static int countPrefixes(long lo, long hi) {
+        int count = 0;
+        for (; lo <= hi; count++) lo += 1L << (BITS - prefixLength(lo, hi));
+        return count;
+    }
+
+    /**
+     * 从lo开始、不超过hi的最大对齐前缀的长度
+     */
+    private static int prefixLength(long lo, long hi) {
+        int len = BITS;
+        while (len > 0) {
+            long size = 1L << (BITS - len + 1);
+            if ((lo & (size - 1)) != 0 || lo + size - 1 > hi) break;
+            len--;
+        }
+        return len;
+    }
+}
@@ -0,0 +1,103 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+import org.sngroup.verifier.TSBDD;
+import org.sngroup.verifier.npbdd.BDDPredicate;
+import org.sngroup.verifier.npbdd.BDDPredicateRegistry;
+
+import java.util.Random;
+
+/**
+ * 谓词注册表基准测试
+ *
+ * 持续向注册表注册新谓词直到规模达到数百万，每注册一批打印该批次的平均注册耗时，
+ * 用于确认注册代价不随注册表规模增长；最后测量从已填充的注册表派生（forkFor）的耗时。
+ *
+ * 用法: RegistryBenchmark [总谓词数, 默认2000000] [--fingerprint]
+ */
+public class RegistryBenchmark {
+
+    private static final int POOL_SIZE = 10000;
+    private static final int REPORT_EVERY = 200000;
+
+    public static void main(String[] args) {
+        int total = 2000000;
+        boolean fingerprint = false;
+        for (String arg : args) {
+            if (arg.equals("--fingerprint")) fingerprint = true;
+            else total = Integer.parseInt(arg);
+        }
+
+        BDD bdd = new BDD(100000, 10000);
+        int[] vars = bdd.createVars(32);
+
+        // 预先构造一批互不相同的BDD，每一轮用一个新的TSBDD（新的引擎标识）重复注册它们，
+        // 这样注册表中的键持续增长，而BDD构造代价不计入测量
+        Random random = new Random(42);
+        int[] pool = new int[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            int cube = bdd.ref(1);
+            for (int v = 0; v < vars.length; v++) {
+                if (random.nextInt(3) == 0) continue;
+                int lit = random.nextBoolean() ? vars[v] : bdd.not(vars[v]);
+                cube = bdd.andTo(cube, lit);
+            }
+            pool[i] = cube;
+        }
+
+        BDDPredicateRegistry registry = new BDDPredicateRegistry();
+        registry.setCanonicalFingerprint(fingerprint);
+
+        System.out.println("谓词数\t批次平均注册耗时(ns)\t命中查找耗时(ns)");
+        int registered = 0;
+        long batchStart = System.nanoTime();
+        TSBDD engine = null;
+        while (registered < total) {
+            engine = new TSBDD(bdd);
+            for (int i = 0; i < POOL_SIZE && registered < total; i++) {
+                registry.getOrCreateId(new BDDPredicate(pool[i], engine), engine);
+                registered++;
+                if (registered % REPORT_EVERY == 0) {
+                    long batchNs = (System.nanoTime() - batchStart) / REPORT_EVERY;
+                    System.out.println(registered + "\t" + batchNs + "\t" + measureHits(registry, engine, pool, i + 1));
+                    batchStart = System.nanoTime();
+                }
+            }
+        }
+        registry.printStats();
+        System.out.println("派生注册表平均耗时(ns): " + measureFork(registry, bdd));
+    }
+
+    /**
+     * 从已填充的注册表反复派生，测量forkFor的平均耗时
+     */
+    private static long measureFork(BDDPredicateRegistry registry, BDD bdd) {
+        int rounds = 1000;
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            // 每轮先注册一个谓词，使本层非空，派生时确实冻结一层
+            TSBDD owner = new TSBDD(bdd);
+            registry.getOrCreateId(new BDDPredicate(1, owner), owner);
+            registry.forkFor(new TSBDD(bdd));
+        }
+        return (System.nanoTime() - start) / rounds;
+    }
+
+    /**
+     * 对当前引擎已注册的谓词重复查找，测量命中路径耗时
+     */
+    private static long measureHits(BDDPredicateRegistry registry, TSBDD engine, int[] pool, int count) {
+        BDDPredicate[] predicates = new BDDPredicate[count];
+        for (int i = 0; i < count; i++) {
+            predicates[i] = new BDDPredicate(pool[i], engine);
+        }
+        int rounds = Math.max(1, 100000 / count);
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (BDDPredicate predicate : predicates) {
+                registry.getOrCreateId(predicate, engine);
+            }
+        }
+        return (System.nanoTime() - start) / ((long) rounds * count);
+    }
+}
@@ -0,0 +1,100 @@
+package org.sngroup.test.benchmark;
+
+import jdd.bdd.BDD;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.sngroup.test.benchmark.BenchmarkFibs.BITS;
+
+/**
+ * 变量布局与动态重排基准测试
+ *
+ * 按Device的最长前缀匹配方式把FIB编码为LEC（BenchmarkFibs.encodeLecs），比较几种变量布局：
+ *   五个字段、最高位在上（默认布局）；只声明dstIP（-Dbdd.fields=dstIP）；
+ *   五个字段、最低位在上（-Dbdd.bitorder=lsb）；最低位在上，编码后做一次sifting（BDD.reorder）。
+ * 输出编码耗时、GC后存活节点数和重排耗时，并检查各布局下每个LEC的包数相同。
+ * 不给规则目录时，随机生成若干设备的FIB。
+ *
+ * 用法: VariableOrderBenchmark [规则目录, 默认随机生成]
+ */
+public class VariableOrderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        List<long[][]> fibs = args.length > 0 ? BenchmarkFibs.readFibs(new File(args[0])) : BenchmarkFibs.generate(4, 300);
+        System.out.println("设备数: " + fibs.size() + ", 规则数: " + BenchmarkFibs.countRules(fibs));
+
+        Layout[] layouts = {
+                new Layout("五个字段 msb", 32, 104, true, false),
+                new Layout("只有dstIP msb", 0, 32, true, false),
+                new Layout("五个字段 lsb", 32, 104, false, false),
+                new Layout("五个字段 lsb + sifting", 32, 104, false, true),
+        };
+        double[] expected = null;
+        System.out.println("布局\t编码耗时(ms)\t存活节点数\t重排耗时(ms)\t重排后节点数");
+        for (Layout layout : layouts) {
+            Result result = encode(fibs, layout);
+            if (expected == null) expected = result.packets;
+            else if (!Arrays.equals(expected, result.packets)) {
+                throw new IllegalStateException(layout.name + " 编码出的LEC与默认布局不一致");
+            }
+            System.out.println(layout.name + "\t" + String.format("%.2f", result.encodeNs / 1e6) + "\t" + result.liveNodes
+                    + "\t" + (layout.sift ? String.format("%.2f", result.reorderNs / 1e6) + "\t" + result.reorderedNodes : "-\t-"));
+        }
+    }
+
+    /**
+     * dstIP从第dstStart个变量开始，共声明vars个变量；msb为false时每个字段的最低位在上
+     */
+    private static class Layout {
+        final String name;
+        final int dstStart, vars;
+        final boolean msb, sift;
+
+        Layout(String name, int dstStart, int vars, boolean msb, boolean sift) {
+            this.name = name;
+            this.dstStart = dstStart;
+            this.vars = vars;
+            this.msb = msb;
+            this.sift = sift;
+        }
+    }
+
+    private static class Result {
+        long encodeNs, reorderNs;
+        int liveNodes, reorderedNodes;
+        double[] packets;
+    }
+
+    private static Result encode(List<long[][]> fibs, Layout layout) {
+        BDD bdd = new BDD(1000000, 1000000);
+        int[] all = bdd.createVars(layout.vars);
+        int[] dst = new int[BITS];
+        for (int i = 0; i < BITS; i++) {
+            dst[i] = all[layout.dstStart + (layout.msb ? BITS - 1 - i : i)];
+        }
+
+        long start = System.nanoTime();
+        List<Integer> lecs = BenchmarkFibs.encodeLecs(bdd, dst, fibs);
+        Result result = new Result();
+        result.encodeNs = System.nanoTime() - start;
+
+        bdd.gc();
+        result.liveNodes = bdd.table_size - bdd.free_nodes_count;
+        if (layout.sift) {
+            start = System.nanoTime();
+            bdd.reorder();
+            result.reorderNs = System.nanoTime() - start;
+            bdd.gc();
+            result.reorderedNodes = bdd.table_size - bdd.free_nodes_count;
+        }
+
+        // 不同布局声明的变量数不同，按dstIP的32位折算包数
+        double scale = Math.pow(2, layout.vars - BITS);
+        result.packets = new double[lecs.size()];
+        for (int i = 0; i < lecs.size(); i++) result.packets[i] = bdd.satCount(lecs.get(i)) / scale;
+        bdd.cleanup();
+        return result;
+    }
+}
@@ -1,105 +1,110 @@
-///*
-// * This program is free software: you can redistribute it and/or modify it under the terms of
-// *  the GNU General Public License as published by the Free Software Foundation, either
-// *   version 3 of the License, or (at your option) any later version.
-// *
-// * This program is distributed in the hope that it will be useful, but WITHOUT ANY
-// *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
-// *   PARTICULAR PURPOSE. See the GNU General Public License for more details.
-// *
-// * You should have received a copy of the GNU General Public License along with this
-// *  program. If not, see <https://www.gnu.org/licenses/>.
-// *
-// * Authors: Chenyang Huang (Xiamen University) <xmuhcy@stu.xmu.edu.cn>
-// *          Qiao Xiang     (Xiamen University) <xiangq27@gmail.com>
-// *          Ridi Wen       (Xiamen University) <23020211153973@stu.xmu.edu.cn>
-// *          Yuxin Wang     (Xiamen University) <yuxxinwang@gmail.com>
-// */
-//
-//package org.sngroup.test.evaluator;
-//
-//import net.sourceforge.argparse4j.inf.Namespace;
-//import org.sngroup.Configuration;
-//import org.sngroup.test.runner.Runner;
-////import org.sngroup.test.runner.SimulationRunner;
-//import org.sngroup.util.Utility;
-//import org.sngroup.verifier.Device;
-////import org.sngroup.util.Recorder;
-//
-////import org.sngroup.test.networkBuilder.NetworkBuilder;
-//
-//import java.io.BufferedReader;
-//import java.io.FileReader;
-//import java.io.IOException;
-//import java.util.List;
-//
-//public class IncrementalEvaluator extends Evaluator {
-////    SimulationRunner runner;
-//    int times;
-//
-//    public IncrementalEvaluator(Namespace namespace){
-//        super();
-//        setConfiguration(namespace);
-//
-//        Configuration.getConfiguration().readDirectory(namespace.getString("network"), true);
-//        times = namespace.getInt("times");
-//        if (times <= 0) times = -1;
-//        // setConfiguration(namespace);
-//        Configuration.getConfiguration().setIncremental(true);
-//    }
-//
-//    @Override
-//    public void start(Runner runner) {
-//        runner.build();
-//        runner.start();
-//        runner.awaitFinished();
-//
-//        try {
-//            FileReader fr = new FileReader(Configuration.getConfiguration().getIncrementalSequenceFile());
-//            BufferedReader in = new BufferedReader(fr);
-//
-//            String str;
-//            int i=0;
-//            for (str = in.readLine(); str!=null; str = in.readLine(),i++){
-//                if(i==times) break;
-//                System.out.println(i);
-//                String[] token = str.split("\\s+");
-//
-//                Device d = runner.getDevice(token[0]);
-//
-//                runner.getThreadPool().execute(()->changeRule(d, token));
-//                runner.awaitFinished();
-//
-//            }
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-//        List<Long> computingTimeList = Evaluator.getTaskTime(Configuration.getConfiguration().isShowTimeList());
-//        computingTimeList.remove(0);
-//        System.out.println("verification time: " + computingTimeList + ",\n\t avg: " + Utility.nanotimeToMillsTime(Utility.avg(computingTimeList)) + "ms");
-//
-//        runner.close();
-//    }
-//
-//
-//
-//    private void changeRule(Device d, String[] token){
-//        long ip=Long.parseLong(token[2]);
-//        int ipLength=Integer.parseInt(token[3]);
-//        String port = token[4];
-//        switch (token[1]){
-//            case "modify":
-//                d.modifyRule(ip, ipLength , port.split("\\.")[0], token[5].split("\\.")[0]);
-//                break;
-//            case "insert":
-//                d.insertRule(ip, ipLength, port.split("\\.")[0]);
-//                break;
-//            case "delete":
-//                d.deleteRule(ip, ipLength, port.split("\\.")[0]);
-//                break;
-//            default:
-//                System.out.println("rule change type error");
-//        }
-//    }
-//
-//}
+/*
+ * This program is free software: you can redistribute it and/or modify it under the terms of
+ *  the GNU General Public License as published by the Free Software Foundation, either
+ *   version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *   PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ *  program. If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Authors: Chenyang Huang (Xiamen University) <xmuhcy@stu.xmu.edu.cn>
+ *          Qiao Xiang     (Xiamen University) <xiangq27@gmail.com>
+ *          Ridi Wen       (Xiamen University) <23020211153973@stu.xmu.edu.cn>
+ *          Yuxin Wang     (Xiamen University) <yuxxinwang@gmail.com>
+ */
+
+package org.sngroup.test.evaluator;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.sngroup.Configuration;
+import org.sngroup.test.runner.Runner;
+import org.sngroup.test.runner.TopoRunner;
+import org.sngroup.util.Change;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量验证：先完整验证一次，然后逐条应用规则更新，每条更新只重新编码和重新验证受影响的部分
+ *
+ * 更新序列文件每行一条更新：
+ *   设备 insert 地址 前缀长度 端口
+ *   设备 delete 地址 前缀长度 端口
+ *   设备 modify 地址 前缀长度 原端口 新端口
+ * 地址的格式与规则文件相同（IPv4为十进制整数，IPv6和IPv4_S为文本）。
+ */
+public class IncrementalEvaluator extends Evaluator {
+    int times;
+
+    public IncrementalEvaluator(Namespace namespace){
+        super();
+        setConfiguration(namespace);
+        this.topology = namespace.getString("network");
+        if (namespace.getString("update_file") != null)
+            Configuration.getConfiguration().setUpdateFile(namespace.getString("update_file"));
+        Configuration.getConfiguration().readDirectory(namespace.getString("network"), true);
+        times = namespace.getInt("times");
+        if (times <= 0) times = -1;
+    }
+
+    @Override
+    public void start(Runner runner) {
+        if (!(runner instanceof TopoRunner)) {
+            System.err.println("增量验证只支持TopoRunner");
+            return;
+        }
+        TopoRunner topoRunner = (TopoRunner) runner;
+        boolean stripPortSuffix = TopoRunner.isIpv6 || TopoRunner.isIpv4withS;
+
+        long stime = System.currentTimeMillis();
+        runner.build();
+        long vtime = System.currentTimeMillis();
+        runner.start();
+        runner.awaitFinished();
+        long etime = System.currentTimeMillis();
+        System.out.println("build time: " + (vtime - stime) + "ms");
+        System.out.println("verification time: " + (etime - vtime) + "ms");
+
+        List<Long> updateTimeList = new ArrayList<>();
+        String updateFile = Configuration.getConfiguration().getUpdateFile();
+        try (BufferedReader in = new BufferedReader(new FileReader(updateFile))) {
+            String str;
+            int i = 0;
+            while ((str = in.readLine()) != null) {
+                if (i == times) break;
+                String[] token = str.trim().split("\\s+");
+                if (token.length < 5 || (token[1].equals("modify") && token.length < 6)) {
+                    if (!str.trim().isEmpty()) System.err.println("规则更新格式错误: " + str);
+                    continue;
+                }
+                String port = stripPortSuffix ? token[4].split("\\.")[0] : token[4];
+                String newPort = token.length > 5 ? (stripPortSuffix ? token[5].split("\\.")[0] : token[5]) : null;
+
+                long start = System.nanoTime();
+                List<Change> changes = topoRunner.updateRule(token[0], token[1], token[2], Integer.parseInt(token[3]), port, newPort);
+                int verified = topoRunner.verifyChanges(changes);
+                long time = System.nanoTime() - start;
+                updateTimeList.add(time);
+                System.out.println("update " + i + ": " + str.trim() + ", LEC变化: " + changes.size()
+                        + ", 重新验证TopoNet: " + verified + ", time: " + time / 1000000.0 + "ms");
+                i++;
+            }
+        } catch (IOException e) {
+            System.err.println("读取规则更新序列失败 " + updateFile + ": " + e.getMessage());
+        }
+
+        if (!updateTimeList.isEmpty()) {
+            long total = 0;
+            for (long t : updateTimeList) total += t;
+            System.out.println("incremental updates: " + updateTimeList.size()
+                    + ", avg: " + total / updateTimeList.size() / 1000000.0 + "ms");
+        }
+        runner.close();
+    }
+}
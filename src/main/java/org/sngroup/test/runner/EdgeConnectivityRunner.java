@@ -408,33 +408,9 @@ public class EdgeConnectivityRunner extends TopoRunner {
 
             List<Rule> rules = new ArrayList<>();
 
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8),
-                    32768)) {
-
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] tokens = line.split("\\s+");
-                    if (tokens.length >= 4 &&
-                        (tokens[0].equals("fw") || tokens[0].equals("ALL") ||
-                         tokens[0].equals("ANY") || tokens[0].equals("any"))) {
-
-                        try {
-                            Set<String> ports = new HashSet<>();
-                            for (int i = 3; i < tokens.length; i++) {
-                                ports.add(tokens[i]);
-                            }
-
-                            long ip = Long.parseLong(tokens[1]);
-                            int prefix = Integer.parseInt(tokens[2]);
-
-                            Rule rule = new Rule(ip, prefix, ports);
-                            rules.add(rule);
-                        } catch (NumberFormatException e) {
-                            // 跳过无效规则
-                        }
-                    }
-                }
+            FibReader fib = FibReader.load(rulesFile, false, false);
+            for (int i = 0; i < fib.size; i++) {
+                rules.add(new Rule(fib.ip[i], fib.prefixLen[i], fib.portSet(fib.actionId[i])));
             }
 
             if (!rules.isEmpty()) {
@@ -59,6 +59,8 @@ public class TopoRunner extends Runner {
     private NeighborhoodBuilder neighborhoodBuilder;
     private List<Neighborhood> neighborhoods;
     private boolean enableNPNet = true;  // 可通过系统属性 npnet.enabled 控制
+    // 验证引擎以冻结的srcBdd为共享基础节点表，每个引擎只持有私有覆盖表（-Dbdd.sharedBase=false 恢复逐个拷贝）
+    private boolean sharedBaseBdd = Boolean.parseBoolean(System.getProperty("bdd.sharedBase", "true"));
     // 路径验证相关参数
     private int srcNodeBatchSize = 50;
     private int maxPathsPerSrcNode = 100;
@@ -256,11 +258,9 @@ public class TopoRunner extends Runner {
         else BDDEngine.ipBits = 32;
 
         // ========== NP-BDD初始化（保留） ==========
+        // 谓词注册表和缓存随引擎创建，srcBdd新建时即为空
         if (enableNPBDD) {
-            System.out.println("[TopoRunner] 初始化NP-BDD组件...");
-            BDDPredicateRegistry.getInstance().clear();
-            BDDPredicateCache.getInstance().clear();
-            System.out.println("[TopoRunner] NP-BDD组件初始化完成");
+            System.out.println("[TopoRunner] NP-BDD已启用, 谓词注册表和缓存按引擎独立维护");
         }
         // ========== NP-BDD初始化结束 ==========
 
@@ -295,8 +295,11 @@ public class TopoRunner extends Runner {
         if (isIpv6 || isIpv4withS) readRuleByDeviceIPV6();
         else readRuleByDevice();
 
-        // 3. 【恢复】srcBdd 编码所有规则为 LEC + 解析空间
-        srcBddTransformAllRules();
+        // 3. 【恢复】srcBdd 编码所有规则为 LEC + 解析空间（构建缓存命中时直接从缓存恢复）
+        if (!restoreFromBuildCache()) {
+            srcBddTransformAllRules();
+            saveBuildCache();
+        }
 
         // 4. 生成 TopoNet（保留）
         genTopoNet();
@@ -319,6 +322,7 @@ public class TopoRunner extends Runner {
             Device device = entry.getValue();
             threadPool.execute(() -> {
                 device.readOnlyRulesFile(Configuration.getConfiguration().getDeviceRuleFile(name));
+                device.readOnlyAclFile(Configuration.getConfiguration().getDeviceAclFile(name));
             });
         }
 
@@ -336,6 +340,7 @@ public class TopoRunner extends Runner {
                 } else {
                     device.readOnlyRulesFileIPV6(Configuration.getConfiguration().getDeviceRuleFile(name));
                 }
+                device.readOnlyAclFile(Configuration.getConfiguration().getDeviceAclFile(name));
             });
         }
 
@@ -346,22 +351,29 @@ public class TopoRunner extends Runner {
     public void srcBddTransformAllRules() {
         long timePoint1 = System.currentTimeMillis();
 
-        for (Device device : devices.values()) {
-            // 跳过没有规则的设备
-            if (device.rules == null || device.rules.isEmpty()) {
-                continue;
-            }
+        int encodeThreads = resolveEncodeThreads();
+        if (encodeThreads > 1 && Device.isLecByTrie()) {
+            encodeAllRulesParallel(encodeThreads);
+        } else {
+            for (Device device : devices.values()) {
+                // 跳过没有规则的设备
+                if (device.rules == null || device.rules.isEmpty()) {
+                    continue;
+                }
 
-            if (!(isIpv6 || isIpv4withS)) {
-                device.encodeRuleToLecFromScratch(srcNet); // IPV4
-            } else {
-                try {
-                    device.encodeRuleToLecFromScratchIPV6(srcNet); // IPV6
-                } catch (java.net.UnknownHostException e) {
-                    throw new RuntimeException(e);
+                if (!(isIpv6 || isIpv4withS)) {
+                    device.encodeRuleToLecFromScratch(srcNet); // IPV4
+                } else {
+                    try {
+                        device.encodeRuleToLecFromScratchIPV6(srcNet); // IPV6
+                    } catch (java.net.UnknownHostException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
+                ruleCnt += device.rules.size();
+                // 两台设备的编码之间是动态重排的安全点
+                srcNet.getBddEngine().maybeReorder();
             }
-            ruleCnt += device.rules.size();
         }
 
         long timePoint2 = System.currentTimeMillis();
@@ -373,46 +385,80 @@ public class TopoRunner extends Runner {
         } else {
             srcNet.srcDvNetParseAllSpaceIPV6(Device.spacesIPV6);
         }
+        BDD bdd = srcNet.getBddEngine().getBDD().bdd;
+        bdd.maybeReorder();
+        if (bdd.stat_reorder_count > 0) {
+            System.out.println("[Reorder] 动态变量重排 " + bdd.stat_reorder_count + " 次，用时: " + bdd.stat_reorder_time + "ms");
+        }
 
         long timePoint3 = System.currentTimeMillis();
         System.out.println("BDD编码所使用的总时间: " + (timePoint3 - timePoint1) + "ms");
     }
 
+    // ========== 新增：构建缓存 ==========
+    // -Dbuild.cache=true 时，编码后的LEC和包空间连同BDD节点保存到缓存文件，
+    // 输入未变化的再次运行直接恢复srcBdd，跳过规则编码和空间解析；规则列表仍然读取，Node用它判断是否参与验证
+
+    private byte[] buildCacheKey() {
+        return BuildCache.inputKey(devices.keySet(), BDDEngine.ipBits, isIpv6 || isIpv4withS);
+    }
+
+    private boolean restoreFromBuildCache() {
+        if (!BuildCache.isEnabled()) return false;
+        File file = BuildCache.file();
+        long start = System.currentTimeMillis();
+        try {
+            if (!BuildCache.restore(file, buildCacheKey(), srcNet, devices)) {
+                System.out.println("[BuildCache] 没有可用的构建缓存: " + file);
+                return false;
+            }
+        } catch (IOException e) {
+            System.err.println("[BuildCache] 构建缓存 " + file + " 无效，重新编码: " + e.getMessage());
+            return false;
+        }
+        for (Device device : devices.values()) {
+            if (device.rules != null) ruleCnt += device.rules.size();
+        }
+        System.out.println("[BuildCache] 从 " + file + " 恢复srcBdd，用时: " + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    private void saveBuildCache() {
+        if (!BuildCache.isEnabled()) return;
+        File file = BuildCache.file();
+        long start = System.currentTimeMillis();
+        try {
+            int nodes = BuildCache.save(file, buildCacheKey(), srcNet, devices.values());
+            System.out.println("[BuildCache] 写入 " + file + "，节点数: " + nodes + "，用时: " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException e) {
+            System.err.println("[BuildCache] 写入构建缓存失败: " + e.getMessage());
+        }
+    }
+    // ========== 新增结束 ==========
+
     @Override
     public void start() {
         long startTime = System.currentTimeMillis();
         System.out.println("Start verification...");
 
-        // 初始化NP-BDD
+        // NP-BDD: srcBdd的谓词ID仍被globalLecs引用，不能清空；
+        // 各TopoNet引擎拷贝srcBdd时继承其谓词ID，缓存从空开始
         if (BDDEngine.isNPBDDEnabled()) {
-            BDDPredicateCache.getInstance().clear();
-            BDDPredicateRegistry.getInstance().clear();
-            System.out.println("[NP-BDD] 缓存已清空, 开始验证");
+            System.out.println("[NP-BDD] 开始验证");
         }
 
         // ===== 关键修复1: 创建共享BDD引擎队列并预填充 =====
-        LinkedBlockingDeque<BDDEngine> sharedQueueBDD = new LinkedBlockingDeque<>();
-
         // 预先创建足够的BDD引擎实例
-        int bddPoolSize = Math.max(10, topoNetMap.size());
-        System.out.println("[BDD Pool] 初始化 " + bddPoolSize + " 个BDD引擎...");
-
-        for (int i = 0; i < bddPoolSize; i++) {
-            try {
-                BDDEngine newEngine = new BDDEngine();
-                // 关键：复制srcBdd的配置
-                if (srcBdd != null) {
-                    newEngine.copyFrom(srcBdd);
-                }
-                sharedQueueBDD.offer(newEngine);
-            } catch (Exception e) {
-                System.err.println("[BDD Pool] 创建BDD引擎 #" + i + " 失败: " + e.getMessage());
-            }
-        }
-        System.out.println("[BDD Pool] 初始化完成，可用引擎数: " + sharedQueueBDD.size());
+        // 邻域任务最多同时持有2个引擎，池容量不少于 线程数+1 保证阻塞取引擎时总有任务能推进
+        int verifyThreads = resolveVerifyThreads();
+        int bddPoolSize = Math.max(Math.max(10, topoNetMap.size()), verifyThreads + 1);
+        LinkedBlockingDeque<BDDEngine> sharedQueueBDD = createEnginePool(bddPoolSize);
         // ===== 修复1结束 =====
 
         try {
+            // 每个邻域/独立TopoNet作为一个任务，按原串行顺序提交
+            List<Runnable> tasks = new ArrayList<>();
+
             // === NP-Net模式: 先处理邻域, 再处理独立TopoNet ===
             if (enableNPNet && neighborhoods != null && !neighborhoods.isEmpty()) {
                 System.out.println("[NP-Net] 使用邻域聚合模式验证");
@@ -429,11 +475,12 @@ public class TopoRunner extends Runner {
                 System.out.println("[NP-Net] Phase 1: 处理 " + neighborhoods.size() + " 个邻域");
                 for (Neighborhood nh : neighborhoods) {
                     if (nh.isWorthOptimizing()) {
-                        processNeighborhood(nh, sharedQueueBDD);
+                        tasks.add(() -> processNeighborhood(nh, sharedQueueBDD));
                     } else {
                         // 不值得优化的邻域, 独立处理每个TopoNet
                         for (Map.Entry<String, TopoNet> entry : nh.getDeviceTopoNets().entrySet()) {
-                            processStandaloneTopoNet(entry.getValue(), sharedQueueBDD);
+                            TopoNet topoNet = entry.getValue();
+                            tasks.add(() -> processStandaloneTopoNet(topoNet, sharedQueueBDD));
                         }
                     }
                 }
@@ -443,7 +490,8 @@ public class TopoRunner extends Runner {
                 for (Map.Entry<String, TopoNet> entry : topoNetMap.entrySet()) {
                     if (!aggregatedDevices.contains(entry.getKey())) {
                         standaloneCount++;
-                        processStandaloneTopoNet(entry.getValue(), sharedQueueBDD);
+                        TopoNet topoNet = entry.getValue();
+                        tasks.add(() -> processStandaloneTopoNet(topoNet, sharedQueueBDD));
                     }
                 }
                 System.out.println("[NP-Net] Phase 2: 处理 " + standaloneCount + " 个独立TopoNet");
@@ -452,10 +500,13 @@ public class TopoRunner extends Runner {
                 // === 传统模式: 逐个处理TopoNet ===
                 System.out.println("使用传统独立TopoNet模式验证");
                 for (Map.Entry<String, TopoNet> entry : topoNetMap.entrySet()) {
-                    processStandaloneTopoNet(entry.getValue(), sharedQueueBDD);
+                    TopoNet topoNet = entry.getValue();
+                    tasks.add(() -> processStandaloneTopoNet(topoNet, sharedQueueBDD));
                 }
             }
 
+            runVerifyTasks(tasks, verifyThreads);
+
         } catch (Exception e) {
             System.err.println("验证过程异常: " + e.getMessage());
             e.printStackTrace();
@@ -477,6 +528,106 @@ public class TopoRunner extends Runner {
     }
 
 
+    /**
+     * 创建验证用的BDD引擎池
+     * 共享基础表模式下srcBdd在验证阶段只读, 冻结后作为所有验证引擎的共享节点表,
+     * 每个验证引擎都是从srcBdd fork出的子引擎
+     */
+    private LinkedBlockingDeque<BDDEngine> createEnginePool(int bddPoolSize) {
+        LinkedBlockingDeque<BDDEngine> sharedQueueBDD = new LinkedBlockingDeque<>();
+        System.out.println("[BDD Pool] 初始化 " + bddPoolSize + " 个BDD引擎...");
+
+        boolean useOverlay = sharedBaseBdd && srcBdd != null;
+        if (useOverlay) {
+            System.out.println("[BDD Pool] 共享基础节点表: " + srcBdd.getBDD().bdd.table_size + " 个节点");
+        }
+
+        for (int i = 0; i < bddPoolSize; i++) {
+            try {
+                BDDEngine newEngine;
+                if (useOverlay) {
+                    newEngine = srcBdd.fork();
+                } else {
+                    newEngine = new BDDEngine();
+                    // 关键：复制srcBdd的配置
+                    if (srcBdd != null) {
+                        newEngine.copyFrom(srcBdd);
+                    }
+                }
+                sharedQueueBDD.offer(newEngine);
+            } catch (Exception e) {
+                System.err.println("[BDD Pool] 创建BDD引擎 #" + i + " 失败: " + e.getMessage());
+            }
+        }
+        System.out.println("[BDD Pool] 初始化完成，可用引擎数: " + sharedQueueBDD.size());
+        return sharedQueueBDD;
+    }
+
+    // ========== 新增：增量验证 ==========
+    // 一轮验证结束后，按单条规则更新设备的LEC（只重新编码更新的前缀范围），
+    // 再只重新验证包空间与LEC变化相交的TopoNet。TopoNet的结点状态在验证后不保留，
+    // 因此重新传播的粒度是受影响的TopoNet
+
+    /**
+     * 在srcBdd中应用一条规则更新
+     * @return LEC的变化，交给verifyChanges
+     */
+    public List<Change> updateRule(String deviceName, String type, String ip, int prefixLen, String port, String newPort)
+            throws UnknownHostException {
+        Device device = devices.get(deviceName);
+        if (device == null) {
+            System.err.println("[Incremental] 设备不存在: " + deviceName);
+            return Collections.emptyList();
+        }
+        // 上一轮验证的子引擎已全部丢弃，srcBdd可以重新创建节点
+        if (srcBdd.isFrozen()) {
+            srcBdd.thaw();
+        }
+        return device.updateRule(srcNet, type, ip, prefixLen, port, newPort, isIpv6 || isIpv4withS);
+    }
+
+    /**
+     * 重新验证包空间与changes相交的TopoNet，并deref changes中的BDD
+     * @return 重新验证的TopoNet数
+     */
+    public int verifyChanges(List<Change> changes) {
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        TSBDD bdd = srcBdd.getBDD();
+        int delta = 0;
+        for (Change change : changes) {
+            delta = bdd.orTo(delta, change.predicate);
+            bdd.deref(change.predicate);
+        }
+
+        List<TopoNet> affected = new ArrayList<>();
+        for (Map.Entry<String, TopoNet> entry : topoNetMap.entrySet()) {
+            Integer space = getDevicePacketSpace(entry.getKey());
+            if (space == null) continue;
+            int overlap = bdd.and(delta, srcBdd.getBDDNodeFromPredicateId(space));
+            if (overlap != 0) {
+                affected.add(entry.getValue());
+            }
+        }
+        bdd.deref(delta);
+        if (affected.isEmpty()) {
+            return 0;
+        }
+
+        int verifyThreads = resolveVerifyThreads();
+        LinkedBlockingDeque<BDDEngine> sharedQueueBDD = createEnginePool(Math.min(affected.size(), verifyThreads) + 1);
+        List<Runnable> tasks = new ArrayList<>();
+        for (TopoNet topoNet : affected) {
+            // 丢弃上一轮的结点，processStandaloneTopoNet重新生成
+            topoNet.init();
+            tasks.add(() -> processStandaloneTopoNet(topoNet, sharedQueueBDD));
+        }
+        runVerifyTasks(tasks, verifyThreads);
+        return affected.size();
+    }
+    // ========== 新增结束 ==========
+
     // 预加载核心设备 - 直接加载转发表
     private void preloadCoreDevices() {
         System.out.println("预加载核心设备转发表...");
@@ -539,50 +690,14 @@ public class TopoRunner extends Runner {
             List<ForwardingEntry> forwardingTable = new ArrayList<>();
             List<ForwardingEntryIPV6> forwardingTableIPV6 = new ArrayList<>();
 
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 32768)) {
-
-                String line;
-                while ((line = br.readLine()) != null) {
-                    try {
-                        String[] tokens = line.split("\\s+");
-                        if (tokens.length >= 4 &&
-                                (tokens[0].equals("fw") || tokens[0].equals("ALL") ||
-                                        tokens[0].equals("ANY") || tokens[0].equals("any"))) {
-
-                            Set<String> ports = new HashSet<>();
-                            for (int i = 3; i < tokens.length; i++) {
-                                if (tokens[i] != null && !tokens[i].trim().isEmpty()) {
-                                    ports.add(tokens[i]);
-                                }
-                            }
-
-                            if (!ports.isEmpty()) {
-                                ForwardType ft = tokens[0].equals("ANY") || tokens[0].equals("any") ?
-                                        ForwardType.ANY : ForwardType.ALL;
-
-                                if (!(isIpv6 || isIpv4withS)) {
-                                    // IPv4
-                                    try {
-                                        long ip = Long.parseLong(tokens[1]);
-                                        int prefix = Integer.parseInt(tokens[2]);
-                                        ForwardingEntry entry = new ForwardingEntry(ip, prefix, ports, ft);
-                                        forwardingTable.add(entry);
-                                    } catch (NumberFormatException nfe) {
-                                        System.err.println("IPv4规则格式错误，跳过: " + line);
-                                    }
-                                } else {
-                                    // IPv6
-                                    String ip = tokens[1];
-                                    int prefix = Integer.parseInt(tokens[2]);
-                                    ForwardingEntryIPV6 entry = new ForwardingEntryIPV6(ip, prefix, ports, ft);
-                                    forwardingTableIPV6.add(entry);
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        // 跳过无效规则
-                    }
+            FibReader fib = FibReader.load(rulesFile, isIpv6 || isIpv4withS, false);
+            for (int i = 0; i < fib.size; i++) {
+                int action = fib.actionId[i];
+                ForwardType ft = fib.action(action).forwardType;
+                if (!(isIpv6 || isIpv4withS)) {
+                    forwardingTable.add(new ForwardingEntry(fib.ip[i], fib.prefixLen[i], fib.portSet(action), ft));
+                } else {
+                    forwardingTableIPV6.add(new ForwardingEntryIPV6(fib.address[i], fib.prefixLen[i], fib.portSet(action), ft));
                 }
             }
 
@@ -1417,13 +1532,20 @@ public class TopoRunner extends Runner {
         String dstDevice = topoNet.dstDevice.name;
         Integer s = getDevicePacketSpace(dstDevice);
         if (s != null) {
-            if (!reused) {
+            // 覆盖引擎已能看到srcBdd的全部节点, 无论是否来自引擎池都不需要拷贝
+            if (!reused && (topoNet.bddEngine == null || !topoNet.bddEngine.isOverlay())) {
                 try {
-                    topoNet.copyBdd(srcBdd, "Reflect");
+                    topoNet.copyBdd(srcBdd, "Snapshot");
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
-            } else topoNet.setNodeBdd();
+            } else {
+                // fork出的子引擎: 丢弃上一个TopoNet留下的节点即相当于重新fork, 不拷贝srcBdd
+                if (topoNet.bddEngine.isOverlay()) {
+                    topoNet.bddEngine.resetOverlay(srcBdd);
+                }
+                topoNet.setNodeBdd();
+            }
             topoNet.deviceLecs = Device.globalLecs;
 
             // 设置TopoNet的包空间字段
@@ -1486,8 +1608,9 @@ public class TopoRunner extends Runner {
         if (enableNPBDD) {
             try {
                 System.out.println("[TopoRunner] 清理NP-BDD资源...");
-                BDDPredicateRegistry.getInstance().clear();
-                BDDPredicateCache.getInstance().clear();
+                if (srcBdd != null) {
+                    srcBdd.resetNPBDD();
+                }
                 System.out.println("[TopoRunner] NP-BDD资源已清理");
             } catch (Exception e) {
                 System.err.println("[TopoRunner] 清理NP-BDD资源失败: " + e.getMessage());
@@ -1503,8 +1626,8 @@ public class TopoRunner extends Runner {
      * 简化版统计打印（只打印关键指标）
      */
     private void printSimpleNPBDDStats() {
-        BDDPredicateRegistry registry = BDDPredicateRegistry.getInstance();
-        BDDPredicateCache cache = BDDPredicateCache.getInstance();
+        BDDPredicateRegistry registry = srcBdd.getBDD().getPredicateRegistry();
+        BDDPredicateCache cache = srcBdd.getBDD().getPredicateCache();
 
         BDDPredicateRegistry.RegistryStats regStats = registry.getStats();
         BDDPredicateCache.CacheStats cacheStats = cache.getStats();
@@ -1520,15 +1643,16 @@ public class TopoRunner extends Runner {
     // 【新增1】processNeighborhood() — 处理单个邻域的NP-Net验证
     // ==================================================================================
     private void processNeighborhood(Neighborhood neighborhood, LinkedBlockingDeque<BDDEngine> sharedQueueBDD) {
-        try {
-            // Step 1: 为代表TopoNet初始化
-            TopoNet repTopoNet = neighborhood.getRepresentativeTopoNet();
-            if (repTopoNet == null) {
-                System.err.println("[NP-Net] 邻域 " + neighborhood.getName() + " 无代表TopoNet, 跳过");
-                return;
-            }
+        // Step 1: 为代表TopoNet初始化
+        TopoNet repTopoNet = neighborhood.getRepresentativeTopoNet();
+        if (repTopoNet == null) {
+            System.err.println("[NP-Net] 邻域 " + neighborhood.getName() + " 无代表TopoNet, 跳过");
+            return;
+        }
 
-            boolean reused = repTopoNet.getAndSetBddEngine(sharedQueueBDD);
+        boolean failed = false;
+        boolean reused = repTopoNet.takeBddEngine(sharedQueueBDD);
+        try {
             topoGenNode(repTopoNet);
             topoNetDeepCopyBdd(repTopoNet, reused);
             repTopoNet.nodeCalIndegree();
@@ -1546,32 +1670,38 @@ public class TopoRunner extends Runner {
                     collectResults(topoNet);
                 } else {
                     // 其他TopoNet: 初始化 + 从Entrance注入聚合空间 + 外部遍历
-                    boolean reused2 = topoNet.getAndSetBddEngine(sharedQueueBDD);
-                    topoGenNode(topoNet);
-                    topoNetDeepCopyBdd(topoNet, reused2);
-                    topoNet.nodeCalIndegree();
-
-                    // 从Entrance注入聚合空间, 执行外部遍历
-                    neighborhood.executeExternalTraversal(deviceName, topoNet);
-
-                    // 收集结果
-                    collectResults(topoNet);
-
-                    // 归还BDD引擎
-                    if (topoNet.bddEngine != null) {
-                        sharedQueueBDD.offer(topoNet.bddEngine);
+                    boolean reused2 = topoNet.takeBddEngine(sharedQueueBDD);
+                    try {
+                        topoGenNode(topoNet);
+                        topoNetDeepCopyBdd(topoNet, reused2);
+                        topoNet.nodeCalIndegree();
+
+                        // 从Entrance注入聚合空间, 执行外部遍历
+                        neighborhood.executeExternalTraversal(deviceName, topoNet);
+
+                        // 收集结果
+                        collectResults(topoNet);
+                    } finally {
+                        // 归还BDD引擎
+                        if (reused2 && topoNet.bddEngine != null) {
+                            sharedQueueBDD.offer(topoNet.bddEngine);
+                        }
                     }
                 }
             }
 
+        } catch (Exception e) {
+            System.err.println("[NP-Net] 处理邻域 " + neighborhood.getName() + " 失败: " + e.getMessage());
+            e.printStackTrace();
+            failed = true;
+        } finally {
             // 归还代表TopoNet的BDD引擎
-            if (repTopoNet.bddEngine != null) {
+            if (reused && repTopoNet.bddEngine != null) {
                 sharedQueueBDD.offer(repTopoNet.bddEngine);
             }
+        }
 
-        } catch (Exception e) {
-            System.err.println("[NP-Net] 处理邻域 " + neighborhood.getName() + " 失败: " + e.getMessage());
-            e.printStackTrace();
+        if (failed) {
             // 回退: 独立处理
             for (Map.Entry<String, TopoNet> entry : neighborhood.getDeviceTopoNets().entrySet()) {
                 try {
@@ -1588,15 +1718,20 @@ public class TopoRunner extends Runner {
     // 【新增2】processStandaloneTopoNet() — 处理独立TopoNet (原processTopoNet逻辑)
     // ==================================================================================
     private void processStandaloneTopoNet(TopoNet topoNet, LinkedBlockingDeque<BDDEngine> sharedQueueBDD) {
+        boolean reused = false;
         try {
-            // 1. 构建TopoNet基础结构
-            boolean reused = topoNet.getAndSetBddEngine(sharedQueueBDD);
+            // 1. 构建TopoNet基础结构（池为空时阻塞等待其他任务归还引擎）
+            reused = topoNet.takeBddEngine(sharedQueueBDD);
 
             if (topoNet.bddEngine == null) {
                 System.err.println("[修复] TopoNet [" + topoNet.dstDevice.name + "] BDD引擎为空，创建新引擎");
-                topoNet.bddEngine = new BDDEngine();
-                if (srcBdd != null) {
-                    topoNet.bddEngine.copyFrom(srcBdd);
+                if (srcBdd != null && srcBdd.isFrozen()) {
+                    topoNet.bddEngine = srcBdd.fork();
+                } else {
+                    topoNet.bddEngine = new BDDEngine();
+                    if (srcBdd != null) {
+                        topoNet.bddEngine.copyFrom(srcBdd);
+                    }
                 }
             }
 
@@ -1635,18 +1770,169 @@ public class TopoRunner extends Runner {
             // 5. 收集结果
             collectResults(topoNet);
 
-            // 6. 归还BDD引擎
-            if (topoNet.bddEngine != null && reused) {
-                sharedQueueBDD.offer(topoNet.bddEngine);
-            }
-
         } catch (Exception e) {
             System.err.println("处理独立TopoNet失败 " +
                     (topoNet.dstDevice != null ? topoNet.dstDevice.name : "unknown") +
                     ": " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            // 6. 归还BDD引擎
+            if (topoNet.bddEngine != null && reused) {
+                sharedQueueBDD.offer(topoNet.bddEngine);
+            }
+        }
+    }
+    // ==================================================================================
+    // 并行验证调度 — 邻域/独立TopoNet作为独立任务在固定大小的线程池上执行
+    // ==================================================================================
+
+    /**
+     * 验证线程数，默认等于CPU核数，可通过 -Dverify.threads 配置；设为1时退化为串行
+     */
+    private int resolveVerifyThreads() {
+        int threads = Integer.getInteger("verify.threads", Runtime.getRuntime().availableProcessors());
+        return Math.max(1, threads);
+    }
+
+    /**
+     * 执行验证任务
+     * 各任务在工作线程上缓存自己的showResult输出，调度线程按提交顺序依次等待并输出，
+     * 因此结果文件和控制台中的验证结果顺序与串行执行一致。
+     * 同时在用的BDD引擎数受引擎池约束：池为空时任务阻塞在takeBddEngine上。
+     */
+    private void runVerifyTasks(List<Runnable> tasks, int threads) {
+        int workers = Math.min(threads, tasks.size());
+        if (workers <= 1) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        System.out.println("[Verify] 并行验证: " + tasks.size() + " 个任务, " + workers + " 个线程");
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "topo-verify-" + threadIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            List<Future<List<String[]>>> futures = new ArrayList<>(tasks.size());
+            for (Runnable task : tasks) {
+                futures.add(executor.submit(() -> {
+                    Node.beginResultCapture();
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        System.err.println("验证任务异常: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                    return Node.endResultCapture();
+                }));
+            }
+
+            for (Future<List<String[]>> future : futures) {
+                try {
+                    Node.publishResults(future.get());
+                } catch (ExecutionException e) {
+                    System.err.println("验证任务失败: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("等待验证任务被中断: " + e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ==================================================================================
+    // 并行规则编码 — 各设备在工作线程私有的引擎中编码，再按设备顺序转换到srcNet的引擎
+    // ==================================================================================
+
+    /**
+     * 规则编码线程数，默认等于CPU核数，可通过 -Dencode.threads 配置；设为1时退化为串行
+     */
+    private int resolveEncodeThreads() {
+        int threads = Integer.getInteger("encode.threads", Runtime.getRuntime().availableProcessors());
+        return Math.max(1, threads);
+    }
+
+    /**
+     * 一个设备的编码任务及其使用的私有引擎
+     */
+    private static final class EncodeTask {
+        final Device device;
+        final BDDEngine engine;
+        Future<Map<ForwardAction, Integer>> lecs;
+
+        EncodeTask(Device device, BDDEngine engine) {
+            this.device = device;
+            this.engine = engine;
         }
     }
+
+    /**
+     * 并行编码所有设备的规则
+     * 私有引擎是srcNet引擎的快照（变量相同），由调度线程分配给任务，任务之间不共享引擎。
+     * 调度线程按设备顺序等待任务完成，把结果转换（importLecs）到srcNet的引擎后回收该私有引擎，
+     * 同时在途的任务数不超过私有引擎数（2倍线程数）。
+     * srcNet的引擎只由调度线程访问，最终的Device.globalLecs与串行编码表示相同的包集合。
+     */
+    private void encodeAllRulesParallel(int threads) {
+        boolean ipv6 = isIpv6 || isIpv4withS;
+        BDDEngine srcEngine = srcNet.getBddEngine();
+        int window = threads * 2;
+
+        System.out.println("[Encode] 并行规则编码: " + devices.size() + " 台设备, " + threads + " 个线程");
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "rule-encode-" + threadIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+
+        ArrayDeque<BDDEngine> idleEngines = new ArrayDeque<>();
+        ArrayDeque<EncodeTask> inFlight = new ArrayDeque<>();
+        try {
+            for (Device device : devices.values()) {
+                // 跳过没有规则的设备
+                if (device.rules == null || device.rules.isEmpty()) {
+                    continue;
+                }
+                if (inFlight.size() >= window) {
+                    idleEngines.add(finishEncodeTask(inFlight.poll()));
+                }
+                BDDEngine engine = idleEngines.isEmpty() ? srcEngine.snapshot() : idleEngines.poll();
+                EncodeTask task = new EncodeTask(device, engine);
+                task.lecs = executor.submit(() -> device.encodeLecsInto(engine, ipv6));
+                inFlight.add(task);
+                ruleCnt += device.rules.size();
+            }
+            while (!inFlight.isEmpty()) {
+                finishEncodeTask(inFlight.poll());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待规则编码任务被中断", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BDDEngine finishEncodeTask(EncodeTask task) throws InterruptedException {
+        try {
+            task.device.importLecs(srcNet, task.engine, task.lecs.get());
+        } catch (ExecutionException e) {
+            throw new RuntimeException("设备 " + task.device.name + " 规则编码失败", e.getCause());
+        }
+        // srcNet的引擎只在这里（调度线程）修改，转换之后是动态重排的安全点；
+        // 私有引擎的变量顺序与srcNet不同时，importLecs按变量换算层
+        srcNet.getBddEngine().maybeReorder();
+        return task.engine;
+    }
+
     // ==================================================================================
     // 【新增3】collectResults() — 收集TopoNet中所有源节点的验证结果
     // ==================================================================================
@@ -1673,9 +1959,9 @@ public class TopoRunner extends Runner {
         System.out.println("\n========== NP-BDD 性能统计 ==========");
 
         try {
-            BDDPredicateRegistry registry = BDDPredicateRegistry.getInstance();
+            BDDPredicateRegistry registry = srcBdd.getBDD().getPredicateRegistry();
             BDDPredicateRegistry.RegistryStats regStats = registry.getStats();
-            System.out.println("谓词注册表: 总谓词=" + regStats.totalPredicates +
+            System.out.println("谓词注册表(srcBdd): 总谓词=" + regStats.totalPredicates +
                     ", 查找命中=" + regStats.cacheHits +
                     ", 查找未命中=" + regStats.cacheMisses);
         } catch (Exception e) {
@@ -1683,8 +1969,9 @@ public class TopoRunner extends Runner {
         }
 
         try {
-            BDDPredicateCache cache = BDDPredicateCache.getInstance();
+            BDDPredicateCache cache = srcBdd.getBDD().getPredicateCache();
             BDDPredicateCache.CacheStats cacheStats = cache.getStats();
+            System.out.println("srcBdd缓存统计:");
             System.out.println("L1缓存: 命中=" + cacheStats.l1Hits + ", 未命中=" + cacheStats.l1Misses);
             System.out.println("L2-Encode缓存: 命中=" + cacheStats.l2EncodeHits + ", 未命中=" + cacheStats.l2EncodeMisses);
             System.out.println("L2-Hit缓存: 命中=" + cacheStats.l2HitHits + ", 未命中=" + cacheStats.l2HitMisses);
@@ -0,0 +1,168 @@
+package org.sngroup.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 设备的一条ACL或PBR（策略路由）条目，按五元组匹配
+ *
+ * 策略文件每行一个条目，按文件中的顺序匹配（第一条匹配的生效），空行和#开头的行忽略：
+ *   acl permit|deny 源地址 源前缀长度 目的地址 目的前缀长度 源端口 目的端口 协议
+ *   pbr fw|ALL|ANY|any 源地址 源前缀长度 目的地址 目的前缀长度 源端口 目的端口 协议 端口...
+ * 地址为十进制IPv4整数（与规则文件相同）或文本地址；端口为 n 或 lo-hi；
+ * 协议为0~255或tcp/udp/icmp；端口和协议写*或any表示任意，地址写*或any表示前缀长度0。
+ * 格式错误的行被跳过，只计入skippedLines。
+ */
+public class AclRule {
+    public static final int ANY_PROTOCOL = -1;
+    public static final int MAX_PORT = 65535;
+
+    /** true为PBR条目，false为ACL条目 */
+    public final boolean pbr;
+    /** ACL条目：permit为true，deny为false；PBR条目恒为true */
+    public final boolean permit;
+    /** 地址按prefixCube(int[], int, long[], int)的格式保存：第i位是 words[i / 64] 的第 i % 64 位 */
+    public final long[] srcIp, dstIp;
+    public final int srcPrefixLen, dstPrefixLen;
+    public final int srcPortLo, srcPortHi, dstPortLo, dstPortHi;
+    /** ANY_PROTOCOL表示任意协议 */
+    public final int protocol;
+    /** PBR条目的转发动作，ACL条目为null */
+    public final ForwardAction forwardAction;
+
+    public AclRule(boolean pbr, boolean permit, long[] srcIp, int srcPrefixLen, long[] dstIp, int dstPrefixLen,
+                   int srcPortLo, int srcPortHi, int dstPortLo, int dstPortHi, int protocol, ForwardAction forwardAction) {
+        this.pbr = pbr;
+        this.permit = permit;
+        this.srcIp = srcIp;
+        this.srcPrefixLen = srcPrefixLen;
+        this.dstIp = dstIp;
+        this.dstPrefixLen = dstPrefixLen;
+        this.srcPortLo = srcPortLo;
+        this.srcPortHi = srcPortHi;
+        this.dstPortLo = dstPortLo;
+        this.dstPortHi = dstPortHi;
+        this.protocol = protocol;
+        this.forwardAction = forwardAction;
+    }
+
+    public static class Reader {
+        public final List<AclRule> rules = new ArrayList<>();
+        public int skippedLines;
+        // 同一转发动作只创建一个ForwardAction
+        private final Map<ForwardAction, ForwardAction> actions = new HashMap<>();
+    }
+
+    /**
+     * 读取一个策略文件，条目保持文件中的顺序
+     */
+    public static Reader read(String filename) throws IOException {
+        ForwardType.init();
+        Reader reader = new Reader();
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                AclRule rule;
+                try {
+                    rule = parse(line.split("\\s+"), reader.actions);
+                } catch (IllegalArgumentException | UnknownHostException e) {
+                    rule = null;
+                }
+                if (rule == null) reader.skippedLines++;
+                else reader.rules.add(rule);
+            }
+        }
+        return reader;
+    }
+
+    private static AclRule parse(String[] token, Map<ForwardAction, ForwardAction> actions) throws UnknownHostException {
+        boolean pbr;
+        if (token[0].equals("acl")) pbr = false;
+        else if (token[0].equals("pbr")) pbr = true;
+        else return null;
+        if (token.length < (pbr ? 10 : 9)) return null;
+
+        boolean permit = true;
+        ForwardAction action = null;
+        if (pbr) {
+            ForwardType type = forwardType(token[1]);
+            if (type == null) return null;
+            action = new ForwardAction(type, new HashSet<>(Arrays.asList(token).subList(9, token.length)));
+            ForwardAction shared = actions.putIfAbsent(action, action);
+            if (shared != null) action = shared;
+        } else if (token[1].equals("deny")) {
+            permit = false;
+        } else if (!token[1].equals("permit")) {
+            return null;
+        }
+
+        boolean anySrc = isAny(token[2]), anyDst = isAny(token[4]);
+        int[] srcPort = portRange(token[6]), dstPort = portRange(token[7]);
+        return new AclRule(pbr, permit,
+                anySrc ? new long[2] : address(token[2]), anySrc ? 0 : Integer.parseInt(token[3]),
+                anyDst ? new long[2] : address(token[4]), anyDst ? 0 : Integer.parseInt(token[5]),
+                srcPort[0], srcPort[1], dstPort[0], dstPort[1], protocol(token[8]), action);
+    }
+
+    private static ForwardType forwardType(String token) {
+        switch (token) {
+            case "fw":
+            case "ALL":
+                return ForwardType.ALL;
+            case "ANY":
+            case "any":
+                return ForwardType.ANY;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isAny(String token) {
+        return token.equals("*") || token.equals("any");
+    }
+
+    private static long[] address(String token) throws UnknownHostException {
+        if (token.indexOf('.') >= 0 || token.indexOf(':') >= 0) return Utility.ipToLongArray(token);
+        return new long[]{Long.parseLong(token), 0};
+    }
+
+    private static int[] portRange(String token) {
+        if (isAny(token)) return new int[]{0, MAX_PORT};
+        int dash = token.indexOf('-');
+        int lo = Integer.parseInt(dash < 0 ? token : token.substring(0, dash));
+        int hi = dash < 0 ? lo : Integer.parseInt(token.substring(dash + 1));
+        if (lo < 0 || hi > MAX_PORT || lo > hi) throw new IllegalArgumentException("端口范围错误: " + token);
+        return new int[]{lo, hi};
+    }
+
+    private static int protocol(String token) {
+        if (isAny(token)) return ANY_PROTOCOL;
+        switch (token) {
+            case "tcp":
+                return 6;
+            case "udp":
+                return 17;
+            case "icmp":
+                return 1;
+            default:
+                int p = Integer.parseInt(token);
+                if (p < 0 || p > 255) throw new IllegalArgumentException("协议号错误: " + token);
+                return p;
+        }
+    }
+
+    public boolean anySrcPort() {
+        return srcPortLo == 0 && srcPortHi == MAX_PORT;
+    }
+
+    public boolean anyDstPort() {
+        return dstPortLo == 0 && dstPortHi == MAX_PORT;
+    }
+}
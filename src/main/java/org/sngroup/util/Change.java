@@ -1,30 +1,35 @@
-//package org.sngroup.util;
-//
-//public class Change {
-//    public int predicate;
-//    public ForwardAction oldAction;
-//    public ForwardAction newAction;
-//
-//    public Change(int predicate, ForwardAction oldAction, ForwardAction newAction) {
-//        this.predicate = predicate;
-//        this.oldAction = oldAction;
-//        this.newAction = newAction;
-//    }
-//
-//    public int getHit() {
-//        return predicate;
-//    }
-//
-//    public ForwardAction getNewAction() {
-//        return newAction;
-//    }
-//
-//    public ForwardAction getOldAction() {
-//        return oldAction;
-//    }
-//
-//    @Override
-//    public String toString() {
-//        return String.format("pred:%s from:%s to:%s", predicate, oldAction, newAction);
-//    }
-//}
\ No newline at end of file
+package org.sngroup.util;
+
+/**
+ * 规则更新引起的一段LEC变化：predicate中的包从oldAction改为由newAction转发
+ * oldAction为null表示这些包原来不属于任何动作（新增），newAction为null表示不再属于该动作（移除）
+ * predicate是srcBdd中已ref的BDD节点，由处理该变化的一方deref
+ */
+public class Change {
+    public int predicate;
+    public ForwardAction oldAction;
+    public ForwardAction newAction;
+
+    public Change(int predicate, ForwardAction oldAction, ForwardAction newAction) {
+        this.predicate = predicate;
+        this.oldAction = oldAction;
+        this.newAction = newAction;
+    }
+
+    public int getHit() {
+        return predicate;
+    }
+
+    public ForwardAction getNewAction() {
+        return newAction;
+    }
+
+    public ForwardAction getOldAction() {
+        return oldAction;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pred:%s from:%s to:%s", predicate, oldAction, newAction);
+    }
+}
@@ -0,0 +1,389 @@
+package org.sngroup.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 设备规则文件（"fw|ALL|ANY|any ip prefix port..."）的共享读取器
+ *
+ * 规则文件按窗口内存映射，直接在字节上切分和解析字段，结果放在原始类型数组中：
+ * ip[]/prefixLen[]/actionId[]（第i条规则），文本地址（IPv6和IPv4_S）放在address[]。
+ * 端口名在读取过程中驻留到端口字典，同一转发动作（类型+端口集合）只创建一个ForwardAction，
+ * 各条规则共享，因此每条规则不再分配端口字符串和端口集合。
+ *
+ * 与原来的逐行split读取相同：第一个字段不是fw/ALL/ANY/any或没有端口的行被忽略，
+ * 数字字段格式错误的行也被跳过，只计入skippedLines。
+ */
+public final class FibReader {
+
+    /** 每次映射的最大字节数，更大的文件分多个窗口读取 */
+    private static final long WINDOW = 1L << 30;
+
+    public int size;
+    /** 数字形式的IPv4地址，address != null时不使用 */
+    public long[] ip;
+    public int[] prefixLen;
+    public int[] actionId;
+    /** 文本形式的地址，只有按文本读取地址时才不为null */
+    public String[] address;
+    /** 格式错误而被跳过的规则行数 */
+    public int skippedLines;
+
+    private final boolean textAddress;
+    private final boolean stripPortSuffix;
+
+    // 端口字典：按端口名字节做开放寻址
+    private final List<String> ports = new ArrayList<>();
+    private byte[][] portBytes = new byte[16][];
+    private int[] portSlots = new int[64]; // 端口ID+1，0表示空槽
+
+    // 转发动作字典
+    private final List<ForwardAction> actions = new ArrayList<>();
+    private final List<int[]> actionPorts = new ArrayList<>();
+    private final Map<ActionKey, Integer> actionIndex = new HashMap<>();
+    private final ActionKey probe = new ActionKey();
+    private int[] portBuffer = new int[16];
+
+    private FibReader(boolean textAddress, boolean stripPortSuffix, int capacity) {
+        this.textAddress = textAddress;
+        this.stripPortSuffix = stripPortSuffix;
+        ip = textAddress ? null : new long[capacity];
+        address = textAddress ? new String[capacity] : null;
+        prefixLen = new int[capacity];
+        actionId = new int[capacity];
+    }
+
+    /**
+     * 读取一个规则文件
+     * @param textAddress 地址按文本保存（IPv6和IPv4_S），否则按十进制IPv4整数解析
+     * @param stripPortSuffix 端口名只保留第一个"."之前的部分
+     */
+    public static FibReader read(String filename, boolean textAddress, boolean stripPortSuffix) throws IOException {
+        ForwardType.init();
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long length = channel.size();
+            FibReader fib = new FibReader(textAddress, stripPortSuffix, (int) Math.min(1 << 24, length / 24 + 16));
+            long position = 0;
+            while (position < length) {
+                long window = Math.min(WINDOW, length - position);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                boolean last = position + window == length;
+                int consumed = fib.parse(buffer, (int) window, last);
+                if (consumed == 0) {
+                    throw new IOException("规则行超过" + WINDOW + "字节: " + filename);
+                }
+                position += consumed;
+            }
+            fib.trim();
+            return fib;
+        }
+    }
+
+    /**
+     * 读取一个设备的规则：规则目录有可用的快照时从快照读取（见FibSnapshot），否则读取文本规则文件
+     */
+    public static FibReader load(String filename, boolean textAddress, boolean stripPortSuffix) throws IOException {
+        FibReader fib = FibSnapshot.load(filename, textAddress, stripPortSuffix);
+        return fib != null ? fib : read(filename, textAddress, stripPortSuffix);
+    }
+
+    /**
+     * 由快照中的列构造，端口和动作按读取文本时的规则重新驻留，
+     * 因此去掉端口后缀后相同的端口和动作会被合并
+     */
+    static FibReader fromColumns(boolean textAddress, boolean stripPortSuffix, int size, long[] ip, String[] address,
+                                 int[] prefixLen, int[] actionId, String[] ports, ForwardType[] types, int[][] actionPorts) {
+        FibReader fib = new FibReader(textAddress, stripPortSuffix, 0);
+        fib.size = size;
+        fib.ip = ip;
+        fib.address = address;
+        fib.prefixLen = prefixLen;
+        fib.actionId = actionId;
+
+        int[] portMap = new int[ports.length];
+        for (int p = 0; p < ports.length; p++) {
+            byte[] name = ports[p].getBytes(StandardCharsets.UTF_8);
+            int len = name.length;
+            if (stripPortSuffix) {
+                for (int i = 0; i < len; i++) {
+                    if (name[i] == '.') { len = i; break; }
+                }
+            }
+            portMap[p] = fib.internPort(ByteBuffer.wrap(name), 0, len);
+        }
+        int[] actionMap = new int[types.length];
+        for (int a = 0; a < types.length; a++) {
+            int[] ids = actionPorts[a];
+            if (fib.portBuffer.length < ids.length) fib.portBuffer = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) fib.portBuffer[i] = portMap[ids[i]];
+            actionMap[a] = fib.internAction(types[a], ids.length);
+        }
+        for (int i = 0; i < size; i++) actionId[i] = actionMap[actionId[i]];
+        return fib;
+    }
+
+    // ========== 读取结果 ==========
+    public int actionCount() {
+        return actions.size();
+    }
+
+    public ForwardAction action(int id) {
+        return actions.get(id);
+    }
+
+    /** 动作的端口集合（HashSet），与action(id).ports是同一个对象，不能修改 */
+    @SuppressWarnings("unchecked")
+    public Set<String> portSet(int id) {
+        return (Set<String>) actions.get(id).ports;
+    }
+
+    /** 动作的端口ID，升序 */
+    public int[] actionPortIds(int id) {
+        return actionPorts.get(id);
+    }
+
+    public int portCount() {
+        return ports.size();
+    }
+
+    public String port(int id) {
+        return ports.get(id);
+    }
+
+    // ========== 解析 ==========
+
+    /**
+     * 解析缓冲区中的完整行
+     * @param last 缓冲区是否到达文件末尾，不是的话最后一个不完整的行留给下一个窗口
+     * @return 消费的字节数
+     */
+    private int parse(ByteBuffer buf, int limit, boolean last) {
+        int pos = 0;
+        while (pos < limit) {
+            int end = pos;
+            while (end < limit && buf.get(end) != '\n') end++;
+            if (end == limit && !last) break;
+            parseLine(buf, pos, end);
+            pos = end + 1;
+        }
+        return Math.min(pos, limit);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private void parseLine(ByteBuffer buf, int pos, int end) {
+        while (pos < end && isSpace(buf.get(pos))) pos++;
+        int tokenEnd = pos;
+        while (tokenEnd < end && !isSpace(buf.get(tokenEnd))) tokenEnd++;
+        ForwardType type = forwardType(buf, pos, tokenEnd - pos);
+        if (type == null) return;
+
+        // 地址
+        pos = skipSpace(buf, tokenEnd, end);
+        int addrStart = pos;
+        pos = skipToken(buf, pos, end);
+        int addrEnd = pos;
+        // 前缀长度
+        pos = skipSpace(buf, pos, end);
+        int lenStart = pos;
+        pos = skipToken(buf, pos, end);
+        int lenEnd = pos;
+
+        // 端口
+        int portCount = 0;
+        pos = skipSpace(buf, pos, end);
+        while (pos < end) {
+            int portStart = pos;
+            pos = skipToken(buf, pos, end);
+            int portEnd = pos;
+            if (stripPortSuffix) {
+                for (int i = portStart; i < portEnd; i++) {
+                    if (buf.get(i) == '.') { portEnd = i; break; }
+                }
+            }
+            if (portCount == portBuffer.length) portBuffer = Arrays.copyOf(portBuffer, portCount * 2);
+            portBuffer[portCount++] = internPort(buf, portStart, portEnd);
+            pos = skipSpace(buf, pos, end);
+        }
+        if (portCount == 0) return;
+
+        long addr = 0;
+        if (!textAddress) {
+            addr = parseNumber(buf, addrStart, addrEnd);
+            if (addr < 0) { skippedLines++; return; }
+        }
+        long len = parseNumber(buf, lenStart, lenEnd);
+        if (len < 0 || len > Integer.MAX_VALUE) { skippedLines++; return; }
+
+        ensureCapacity(size + 1);
+        if (textAddress) address[size] = ascii(buf, addrStart, addrEnd);
+        else ip[size] = addr;
+        prefixLen[size] = (int) len;
+        actionId[size] = internAction(type, portCount);
+        size++;
+    }
+
+    private static int skipSpace(ByteBuffer buf, int pos, int end) {
+        while (pos < end && isSpace(buf.get(pos))) pos++;
+        return pos;
+    }
+
+    private static int skipToken(ByteBuffer buf, int pos, int end) {
+        while (pos < end && !isSpace(buf.get(pos))) pos++;
+        return pos;
+    }
+
+    private static ForwardType forwardType(ByteBuffer buf, int pos, int len) {
+        if (len == 2 && buf.get(pos) == 'f' && buf.get(pos + 1) == 'w') return ForwardType.ALL;
+        if (len != 3) return null;
+        byte a = buf.get(pos), b = buf.get(pos + 1), c = buf.get(pos + 2);
+        if (a == 'A' && b == 'L' && c == 'L') return ForwardType.ALL;
+        if (a == 'A' && b == 'N' && c == 'Y') return ForwardType.ANY;
+        if (a == 'a' && b == 'n' && c == 'y') return ForwardType.ANY;
+        return null;
+    }
+
+    /** 非负十进制整数，空或含非数字字符时返回-1 */
+    private static long parseNumber(ByteBuffer buf, int pos, int end) {
+        if (pos == end || end - pos > 18) return -1;
+        long value = 0;
+        for (int i = pos; i < end; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static String ascii(ByteBuffer buf, int pos, int end) {
+        byte[] bytes = new byte[end - pos];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(pos + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int internPort(ByteBuffer buf, int pos, int end) {
+        int hash = 0x811C9DC5;
+        for (int i = pos; i < end; i++) hash = (hash ^ buf.get(i)) * 0x01000193;
+        int mask = portSlots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = portSlots[slot] - 1;
+            if (id < 0) break;
+            byte[] name = portBytes[id];
+            if (name.length == end - pos && sameBytes(buf, pos, name)) return id;
+        }
+
+        int id = ports.size();
+        byte[] name = new byte[end - pos];
+        for (int i = 0; i < name.length; i++) name[i] = buf.get(pos + i);
+        ports.add(new String(name, StandardCharsets.UTF_8).intern());
+        if (id == portBytes.length) portBytes = Arrays.copyOf(portBytes, id * 2);
+        portBytes[id] = name;
+        if ((id + 1) * 2 > portSlots.length) rehashPorts(portSlots.length * 2);
+        else insertPortSlot(hash, id);
+        return id;
+    }
+
+    private static boolean sameBytes(ByteBuffer buf, int pos, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (buf.get(pos + i) != name[i]) return false;
+        }
+        return true;
+    }
+
+    private void insertPortSlot(int hash, int id) {
+        int mask = portSlots.length - 1;
+        int slot = hash & mask;
+        while (portSlots[slot] != 0) slot = (slot + 1) & mask;
+        portSlots[slot] = id + 1;
+    }
+
+    private void rehashPorts(int capacity) {
+        portSlots = new int[capacity];
+        for (int id = 0; id < ports.size(); id++) {
+            int hash = 0x811C9DC5;
+            for (byte b : portBytes[id]) hash = (hash ^ b) * 0x01000193;
+            insertPortSlot(hash, id);
+        }
+    }
+
+    /** portBuffer[0..count)中的端口去重排序后查找或创建转发动作 */
+    private int internAction(ForwardType type, int count) {
+        Arrays.sort(portBuffer, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || portBuffer[unique - 1] != portBuffer[i]) portBuffer[unique++] = portBuffer[i];
+        }
+        probe.set(type, portBuffer, unique);
+        Integer id = actionIndex.get(probe);
+        if (id != null) return id;
+
+        int[] portIds = Arrays.copyOf(portBuffer, unique);
+        Set<String> portNames = new HashSet<>();
+        for (int p : portIds) portNames.add(ports.get(p));
+        id = actions.size();
+        actions.add(new ForwardAction(type, portNames));
+        actionPorts.add(portIds);
+        ActionKey key = new ActionKey();
+        key.set(type, portIds, unique);
+        actionIndex.put(key, id);
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= prefixLen.length) return;
+        int newCapacity = Math.max(capacity, prefixLen.length + (prefixLen.length >> 1));
+        if (textAddress) address = Arrays.copyOf(address, newCapacity);
+        else ip = Arrays.copyOf(ip, newCapacity);
+        prefixLen = Arrays.copyOf(prefixLen, newCapacity);
+        actionId = Arrays.copyOf(actionId, newCapacity);
+    }
+
+    /** 多余容量超过1/8时收缩数组 */
+    private void trim() {
+        if (prefixLen.length - size <= prefixLen.length >> 3) return;
+        if (textAddress) address = Arrays.copyOf(address, size);
+        else ip = Arrays.copyOf(ip, size);
+        prefixLen = Arrays.copyOf(prefixLen, size);
+        actionId = Arrays.copyOf(actionId, size);
+    }
+
+    /** 转发动作字典的键：类型+升序端口ID */
+    private static final class ActionKey {
+        ForwardType type;
+        int[] portIds;
+        int count, hash;
+
+        void set(ForwardType type, int[] portIds, int count) {
+            this.type = type;
+            this.portIds = portIds;
+            this.count = count;
+            int h = type == ForwardType.ANY ? 1 : 0;
+            for (int i = 0; i < count; i++) h = h * 31 + portIds[i];
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ActionKey)) return false;
+            ActionKey that = (ActionKey) o;
+            if (type != that.type || count != that.count) return false;
+            for (int i = 0; i < count; i++) {
+                if (portIds[i] != that.portIds[i]) return false;
+            }
+            return true;
+        }
+    }
+}
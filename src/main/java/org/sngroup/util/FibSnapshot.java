@@ -0,0 +1,324 @@
+package org.sngroup.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 规则目录的二进制列式快照
+ *
+ * 一个规则目录（每个设备一个文本规则文件）对应一个快照文件，默认在规则目录旁边，名为"<规则目录>.fibsnap"。
+ * 文件结构（大端序）：
+ *   文件头  magic(8) version(4) flags(4) deviceCount(4) indexOffset(8) indexLength(4) indexCrc(4)
+ *   设备块  端口字典 | 动作表（类型+端口ID） | actionId宽度(1) | 地址列 | 前缀长度列(1字节) | actionId列(1/2/4字节)
+ *   索引    每个设备：名称、源文件长度、块偏移、块长度、规则数、块CRC32
+ * 数字地址按4字节无符号整数存储，文本地址（IPv6和IPv4_S）按长度+UTF-8存储。端口名按原样保存，
+ * 读取时需要去掉"."后缀的话再合并端口和动作。
+ *
+ * 读取时按设备映射对应的块并校验CRC，得到与FibReader.read相同的FibReader。
+ * 源规则文件比快照新、长度与转换时不同、地址格式不一致或校验失败时不使用快照，回退到文本读取。
+ */
+public final class FibSnapshot {
+
+    private static final byte[] MAGIC = "TUFIBSNP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int FLAG_TEXT_ADDRESS = 1;
+    private static final int HEADER_SIZE = 36;
+    private static final int TYPE_ALL = 0, TYPE_ANY = 1;
+
+    /** -Dfib.snapshot=false 关闭快照；-Dfib.snapshot.path 指定快照文件，默认"<规则目录>.fibsnap" */
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("fib.snapshot", "true"));
+    private static final String PATH = System.getProperty("fib.snapshot.path");
+
+    /** 已打开的快照，按快照路径缓存；不存在或无效的快照记为MISSING */
+    private static final Map<String, FibSnapshot> opened = new ConcurrentHashMap<>();
+    private static final FibSnapshot MISSING = new FibSnapshot();
+
+    private static final class Block {
+        long sourceLength, offset;
+        int length, rules, crc;
+    }
+
+    private final Map<String, Block> index = new HashMap<>();
+    private FileChannel channel;
+    private long lastModified;
+    private boolean textAddress;
+    private String path;
+
+    private FibSnapshot() {
+    }
+
+    // ========== 读取 ==========
+
+    /**
+     * 从规则目录的快照中读取一个设备的规则
+     * @return 快照不可用于该规则文件时返回null
+     */
+    public static FibReader load(String ruleFile, boolean textAddress, boolean stripPortSuffix) {
+        if (!ENABLED) return null;
+        File source = new File(ruleFile);
+        File dir = source.getAbsoluteFile().getParentFile();
+        if (dir == null) return null;
+        String path = PATH != null ? PATH : dir.getPath() + ".fibsnap";
+        FibSnapshot snapshot = opened.computeIfAbsent(path, FibSnapshot::openOrMissing);
+        if (snapshot == MISSING) return null;
+        return snapshot.read(source, textAddress, stripPortSuffix);
+    }
+
+    private static FibSnapshot openOrMissing(String path) {
+        if (!new File(path).isFile()) return MISSING;
+        try {
+            FibSnapshot snapshot = open(path);
+            System.out.println("使用规则快照 " + path + "，共 " + snapshot.index.size() + " 个设备");
+            return snapshot;
+        } catch (IOException e) {
+            System.err.println("规则快照 " + path + " 无效，回退到文本规则文件: " + e.getMessage());
+            return MISSING;
+        }
+    }
+
+    public static FibSnapshot open(String path) throws IOException {
+        FibSnapshot snapshot = new FibSnapshot();
+        snapshot.path = path;
+        snapshot.lastModified = new File(path).lastModified();
+        snapshot.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = snapshot.channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, snapshot.channel.size()));
+            if (header.remaining() < HEADER_SIZE) throw new IOException("文件头不完整");
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("不是规则快照文件");
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("不支持的快照版本 " + version);
+            snapshot.textAddress = (header.getInt() & FLAG_TEXT_ADDRESS) != 0;
+            int devices = header.getInt();
+            long indexOffset = header.getLong();
+            int indexLength = header.getInt();
+            int indexCrc = header.getInt();
+
+            ByteBuffer buf = snapshot.channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexLength);
+            if (crc(buf) != indexCrc) throw new IOException("索引校验失败");
+            for (int i = 0; i < devices; i++) {
+                String name = readString(buf);
+                Block block = new Block();
+                block.sourceLength = buf.getLong();
+                block.offset = buf.getLong();
+                block.length = buf.getInt();
+                block.rules = buf.getInt();
+                block.crc = buf.getInt();
+                snapshot.index.put(name, block);
+            }
+        } catch (IOException | RuntimeException e) {
+            snapshot.channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return snapshot;
+    }
+
+    public boolean isTextAddress() {
+        return textAddress;
+    }
+
+    public Set<String> devices() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /** @return 快照中没有该设备、已过期、地址格式不一致或校验失败时返回null */
+    public FibReader read(File source, boolean textAddress, boolean stripPortSuffix) {
+        Block block = index.get(source.getName());
+        if (block == null || textAddress != this.textAddress) return null;
+        if (source.length() != block.sourceLength || source.lastModified() > lastModified) return null;
+        try {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, block.offset, block.length);
+            if (crc(buf) != block.crc) {
+                System.err.println("规则快照 " + path + " 中设备 " + source.getName() + " 的数据块校验失败，改为读取文本规则");
+                return null;
+            }
+            return decode(buf, block.rules, stripPortSuffix);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("读取规则快照 " + path + " 中设备 " + source.getName() + " 失败: " + e);
+            return null;
+        }
+    }
+
+    private FibReader decode(ByteBuffer buf, int size, boolean stripPortSuffix) {
+        String[] ports = new String[buf.getInt()];
+        for (int i = 0; i < ports.length; i++) ports[i] = readString(buf);
+
+        ForwardType.init();
+        ForwardType[] types = new ForwardType[buf.getInt()];
+        int[][] actionPorts = new int[types.length][];
+        for (int a = 0; a < types.length; a++) {
+            types[a] = buf.get() == TYPE_ANY ? ForwardType.ANY : ForwardType.ALL;
+            int[] ids = new int[buf.getInt()];
+            for (int i = 0; i < ids.length; i++) ids[i] = buf.getInt();
+            actionPorts[a] = ids;
+        }
+        int width = buf.get();
+
+        long[] ip = null;
+        String[] address = null;
+        if (textAddress) {
+            address = new String[size];
+            byte[] tmp = new byte[64];
+            for (int i = 0; i < size; i++) {
+                int len = buf.getShort() & 0xFFFF;
+                if (len > tmp.length) tmp = new byte[len];
+                buf.get(tmp, 0, len);
+                address[i] = new String(tmp, 0, len, StandardCharsets.UTF_8);
+            }
+        } else {
+            ip = new long[size];
+            for (int i = 0; i < size; i++) ip[i] = buf.getInt() & 0xFFFFFFFFL;
+        }
+        int[] prefixLen = new int[size];
+        for (int i = 0; i < size; i++) prefixLen[i] = buf.get() & 0xFF;
+        int[] actionId = new int[size];
+        for (int i = 0; i < size; i++) {
+            actionId[i] = width == 1 ? buf.get() & 0xFF : width == 2 ? buf.getShort() & 0xFFFF : buf.getInt();
+        }
+        return FibReader.fromColumns(textAddress, stripPortSuffix, size, ip, address, prefixLen, actionId, ports, types, actionPorts);
+    }
+
+    // ========== 转换 ==========
+
+    /**
+     * 把规则目录中的所有规则文件转换为一个快照文件，先写临时文件再替换
+     * @param textAddress 地址按文本保存（IPv6和IPv4_S网络）
+     * @return 转换的设备数
+     */
+    public static int write(File ruleDir, File output, boolean textAddress) throws IOException {
+        File[] files = ruleDir.listFiles(f -> f.isFile() && !f.isHidden());
+        if (files == null) throw new IOException("规则目录不存在: " + ruleDir);
+        Arrays.sort(files);
+
+        File tmp = new File(output.getPath() + ".tmp");
+        List<String> names = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = HEADER_SIZE;
+            out.position(offset);
+            for (File file : files) {
+                long sourceLength = file.length();
+                FibReader fib = FibReader.read(file.getPath(), textAddress, false);
+                ByteBuffer buf = encode(fib, textAddress);
+                Block block = new Block();
+                block.sourceLength = sourceLength;
+                block.offset = offset;
+                block.length = buf.remaining();
+                block.rules = fib.size;
+                block.crc = crc(buf);
+                writeFully(out, buf);
+                offset += block.length;
+                names.add(file.getName());
+                blocks.add(block);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(bytes);
+            for (int i = 0; i < names.size(); i++) {
+                Block block = blocks.get(i);
+                byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+                index.writeShort(name.length);
+                index.write(name);
+                index.writeLong(block.sourceLength);
+                index.writeLong(block.offset);
+                index.writeInt(block.length);
+                index.writeInt(block.rules);
+                index.writeInt(block.crc);
+            }
+            ByteBuffer indexBuf = ByteBuffer.wrap(bytes.toByteArray());
+            int indexCrc = crc(indexBuf);
+            writeFully(out, indexBuf);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putInt(VERSION).putInt(textAddress ? FLAG_TEXT_ADDRESS : 0).putInt(names.size())
+                    .putLong(offset).putInt(bytes.size()).putInt(indexCrc);
+            header.flip();
+            out.position(0);
+            writeFully(out, header);
+            out.force(true);
+        }
+        Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        opened.remove(output.getPath());
+        opened.remove(output.getAbsolutePath());
+        return names.size();
+    }
+
+    private static ByteBuffer encode(FibReader fib, boolean textAddress) {
+        int actions = fib.actionCount();
+        int width = actions <= 0x100 ? 1 : actions <= 0x10000 ? 2 : 4;
+
+        byte[][] ports = new byte[fib.portCount()][];
+        long size = 4 + 4 + 1 + (long) fib.size * (1 + width);
+        for (int p = 0; p < ports.length; p++) {
+            ports[p] = fib.port(p).getBytes(StandardCharsets.UTF_8);
+            size += 2 + ports[p].length;
+        }
+        for (int a = 0; a < actions; a++) size += 1 + 4 + 4L * fib.actionPortIds(a).length;
+        byte[][] address = null;
+        if (textAddress) {
+            address = new byte[fib.size][];
+            for (int i = 0; i < fib.size; i++) {
+                address[i] = fib.address[i].getBytes(StandardCharsets.UTF_8);
+                size += 2 + address[i].length;
+            }
+        } else {
+            size += 4L * fib.size;
+            for (int i = 0; i < fib.size; i++) {
+                if (fib.ip[i] > 0xFFFFFFFFL) throw new IllegalStateException("地址超出IPv4范围: " + fib.ip[i]);
+            }
+        }
+        if (size > Integer.MAX_VALUE) throw new IllegalStateException("单个设备的规则过多，无法写入快照");
+
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        buf.putInt(ports.length);
+        for (byte[] port : ports) buf.putShort((short) port.length).put(port);
+        buf.putInt(actions);
+        for (int a = 0; a < actions; a++) {
+            int[] ids = fib.actionPortIds(a);
+            buf.put((byte) (fib.action(a).forwardType == ForwardType.ANY ? TYPE_ANY : TYPE_ALL));
+            buf.putInt(ids.length);
+            for (int id : ids) buf.putInt(id);
+        }
+        buf.put((byte) width);
+        for (int i = 0; i < fib.size; i++) {
+            if (textAddress) buf.putShort((short) address[i].length).put(address[i]);
+            else buf.putInt((int) fib.ip[i]);
+        }
+        for (int i = 0; i < fib.size; i++) buf.put((byte) fib.prefixLen[i]);
+        for (int i = 0; i < fib.size; i++) {
+            int id = fib.actionId[i];
+            if (width == 1) buf.put((byte) id);
+            else if (width == 2) buf.putShort((short) id);
+            else buf.putInt(id);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // ========== 工具方法 ==========
+
+    private static int crc(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) out.write(buf);
+    }
+}
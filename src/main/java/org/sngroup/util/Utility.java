@@ -149,6 +149,17 @@ public class Utility {
 		return binaryArray;
 	}
 
+	// 将ip地址按位从低到高打包成两个long：第i位在words[i / 64]的第(i % 64)位，位序与ipv6ToBinaryArray一致
+	public static long[] ipToLongArray(String ipAddress) throws UnknownHostException{
+		byte[] ipAddressBytes = InetAddress.getByName(ipAddress).getAddress();
+		long[] words = new long[2];
+		for(int i = 0; i < ipAddressBytes.length; i++){
+			int shift = (ipAddressBytes.length - i - 1) * 8;
+			words[shift >>> 6] |= (ipAddressBytes[i] & 0xFFL) << (shift & 63);
+		}
+		return words;
+	}
+
 	public static String charToInt8bit(char[] c, int start){
 		if(c.length < start+7) return "";
 		int result = 0;
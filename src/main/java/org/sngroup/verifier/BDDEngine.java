@@ -1,14 +1,19 @@
 package org.sngroup.verifier;
 
 import jdd.bdd.BDD;
+import jdd.bdd.ConcurrentBDD;
 import jdd.bdd.BDDNames;
 import jdd.util.Allocator;
+import org.sngroup.util.AclRule;
 import org.sngroup.util.IPPrefix;
 import org.sngroup.util.IPPrefixIPV6;
 import org.sngroup.util.Utility;
 
 import java.io.Serializable;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -37,15 +42,80 @@ public class BDDEngine implements Cloneable, Serializable {
     final static int portBits = 16;
     public static int ipBits = 32;
 
-    final static int srcIPStartIndex = 0;
-    final static int dstIPStartIndex = srcIPStartIndex + ipBits;
-    final static int srcPortStartIndex = dstIPStartIndex + ipBits;
-    final static int dstPortStartIndex = srcPortStartIndex + portBits;
-    final static int protocolStartIndex = dstPortStartIndex + portBits;
+    // 各字段第一个变量的编号（声明顺序），未声明的字段为-1，见declareFields
+    static int srcIPStartIndex = -1;
+    static int dstIPStartIndex = -1;
+    static int srcPortStartIndex = -1;
+    static int dstPortStartIndex = -1;
+    static int protocolStartIndex = -1;
+
+    static int size = 0;
+
+    // ========== 新增：可配置的变量布局 ==========
+    // -Dbdd.fields 按从上到下的顺序列出要声明变量的包头字段，默认全部五个字段；
+    // 未列出的字段不声明变量，例如规则只匹配目的地址时用 -Dbdd.fields=dstIP，dstIP必须保留
+    // -Dbdd.bitorder=lsb 时每个字段的最低位在最上层，默认msb（最高位在最上层，前缀只约束上面的若干层）
+    public static final String SRC_IP = "srcIP", DST_IP = "dstIP", SRC_PORT = "srcPort", DST_PORT = "dstPort", PROTOCOL = "protocol";
+    private static final List<String> FIELDS = parseFields(System.getProperty("bdd.fields",
+            String.join(",", SRC_IP, DST_IP, SRC_PORT, DST_PORT, PROTOCOL)));
+    private static final boolean MSB_FIRST = parseBitOrder(System.getProperty("bdd.bitorder", "msb"));
+
+    // -Dbdd.reorder=sift 时引擎在安全点（两次编码之间，见maybeReorder）按节点表大小触发sifting动态重排，
+    // -Dbdd.reorder.threshold 为触发重排的存活节点数，之后阈值调整为重排后节点数的两倍
+    private static final boolean REORDER = parseReorder(System.getProperty("bdd.reorder", "none"));
+    private static final int REORDER_THRESHOLD = Integer.getInteger("bdd.reorder.threshold", 200000);
+
+    private static List<String> parseFields(String value) {
+        List<String> fields = new ArrayList<>();
+        for (String field : value.split(",")) {
+            field = field.trim();
+            if (field.isEmpty()) continue;
+            if (!Arrays.asList(SRC_IP, DST_IP, SRC_PORT, DST_PORT, PROTOCOL).contains(field)) {
+                throw new IllegalArgumentException("bdd.fields中有未知字段: " + field);
+            }
+            if (fields.contains(field)) {
+                throw new IllegalArgumentException("bdd.fields中字段重复: " + field);
+            }
+            fields.add(field);
+        }
+        if (!fields.contains(DST_IP)) {
+            throw new IllegalArgumentException("bdd.fields必须包含dstIP: " + value);
+        }
+        return Collections.unmodifiableList(fields);
+    }
 
-    final static int size = protocolStartIndex + protocolBits;
+    private static boolean parseBitOrder(String value) {
+        if ("msb".equalsIgnoreCase(value)) return true;
+        if ("lsb".equalsIgnoreCase(value)) return false;
+        throw new IllegalArgumentException("bdd.bitorder只能是msb或lsb: " + value);
+    }
 
-    private static char[] set_chars = null;
+    private static boolean parseReorder(String value) {
+        if ("none".equalsIgnoreCase(value)) return false;
+        if ("sift".equalsIgnoreCase(value)) return true;
+        throw new IllegalArgumentException("bdd.reorder只能是none或sift: " + value);
+    }
+
+    /**
+     * 当前配置声明了变量的字段，按从上到下的顺序
+     */
+    public static List<String> getFields() {
+        return FIELDS;
+    }
+
+    public static boolean hasField(String field) {
+        return FIELDS.contains(field);
+    }
+
+    /**
+     * 变量布局的描述（字段顺序和位序），编码结果只在相同布局的引擎之间通用
+     */
+    public static String variableLayout() {
+        return String.join(",", FIELDS) + ";" + (MSB_FIRST ? "msb" : "lsb");
+    }
+    // ========== 新增结束 ==========
+
+    private char[] set_chars = null;  // printSet的工作区，按引擎独立，允许多个引擎并行解码
     static int[] protocol;
     static int[] srcPort;
     static int[] dstPort;
@@ -57,20 +127,8 @@ public class BDDEngine implements Cloneable, Serializable {
 
     static int[] dstIPField;
 
-    // ========== 新增：NP-BDD组件（全局共享，默认启用） ==========
-    /**
-     * 全局谓词注册表 - 所有BDDEngine实例共享
-     * 实现HeTu论文中的谓词级索引机制
-     */
-    private static final BDDPredicateRegistry predicateRegistry =
-        BDDPredicateRegistry.getInstance();
-
-    /**
-     * 全局三层缓存 - 所有BDDEngine实例共享
-     * 实现HeTu论文中的网络级缓存机制
-     */
-    private static final BDDPredicateCache predicateCache =
-        BDDPredicateCache.getInstance();
+    // ========== 新增：NP-BDD组件（默认启用） ==========
+    // 谓词注册表和三层缓存由每个引擎的TSBDD各自持有，见TSBDD.getPredicateRegistry/getPredicateCache
 
     /**
      * 控制是否启用NP-BDD优化
@@ -102,31 +160,41 @@ public class BDDEngine implements Cloneable, Serializable {
     }
     // ========== 新增结束 ==========
 
+    // ========== 新增：堆外节点表 ==========
+    // -Dbdd.offheap=true 时，默认构造的引擎把节点表放在堆外（直接内存），
+    // 千万级节点的大表不再参与Java GC的复制和扫描，扩容时也不搬移已有节点
+    private static final boolean OFF_HEAP = Boolean.getBoolean("bdd.offheap");
+
+    // -Dbdd.concurrent=true 时，默认构造的引擎使用ConcurrentBDD（堆内），
+    // 多个验证线程可以共享同一个节点空间，同时调用and/or/xor/not/mk/ref/deref等基本操作；
+    // NP-BDD的谓词注册表和缓存仍然不是线程安全的，多线程共享时应使用不带缓存的操作
+    private static final boolean CONCURRENT = Boolean.getBoolean("bdd.concurrent");
+
+    // -Dbdd.complement=true 时，默认构造的引擎使用带补边的节点表：not为O(1)，
+    // 谓词与其补集共享全部节点（最长前缀匹配中的 NOT allBdd 不再构造镜像子图）
+    private static final boolean COMPLEMENT = Boolean.getBoolean("bdd.complement");
+
     public BDDEngine(){
+        this(OFF_HEAP);
+    }
+
+    /**
+     * @param offHeap 节点表是否放在堆外，API与行为和堆内节点表完全相同
+     */
+    public BDDEngine(boolean offHeap){
 //        if (bdd == null) {
-            bdd = new TSBDD(new BDD(500000, 1000000));
+            bdd = new TSBDD(CONCURRENT ? new ConcurrentBDD(500000, 1000000, COMPLEMENT) : new BDD(500000, 1000000, offHeap, COMPLEMENT));
             BDDCnt++;
 //            System.out.println("BDDCNT   " + BDDCnt);
 //            curBdd = BDDCnt;
-            protocol = new int[protocolBits];
-            srcPort = new int[portBits];
-            dstPort = new int[portBits];
-            srcIP = new int[ipBits];
-            dstIP = new int[ipBits];
-            dstIPField = new int[ipBits];
-            /**
-             * will try more orders of variables
-             */
-            DeclareSrcIP();
-            DeclareDstIP();
-            DeclareSrcPort();
-            DeclareDstPort();
-            DeclareProtocol();
-
-            dstIPField = AndInBatch(dstIP);
+            declareFields();
+            if (REORDER) {
+                bdd.bdd.setAutoReorder(REORDER_THRESHOLD);
+            }
 //        }
 
     }
+    // ========== 新增结束 ==========
 
     public void setIpv6Param(){
 
@@ -139,26 +207,103 @@ public class BDDEngine implements Cloneable, Serializable {
 //        bdd = new TSBDD(new BDD(10000, 10000));
 //        bdd = new TSBDD(new BDD(10000, 10000));
         this.bdd = new TSBDD(new BDD(500000, 1000000,srcBdd, isCopy));
+        // 节点表复制自srcBdd，谓词ID随之继承
+        this.bdd.inheritPredicatesFrom(srcBdd.bdd);
 
-        protocol = new int[protocolBits];
-        srcPort = new int[portBits];
-        dstPort = new int[portBits];
-        srcIP = new int[ipBits];
-        dstIP = new int[ipBits];
-        dstIPField = new int[ipBits];
-        /**
-         * will try more orders of variables
-         */
-        DeclareSrcIP();
-        DeclareDstIP();
-        DeclareSrcPort();
-        DeclareDstPort();
-        DeclareProtocol();
-
-        dstIPField = AndInBatch(dstIP);
+        declareFields();
 //        }
     }
 
+    // ========== 新增：快照拷贝 ==========
+
+    private BDDEngine(TSBDD bdd) {
+        this.bdd = bdd;
+    }
+
+    /**
+     * 拷贝本引擎：节点表数组用System.arraycopy整体复制，节点ID不变，
+     * 操作缓存按原大小新建为空，谓词ID随节点表继承。
+     * 变量数组是静态的，节点ID又保持不变，副本无需重新声明变量。
+     * 代替DVNet.copyBdd("Reflect")的逐元素反射拷贝。
+     */
+    public BDDEngine snapshot() {
+        BDDEngine copy = new BDDEngine(new TSBDD(new BDD(bdd.bdd)));
+        copy.bdd.inheritPredicatesFrom(this.bdd);
+        return copy;
+    }
+    // ========== 新增结束 ==========
+
+    // ========== 新增：共享基础节点表的验证引擎 ==========
+
+    /**
+     * 以冻结的base引擎为共享基础节点表创建覆盖引擎
+     * base中已编码的LEC/包空间BDD按原节点ID直接可用（只读），
+     * 本引擎新建的节点只写入私有的覆盖表，创建时不拷贝base的节点数组。
+     * 变量数组是静态的，与base共用，不再重新声明。
+     *
+     * @param base 已调用freeze()的引擎
+     * @param overlayNodes 覆盖表初始节点数（不够时自动增长）
+     * @param cacheSize 操作缓存大小
+     */
+    public BDDEngine(BDDEngine base, int overlayNodes, int cacheSize) {
+        this.bdd = new TSBDD(new BDD(base.bdd.bdd, overlayNodes, cacheSize));
+        // 基础节点ID不变，谓词ID随之继承
+        this.bdd.inheritPredicatesFrom(base.bdd);
+    }
+
+    // fork出的子引擎覆盖表初始节点数和操作缓存大小，两者都按需增长
+    private static final int FORK_NODES = Integer.getInteger("bdd.fork.nodes", 10000);
+    private static final int FORK_CACHE = Integer.getInteger("bdd.fork.cache", 32768);
+
+    /**
+     * fork子引擎：冻结本引擎（如尚未冻结），子引擎以本引擎为共享基础节点表。
+     * 不拷贝任何节点数组，子引擎只为自己新建的节点、引用计数和空闲链分配空间，
+     * 内存与其实际创建的节点数成正比。
+     */
+    public BDDEngine fork() {
+        if (!isFrozen()) {
+            freeze();
+        }
+        return new BDDEngine(this, FORK_NODES, FORK_CACHE);
+    }
+
+    /**
+     * 冻结本引擎的节点表，之后只能作为覆盖引擎的共享基础表，不能再创建节点或GC
+     */
+    public void freeze() {
+        bdd.bdd.freeze();
+    }
+
+    public boolean isFrozen() {
+        return bdd.bdd.isFrozen();
+    }
+
+    /**
+     * 解冻本引擎的节点表，使其可以再次创建节点和GC
+     * 只能在所有fork出的子引擎都不再使用之后调用（例如一轮验证结束后更新规则）
+     */
+    public void thaw() {
+        bdd.bdd.thaw();
+    }
+
+    public boolean isOverlay() {
+        return bdd.bdd.isOverlay();
+    }
+
+    public boolean isOffHeap() {
+        return bdd.bdd.isOffHeap();
+    }
+
+    /**
+     * 丢弃覆盖表中的全部节点并清空缓存，重新继承base的谓词ID，
+     * 使引擎池中的覆盖引擎可以被下一个TopoNet复用
+     */
+    public void resetOverlay(BDDEngine base) {
+        bdd.bdd.resetOverlay();
+        bdd.inheritPredicatesFrom(base.bdd);
+    }
+    // ========== 新增结束 ==========
+
     @Override
     public Object clone() {
         BDDEngine bddEngineCopy = null;
@@ -174,25 +319,78 @@ public class BDDEngine implements Cloneable, Serializable {
     }
 
 
-    private void DeclareProtocol() {
-        DeclareVars(protocol, protocolBits);
-    }
-
-    private void DeclareSrcPort() {
-        DeclareVars(srcPort, portBits);
+    /**
+     * 按bdd.fields的顺序在本引擎中声明各字段的变量，未列出的字段数组为null、起始编号为-1
+     *
+     * 变量在每个新节点表中按相同顺序创建，得到的变量节点ID相同，因此各字段数组是所有引擎共用的静态字段。
+     * 数组先在局部变量中建好，由publishFields对每种地址位数只发布一次：已发布的数组不再被置空或改写，
+     * 其他线程可以在新引擎构造期间继续使用它们。
+     */
+    private void declareFields() {
+        int[] start = {-1, -1, -1, -1, -1};
+        int[][] declared = new int[5][];
+        int index = 0;
+        for (String field : FIELDS) {
+            int slot, bits;
+            switch (field) {
+                case SRC_IP: slot = 0; bits = ipBits; break;
+                case DST_IP: slot = 1; bits = ipBits; break;
+                case SRC_PORT: slot = 2; bits = portBits; break;
+                case DST_PORT: slot = 3; bits = portBits; break;
+                default: slot = 4; bits = protocolBits; break;
+            }
+            start[slot] = index;
+            declared[slot] = new int[bits];
+            DeclareVars(declared[slot], bits);
+            index += bits;
+        }
+        publishFields(declared, start, index, AndInBatch(declared[1]));
     }
 
-    private void DeclareDstPort() {
-        DeclareVars(dstPort, portBits);
-    }
+    // 已发布的字段数组对应的地址位数，0表示尚未发布
+    private static int publishedIpBits = 0;
 
-    private void DeclareSrcIP() {
-        DeclareVars(srcIP, ipBits);
+    private static synchronized void publishFields(int[][] declared, int[] start, int total, int[] dstIPBatch) {
+        if (publishedIpBits == ipBits) {
+            if (!Arrays.equals(dstIP, declared[1]) || !Arrays.equals(dstIPField, dstIPBatch)) {
+                throw new IllegalStateException("引擎声明的变量与已发布的变量布局不一致");
+            }
+            return;
+        }
+        srcIP = declared[0];
+        dstIP = declared[1];
+        srcPort = declared[2];
+        dstPort = declared[3];
+        protocol = declared[4];
+        srcIPStartIndex = start[0];
+        dstIPStartIndex = start[1];
+        srcPortStartIndex = start[2];
+        dstPortStartIndex = start[3];
+        protocolStartIndex = start[4];
+        size = total;
+        dstIPField = dstIPBatch;
+        publishedIpBits = ipBits;
+    }
+
+    // ========== 新增：动态变量重排 ==========
+    /**
+     * 安全点：启用 -Dbdd.reorder=sift 且节点表超过阈值时，做一次sifting重排
+     * 只能在两次编码之间调用（没有进行中的BDD操作），冻结的引擎和覆盖引擎不重排。
+     * 已有的BDD节点ID和谓词ID在重排后保持不变。
+     *
+     * @return 是否做了重排
+     */
+    public boolean maybeReorder() {
+        return bdd.bdd.maybeReorder();
     }
 
-    private void DeclareDstIP() {
-        DeclareVars(dstIP, ipBits);
+    /**
+     * 立即做一次sifting重排，不看阈值，返回重排后的存活节点数
+     */
+    public int reorder() {
+        return bdd.bdd.reorder();
     }
+    // ========== 新增结束 ==========
 
     public TSBDD getBDD(){
         return bdd;
@@ -230,9 +428,8 @@ public class BDDEngine implements Cloneable, Serializable {
         for(int blRule:blackList){
             allBlack = bdd.orTo(allBlack, blRule);
         }
-        int tmp = bdd.ref(bdd.not(allBlack));
-        int newHit = bdd.ref(bdd.and(bddip, tmp));
-        bdd.deref(tmp);
+        int newHit = bdd.diff(bddip, allBlack);
+        bdd.deref(allBlack);
 
         // 垃圾回收
         blackList = null;
@@ -243,17 +440,17 @@ public class BDDEngine implements Cloneable, Serializable {
 
     private void printSet_rec(int p, int level, StringBuilder sb) {
         if(level == size) {
-//            sb.append(String.format("src IP:\"%s\", src port:\"%s\", dst IP:\"%s\", dst port:\"%s\", protocol: \"%s\"\n",
-//                        parseIP(srcIPStartIndex),
-//                        parseNumber(srcPortStartIndex, portBits),
-//                        parseIP(dstIPStartIndex),
-//                        parseNumber(dstPortStartIndex, portBits),
-//                        parseNumber(protocolStartIndex, protocolBits)
-//                    ));
-            sb.append(String.format("%s;",
-                    parseIP(dstIPStartIndex)
-            ));
-        // todo
+            String srcIPText = srcIP == null ? "any" : parseIP(srcIP);
+            String srcPortText = parseNumber(srcPort);
+            String dstPortText = parseNumber(dstPort);
+            String protocolText = parseNumber(protocol);
+            if (srcIPText.equals("any") && srcPortText.equals("any") && dstPortText.equals("any") && protocolText.equals("any")) {
+                // 只有目的地址受约束，保持原来的格式
+                sb.append(String.format("%s;", parseIP(dstIP)));
+            } else {
+                sb.append(String.format("src IP:\"%s\", src port:\"%s\", dst IP:\"%s\", dst port:\"%s\", protocol:\"%s\";",
+                        srcIPText, srcPortText, parseIP(dstIP), dstPortText, protocolText));
+            }
             return;
         }
         BDD bdd = getBDD().bdd;
@@ -278,11 +475,68 @@ public class BDDEngine implements Cloneable, Serializable {
         }
     }
 
-    private String parseIP(int start){
-        if(set_chars.length < start+31){
+    /**
+     * 取出字段最高32位在当前路径上的取值（最高位在前），变量所在的层按当前的变量顺序查询
+     */
+    private char[] fieldChars(int[] field) {
+        char[] chars = new char[32];
+        BDD bdd = getBDD().bdd;
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = set_chars[bdd.getVar(field[field.length - 1 - i])];
+        }
+        return chars;
+    }
+
+    /**
+     * 从oneSat得到的路径（按层索引）中取出目的地址的最高32位，没有赋值的位按0处理
+     */
+    public long dstIPFromPath(int[] path) {
+        BDD bdd = getBDD().bdd;
+        long ip = 0;
+        for (int i = 0; i < 32; i++) {
+            int level = bdd.getVar(dstIP[dstIP.length - 1 - i]);
+            if (level < path.length && path[level] == 1) {
+                ip |= 1L << (31 - i);
+            }
+        }
+        return ip;
+    }
+
+    /**
+     * 端口、协议等数值字段在当前路径上的取值：任意为any，高位固定、低位任意时为一个值或lo-hi，
+     * 其他情况按位输出（最高位在前，-表示任意）；字段未声明时为any
+     */
+    private String parseNumber(int[] field) {
+        if (field == null) return "any";
+        BDD bdd = getBDD().bdd;
+        int bits = field.length;
+        char[] chars = new char[bits];
+        int fixed = 0;
+        boolean prefix = true;
+        for (int i = 0; i < bits; i++) {
+            chars[i] = set_chars[bdd.getVar(field[bits - 1 - i])];
+            if (chars[i] == '-') continue;
+            if (fixed < i) prefix = false;
+            fixed++;
+        }
+        if (fixed == 0) return "any";
+        if (!prefix) return new String(chars);
+        long lo = 0;
+        for (int i = 0; i < fixed; i++) {
+            lo = (lo << 1) | (chars[i] == '1' ? 1 : 0);
+        }
+        lo <<= bits - fixed;
+        long hi = lo | ((1L << (bits - fixed)) - 1);
+        return lo == hi ? String.valueOf(lo) : lo + "-" + hi;
+    }
+
+    private String parseIP(int[] field){
+        if(field == null || field.length < 32){
             System.err.println("Wrong ip!");
             return "";
         }
+        char[] set_chars = fieldChars(field);
+        int start = 0;
 
         int prefix= 32;
         boolean hasDash = false, hasMidDash = false, hasNumber = false;
@@ -305,9 +559,18 @@ public class BDDEngine implements Cloneable, Serializable {
         return "not implement";
     }
 
+    /**
+     * vars[i]为字段第i位（i=0为最低位）的变量，按bdd.bitorder决定最高位还是最低位在上
+     */
     private void DeclareVars(int[] vars, int bits) {
-        for (int i = bits - 1; i >= 0; i--) {
-            vars[i] = bdd.createVar();
+        if (MSB_FIRST) {
+            for (int i = bits - 1; i >= 0; i--) {
+                vars[i] = bdd.createVar();
+            }
+        } else {
+            for (int i = 0; i < bits; i++) {
+                vars[i] = bdd.createVar();
+            }
         }
     }
 
@@ -367,14 +630,11 @@ public class BDDEngine implements Cloneable, Serializable {
         return result;
     }
 
+    /**
+     * 前缀就是一个cube，直接用mk自底向上逐个建节点，不经过中间数组，也不调用and
+     */
     public int encodeDstIPPrefix(long ipaddr, int prefixlen) {
-        int[] ipbin = Utility.CalBinRep(ipaddr, 32);
-        int[] ipbinprefix = new int[prefixlen];
-        for (int k = 0; k < prefixlen; k++) {
-            ipbinprefix[k] = ipbin[k + 32 - prefixlen];
-        }
-        int entrybdd = EncodePrefix(ipbinprefix, dstIP, 32);
-        return entrybdd;
+        return bdd.ref(bdd.prefixCube(dstIP, 32, ipaddr, prefixlen));
     }
 
     // ========== 新增：带缓存的IP前缀编码（IPv4） ==========
@@ -389,7 +649,7 @@ public class BDDEngine implements Cloneable, Serializable {
 
         // L3缓存检查
         L3CacheKey cacheKey = L3CacheKey.forMake(ipaddr, prefixlen);
-        Integer cachedPredicateId = predicateCache.getL3(cacheKey);
+        Integer cachedPredicateId = bdd.getPredicateCache().getL3(cacheKey, this.bdd);
 
         if (cachedPredicateId != null) {
             return cachedPredicateId;
@@ -400,24 +660,17 @@ public class BDDEngine implements Cloneable, Serializable {
 
         // 封装为谓词并注册
         BDDPredicate predicate = new BDDPredicate(bddNode, this.bdd);
-        int predicateId = predicateRegistry.getOrCreateId(predicate, this.bdd);
+        int predicateId = bdd.getPredicateRegistry().getOrCreateId(predicate, this.bdd);
 
         // 缓存结果
-        predicateCache.putL3(cacheKey, predicateId);
+        bdd.getPredicateCache().putL3(cacheKey, predicateId, this.bdd);
 
         return predicateId;
     }
     // ========== 新增结束 ==========
 
     public int encodeDstIPPrefixIpv6(String ipaddr, int prefixlen) throws UnknownHostException {
-        int[] ipbin = new int[0];
-        ipbin = Utility.ipv6ToBinaryArray(ipaddr, ipBits);
-        int[] ipbinprefix = new int[prefixlen];
-        for (int k = 0; k < prefixlen; k++) {
-            ipbinprefix[k] = ipbin[k + ipBits - prefixlen];
-        }
-        int entrybdd = EncodePrefix(ipbinprefix, dstIP, ipBits);
-        return entrybdd;
+        return bdd.ref(bdd.prefixCube(dstIP, ipBits, Utility.ipToLongArray(ipaddr), prefixlen));
     }
 
     // ========== 新增：带缓存的IP前缀编码（IPv6） ==========
@@ -434,7 +687,7 @@ public class BDDEngine implements Cloneable, Serializable {
 
         // L3缓存检查
         L3CacheKey cacheKey = L3CacheKey.forMake(ipHash, prefixlen);
-        Integer cachedPredicateId = predicateCache.getL3(cacheKey);
+        Integer cachedPredicateId = bdd.getPredicateCache().getL3(cacheKey, this.bdd);
 
         if (cachedPredicateId != null) {
             return cachedPredicateId;
@@ -443,52 +696,74 @@ public class BDDEngine implements Cloneable, Serializable {
         // 执行实际计算
         int bddNode = encodeDstIPPrefixIpv6(ipaddr, prefixlen);
         BDDPredicate predicate = new BDDPredicate(bddNode, this.bdd);
-        int predicateId = predicateRegistry.getOrCreateId(predicate, this.bdd);
+        int predicateId = bdd.getPredicateRegistry().getOrCreateId(predicate, this.bdd);
 
-        predicateCache.putL3(cacheKey, predicateId);
+        bdd.getPredicateCache().putL3(cacheKey, predicateId, this.bdd);
 
         return predicateId;
     }
     // ========== 新增结束 ==========
 
-    private int EncodePrefix(int[] prefix, int[] vars, int bits) {
-        if (prefix.length == 0) {
-            return BDDTrue;
+    // ========== 新增：五元组字段编码 ==========
+    /**
+     * 字段没有声明（-Dbdd.fields中未列出）时，涉及它的编码直接报错，而不是得到错误的谓词
+     */
+    private static int[] requireField(int[] field, String name) {
+        if (field == null) {
+            throw new IllegalStateException("字段 " + name + " 没有声明（bdd.fields=" + String.join(",", FIELDS) + "），不能编码");
         }
+        return field;
+    }
 
-        int tempnode = BDDTrue;
-//        synchronized (bdd){
-            for (int i = 0; i < prefix.length; i++) {
-                if (i == 0) {
-                    tempnode = EncodingVar(vars[bits - prefix.length + i],
-                            prefix[i]);
-                } else {
-                    int tempnode2 = EncodingVar(vars[bits - prefix.length + i],
-                            prefix[i]);
-                    int tempnode3 = bdd.ref(bdd.and(tempnode, tempnode2));
-                    tempnode = tempnode3;
-                }
-            }
-//        }
-        return tempnode;
+    /**
+     * 源地址前缀，与encodeDstIPPrefix相同直接用mk建cube；address的格式同prefixCube(int[], int, long[], int)
+     */
+    public int encodeSrcIPPrefix(long[] address, int prefixlen) {
+        return bdd.ref(bdd.prefixCube(requireField(srcIP, SRC_IP), ipBits, address, prefixlen));
     }
 
-    private int EncodingVar(int var, int flag) {
-        if (flag == 0) {
-            int tempnode = bdd.not(var);
-            // no need to ref the negation of a variable.
-            // the ref count is already set to maximal
-            // aclBDD.ref(tempnode);
-            return tempnode;
-        }
-        if (flag == 1) {
-            return var;
-        }
+    public int encodeSrcIPPrefix(long ipaddr, int prefixlen) {
+        return bdd.ref(bdd.prefixCube(requireField(srcIP, SRC_IP), ipBits, ipaddr, prefixlen));
+    }
+
+    /**
+     * 源端口范围 [lo, hi]，用rangeCube一次自底向上构造，不拆成前缀再求并
+     */
+    public int encodeSrcPortRange(int lo, int hi) {
+        return bdd.ref(bdd.rangeCube(requireField(srcPort, SRC_PORT), portBits, lo, hi));
+    }
+
+    public int encodeDstPortRange(int lo, int hi) {
+        return bdd.ref(bdd.rangeCube(requireField(dstPort, DST_PORT), portBits, lo, hi));
+    }
 
-        // should not reach here
-        System.err.println("flag can only be 0 or 1!");
-        return -1;
+    public int encodeProtocol(int protocolNumber) {
+        return bdd.ref(bdd.prefixCube(requireField(protocol, PROTOCOL), protocolBits, protocolNumber, protocolBits));
+    }
+
+    /**
+     * 一条ACL/PBR条目的匹配域：各字段的cube求与，任意（前缀长度0、端口0~65535、协议任意）的字段不参与，
+     * 所以只有真正约束了某个字段时才要求声明该字段
+     */
+    public int encodeMatch(AclRule rule) {
+        int[] parts = new int[5];
+        int n = 0;
+        if (rule.dstPrefixLen > 0) {
+            parts[n++] = bdd.ref(bdd.prefixCube(requireField(dstIP, DST_IP), ipBits, rule.dstIp, rule.dstPrefixLen));
+        }
+        if (rule.srcPrefixLen > 0) parts[n++] = encodeSrcIPPrefix(rule.srcIp, rule.srcPrefixLen);
+        if (!rule.anySrcPort()) parts[n++] = encodeSrcPortRange(rule.srcPortLo, rule.srcPortHi);
+        if (!rule.anyDstPort()) parts[n++] = encodeDstPortRange(rule.dstPortLo, rule.dstPortHi);
+        if (rule.protocol != AclRule.ANY_PROTOCOL) parts[n++] = encodeProtocol(rule.protocol);
+
+        int result = BDDTrue;
+        for (int i = 0; i < n; i++) {
+            result = bdd.andTo(result, parts[i]);
+            bdd.deref(parts[i]);
+        }
+        return result;
     }
+    // ========== 新增结束 ==========
 
     public int[] AndInBatch(int [] bddnodes)
     {
@@ -536,7 +811,7 @@ public class BDDEngine implements Cloneable, Serializable {
         if (!enableNPBDD) {
             return predicateId;
         }
-        return predicateRegistry.getBDDNode(predicateId);
+        return bdd.getPredicateRegistry().getBDDNode(predicateId);
     }
 
     /**
@@ -548,15 +823,15 @@ public class BDDEngine implements Cloneable, Serializable {
         }
 
         BDDPredicate predicate = new BDDPredicate(bddNode, this.bdd);
-        return predicateRegistry.getOrCreateId(predicate, this.bdd);
+        return bdd.getPredicateRegistry().getOrCreateId(predicate, this.bdd);
     }
     // ========== 新增结束 ==========
 
     // ========== 新增：统计信息方法 ==========
     /**
-     * 获取NP-BDD统计信息
+     * 获取本引擎的NP-BDD统计信息
      */
-    public static String getNPBDDStats() {
+    public String getNPBDDStats() {
         if (!enableNPBDD) {
             return "[NP-BDD] 未启用（当前使用原版本）";
         }
@@ -564,7 +839,7 @@ public class BDDEngine implements Cloneable, Serializable {
         StringBuilder sb = new StringBuilder();
         sb.append("\n========== BDDEngine NP-BDD统计 ==========\n");
 
-        BDDPredicateRegistry.RegistryStats regStats = predicateRegistry.getStats();
+        BDDPredicateRegistry.RegistryStats regStats = bdd.getPredicateRegistry().getStats();
         sb.append("谓词注册表:\n");
         sb.append("  总谓词数: ").append(regStats.totalPredicates).append("\n");
         sb.append("  当前注册: ").append(regStats.currentSize).append("\n");
@@ -572,7 +847,7 @@ public class BDDEngine implements Cloneable, Serializable {
             String.format("%.2f%%", 100.0 * regStats.cacheHits /
             (regStats.cacheHits + regStats.cacheMisses + 1))).append("\n");
 
-        BDDPredicateCache.CacheStats cacheStats = predicateCache.getStats();
+        BDDPredicateCache.CacheStats cacheStats = bdd.getPredicateCache().getStats();
         sb.append("三层缓存:\n");
         sb.append("  L3命中率: ").append(String.format("%.2f%%", cacheStats.getL3HitRate())).append("\n");
         sb.append("  L2命中率: ").append(String.format("%.2f%%", cacheStats.getL2HitRate())).append("\n");
@@ -586,16 +861,16 @@ public class BDDEngine implements Cloneable, Serializable {
     /**
      * 打印NP-BDD统计信息
      */
-    public static void printNPBDDStats() {
+    public void printNPBDDStats() {
         System.out.println(getNPBDDStats());
     }
 
     /**
      * 重置NP-BDD统计信息
      */
-    public static void resetNPBDD() {
-        predicateRegistry.clear();
-        predicateCache.clear();
+    public void resetNPBDD() {
+        bdd.getPredicateRegistry().clear();
+        bdd.getPredicateCache().clear();
         System.out.println("[NP-BDD] 统计信息已重置");
     }
 
@@ -640,41 +915,35 @@ public class BDDEngine implements Cloneable, Serializable {
             return; // 已经初始化
         }
 
-        // 初始化变量数组（这些通常是静态的，但为了安全起见）
-        if (protocol == null) {
-            protocol = new int[protocolBits];
-            for (int i = 0; i < protocolBits; i++) {
-                protocol[i] = protocolStartIndex + protocolBits - 1 - i;
-            }
-        }
-
-        if (srcPort == null) {
-            srcPort = new int[portBits];
-            for (int i = 0; i < portBits; i++) {
-                srcPort[i] = srcPortStartIndex + portBits - 1 - i;
-            }
-        }
-
-        if (dstPort == null) {
-            dstPort = new int[portBits];
-            for (int i = 0; i < portBits; i++) {
-                dstPort[i] = dstPortStartIndex + portBits - 1 - i;
-            }
-        }
-
-        if (srcIP == null) {
-            srcIP = new int[ipBits];
-            for (int i = 0; i < ipBits; i++) {
-                srcIP[i] = srcIPStartIndex + ipBits - 1 - i;
+        // 初始化变量数组（这些通常是静态的，但为了安全起见），按bdd.fields的布局和bdd.bitorder的位序
+        int index = 0;
+        for (String field : FIELDS) {
+            int bits = field.equals(PROTOCOL) ? protocolBits
+                    : field.equals(SRC_PORT) || field.equals(DST_PORT) ? portBits : ipBits;
+            int[] fieldVars = new int[bits];
+            for (int i = 0; i < bits; i++) {
+                fieldVars[i] = index + (MSB_FIRST ? bits - 1 - i : i);
             }
-        }
-
-        if (dstIP == null) {
-            dstIP = new int[ipBits];
-            for (int i = 0; i < ipBits; i++) {
-                dstIP[i] = dstIPStartIndex + ipBits - 1 - i;
+            switch (field) {
+                case SRC_IP:
+                    if (srcIP == null) srcIP = fieldVars;
+                    break;
+                case DST_IP:
+                    if (dstIP == null) dstIP = fieldVars;
+                    break;
+                case SRC_PORT:
+                    if (srcPort == null) srcPort = fieldVars;
+                    break;
+                case DST_PORT:
+                    if (dstPort == null) dstPort = fieldVars;
+                    break;
+                default:
+                    if (protocol == null) protocol = fieldVars;
+                    break;
             }
+            index += bits;
         }
+        size = index;
 
         if (vars == null) {
             vars = new int[size];
@@ -0,0 +1,427 @@
+package org.sngroup.verifier;
+
+import jdd.bdd.BDD;
+import jdd.bdd.NodeTable;
+import org.sngroup.Configuration;
+import org.sngroup.util.ForwardAction;
+import org.sngroup.util.ForwardType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * srcBdd的构建缓存
+ *
+ * 把构建阶段的结果（各设备的LEC和各目的设备的包空间）连同它们引用的BDD节点保存到一个文件，
+ * 输入（拓扑、包空间文件、各设备规则文件）不变时，下次运行直接从文件恢复，不再编码规则和解析空间。
+ * 文件结构（大端序）：
+ *   文件头  magic(8) version(4) key(32) numVars(4) nodeCount(4) nodeCrc(4) metaOffset(8) metaLength(4) metaCrc(4)
+ *   节点表  每个节点 var(4) low(4) high(4)，子节点在前；low/high为0、1表示终结点，k>=2表示第k-2个节点
+ *   元数据  变量顺序 | 转发动作表 | 每个设备的LEC（动作序号，节点序号） | 每个目的设备的包空间（节点序号）
+ * 只保存LEC和包空间可达的节点，按节点表顺序映射后用mk重建，节点ID和谓词ID在恢复后重新分配。
+ * 节点的var是保存时的层，动态重排过的引擎保存时带上变量顺序，恢复前先把引擎调整为同样的顺序。
+ * key是各输入文件内容和编码参数的SHA-256，任何输入内容的变化都会使缓存失效；只改动修改时间或
+ * 路径而内容不变时缓存仍然有效。计算key需要完整读一遍输入文件，代价远小于编码规则。
+ */
+public final class BuildCache {
+
+    private static final byte[] MAGIC = "TUBUILDC".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int KEY_SIZE = 32;
+    private static final int HEADER_SIZE = 8 + 4 + KEY_SIZE + 4 + 4 + 4 + 8 + 4 + 4;
+    private static final int NODE_BYTES = 12;
+    private static final int NODES_PER_WINDOW = 1 << 24;
+    private static final int TYPE_ALL = 0, TYPE_ANY = 1;
+
+    /** -Dbuild.cache=true 启用构建缓存；-Dbuild.cache.path 指定缓存文件，默认"<规则目录>.buildcache" */
+    private static final boolean ENABLED = Boolean.getBoolean("build.cache");
+    private static final String PATH = System.getProperty("build.cache.path");
+
+    private BuildCache() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /** 当前配置对应的缓存文件 */
+    public static File file() {
+        if (PATH != null) return new File(PATH);
+        String ruleDir = Configuration.getConfiguration().getRuleFile();
+        if (ruleDir == null) return null;
+        File dir = new File(ruleDir).getAbsoluteFile();
+        return new File(dir.getPath() + ".buildcache");
+    }
+
+    /**
+     * 计算输入的key：拓扑文件、包空间文件和各设备规则文件、策略文件的内容摘要，以及地址位数、格式和变量布局
+     */
+    public static byte[] inputKey(Collection<String> deviceNames, int ipBits, boolean textAddress) {
+        Configuration configuration = Configuration.getConfiguration();
+        MessageDigest digest = sha256();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(ipBits);
+            out.writeBoolean(textAddress);
+            out.writeUTF(BDDEngine.variableLayout());
+            writeFileDigest(out, configuration.getTopologyFile());
+            writeFileDigest(out, configuration.getSpaceFile());
+            List<String> names = new ArrayList<>(deviceNames);
+            Collections.sort(names);
+            for (String name : names) {
+                out.writeUTF(name);
+                writeFileDigest(out, configuration.getDeviceRuleFile(name));
+                writeFileDigest(out, configuration.getDeviceAclFile(name));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return digest.digest(bytes.toByteArray());
+    }
+
+    /**
+     * 写入文件内容的SHA-256；文件名为null和文件不存在分别写入不同的标记
+     */
+    private static void writeFileDigest(DataOutputStream out, String path) throws IOException {
+        if (path == null) {
+            out.writeByte(0);
+            return;
+        }
+        File file = new File(path);
+        if (!file.isFile()) {
+            out.writeByte(1);
+            return;
+        }
+        MessageDigest digest = sha256();
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) > 0) digest.update(buf, 0, n);
+        }
+        out.writeByte(2);
+        out.write(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ========== 保存 ==========
+
+    /**
+     * 把srcNet中各设备的LEC和DVNet.devicePacketSpace保存到缓存文件，先写临时文件再替换
+     * @return 保存的节点数
+     */
+    public static int save(File output, byte[] key, DVNet srcNet, Collection<Device> devices) throws IOException {
+        BDDEngine engine = srcNet.getBddEngine();
+        BDD bdd = engine.getBDD().bdd;
+        NodeWriter nodes = new NodeWriter(bdd);
+
+        Map<ForwardAction, Integer> actionIds = new LinkedHashMap<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream deviceSection = new DataOutputStream(bytes);
+        int deviceCount = 0;
+        for (Device device : devices) {
+            HashSet<Lec> lecs = Device.globalLecs.get(device.name);
+            if (lecs == null) continue;
+            deviceSection.writeUTF(device.name);
+            deviceSection.writeInt(lecs.size());
+            for (Lec lec : lecs) {
+                Integer action = actionIds.get(lec.forwardAction);
+                if (action == null) {
+                    action = actionIds.size();
+                    actionIds.put(lec.forwardAction, action);
+                }
+                deviceSection.writeInt(action);
+                deviceSection.writeInt(nodes.add(engine.getBDDNodeFromPredicateId(lec.predicate)));
+            }
+            deviceCount++;
+        }
+
+        Map<String, Integer> spaces = DVNet.devicePacketSpace != null ? DVNet.devicePacketSpace : Collections.<String, Integer>emptyMap();
+        ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+        DataOutputStream meta = new DataOutputStream(metaBytes);
+        int[] order = bdd.getVariableOrder();
+        meta.writeInt(order.length);
+        for (int var : order) meta.writeInt(var);
+        meta.writeInt(actionIds.size());
+        for (ForwardAction action : actionIds.keySet()) {
+            meta.writeByte(action.forwardType == ForwardType.ANY ? TYPE_ANY : TYPE_ALL);
+            meta.writeInt(action.ports.size());
+            for (String port : action.ports) meta.writeUTF(port);
+        }
+        meta.writeInt(deviceCount);
+        deviceSection.flush();
+        bytes.writeTo(meta);
+        meta.writeInt(spaces.size());
+        for (Map.Entry<String, Integer> entry : spaces.entrySet()) {
+            meta.writeUTF(entry.getKey());
+            meta.writeInt(nodes.add(engine.getBDDNodeFromPredicateId(entry.getValue())));
+        }
+        meta.flush();
+
+        File tmp = new File(output.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.position(HEADER_SIZE);
+            CRC32 nodeCrc = new CRC32();
+            ByteBuffer buf = ByteBuffer.allocate(NODE_BYTES * 8192);
+            for (int i = 0; i < nodes.count; i++) {
+                buf.putInt(nodes.var[i]).putInt(nodes.low[i]).putInt(nodes.high[i]);
+                if (!buf.hasRemaining()) {
+                    buf.flip();
+                    nodeCrc.update(buf.array(), 0, buf.limit());
+                    writeFully(out, buf);
+                    buf.clear();
+                }
+            }
+            buf.flip();
+            nodeCrc.update(buf.array(), 0, buf.limit());
+            writeFully(out, buf);
+
+            long metaOffset = HEADER_SIZE + (long) nodes.count * NODE_BYTES;
+            ByteBuffer metaBuf = ByteBuffer.wrap(metaBytes.toByteArray());
+            int metaCrc = crc(metaBuf);
+            writeFully(out, metaBuf);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(MAGIC).putInt(VERSION).put(key).putInt(bdd.numberOfVariables()).putInt(nodes.count)
+                    .putInt((int) nodeCrc.getValue()).putLong(metaOffset).putInt(metaBytes.size()).putInt(metaCrc);
+            header.flip();
+            out.position(0);
+            writeFully(out, header);
+            out.force(true);
+        }
+        Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return nodes.count;
+    }
+
+    /** 按子节点在前的顺序收集根可达的节点，每个节点只写一次 */
+    private static final class NodeWriter {
+        final BDD bdd;
+        final int[] index;
+        int[] var = new int[1024], low = new int[1024], high = new int[1024];
+        int count;
+
+        NodeWriter(BDD bdd) {
+            this.bdd = bdd;
+            // 使用补边时，同一节点的取反句柄按不同的函数写出，占用后半部分
+            this.index = new int[bdd.hasComplementEdges() ? 2 * bdd.table_size : bdd.table_size];
+        }
+
+        private int slot(int node) {
+            return (node & NodeTable.NODE_COMPLEMENT) == 0 ? node : (node & NodeTable.NODE_INDEX) + bdd.table_size;
+        }
+
+        /** @return 节点在缓存中的序号，0和1为终结点 */
+        int add(int node) {
+            if (node < 2) return node;
+            int slot = slot(node);
+            if (index[slot] != 0) return index[slot];
+            int l = add(bdd.getLow(node));
+            int h = add(bdd.getHigh(node));
+            if (count == var.length) {
+                var = Arrays.copyOf(var, count * 2);
+                low = Arrays.copyOf(low, count * 2);
+                high = Arrays.copyOf(high, count * 2);
+            }
+            var[count] = bdd.getVar(node);
+            low[count] = l;
+            high[count] = h;
+            index[slot] = count + 2;
+            return count++ + 2;
+        }
+    }
+
+    // ========== 恢复 ==========
+
+    /**
+     * 从缓存文件恢复各设备的LEC（Device.globalLecs）和DVNet.devicePacketSpace到srcNet的引擎
+     * 启用NP-BDD时，恢复出的BDD与编码时一样注册为谓词
+     * 整个文件（文件头、元数据和节点表）先完成解码和校验，之后才调整变量顺序、重建节点并写入srcNet
+     * @return 缓存不存在、与输入不匹配或已损坏时返回false，此时srcNet未被修改
+     */
+    public static boolean restore(File input, byte[] key, DVNet srcNet, Map<String, Device> devices) throws IOException {
+        if (input == null || !input.isFile()) return false;
+        try (FileChannel channel = FileChannel.open(input.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) return false;
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION) return false;
+            byte[] stored = new byte[KEY_SIZE];
+            header.get(stored);
+            if (!Arrays.equals(stored, key)) return false;
+
+            BDDEngine engine = srcNet.getBddEngine();
+            TSBDD tsbdd = engine.getBDD();
+            int numVars = header.getInt();
+            if (numVars != tsbdd.bdd.numberOfVariables()) return false;
+            int nodeCount = header.getInt();
+            int nodeCrc = header.getInt();
+            long metaOffset = header.getLong();
+            int metaLength = header.getInt();
+            int metaCrc = header.getInt();
+            if (nodeCount < 0 || metaOffset != HEADER_SIZE + (long) nodeCount * NODE_BYTES
+                    || metaOffset + metaLength != channel.size()) {
+                throw new IOException("缓存文件长度不一致");
+            }
+
+            ByteBuffer metaBuf = channel.map(FileChannel.MapMode.READ_ONLY, metaOffset, metaLength);
+            if (crc(metaBuf) != metaCrc) throw new IOException("元数据校验失败");
+            Meta meta = Meta.read(new DataInputStream(new ByteArrayInputStream(toArray(metaBuf))), numVars, nodeCount);
+            checkNodes(channel, nodeCount, nodeCrc, numVars);
+
+            // 以下开始修改srcNet
+            try {
+                tsbdd.bdd.setVariableOrder(meta.order);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                // setVariableOrder在检查通过之前不修改节点表
+                throw new IOException("无法按缓存调整变量顺序: " + e.getMessage());
+            }
+            int[] nodes = buildNodes(channel, nodeCount, tsbdd);
+            try {
+                for (Map.Entry<String, int[]> entry : meta.lecs.entrySet()) {
+                    Device device = devices.get(entry.getKey());
+                    if (device == null) continue;
+                    int[] pairs = entry.getValue();
+                    Map<ForwardAction, Integer> lecs = new LinkedHashMap<>();
+                    for (int i = 0; i < pairs.length; i += 2) {
+                        lecs.put(meta.actions[pairs[i]], tsbdd.ref(nodes[pairs[i + 1]]));
+                    }
+                    device.restoreLecs(srcNet, lecs);
+                }
+                for (Map.Entry<String, Integer> entry : meta.spaces.entrySet()) {
+                    int space = tsbdd.ref(nodes[entry.getValue()]);
+                    DVNet.devicePacketSpace.put(entry.getKey(), space > 1 ? engine.registerBDDNodeAsPredicate(space) : space);
+                }
+            } finally {
+                // 重建时每个节点都ref了一次，保留下来的根已单独ref
+                for (int i = 2; i < nodes.length; i++) tsbdd.deref(nodes[i]);
+            }
+            return true;
+        }
+    }
+
+    /** 解码后的元数据，节点以缓存序号表示，所有序号都已检查过范围 */
+    private static final class Meta {
+        int[] order;
+        ForwardAction[] actions;
+        /** 设备名 -> (动作序号, 节点序号) 交替排列 */
+        final Map<String, int[]> lecs = new LinkedHashMap<>();
+        /** 目的设备名 -> 节点序号 */
+        final Map<String, Integer> spaces = new LinkedHashMap<>();
+
+        static Meta read(DataInputStream in, int numVars, int nodeCount) throws IOException {
+            Meta meta = new Meta();
+            try {
+                meta.order = new int[in.readInt()];
+                if (meta.order.length != numVars) throw new IOException("缓存中的变量顺序长度不一致");
+                for (int i = 0; i < meta.order.length; i++) meta.order[i] = in.readInt();
+
+                ForwardType.init();
+                meta.actions = new ForwardAction[checkCount(in.readInt())];
+                for (int a = 0; a < meta.actions.length; a++) {
+                    ForwardType type = in.readByte() == TYPE_ANY ? ForwardType.ANY : ForwardType.ALL;
+                    int ports = checkCount(in.readInt());
+                    List<String> portList = new ArrayList<>(ports);
+                    for (int p = 0; p < ports; p++) portList.add(in.readUTF());
+                    meta.actions[a] = ports == 1 ? new ForwardAction(type, portList.get(0)) : new ForwardAction(type, new HashSet<>(portList));
+                }
+
+                int deviceCount = checkCount(in.readInt());
+                for (int d = 0; d < deviceCount; d++) {
+                    String name = in.readUTF();
+                    int[] pairs = new int[2 * checkCount(in.readInt())];
+                    for (int i = 0; i < pairs.length; i += 2) {
+                        pairs[i] = checkIndex(in.readInt(), meta.actions.length);
+                        pairs[i + 1] = checkIndex(in.readInt(), nodeCount + 2);
+                    }
+                    meta.lecs.put(name, pairs);
+                }
+
+                int spaceCount = checkCount(in.readInt());
+                for (int s = 0; s < spaceCount; s++) {
+                    String name = in.readUTF();
+                    meta.spaces.put(name, checkIndex(in.readInt(), nodeCount + 2));
+                }
+            } catch (EOFException e) {
+                throw new IOException("元数据不完整");
+            }
+            return meta;
+        }
+
+        private static int checkCount(int count) throws IOException {
+            if (count < 0) throw new IOException("元数据中的数量无效: " + count);
+            return count;
+        }
+
+        private static int checkIndex(int index, int size) throws IOException {
+            if (index < 0 || index >= size) throw new IOException("元数据引用了不存在的节点或动作");
+            return index;
+        }
+    }
+
+    /** 按窗口映射节点表，检查校验和以及每个节点的变量和子节点序号，不修改引擎 */
+    private static void checkNodes(FileChannel channel, int nodeCount, int expectedCrc, int numVars) throws IOException {
+        CRC32 crc = new CRC32();
+        for (int start = 0; start < nodeCount; start += NODES_PER_WINDOW) {
+            int count = Math.min(NODES_PER_WINDOW, nodeCount - start);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + (long) start * NODE_BYTES, (long) count * NODE_BYTES);
+            crc.update(window.duplicate());
+            for (int i = start; i < start + count; i++) {
+                int var = window.getInt(), low = window.getInt(), high = window.getInt();
+                if (var < 0 || var >= numVars || low < 0 || high < 0 || low >= i + 2 || high >= i + 2) {
+                    throw new IOException("节点表第" + i + "个节点无效");
+                }
+            }
+        }
+        if ((int) crc.getValue() != expectedCrc) throw new IOException("节点表校验失败");
+    }
+
+    /** 按窗口映射已检查过的节点表，逐个用mk重建，返回缓存序号到本引擎节点的映射，每个节点ref一次 */
+    private static int[] buildNodes(FileChannel channel, int nodeCount, TSBDD tsbdd) throws IOException {
+        int[] nodes = new int[nodeCount + 2];
+        nodes[1] = 1;
+        for (int start = 0; start < nodeCount; start += NODES_PER_WINDOW) {
+            int count = Math.min(NODES_PER_WINDOW, nodeCount - start);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + (long) start * NODE_BYTES, (long) count * NODE_BYTES);
+            for (int i = start; i < start + count; i++) {
+                int var = window.getInt(), low = window.getInt(), high = window.getInt();
+                nodes[i + 2] = tsbdd.ref(tsbdd.mk(var, nodes[low], nodes[high]));
+            }
+        }
+        return nodes;
+    }
+
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static int crc(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) out.write(buf);
+    }
+}
@@ -0,0 +1,157 @@
+package org.sngroup.verifier;
+
+import org.sngroup.util.ForwardAction;
+
+import java.util.*;
+
+/**
+ * 节点的LocCIB表，用并行的基本类型数组保存，取代 Vector<CibTuple> + Hashtable<String, List<CibTuple>> + HashSet<CibTuple>
+ *
+ * 第i条记录由 predicate[i]、actionId[i]、countId[i] 和todo位图的第i位组成：
+ * 转发动作和count向量在表内各自去重，记录只保存它们的编号（count编号0固定为[0]）。
+ * 原来的端口 -> 记录表只写不读，这里不再维护。
+ * 记录只追加不删除，切分时原记录保留交集部分，剩余部分追加为新记录。
+ *
+ * 本类不做同步，由调用方（Node）在自身上加锁。
+ */
+public class CibStore {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int size;
+    private int[] predicate;
+    private int[] actionId;
+    private int[] countId;
+    // 仍在拓扑排序todo集合中的记录
+    private long[] todo;
+    private int todoCount;
+
+    // 转发动作表
+    private final List<ForwardAction> actions = new ArrayList<>();
+    private final Map<ForwardAction, Integer> actionIndex = new HashMap<>();
+
+    // count向量表
+    private final List<Vector<Integer>> counts = new ArrayList<>();
+    private final Map<Vector<Integer>, Integer> countIndex = new HashMap<>();
+
+    public CibStore() {
+        predicate = new int[INITIAL_CAPACITY];
+        actionId = new int[INITIAL_CAPACITY];
+        countId = new int[INITIAL_CAPACITY];
+        todo = new long[1];
+        Vector<Integer> zero = new Vector<>(1);
+        zero.add(0);
+        internCount(zero);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 追加一条count为[0]的记录，返回其下标
+     */
+    public int add(int pre, ForwardAction action, boolean inTodo) {
+        int i = append(pre, internAction(action), 0);
+        if (inTodo) setTodo(i);
+        return i;
+    }
+
+    public int predicate(int i) {
+        return predicate[i];
+    }
+
+    public ForwardAction action(int i) {
+        return actions.get(actionId[i]);
+    }
+
+    public int countId(int i) {
+        return countId[i];
+    }
+
+    /**
+     * 表中不同count向量的个数，countId取值为 [0, countTypes())
+     */
+    public int countTypes() {
+        return counts.size();
+    }
+
+    public Vector<Integer> countValue(int id) {
+        return counts.get(id);
+    }
+
+    public void setCount(int i, Collection<Integer> count) {
+        countId[i] = internCount(new Vector<>(count));
+    }
+
+    public boolean isTodo(int i) {
+        return (todo[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public boolean hasTodo() {
+        return todoCount > 0;
+    }
+
+    /**
+     * 切分第i条记录：原记录的谓词改为inside，outside追加为新记录并返回其下标
+     * 新记录继承动作和count；inheritTodo为true且原记录在todo集合中时，新记录也加入todo集合
+     */
+    public int split(int i, int inside, int outside, boolean inheritTodo) {
+        predicate[i] = inside;
+        int j = append(outside, actionId[i], countId[i]);
+        if (inheritTodo && isTodo(i)) setTodo(j);
+        return j;
+    }
+
+    /**
+     * 估算占用的堆内存（字节），不含共享的ForwardAction
+     */
+    public long getMemoryUsage() {
+        long bytes = 3L * predicate.length * 4 + todo.length * 8L;
+        for (Vector<Integer> count : counts) bytes += 16 + count.capacity() * 4L;
+        return bytes;
+    }
+
+    private int append(int pre, int action, int count) {
+        if (size == predicate.length) {
+            int capacity = size * 2;
+            predicate = Arrays.copyOf(predicate, capacity);
+            actionId = Arrays.copyOf(actionId, capacity);
+            countId = Arrays.copyOf(countId, capacity);
+        }
+        if ((size >>> 6) == todo.length) todo = Arrays.copyOf(todo, todo.length * 2);
+        int i = size++;
+        predicate[i] = pre;
+        actionId[i] = action;
+        countId[i] = count;
+        return i;
+    }
+
+    private void setTodo(int i) {
+        if ((todo[i >>> 6] & (1L << i)) == 0) {
+            todo[i >>> 6] |= 1L << i;
+            todoCount++;
+        }
+    }
+
+    private int internAction(ForwardAction action) {
+        Integer id = actionIndex.get(action);
+        if (id != null) return id;
+        id = actions.size();
+        actions.add(action);
+        actionIndex.put(action, id);
+        return id;
+    }
+
+    private int internCount(Vector<Integer> count) {
+        Integer id = countIndex.get(count);
+        if (id != null) return id;
+        id = counts.size();
+        counts.add(count);
+        countIndex.put(count, id);
+        return id;
+    }
+}
@@ -29,10 +29,10 @@ public class CibTuple {
     }
 
     public CibTuple keepAndSplit(int pre, TSBDD bdd){
-        pre = bdd.ref(bdd.andTo(pre, this.predicate));
-        int notPre = bdd.ref(bdd.diff(this.predicate, pre));
-        this.predicate = pre;
-        return new CibTuple(this, notPre);
+        int[] parts = bdd.split(this.predicate, pre);
+        bdd.deref(pre);
+        this.predicate = parts[0];
+        return new CibTuple(this, parts[1]);
     }
 
 
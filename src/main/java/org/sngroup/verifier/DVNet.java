@@ -267,9 +267,15 @@ public class DVNet {
     public void copyBdd(BDDEngine srcBdd, String copyType) throws Exception {
         synchronized (deviceOperationLock) {
             BDDEngine bddCopy = null;
-            if(Objects.equals(copyType, "Reflect")){
+            if(Objects.equals(copyType, "Snapshot")){
+                // 节点表数组整体复制，缓存新建为空，谓词ID由snapshot继承
+                bddCopy = srcBdd.snapshot();
+            }
+            else if(Objects.equals(copyType, "Reflect")){
                 ReflectDeepCopy copyHelper = new ReflectDeepCopy();
                 bddCopy = (BDDEngine) copyHelper.deepCopy(srcBdd);
+                // NP-BDD状态是transient的，不随反射拷贝；副本节点ID与srcBdd一致，继承其谓词ID
+                bddCopy.getBDD().inheritPredicatesFrom(srcBdd.getBDD());
             }
     //        else if(Objects.equals(copyType, "FST")){
     //            FSTDeepCopy copyHelper = new FSTDeepCopy();
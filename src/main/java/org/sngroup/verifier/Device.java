@@ -33,6 +33,7 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import org.sngroup.verifier.npbdd.BDDPredicate;
 import org.sngroup.verifier.npbdd.BDDPredicateCache;
 import org.sngroup.verifier.npbdd.L1CacheKey;
 import org.sngroup.verifier.npbdd.L1CacheValue;
@@ -65,6 +66,10 @@ public class Device {
     private boolean bddTransformed = false;
     private static boolean spaceLoaded = false;
     
+    // 增量更新（updateRule）用的规则前缀树索引，首次使用时建立；规则列表被重新读取、清空或排序时丢弃
+    private RuleIndex<Rule> ruleIndex;
+    private RuleIndex<RuleIPV6> ruleIndexIPV6;
+
     // 新增：设备级别的锁，用于保护rules的并发访问
     public final Object rulesLock = new Object(); // 改为public，供TopoRunner使用
     private final Object rulesIPV6Lock = new Object();
@@ -125,6 +130,8 @@ public class Device {
                 if (rulesIPV6 != null) {
                     rulesIPV6.clear();
                 }
+                ruleIndex = null;
+                ruleIndexIPV6 = null;
                 rulesLoaded = false;
                 bddTransformed = false;
                 
@@ -160,37 +167,15 @@ public class Device {
                 } else {
                     rules.clear(); // 清空现有规则
                 }
+                ruleIndex = null;
                 
-                InputStreamReader isr = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
-                BufferedReader br = new BufferedReader(isr);
-                String line;
-
-                while ((line = br.readLine()) != null) {
-                    try {
-                        String[] token = line.split("\\s+");
-                        if (token[0].equals("fw") || token[0].equals("ALL") || token[0].equals("ANY") || token[0].equals("any")) {
-                            Collection<String> forward = new HashSet<>(); // 去掉端口名中"."后的字符
-                            for (int i = 3; i < token.length; i++) {
-                                if (token[i] != null && !token[i].trim().isEmpty()) {
-                                    forward.add(token[i]);
-                                }
-                            }
-                            
-                            if (!forward.isEmpty()) {
-                                long ip = Long.parseLong(token[1]);
-                                int prefix = Integer.parseInt(token[2]);
-                                ForwardType ft = token[0].equals("ANY") || token[0].equals("any") ? ForwardType.ANY : ForwardType.ALL;
-                                Rule newRule = new Rule(ip, prefix, forward, ft);
-                                this.rules.add(newRule);
-                            }
-                        }
-                    } catch (Exception e) {
-                        System.err.println("解析规则行失败: " + line + ", 错误: " + e.getMessage());
-                        // 继续处理下一行
-                    }
+                FibReader fib = FibReader.load(filename, false, false);
+                for (int i = 0; i < fib.size; i++) {
+                    this.rules.add(new Rule(fib.ip[i], fib.prefixLen[i], fib.action(fib.actionId[i])));
+                }
+                if (fib.skippedLines > 0) {
+                    System.err.println("设备 " + name + " 的规则文件中有 " + fib.skippedLines + " 行格式错误，已跳过");
                 }
-                
-                br.close();
 
             } catch (IOException e) {
                 System.err.println("读取规则文件失败 " + filename + ": " + e.getMessage());
@@ -224,37 +209,15 @@ public class Device {
                 } else {
                     rulesIPV6.clear(); // 清空现有规则
                 }
+                ruleIndexIPV6 = null;
                 
-                InputStreamReader isr = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
-                BufferedReader br = new BufferedReader(isr);
-                String line;
-
-                while ((line = br.readLine()) != null) {
-                    try {
-                        String[] token = line.split("\\s+");
-                        if (token[0].equals("fw") || token[0].equals("ALL") || token[0].equals("ANY") || token[0].equals("any")) {
-                            Collection<String> forward = new HashSet<>(); // 去掉端口名中"."后的字符
-                            for (int i = 3; i < token.length; i++) {
-                                if (token[i] != null && !token[i].trim().isEmpty()) {
-                                    forward.add(token[i].split("\\.", 2)[0]);
-                                }
-                            }
-                            
-                            if (!forward.isEmpty()) {
-                                String ip = token[1];
-                                int prefix = Integer.parseInt(token[2]);
-                                ForwardType ft = (token[0].equals("ANY") || token[0].equals("any"))? ForwardType.ANY : ForwardType.ALL;
-                                RuleIPV6 newRule = new RuleIPV6(ip, prefix, forward, ft);
-                                this.rulesIPV6.add(newRule);
-                            }
-                        }
-                    } catch (Exception e) {
-                        System.err.println("解析IPv4_S规则行失败: " + line + ", 错误: " + e.getMessage());
-                        // 继续处理下一行
-                    }
+                FibReader fib = FibReader.load(filename, true, true);
+                for (int i = 0; i < fib.size; i++) {
+                    this.rulesIPV6.add(new RuleIPV6(fib.address[i], fib.prefixLen[i], fib.action(fib.actionId[i])));
+                }
+                if (fib.skippedLines > 0) {
+                    System.err.println("设备 " + name + " 的IPv4_S规则文件中有 " + fib.skippedLines + " 行格式错误，已跳过");
                 }
-                
-                br.close();
 
             } catch (IOException e) {
                 System.err.println("读取IPv4_S规则文件失败 " + filename + ": " + e.getMessage());
@@ -290,37 +253,15 @@ public class Device {
                 } else {
                     rulesIPV6.clear(); // 清空现有规则
                 }
+                ruleIndexIPV6 = null;
                 
-                InputStreamReader isr = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
-                BufferedReader br = new BufferedReader(isr);
-                String line;
-
-                while ((line = br.readLine()) != null) {
-                    try {
-                        String[] token = line.split("\\s+");
-                        if (token[0].equals("fw") || token[0].equals("ALL") || token[0].equals("ANY") || token[0].equals("any")) {
-                            Collection<String> forward = new HashSet<>(); // 去掉端口名中"."后的字符
-                            for (int i = 3; i < token.length; i++) {
-                                if (token[i] != null && !token[i].trim().isEmpty()) {
-                                    forward.add(token[i].split("\\.", 2)[0]);
-                                }
-                            }
-                            
-                            if (!forward.isEmpty()) {
-                                String ip = token[1];
-                                int prefix = Integer.parseInt(token[2]);
-                                ForwardType ft = (token[0].equals("ANY") || token[0].equals("any"))? ForwardType.ANY : ForwardType.ALL;
-                                RuleIPV6 newRule = new RuleIPV6(ip, prefix, forward, ft);
-                                this.rulesIPV6.add(newRule);
-                            }
-                        }
-                    } catch (Exception e) {
-                        System.err.println("解析IPv6规则行失败: " + line + ", 错误: " + e.getMessage());
-                        // 继续处理下一行
-                    }
+                FibReader fib = FibReader.load(filename, true, true);
+                for (int i = 0; i < fib.size; i++) {
+                    this.rulesIPV6.add(new RuleIPV6(fib.address[i], fib.prefixLen[i], fib.action(fib.actionId[i])));
+                }
+                if (fib.skippedLines > 0) {
+                    System.err.println("设备 " + name + " 的IPv6规则文件中有 " + fib.skippedLines + " 行格式错误，已跳过");
                 }
-                
-                br.close();
 
             } catch (IOException e) {
                 System.err.println("读取IPv6规则文件失败 " + filename + ": " + e.getMessage());
@@ -474,6 +415,7 @@ public class Device {
                 }
             }
             }
+            applyPolicyToPortPredicate(dvNet.getBddEngine(), portPredicate);
             HashSet<Lec> tmpLecs = new HashSet<>();
             for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
                 tmpLecs.add(new Lec(kv.getKey(), kv.getValue()));
@@ -492,13 +434,14 @@ public class Device {
 
         dvNet.putDeviceIfAbsent(name);
         Collections.sort(rules, prefixLenComparator); // 优先级排序
+        ruleIndex = null;
         Map<ForwardAction, Integer> portPredicate = dvNet.devicePortPredicate.get(name);
         BDDEngine bdd = dvNet.getBddEngine();
         TSBDD tsbdd = bdd.getBDD();
 
         // 【NP-BDD】获取缓存实例
         boolean useCache = BDDEngine.isNPBDDEnabled();
-        BDDPredicateCache cache = useCache ? BDDPredicateCache.getInstance() : null;
+        BDDPredicateCache cache = useCache ? tsbdd.getPredicateCache() : null;
 
         boolean isFirst = false;
         int allBdd = 0;
@@ -511,7 +454,7 @@ public class Device {
             // ========== L1缓存检查: 完整规则转换 ==========
             if (useCache) {
                 L1CacheKey l1Key = new L1CacheKey(rule, allBdd, portPredicate);
-                L1CacheValue l1Value = cache.getL1(l1Key);
+                L1CacheValue l1Value = cache.getL1(l1Key, tsbdd);
 
                 if (l1Value != null) {
                     // L1缓存命中: 直接使用缓存的完整转换结果
@@ -537,12 +480,12 @@ public class Device {
             if (useCache) {
                 // 【NP-BDD L2缓存】规则编码缓存
                 L2CacheKey l2Key = L2CacheKey.forEncodeRule(rule.ip, rule.prefixLen);
-                Integer cachedMatch = cache.getL2Encode(l2Key);
+                Integer cachedMatch = cache.getL2Encode(l2Key, tsbdd);
                 if (cachedMatch != null) {
                     tmpMatch = cachedMatch.intValue();
                 } else {
                     tmpMatch = bdd.encodeDstIPPrefix(rule.ip, rule.prefixLen);
-                    cache.putL2Encode(l2Key, tmpMatch);
+                    cache.putL2Encode(l2Key, tmpMatch, tsbdd);
                 }
             } else {
                 tmpMatch = bdd.encodeDstIPPrefix(rule.ip, rule.prefixLen);
@@ -555,11 +498,9 @@ public class Device {
                 tmpHit = tmpMatch;
             } else {
                 if (useCache) {
-                    int tmp = tsbdd.notWithCache(allBdd);
-                    tmpHit = tsbdd.andWithCache(tmpMatch, tmp);
+                    tmpHit = tsbdd.diffWithCache(tmpMatch, allBdd);
                 } else {
-                    int tmp = tsbdd.not(allBdd);
-                    tmpHit = tsbdd.and(tmpMatch, tmp);
+                    tmpHit = tsbdd.diff(tmpMatch, allBdd);
                 }
             }
 
@@ -604,7 +545,7 @@ public class Device {
                 }
 
                 L1CacheValue l1Value = new L1CacheValue(allBdd, updatedPorts);
-                cache.putL1(l1Key, l1Value);
+                cache.putL1(l1Key, l1Value, tsbdd);
             }
         }
 
@@ -631,12 +572,18 @@ public class Device {
 
         dvNet.putDeviceIfAbsent(name);
         Collections.sort(rules, prefixLenComparator); // 优先级排序
+        ruleIndex = null;
+
+        if (lecByTrie) {
+            putLecs(dvNet, applyPolicy(dvNet.getBddEngine(), Trie.encodeLecs(rules, dvNet.getBddEngine())));
+            return;
+        }
         Map<ForwardAction, Integer> portPredicate = dvNet.devicePortPredicate.get(name);
         BDDEngine bdd = dvNet.getBddEngine();
         TSBDD tsbdd = bdd.getBDD();
 
         // 【修正】检查是否启用NP-BDD
-        BDDPredicateCache cache = BDDPredicateCache.getInstance();
+        BDDPredicateCache cache = tsbdd.getPredicateCache();
         boolean useCache = BDDEngine.isNPBDDEnabled();
 
         HashSet<String> portsSet = new HashSet<>();
@@ -652,11 +599,11 @@ public class Device {
 
             if (useCache) {
                 L2CacheKey l2Key = L2CacheKey.forEncodeRule(rule.ip, rule.prefixLen);
-                Integer cachedMatch = cache.getL2Encode(l2Key);  // 【修正】使用Integer接收
+                Integer cachedMatch = cache.getL2Encode(l2Key, tsbdd);  // 【修正】使用Integer接收
 
                 if (cachedMatch == null) {
                     tmpMatch = bdd.encodeDstIPPrefixWithCache(rule.ip, rule.prefixLen);
-                    cache.putL2Encode(l2Key, tmpMatch);
+                    cache.putL2Encode(l2Key, tmpMatch, tsbdd);
                 } else {
                     tmpMatch = cachedMatch.intValue();  // 【修正】转换为int
                 }
@@ -674,15 +621,11 @@ public class Device {
             } else {
                 // 【修正】使用带缓存的操作
                 if (useCache) {
-                    int tmp = tsbdd.refWithCache(tsbdd.notWithCache(allBdd));
-                    tmpHit = tsbdd.refWithCache(tsbdd.andWithCache(tmpMatch, tmp));
+                    tmpHit = tsbdd.refWithCache(tsbdd.diffWithCache(tmpMatch, allBdd));
                     allBdd = tsbdd.orToWithCache(allBdd, tmpMatch);
-                    tsbdd.deref(tmp);
                 } else {
-                    int tmp = tsbdd.ref(tsbdd.not(allBdd));
-                    tmpHit = tsbdd.ref(tsbdd.and(tmpMatch, tmp));
+                    tmpHit = tsbdd.diff(tmpMatch, allBdd);
                     allBdd = tsbdd.orTo(allBdd, tmpMatch);
-                    tsbdd.deref(tmp);
                 }
             }
 
@@ -704,12 +647,18 @@ public class Device {
 
         dvNet.putDeviceIfAbsent(name);
         Collections.sort(rulesIPV6, prefixLenComparatorIPV6); // 优先级排序
+        ruleIndexIPV6 = null;
+
+        if (lecByTrie) {
+            putLecs(dvNet, applyPolicy(dvNet.getBddEngine(), Trie.encodeLecsIPV6(rulesIPV6, dvNet.getBddEngine())));
+            return;
+        }
         Map<ForwardAction, Integer> portPredicate = dvNet.devicePortPredicate.get(name);
         BDDEngine bdd = dvNet.getBddEngine();
         TSBDD tsbdd = bdd.getBDD();
 
         // 【修正】检查是否启用NP-BDD
-        BDDPredicateCache cache = BDDPredicateCache.getInstance();
+        BDDPredicateCache cache = tsbdd.getPredicateCache();
         boolean useCache = BDDEngine.isNPBDDEnabled();
 
         boolean isFirst = false;
@@ -769,6 +718,8 @@ public class Device {
             }
         }
 
+        applyPolicyToPortPredicate(bdd, portPredicate);
+
         // 生成LEC集合
         HashSet<Lec> tmpLecs = new HashSet<>();
         for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
@@ -777,6 +728,391 @@ public class Device {
         Device.globalLecs.put(name, tmpLecs);
     }
 
+    // ========== 新增：基于前缀树的批量LEC构建 ==========
+    // 默认用前缀树一次性构建各动作的BDD（见Trie.encodeLecs），-Dlec.trie=false 恢复逐条规则not/and/or
+    private static final boolean lecByTrie = Boolean.parseBoolean(System.getProperty("lec.trie", "true"));
+
+    public static boolean isLecByTrie() {
+        return lecByTrie;
+    }
+
+    /**
+     * 在给定引擎中用前缀树编码本设备的全部规则，不读写任何DVNet
+     * 供并行编码使用：engine是工作线程独占的引擎，结果再由importLecs转换到共享引擎
+     *
+     * @return 每个动作在engine中的BDD，均已ref
+     */
+    public Map<ForwardAction, Integer> encodeLecsInto(BDDEngine engine, boolean ipv6) throws UnknownHostException {
+        if (ipv6) {
+            synchronized (rulesIPV6Lock) {
+                Collections.sort(rulesIPV6, prefixLenComparatorIPV6);
+                ruleIndexIPV6 = null;
+                return applyPolicy(engine, Trie.encodeLecsIPV6(rulesIPV6, engine));
+            }
+        }
+        synchronized (rulesLock) {
+            Collections.sort(rules, prefixLenComparator);
+            ruleIndex = null;
+            return applyPolicy(engine, Trie.encodeLecs(rules, engine));
+        }
+    }
+
+    /**
+     * 把source引擎中编码好的各动作BDD转换到dvNet的引擎，生成本设备的LEC
+     * 结果与在dvNet的引擎中直接编码相同（同一函数），source中的BDD随后被deref
+     */
+    public void importLecs(DVNet dvNet, BDDEngine source, Map<ForwardAction, Integer> lecs) {
+        dvNet.putDeviceIfAbsent(name);
+        int[] nodes = new int[lecs.size()];
+        int n = 0;
+        for (int node : lecs.values()) {
+            nodes[n++] = node;
+        }
+        int[] imported = dvNet.getBddEngine().getBDD().importNodes(source.getBDD(), nodes);
+
+        Map<ForwardAction, Integer> local = new LinkedHashMap<>();
+        n = 0;
+        for (ForwardAction action : lecs.keySet()) {
+            local.put(action, imported[n++]);
+        }
+        for (int node : nodes) {
+            source.getBDD().deref(node);
+        }
+        putLecs(dvNet, local);
+    }
+
+    /**
+     * 从构建缓存恢复本设备的LEC：lecs是各动作在dvNet引擎中重建出的BDD（均已ref）
+     */
+    public void restoreLecs(DVNet dvNet, Map<ForwardAction, Integer> lecs) {
+        dvNet.putDeviceIfAbsent(name);
+        putLecs(dvNet, lecs);
+    }
+
+    /**
+     * 把批量构建出的各动作BDD并入设备的端口谓词并生成LEC
+     * 启用NP-BDD时，端口谓词和LEC中保存的是谓词ID，这里把BDD节点注册为谓词
+     */
+    private void putLecs(DVNet dvNet, Map<ForwardAction, Integer> lecs) {
+        TSBDD tsbdd = dvNet.getBddEngine().getBDD();
+        boolean useCache = BDDEngine.isNPBDDEnabled();
+        Map<ForwardAction, Integer> portPredicate = dvNet.devicePortPredicate.get(name);
+        for (Map.Entry<ForwardAction, Integer> kv : lecs.entrySet()) {
+            int predicate = kv.getValue();
+            if (useCache && predicate > 1) {
+                predicate = tsbdd.getPredicateRegistry().getOrCreateId(new BDDPredicate(predicate, tsbdd), tsbdd);
+            }
+            Integer existing = portPredicate.get(kv.getKey());
+            if (existing != null) {
+                predicate = useCache ? tsbdd.orToWithCache(existing, predicate) : tsbdd.orTo(existing, predicate);
+            }
+            portPredicate.put(kv.getKey(), predicate);
+        }
+        HashSet<Lec> tmpLecs = new HashSet<>();
+        for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
+            tmpLecs.add(new Lec(kv.getKey(), kv.getValue()));
+        }
+        Device.globalLecs.put(name, tmpLecs);
+    }
+    // ========== 新增结束 ==========
+
+    // ========== 新增：ACL/PBR策略 ==========
+    // 设备可以有一个策略文件（格式见AclRule），在FIB之前按五元组处理包：
+    // ACL按顺序第一条匹配的条目生效，deny的包被丢弃（不属于任何LEC），有ACL条目时没有匹配任何条目的包按隐式deny丢弃；
+    // 放行的包再按顺序匹配PBR条目，命中的按条目的动作转发，其余的按FIB转发。
+
+    /** 策略条目，按文件中的顺序；没有策略文件时为null */
+    public List<AclRule> aclRules;
+
+    /**
+     * 读取本设备的策略文件，文件名为null或文件不存在表示没有策略
+     */
+    public void readOnlyAclFile(String filename) {
+        if (filename == null || !new File(filename).isFile()) return;
+        try {
+            AclRule.Reader reader = AclRule.read(filename);
+            aclRules = reader.rules.isEmpty() ? null : reader.rules;
+            if (reader.skippedLines > 0) {
+                System.err.println("设备 " + name + " 的策略文件中有 " + reader.skippedLines + " 行格式错误，已跳过");
+            }
+            System.out.println("设备 " + name + " 加载了 " + reader.rules.size() + " 条ACL/PBR条目");
+        } catch (IOException e) {
+            System.err.println("读取策略文件失败 " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 在engine中把策略应用到FIB编码出的各动作BDD上
+     * lecs中的BDD均已ref，在这里deref；返回的BDD均已ref，不含空集
+     * PBR的动作按端口拆开，与FIB的LEC（Trie.actionIds、encodeRuleToLec）一致
+     */
+    private Map<ForwardAction, Integer> applyPolicy(BDDEngine engine, Map<ForwardAction, Integer> lecs) {
+        List<AclRule> policy = aclRules;
+        if (policy == null) return lecs;
+        TSBDD bdd = engine.getBDD();
+
+        // ACL：permitted为放行的包，seen为已被前面条目匹配的包
+        int permitted = 0, seen = 0;
+        boolean hasAcl = false;
+        for (AclRule rule : policy) {
+            if (rule.pbr) continue;
+            hasAcl = true;
+            int match = engine.encodeMatch(rule);
+            if (rule.permit) {
+                int hit = bdd.diff(match, seen);
+                permitted = bdd.orTo(permitted, hit);
+                bdd.deref(hit);
+            }
+            seen = bdd.orTo(seen, match);
+            bdd.deref(match);
+        }
+        bdd.deref(seen);
+        if (!hasAcl) permitted = BDDEngine.BDDTrue;
+
+        // PBR：fib为放行且没有命中任何PBR条目的包
+        int fib = permitted;
+        Map<ForwardAction, Integer> pbrHits = new LinkedHashMap<>();
+        for (AclRule rule : policy) {
+            if (!rule.pbr) continue;
+            int match = engine.encodeMatch(rule);
+            int hit = bdd.ref(bdd.and(match, fib));
+            int rest = bdd.diff(fib, match);
+            bdd.deref(fib);
+            bdd.deref(match);
+            fib = rest;
+            if (hit == 0) continue;
+            for (String port : rule.forwardAction.ports) {
+                mergeInto(bdd, pbrHits, new ForwardAction(rule.forwardAction.forwardType, port), hit);
+            }
+            bdd.deref(hit);
+        }
+
+        Map<ForwardAction, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<ForwardAction, Integer> kv : lecs.entrySet()) {
+            int node = bdd.ref(bdd.and(kv.getValue(), fib));
+            bdd.deref(kv.getValue());
+            if (node != 0) mergeInto(bdd, result, kv.getKey(), node);
+            bdd.deref(node);
+        }
+        for (Map.Entry<ForwardAction, Integer> kv : pbrHits.entrySet()) {
+            mergeInto(bdd, result, kv.getKey(), kv.getValue());
+            bdd.deref(kv.getValue());
+        }
+        bdd.deref(fib);
+        return result;
+    }
+
+    /** map中action的BDD并上node（node的引用不变） */
+    private static void mergeInto(TSBDD bdd, Map<ForwardAction, Integer> map, ForwardAction action, int node) {
+        Integer existing = map.get(action);
+        map.put(action, existing == null ? bdd.ref(node) : bdd.orTo(existing, node));
+    }
+
+    /**
+     * 逐条规则编码（lec.trie=false）时把策略应用到端口谓词上，启用NP-BDD时端口谓词是谓词ID
+     */
+    private void applyPolicyToPortPredicate(BDDEngine engine, Map<ForwardAction, Integer> portPredicate) {
+        if (aclRules == null) return;
+        TSBDD bdd = engine.getBDD();
+        boolean useCache = BDDEngine.isNPBDDEnabled();
+        Map<ForwardAction, Integer> lecs = new LinkedHashMap<>();
+        for (Map.Entry<ForwardAction, Integer> kv : portPredicate.entrySet()) {
+            // 不启用NP-BDD时端口谓词本身就是已ref的BDD，直接交给applyPolicy
+            lecs.put(kv.getKey(), useCache ? bdd.ref(engine.getBDDNodeFromPredicateId(kv.getValue())) : kv.getValue());
+        }
+        portPredicate.clear();
+        for (Map.Entry<ForwardAction, Integer> kv : applyPolicy(engine, lecs).entrySet()) {
+            int predicate = kv.getValue();
+            if (useCache && predicate > 1) {
+                predicate = bdd.getPredicateRegistry().getOrCreateId(new BDDPredicate(predicate, bdd), bdd);
+            }
+            portPredicate.put(kv.getKey(), predicate);
+        }
+    }
+    // ========== 新增结束 ==========
+
+    // ========== 新增：单条规则的增量更新 ==========
+
+    /**
+     * 按一条规则更新（insert/delete/modify某个前缀的一个端口）修改规则列表，并只重新编码该前缀范围内的LEC
+     *
+     * 规则只匹配自己前缀内的地址，所以前缀P以外各动作的BDD不变；P以内的部分用与P重叠的规则
+     * （P的祖先前缀和P内的前缀）建前缀树重新编码，新的LEC为 (旧LEC - P) | (重编码结果 & P)。
+     *
+     * @param type insert、delete或modify
+     * @param ip 前缀地址，textAddress为false时是IPv4地址的十进制整数
+     * @param newPort modify的新端口，其他类型忽略
+     * @param textAddress 规则保存在rulesIPV6中（IPv6和IPv4_S网络）
+     * @return 各动作的变化，predicate为dvNet引擎中已ref的BDD；规则列表没有变化时为空
+     */
+    public List<Change> updateRule(DVNet dvNet, String type, String ip, int prefixLen, String port, String newPort,
+                                   boolean textAddress) throws UnknownHostException {
+        BDDEngine engine = dvNet.getBddEngine();
+        int prefix;
+        Map<ForwardAction, Integer> encoded;
+        if (textAddress) {
+            long[] words = Utility.ipToLongArray(ip);
+            synchronized (rulesIPV6Lock) {
+                RuleIndex<RuleIPV6> index = ruleIndexIPV6();
+                RuleIPV6 rule = index.find(words[1], words[0], prefixLen);
+                ForwardAction action = updateAction(rule == null ? null : rule.forwardAction, type, port, newPort);
+                if (action == NO_CHANGE) return Collections.emptyList();
+                if (rule == null) index.add(new RuleIPV6(ip, prefixLen, action), words[1], words[0], prefixLen);
+                else if (action == null) index.remove(rule);
+                else rule.forwardAction = action;
+
+                Trie.LecBuilder builder = new Trie.LecBuilder(BDDEngine.ipBits);
+                index.overlapping(words[1], words[0], prefixLen,
+                        (r, hi, lo) -> builder.add(hi, lo, r.prefixLen, r.forwardAction));
+                encoded = applyPolicy(engine, builder.build(engine));
+                prefix = engine.encodeDstIPPrefixIpv6(ip, prefixLen);
+            }
+        } else {
+            long address = Long.parseLong(ip);
+            synchronized (rulesLock) {
+                RuleIndex<Rule> index = ruleIndex();
+                Rule rule = index.find(0, address, prefixLen);
+                ForwardAction action = updateAction(rule == null ? null : rule.forwardAction, type, port, newPort);
+                if (action == NO_CHANGE) return Collections.emptyList();
+                if (rule == null) index.add(new Rule(address, prefixLen, action), 0, address, prefixLen);
+                else if (action == null) index.remove(rule);
+                else rule.forwardAction = action;
+
+                Trie.LecBuilder builder = new Trie.LecBuilder(32);
+                index.overlapping(0, address, prefixLen, (r, hi, lo) -> builder.add(hi, lo, r.prefixLen, r.forwardAction));
+                encoded = applyPolicy(engine, builder.build(engine));
+                prefix = engine.encodeDstIPPrefix(address, prefixLen);
+            }
+        }
+        return replaceLecsInPrefix(dvNet, prefix, encoded);
+    }
+
+    private static final ForwardAction NO_CHANGE = new ForwardAction(null, Collections.<String>emptySet());
+
+    /**
+     * rules的前缀树索引，持有rulesLock时调用
+     */
+    private RuleIndex<Rule> ruleIndex() {
+        if (ruleIndex == null) {
+            RuleIndex<Rule> index = new RuleIndex<>(rules, 32);
+            for (int i = 0; i < rules.size(); i++) {
+                Rule r = rules.get(i);
+                index.index(r, 0, r.ip, r.prefixLen, i);
+            }
+            ruleIndex = index;
+        }
+        return ruleIndex;
+    }
+
+    /**
+     * rulesIPV6的前缀树索引，持有rulesIPV6Lock时调用；每条规则的地址只在建立索引时解析一次
+     */
+    private RuleIndex<RuleIPV6> ruleIndexIPV6() throws UnknownHostException {
+        if (ruleIndexIPV6 == null) {
+            RuleIndex<RuleIPV6> index = new RuleIndex<>(rulesIPV6, BDDEngine.ipBits);
+            for (int i = 0; i < rulesIPV6.size(); i++) {
+                RuleIPV6 r = rulesIPV6.get(i);
+                long[] w = Utility.ipToLongArray(r.ip);
+                index.index(r, w[1], w[0], r.prefixLen, i);
+            }
+            ruleIndexIPV6 = index;
+        }
+        return ruleIndexIPV6;
+    }
+
+    /**
+     * 规则更新后该前缀的转发动作：null表示删除该规则，NO_CHANGE表示规则不变
+     */
+    private ForwardAction updateAction(ForwardAction current, String type, String port, String newPort) {
+        Set<String> ports = current == null ? new HashSet<String>() : new HashSet<>(current.ports);
+        ForwardType forwardType = current == null ? ForwardType.ALL : current.forwardType;
+        switch (type) {
+            case "insert":
+                if (!ports.add(port)) return NO_CHANGE;
+                break;
+            case "delete":
+                if (!ports.remove(port)) {
+                    System.err.println("设备 [" + name + "] 没有要删除的规则端口: " + port);
+                    return NO_CHANGE;
+                }
+                if (ports.isEmpty()) return null;
+                break;
+            case "modify":
+                if (!ports.remove(port)) {
+                    System.err.println("设备 [" + name + "] 没有要修改的规则端口: " + port);
+                    return NO_CHANGE;
+                }
+                ports.add(newPort);
+                break;
+            default:
+                System.err.println("未知的规则更新类型: " + type);
+                return NO_CHANGE;
+        }
+        return new ForwardAction(forwardType, ports);
+    }
+
+    /**
+     * 用encoded中前缀prefix以内的部分替换本设备的LEC，返回各动作的变化
+     * prefix和encoded中的BDD都已ref，在这里deref
+     */
+    private List<Change> replaceLecsInPrefix(DVNet dvNet, int prefix, Map<ForwardAction, Integer> encoded) {
+        BDDEngine engine = dvNet.getBddEngine();
+        TSBDD bdd = engine.getBDD();
+        dvNet.putDeviceIfAbsent(name);
+
+        Map<ForwardAction, Integer> old = new LinkedHashMap<>();
+        HashSet<Lec> oldLecs = globalLecs.get(name);
+        if (oldLecs != null) {
+            for (Lec lec : oldLecs) {
+                old.put(lec.forwardAction, engine.getBDDNodeFromPredicateId(lec.predicate));
+            }
+        }
+        Set<ForwardAction> actions = new LinkedHashSet<>(old.keySet());
+        actions.addAll(encoded.keySet());
+
+        List<Change> changes = new ArrayList<>();
+        Map<ForwardAction, Integer> updated = new LinkedHashMap<>();
+        for (ForwardAction action : actions) {
+            Integer o = old.get(action);
+            Integer e = encoded.get(action);
+            int oldBdd = o == null ? 0 : o;
+            int outside = bdd.diff(oldBdd, prefix);
+            int inside = bdd.ref(bdd.and(e == null ? 0 : e, prefix));
+            int newBdd = bdd.ref(bdd.or(outside, inside));
+            bdd.deref(outside);
+            bdd.deref(inside);
+
+            int lost = bdd.diff(oldBdd, newBdd);
+            int gained = bdd.diff(newBdd, oldBdd);
+            if (lost != 0) changes.add(new Change(lost, action, null));
+            if (gained != 0) changes.add(new Change(gained, null, action));
+            if (newBdd != 0) updated.put(action, newBdd);
+        }
+        for (int e : encoded.values()) bdd.deref(e);
+        bdd.deref(prefix);
+        if (changes.isEmpty()) {
+            for (int n : updated.values()) bdd.deref(n);
+            return changes;
+        }
+
+        boolean useCache = BDDEngine.isNPBDDEnabled();
+        Map<ForwardAction, Integer> portPredicate = dvNet.devicePortPredicate.get(name);
+        portPredicate.clear();
+        HashSet<Lec> tmpLecs = new HashSet<>();
+        for (Map.Entry<ForwardAction, Integer> kv : updated.entrySet()) {
+            int predicate = kv.getValue();
+            if (useCache && predicate > 1) {
+                predicate = bdd.getPredicateRegistry().getOrCreateId(new BDDPredicate(predicate, bdd), bdd);
+            }
+            portPredicate.put(kv.getKey(), predicate);
+            tmpLecs.add(new Lec(kv.getKey(), predicate));
+        }
+        Device.globalLecs.put(name, tmpLecs);
+        for (int o : old.values()) bdd.deref(o);
+        return changes;
+    }
+    // ========== 新增结束 ==========
+
     Comparator<Rule> prefixLenComparator = new Comparator<Rule>() {
         @Override
         public int compare(Rule r1, Rule r2) {
@@ -818,6 +1154,8 @@ public class Device {
         rulesIPV6 = new ArrayList<>();
         bddEngine = new BDDEngine();
         rules = new ArrayList<>();
+        ruleIndex = null;
+        ruleIndexIPV6 = null;
         if (globalLecs == null) {
             globalLecs = new HashMap<>();
         }
@@ -67,10 +67,8 @@ public class Node {
 
     // int match_num;
 
-    protected Set<CibTuple> todoList;
-
-    protected Vector<CibTuple> locCib;
-    protected Map<String, List<CibTuple>> portToCib;
+    // LocCIB表，同时维护拓扑排序的todo集合；节点在该对象上加锁，构造后不再替换
+    protected final CibStore locCib;
 
     public boolean isDestination = false;
 
@@ -82,7 +80,15 @@ public class Node {
 
     // 新增：节点级别的锁，保护并发访问
     private final ReentrantReadWriteLock nodeLock = new ReentrantReadWriteLock();
-    private final Object locCibLock = new Object();
+
+    // ========== 新增：增量CIB传播 ==========
+    // 开启后每个邻居只发送/处理自上次以来变化的谓词，-Dcib.delta=false 回到每次全量发送
+    static final boolean deltaCib = Boolean.parseBoolean(System.getProperty("cib.delta", "true"));
+    // 发送端：每个下游端口上次发送的CIBOut（count -> 谓词，未启用NP-BDD时各持有一个引用）
+    private final Map<DevicePort, Map<Vector<Integer>, Integer>> lastSentCib = new HashMap<>();
+    // 接收端：每个入端口已经用来切分过locCib的谓词（未启用NP-BDD时各持有一个引用，防止节点ID被回收复用）
+    private final Map<String, Set<Integer>> lastSeenCib = new HashMap<>();
+    // ========== 新增结束 ==========
 
     // ===== 文件写入功能相关变量 =====
     private static String resultFileName = "reachable_networks.txt";
@@ -108,9 +114,7 @@ public class Node {
         // ------------------------------------------------------------ 2
         // -------------------------------------------------------------------------//
         hasResult = false;
-        todoList = new HashSet<>();
-        locCib = new Vector<>();
-        portToCib = new Hashtable<>();
+        locCib = new CibStore();
         lastResult = null;
     }
 
@@ -125,9 +129,7 @@ public class Node {
         // ------------------------------------------------------------ 2
         // -------------------------------------------------------------------------//
         hasResult = false;
-        todoList = new HashSet<>();
-        locCib = new Vector<>();
-        portToCib = new Hashtable<>();
+        locCib = new CibStore();
         lastResult = null;
     }
 
@@ -156,61 +158,127 @@ public class Node {
 
     // updateLocCibByTopo - 添加调试
     public boolean updateLocCibByTopo(String from, Collection<Announcement> announcements) {
-        synchronized (locCibLock) {
+        synchronized (locCib) {
 
             if (locCib.isEmpty()) {
                 return true;
             }
 
             boolean newResult = false;
-            Queue<CibTuple> queue = new LinkedList<>(locCib);
-            boolean useCache = BDDEngine.isNPBDDEnabled();
-
-            int processedCount = 0;
-            while (!queue.isEmpty()) {
-                CibTuple cibTuple = queue.poll();
-                processedCount++;
-
+            if (deltaCib) {
+                announcements = unseenAnnouncements(from, announcements);
+                if (announcements.isEmpty()) return true;
+            }
+            // 切分出的新记录追加在表尾，同样会被后续循环处理
+            for (int i = 0; i < locCib.size(); i++) {
                 for (Announcement announcement : announcements) {
-                    int intersection;
-                    if (useCache) {
-                        intersection = bdd.andWithCache(announcement.predicate, cibTuple.predicate);
-                    } else {
-                        intersection = bdd.ref(bdd.and(announcement.predicate, cibTuple.predicate));
-                    }
-
-                    if (intersection != cibTuple.predicate) {
-                        CibTuple newCibTuple = cibTuple.keepAndSplit(intersection, bdd);
-                        addCib(newCibTuple);
-                        if (!hasResult && todoList.contains(cibTuple))
-                            todoList.add(newCibTuple);
-                        queue.add(newCibTuple);
-                        newResult = true;
+                    int predicate = locCib.predicate(i);
+                    // 记录完全在通告之内或之外时不需要切分，包含/不相交判断不构造新节点
+                    if (bdd.leqWithCache(predicate, announcement.predicate)
+                            || bdd.disjointWithCache(predicate, announcement.predicate)) {
+                        continue;
                     }
+                    int[] parts = bdd.splitWithCache(predicate, announcement.predicate);
+                    locCib.split(i, parts[0], parts[1], !hasResult);
+                    newResult = true;
                 }
             }
 
             return true;
         }
     }
-    protected void addCib(CibTuple cib) {
-        synchronized (locCibLock) {
-            locCib.add(cib);
-            updateActionPortTable(cib);
+
+    // ========== 新增：增量CIB传播 ==========
+
+    /**
+     * 过滤掉该入端口已经处理过的谓词：locCib已按这些谓词切分过，再切分一次不会产生新的记录
+     */
+    private Collection<Announcement> unseenAnnouncements(String from, Collection<Announcement> announcements) {
+        Set<Integer> seen = lastSeenCib.get(from);
+        if (seen == null) {
+            seen = new HashSet<>();
+            lastSeenCib.put(from, seen);
         }
+        List<Announcement> unseen = new ArrayList<>(announcements.size());
+        for (Announcement announcement : announcements) {
+            if (!isEmptyPredicate(announcement.predicate) && seen.add(announcement.predicate)) {
+                if (!BDDEngine.isNPBDDEnabled()) {
+                    bdd.ref(announcement.predicate);
+                }
+                unseen.add(announcement);
+            }
+        }
+        return unseen;
     }
 
-    private void updateActionPortTable(CibTuple cib) {
-        synchronized (locCibLock) {
-            for (String port : cib.action.ports) {
-                portToCib.putIfAbsent(port, new Vector<>());
-                portToCib.get(port).add(cib);
-                List<CibTuple> tmpPortCibs = portToCib.get(port);
-                // System.out.println("节点 " + this.deviceName + "更新端口后: " + port + "port to cib 大小" + tmpPortCibs.size());
+    /**
+     * 计算发往下游端口to的增量通告：只包含与上次发送相比发生变化的count
+     *
+     * 对变化的count发送新旧谓词的异或。接收端的每条LocCIB记录都已经完全在旧谓词之内或之外，
+     * 所以按异或切分与按新谓词切分得到的划分相同，而异或通常远小于新谓词。
+     *
+     * 未启用NP-BDD时返回的每个谓词都持有一个引用，接收端处理完后由调用方releaseCibDelta释放。
+     */
+    List<Announcement> cibOutDelta(DevicePort to, Map<Count, Integer> cibOut) {
+        boolean useCache = BDDEngine.isNPBDDEnabled();
+        // getCibOut按Count对象分组，这里按count的值合并
+        Map<Vector<Integer>, Integer> current = new HashMap<>();
+        for (Map.Entry<Count, Integer> entry : cibOut.entrySet()) {
+            Integer pre = current.get(entry.getKey().count);
+            int value = entry.getValue();
+            if (pre != null) {
+                value = useCache ? bdd.orWithCache(pre, value) : bdd.orTo(pre, value);
+            } else if (!useCache) {
+                bdd.ref(value);
             }
+            current.put(entry.getKey().count, value);
         }
+
+        Map<Vector<Integer>, Integer> last = lastSentCib.get(to);
+        List<Announcement> delta = new ArrayList<>();
+        for (Map.Entry<Vector<Integer>, Integer> entry : current.entrySet()) {
+            Integer old = last == null ? null : last.get(entry.getKey());
+            int predicate = entry.getValue();
+            if (old != null) {
+                if (old == predicate) continue;
+                predicate = useCache ? bdd.xorWithCache(old, predicate) : bdd.ref(bdd.xor(old, predicate));
+                if (isEmptyPredicate(predicate)) continue;
+            } else if (!useCache) {
+                bdd.ref(predicate);
+            }
+            delta.add(new Announcement(0, predicate, entry.getKey()));
+        }
+        lastSentCib.put(to, current);
+        if (last != null && !useCache) {
+            for (int predicate : last.values()) {
+                bdd.deref(predicate);
+            }
+        }
+        return delta;
     }
 
+    /**
+     * 接收端处理完cibOutDelta返回的通告后释放其中谓词的引用（仅未启用NP-BDD时持有引用）
+     */
+    void releaseCibDelta(Collection<Announcement> delta) {
+        if (BDDEngine.isNPBDDEnabled()) {
+            return;
+        }
+        for (Announcement announcement : delta) {
+            bdd.deref(announcement.predicate);
+        }
+    }
+
+    /**
+     * NP-BDD模式下空集也会注册为谓词ID，需要转换成BDD节点判断
+     */
+    private boolean isEmptyPredicate(int predicate) {
+        if (BDDEngine.isNPBDDEnabled()) {
+            return bdd.getPredicateRegistry().getBDDNode(predicate) == 0;
+        }
+        return predicate == 0;
+    }
+    // ========== 新增结束 ==========
 
     // 根据LEC和该节点的下一跳初始化LocCIB表
     public void initializeCibByTopo() {
@@ -245,9 +313,9 @@ public class Node {
 
                     if (intersection != 0) {
                         cnt += 1;
-                        CibTuple cibTuple = new CibTuple(intersection, lec.forwardAction, 1);
-                        addCib(cibTuple);
-                        todoList.add(cibTuple);
+                        synchronized (locCib) {
+                            locCib.add(intersection, lec.forwardAction, true);
+                        }
                     }
                 } catch (Exception e) {
                     // 静默处理
@@ -264,31 +332,34 @@ public class Node {
     // 从LocCIB中导出CIBOut
     // getCibOut - 检查返回
     public Map<Count, Integer> getCibOut() {
-        synchronized (locCibLock) {
+        synchronized (locCib) {
 
-            Map<Count, Integer> cibOut = new HashMap<>();
             boolean useCache = BDDEngine.isNPBDDEnabled();
+            // 按count编号合并谓词，-1表示该count还没有记录
+            int[] merged = new int[locCib.countTypes()];
+            Arrays.fill(merged, -1);
 
-            int validCount = 0;
-            for (CibTuple cibTuple : locCib) {
-                if (cibTuple.predicate == 0) {
+            for (int i = 0; i < locCib.size(); i++) {
+                int predicate = locCib.predicate(i);
+                if (predicate == 0) {
                     continue;
                 }
-                validCount++;
-
-                if (cibOut.containsKey(cibTuple.count)) {
-                    int pre = cibOut.get(cibTuple.count);
-                    if (useCache) {
-                        pre = bdd.orToWithCache(pre, cibTuple.predicate);
-                    } else {
-                        pre = bdd.orTo(pre, cibTuple.predicate);
-                    }
-                    cibOut.put(cibTuple.count, pre);
+                int id = locCib.countId(i);
+                if (merged[id] == -1) {
+                    merged[id] = predicate;
+                } else if (useCache) {
+                    merged[id] = bdd.orToWithCache(merged[id], predicate);
                 } else {
-                    cibOut.put(cibTuple.count, cibTuple.predicate);
+                    merged[id] = bdd.orTo(merged[id], predicate);
                 }
             }
 
+            Map<Count, Integer> cibOut = new HashMap<>();
+            for (int id = 0; id < merged.length; id++) {
+                if (merged[id] != -1) {
+                    cibOut.put(new Count(new Vector<>(locCib.countValue(id))), merged[id]);
+                }
+            }
             return cibOut;
         }
     }
@@ -316,6 +387,8 @@ public class Node {
             Queue<Context> queue = new LinkedList<>();
             HashSet<String> visited = new HashSet<>();
             Map<DevicePort, DevicePort> topology = TopoNet.network.topology;
+            // 增量传播时，入队节点的CIBOut在出队后按每个下游端口分别计算增量
+            Map<String, Map<Count, Integer>> pendingCibOut = new HashMap<>();
 
             queue.add(c);
             visited.add(c.getDeviceName());
@@ -337,6 +410,8 @@ public class Node {
 
                     String curDeviceName = currentCtx.getDeviceName();
                     visited.add(curDeviceName);
+                    Map<Count, Integer> curCibOut = pendingCibOut.remove(curDeviceName);
+                    Node curNode = curCibOut == null ? null : this.topoNet.getDstNodeByName(curDeviceName);
 
                     // ===== 关键修复11: 添加空值检查 =====
                     HashSet<DevicePort> ps = TopoNet.devicePortsTopo.get(curDeviceName);
@@ -375,14 +450,29 @@ public class Node {
                                 ctx.setTopoId(topoId);
                                 NodePointer np = new NodePointer(dst.getPortName(), topoId);
 
-                                if (dstNode.countCheckByTopo(np, currentCtx)) {
+                                Context sendCtx = currentCtx;
+                                List<Announcement> delta = null;
+                                if (curNode != null) {
+                                    delta = curNode.cibOutDelta(dst, curCibOut);
+                                    sendCtx = new Context();
+                                    sendCtx.setTopoId(topoId);
+                                    sendCtx.setCib(new CibMessage(delta, new LinkedList<>(), index));
+                                }
+
+                                boolean satisfied = dstNode.countCheckByTopo(np, sendCtx);
+                                if (delta != null) {
+                                    curNode.releaseCibDelta(delta);
+                                }
+                                if (satisfied) {
                                     ctxCnt++;
                                     satisfiedCount++;
 
                                     List<Announcement> announcements = new LinkedList<>();
                                     Map<Count, Integer> nextCibOut = dstNode.getCibOut();
 
-                                    if (nextCibOut != null) {
+                                    if (deltaCib) {
+                                        pendingCibOut.put(dst.deviceName, nextCibOut);
+                                    } else if (nextCibOut != null) {
                                         for (Map.Entry<Count, Integer> entry : nextCibOut.entrySet()) {
                                             announcements.add(new Announcement(0, entry.getValue(), entry.getKey().count));
                                         }
@@ -499,17 +589,12 @@ public class Node {
             TSBDD tsbdd = bddEngine.getBDD();
             int[] path = tsbdd.bdd.oneSat(bddNode, null);
 
-            if (path == null || path.length < 64) {
+            if (path == null) {
                 return null;
             }
 
-            // 尝试从索引32开始提取dstIP（标准位置）
-            long ipLong = 0;
-            for (int i = 0; i < 32; i++) {
-                if (path[32 + i] == 1) {
-                    ipLong |= (1L << (31 - i));
-                }
-            }
+            // dstIP各位所在的层由变量布局和当前变量顺序决定
+            long ipLong = bddEngine.dstIPFromPath(path);
 
             if (ipLong > 0 && ipLong < 0xFFFFFFFFL) {
                 String ip = String.format("%d.%d.%d.%d",
@@ -528,21 +613,11 @@ public class Node {
         }
     }
 
-    // 从BDD路径中解码目标IP（假设dstIP变量从索引32开始）
+    // 从BDD路径中解码目标IP
     private String decodeIPFromPath(int[] path) {
         try {
-            // BDD变量布局：srcIP(0-31), dstIP(32-63), ...
-            // 提取 dstIP 的 32 位
-            int dstIPStart = 32;
-            long ipLong = 0;
-
-
-            for (int i = 0; i < 32; i++) {
-                int varIndex = dstIPStart + i;
-                if (varIndex < path.length && path[varIndex] == 1) {
-                    ipLong |= (1L << (31 - i));
-                }
-            }
+            // 提取 dstIP 的 32 位，所在的层由BDDEngine按变量布局查询
+            long ipLong = topoNet.getBddEngine().dstIPFromPath(path);
 
             // 转换为点分十进制
             String result = String.format("%d.%d.%d.%d",
@@ -668,7 +743,7 @@ public class Node {
             CibMessage message = ctx.getCib();
             if (message != null) {
                 // 1. 交集检查
-                if (locCib.size() == 0) {
+                if (locCib.isEmpty()) {
                     // System.out.println("节点 " + this.deviceName + " 的 locCib 为空，无法继续传播。");
                     return false;
                 }
@@ -682,7 +757,7 @@ public class Node {
                     return false;
                 }
                 // 3. 拓扑排序, 只在满足todolist时继续传播
-                if (!hasResult && todoList.isEmpty()) {
+                if (!hasResult && !locCib.hasTodo()) {
                     // System.out.println("节点 " + this.deviceName + " 拓扑排序结果为空，继续传播。");
                     return true;
                 }
@@ -727,7 +802,12 @@ public class Node {
                     if (dst != null) {
                         Node nextNode = topoNet.nodesTable.get(dst.deviceName);
                         if (nextNode != null) {
-                            boolean updated = nextNode.updateLocCibByTopo(dst.getPortName(), cibOut.announcements);
+                            Collection<Announcement> announcements = deltaCib
+                                    ? cibOutDelta(dst, cibOutMap) : cibOut.announcements;
+                            boolean updated = nextNode.updateLocCibByTopo(dst.getPortName(), announcements);
+                            if (deltaCib) {
+                                releaseCibDelta(announcements);
+                            }
                             if (updated) {
                                 nextNode.sendFirstResultByTopo(c, visited);
                             }
@@ -759,7 +839,7 @@ public class Node {
                     return;
                 }
                 // 3.拓扑排序, 只在满足todolist时往下递归, 关键剪枝
-                if (!hasResult && todoList.isEmpty()) {
+                if (!hasResult && !locCib.hasTodo()) {
                     sendFirstResultByTopo(ctx, visited);
                 }
             }
@@ -870,9 +950,7 @@ public class Node {
                 (device.rules == null || device.rules.isEmpty()) &&
                 (device.rulesIPV6 == null || device.rulesIPV6.isEmpty())) {
 
-                writeResultToFile(srcDeviceName, dstDeviceName, "UNREACHABLE");
-                System.out.println(srcDeviceName + "-" + dstDeviceName + ":UNREACHABLE");
-                System.out.println("Num of DPVnets been verified: " + numDpvnet.getAndIncrement());
+                reportResult(srcDeviceName, dstDeviceName, "UNREACHABLE");
                 return;
             }
 
@@ -880,35 +958,76 @@ public class Node {
                 int mergedBdd = mergeAllCibOutPredicates(cibOut);
 
                 if (mergedBdd == 0) {
-                    writeResultToFile(srcDeviceName, dstDeviceName, "UNREACHABLE");
-                    System.out.println(srcDeviceName + "-" + dstDeviceName + ":UNREACHABLE");
+                    reportResult(srcDeviceName, dstDeviceName, "UNREACHABLE");
                 } else {
                     // 解码BDD得到网段列表
                     List<String> segmentList = decodeBddToSegments(mergedBdd);
 
                     if (segmentList.isEmpty()) {
-                        writeResultToFile(srcDeviceName, dstDeviceName, "UNREACHABLE");
-                        System.out.println(srcDeviceName + "-" + dstDeviceName + ":UNREACHABLE");
+                        reportResult(srcDeviceName, dstDeviceName, "UNREACHABLE");
                     } else {
                         // 格式化网段列表：用逗号和空格分隔
                         String networks = String.join(", ", segmentList);
-                        writeResultToFile(srcDeviceName, dstDeviceName, networks);
-                        System.out.println(srcDeviceName + "-" + dstDeviceName + ":" + networks);
+                        reportResult(srcDeviceName, dstDeviceName, networks);
                     }
                 }
             } catch (Exception e) {
                 System.err.println("[ERROR] showResult BDD处理异常: " + e.getMessage());
-                writeResultToFile(srcDeviceName, dstDeviceName, "UNREACHABLE");
-                System.out.println(srcDeviceName + "-" + dstDeviceName + ":UNREACHABLE");
+                reportResult(srcDeviceName, dstDeviceName, "UNREACHABLE");
             }
 
-            System.out.println("Num of DPVnets been verified: " + numDpvnet.getAndIncrement());
-
         } catch (Exception e) {
             System.err.println("[ERROR] showResult异常: " + e.getMessage());
             e.printStackTrace();
         }
     }
+    // ========== 新增：并行验证的结果缓冲 ==========
+    // 并行验证时各工作线程先把结果缓存在线程本地列表中，
+    // 由调度线程按固定顺序统一输出，保证结果文件与控制台输出与串行执行一致
+
+    private static final ThreadLocal<List<String[]>> capturedResults = new ThreadLocal<>();
+
+    /**
+     * 当前线程开始缓存showResult的输出
+     */
+    public static void beginResultCapture() {
+        capturedResults.set(new ArrayList<>());
+    }
+
+    /**
+     * 结束缓存并返回当前线程缓存的结果（src, dst, networks）
+     */
+    public static List<String[]> endResultCapture() {
+        List<String[]> results = capturedResults.get();
+        capturedResults.remove();
+        return results != null ? results : Collections.emptyList();
+    }
+
+    /**
+     * 输出缓存的结果，须在单一线程上按确定顺序调用
+     */
+    public static void publishResults(List<String[]> results) {
+        for (String[] r : results) {
+            publishResult(r[0], r[1], r[2]);
+        }
+    }
+
+    private void reportResult(String src, String dst, String networks) {
+        List<String[]> buffer = capturedResults.get();
+        if (buffer != null) {
+            buffer.add(new String[]{src, dst, networks});
+            return;
+        }
+        publishResult(src, dst, networks);
+    }
+
+    private static void publishResult(String src, String dst, String networks) {
+        writeResultToFile(src, dst, networks);
+        System.out.println(src + "-" + dst + ":" + networks);
+        System.out.println("Num of DPVnets been verified: " + numDpvnet.getAndIncrement());
+    }
+    // ========== 新增结束 ==========
+
     // ===== 验证节点状态检查 =====
 
     /**
@@ -1154,8 +1273,8 @@ public class Node {
                 return;
             }
 
-            // 3. 如果节点已有todoList（已初始化），开始递归传播
-            if (!todoList.isEmpty()) {
+            // 3. 如果节点的todo集合非空（已初始化），开始递归传播
+            if (locCib.hasTodo()) {
                 sendFirstResultByTopo(c, visited);
             } else {
                 // 节点没有转发规则，检查是否为源节点
@@ -1230,7 +1349,7 @@ public class Node {
         }
     }
     // 写入可达性结果（简化版，不输出具体网段）
-    private void writeResultToFile(String src, String dst, String networks) {
+    private static void writeResultToFile(String src, String dst, String networks) {
         synchronized (writerLock) {
             if (resultWriter == null) {
                 initializeResultFileIfNeeded();
@@ -0,0 +1,185 @@
+package org.sngroup.verifier;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * 设备规则列表的前缀树索引，供单条规则的增量更新（Device.updateRule）使用
+ *
+ * 每个树节点按规则列表中的顺序保存以该节点为前缀的规则，查找某个前缀的规则、与它重叠的规则
+ * （祖先前缀和子树内的前缀）都只走前缀树，不扫描整个列表。规则的地址由树中的路径决定，
+ * 重叠规则的打包地址在遍历时直接给出，不用再逐条解析地址文本。
+ *
+ * 索引同时记录每条规则在列表中的位置，增删规则时由索引同步修改列表：删除时把列表末尾的规则
+ * 移到空位，O(1)。被移动的规则所在前缀还有其他规则时，为保持同一前缀规则的先后次序
+ * （只有第一条生效）改为按序删除。
+ *
+ * 索引只反映建立之后经由它做的修改；列表被重新读取、清空或排序后调用方需丢弃索引重建。
+ */
+final class RuleIndex<R> {
+
+    private static final class Node<R> {
+        Node<R> left, right;
+        ArrayList<R> rules;
+    }
+
+    /** 一条规则在列表中的位置和所在的树节点 */
+    private static final class Slot<R> {
+        int position;
+        final Node<R> node;
+
+        Slot(int position, Node<R> node) {
+            this.position = position;
+            this.node = node;
+        }
+    }
+
+    /**
+     * 遍历重叠规则时的回调，地址的第i位为(hi:lo)的第i位
+     */
+    interface Visitor<R> {
+        void visit(R rule, long hi, long lo);
+    }
+
+    private final List<R> list;
+    private final int bits;
+    private final Node<R> root = new Node<>();
+    private final IdentityHashMap<R, Slot<R>> slots;
+
+    RuleIndex(List<R> list, int bits) {
+        this.list = list;
+        this.bits = bits;
+        this.slots = new IdentityHashMap<>(list.size() * 2);
+    }
+
+    /**
+     * 索引列表中已有的第position条规则，建立索引时按列表顺序逐条调用
+     */
+    void index(R rule, long hi, long lo, int prefixLen, int position) {
+        Node<R> node = node(hi, lo, prefixLen, true);
+        if (node.rules == null) {
+            node.rules = new ArrayList<>(1);
+        }
+        node.rules.add(rule);
+        slots.put(rule, new Slot<>(position, node));
+    }
+
+    /**
+     * 该前缀生效的规则（同一前缀的第一条），没有时为null
+     */
+    R find(long hi, long lo, int prefixLen) {
+        Node<R> node = node(hi, lo, prefixLen, false);
+        return node == null || node.rules == null || node.rules.isEmpty() ? null : node.rules.get(0);
+    }
+
+    /**
+     * 在列表末尾加入一条规则
+     */
+    void add(R rule, long hi, long lo, int prefixLen) {
+        list.add(rule);
+        index(rule, hi, lo, prefixLen, list.size() - 1);
+    }
+
+    /**
+     * 从索引和列表中删除一条规则
+     */
+    void remove(R rule) {
+        Slot<R> slot = slots.remove(rule);
+        if (slot == null) {
+            return;
+        }
+        ArrayList<R> same = slot.node.rules;
+        for (int i = 0; i < same.size(); i++) {
+            if (same.get(i) == rule) {
+                same.remove(i);
+                break;
+            }
+        }
+        int last = list.size() - 1;
+        if (slot.position == last) {
+            list.remove(last);
+            return;
+        }
+        R moved = list.get(last);
+        Slot<R> movedSlot = slots.get(moved);
+        if (movedSlot.node.rules.size() > 1) {
+            list.remove(slot.position);
+            for (int i = slot.position; i < list.size(); i++) {
+                slots.get(list.get(i)).position = i;
+            }
+            return;
+        }
+        list.set(slot.position, moved);
+        list.remove(last);
+        movedSlot.position = slot.position;
+    }
+
+    /**
+     * 按前缀树的先序遍历与该前缀重叠的所有规则：先是各祖先前缀（含自身），再是子树内的前缀；
+     * 同一前缀的规则保持列表中的次序
+     */
+    void overlapping(long hi, long lo, int prefixLen, Visitor<R> visitor) {
+        Node<R> t = root;
+        long pathHi = 0, pathLo = 0;
+        visitRules(t, pathHi, pathLo, visitor);
+        for (int i = bits - 1; i >= bits - prefixLen; i--) {
+            int bit = (int) ((i >= 64 ? hi : lo) >>> (i & 63)) & 1;
+            t = bit == 0 ? t.left : t.right;
+            if (t == null) {
+                return;
+            }
+            if (bit != 0) {
+                if (i >= 64) pathHi |= 1L << (i & 63);
+                else pathLo |= 1L << i;
+            }
+            visitRules(t, pathHi, pathLo, visitor);
+        }
+        visitChildren(t, pathHi, pathLo, bits - prefixLen - 1, visitor);
+    }
+
+    /**
+     * 先序遍历t的子树（不含t本身），子节点由第i位区分，hi/lo为t的路径地址
+     */
+    private void visitChildren(Node<R> t, long hi, long lo, int i, Visitor<R> visitor) {
+        if (i < 0) {
+            return;
+        }
+        if (t.left != null) {
+            visitRules(t.left, hi, lo, visitor);
+            visitChildren(t.left, hi, lo, i - 1, visitor);
+        }
+        if (t.right != null) {
+            long rightHi = i >= 64 ? hi | (1L << (i & 63)) : hi;
+            long rightLo = i >= 64 ? lo : lo | (1L << i);
+            visitRules(t.right, rightHi, rightLo, visitor);
+            visitChildren(t.right, rightHi, rightLo, i - 1, visitor);
+        }
+    }
+
+    private static <R> void visitRules(Node<R> t, long hi, long lo, Visitor<R> visitor) {
+        if (t.rules != null) {
+            for (R rule : t.rules) {
+                visitor.visit(rule, hi, lo);
+            }
+        }
+    }
+
+    private Node<R> node(long hi, long lo, int prefixLen, boolean create) {
+        Node<R> t = root;
+        for (int i = bits - 1; i >= bits - prefixLen; i--) {
+            int bit = (int) ((i >= 64 ? hi : lo) >>> (i & 63)) & 1;
+            Node<R> next = bit == 0 ? t.left : t.right;
+            if (next == null) {
+                if (!create) {
+                    return null;
+                }
+                next = new Node<>();
+                if (bit == 0) t.left = next;
+                else t.right = next;
+            }
+            t = next;
+        }
+        return t;
+    }
+}
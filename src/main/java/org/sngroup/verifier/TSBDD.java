@@ -3,31 +3,45 @@ package org.sngroup.verifier;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jdd.bdd.BDD;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // ========== 新增：NP-BDD相关import ==========
 import org.sngroup.verifier.npbdd.BDDPredicate;
 import org.sngroup.verifier.npbdd.BDDPredicateRegistry;
 import org.sngroup.verifier.npbdd.BDDPredicateCache;
-import org.sngroup.verifier.npbdd.L3CacheKey;
+import org.sngroup.verifier.npbdd.L3OperationCache;
 // ========== 新增结束 ==========
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class TSBDD implements Cloneable, Serializable {
     public BDD bdd;
 
-    // ========== 新增：NP-BDD组件引用 ==========
+    // ========== 新增：NP-BDD组件（每个引擎独立持有） ==========
     /**
-     * 全局谓词注册表引用
+     * 本引擎的谓词注册表和三层缓存，懒创建。
+     * 谓词ID和缓存中的节点ID只在本引擎的节点表中有意义，不能在引擎间共享；
+     * 节点表复制自其他引擎时用inheritPredicatesFrom继承ID映射，其余情况用importPredicate转换。
+     * transient：反射深拷贝不会共享这两个对象，由拷贝方显式继承
      */
-    private static final BDDPredicateRegistry predicateRegistry =
-        BDDPredicateRegistry.getInstance();
+    private transient BDDPredicateRegistry predicateRegistry;
+    private transient BDDPredicateCache predicateCache;
 
     /**
-     * 全局缓存引用
+     * 引擎标识，谓词注册表以 (引擎标识, 根节点) 作为规范索引键。
+     * 构造时分配，进程内唯一；clone()和反序列化得到的副本重新分配（反射深拷贝经过无参构造函数）
      */
-    private static final BDDPredicateCache predicateCache =
-        BDDPredicateCache.getInstance();
+    private static final AtomicInteger engineIdCounter = new AtomicInteger(0);
+    private transient int engineId = engineIdCounter.incrementAndGet();
+
+    /**
+     * 本引擎的L3操作缓存（原始类型开放寻址表），懒创建
+     */
+    private transient L3OperationCache l3OpCache;
     // ========== 新增结束 ==========
 
     public TSBDD(){
@@ -47,14 +61,155 @@ public class TSBDD implements Cloneable, Serializable {
             e.printStackTrace();
         }
         tsbdd.bdd = (BDD)this.bdd.clone();
+        tsbdd.engineId = engineIdCounter.incrementAndGet();
+        tsbdd.l3OpCache = null;
+        tsbdd.predicateCache = null;
+        tsbdd.predicateRegistry = null;
+        tsbdd.inheritPredicatesFrom(this);
         return tsbdd;
     }
 
+    public BDDPredicateRegistry getPredicateRegistry() {
+        if (predicateRegistry == null) {
+            predicateRegistry = new BDDPredicateRegistry(getEngineId());
+        }
+        return predicateRegistry;
+    }
+
+    public BDDPredicateCache getPredicateCache() {
+        if (predicateCache == null) {
+            predicateCache = new BDDPredicateCache();
+        }
+        return predicateCache;
+    }
+
+    /**
+     * 本引擎的节点表是source节点表的副本或覆盖表时调用（clone、反射深拷贝、拷贝构造、覆盖引擎）：
+     * 节点ID一致，因此继承source已分配的谓词ID；缓存从空开始
+     */
+    public void inheritPredicatesFrom(TSBDD source) {
+        this.predicateRegistry = source.predicateRegistry != null
+                ? source.predicateRegistry.forkFor(this) : null;
+        this.predicateCache = null;
+        this.l3OpCache = null;
+    }
+
+    /**
+     * 把另一个引擎中的BDD按结构重建到本引擎，返回已ref的本引擎节点
+     *
+     * 两个引擎必须以相同顺序声明了相同的变量；当前的变量顺序（动态重排后）可以不同。
+     */
+    public int importNode(TSBDD source, int node) {
+        if (node < 2) {
+            return node;
+        }
+        if (source.bdd.numberOfVariables() != bdd.numberOfVariables()) {
+            throw new IllegalArgumentException("变量数不一致, 无法在引擎间转换BDD: "
+                + source.bdd.numberOfVariables() + " vs " + bdd.numberOfVariables());
+        }
+        HashMap<Integer, Integer> translated = new HashMap<>();
+        int result = bdd.ref(importRec(source.bdd, node, translated, sameOrder(source)));
+        // 中间结果在转换过程中均已ref，防止期间GC回收
+        for (int n : translated.values()) {
+            bdd.deref(n);
+        }
+        return result;
+    }
+
+    /**
+     * 批量转换：共享同一个转换表，多个BDD的公共子图只重建一次，返回的节点均已ref
+     */
+    public int[] importNodes(TSBDD source, int[] nodes) {
+        if (source.bdd.numberOfVariables() != bdd.numberOfVariables()) {
+            throw new IllegalArgumentException("变量数不一致, 无法在引擎间转换BDD: "
+                + source.bdd.numberOfVariables() + " vs " + bdd.numberOfVariables());
+        }
+        HashMap<Integer, Integer> translated = new HashMap<>();
+        boolean sameOrder = sameOrder(source);
+        int[] result = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[i] = bdd.ref(importRec(source.bdd, nodes[i], translated, sameOrder));
+        }
+        for (int n : translated.values()) {
+            bdd.deref(n);
+        }
+        return result;
+    }
+
+    private boolean sameOrder(TSBDD source) {
+        return Arrays.equals(source.bdd.getVariableOrder(), bdd.getVariableOrder());
+    }
+
+    /**
+     * 变量顺序相同时按层直接mk；不同时把源节点的变量换算到本引擎的层，用ite重建
+     */
+    private int importRec(BDD source, int node, HashMap<Integer, Integer> translated, boolean sameOrder) {
+        if (node < 2) {
+            return node;
+        }
+        Integer done = translated.get(node);
+        if (done != null) {
+            return done;
+        }
+        int low = importRec(source, source.getLow(node), translated, sameOrder);
+        int high = importRec(source, source.getHigh(node), translated, sameOrder);
+        int result;
+        if (sameOrder) {
+            result = bdd.ref(bdd.mk(source.getVar(node), low, high));
+        } else {
+            int level = bdd.getLevel(source.getVariableAt(source.getVar(node)));
+            result = bdd.ref(bdd.ite(bdd.mk(level, 0, 1), high, low));
+        }
+        translated.put(node, result);
+        return result;
+    }
+
+    /**
+     * 谓词的跨引擎转换：取出source中谓词对应的BDD，重建到本引擎并注册，返回本引擎的谓词ID
+     */
+    public int importPredicate(TSBDD source, int predicateId) {
+        int sourceNode = source.getPredicateRegistry().getBDDNode(predicateId);
+        int node = importNode(source, sourceNode);
+        return getPredicateRegistry().getOrCreateId(new BDDPredicate(node, this), this);
+    }
+
+    /**
+     * 获取本引擎的L3操作缓存，发生过GC时先清空
+     */
+    private L3OperationCache l3Ops() {
+        if (l3OpCache == null) {
+            l3OpCache = new L3OperationCache();
+        }
+        l3OpCache.validate(getGCEpoch());
+        return l3OpCache;
+    }
+
+    /**
+     * 获取GC计数，NP-BDD缓存据此判断条目写入后是否发生过GC
+     */
+    public long getGCEpoch() {
+        return bdd.stat_gc_count;
+    }
+
+    /**
+     * 获取引擎标识（进程内唯一）
+     */
+    public int getEngineId() {
+        return engineId;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        engineId = engineIdCounter.incrementAndGet();
+    }
+
 
 
     public  int cnt = 0;
 
     // ========== 原有方法保持不变 ==========
+    // 下面的基本操作本身不加锁：bdd为ConcurrentBDD时可以被多个线程同时调用，
+    // 普通BDD则只能由一个线程使用
     public int and(int u1, int u2){
         cnt++;
 //        synchronized (bdd){
@@ -97,16 +252,42 @@ public class TSBDD implements Cloneable, Serializable {
 //        }
     }
 
+    /**
+     * u1 AND NOT u2，一次遍历完成，不构造NOT u2，结果已ref
+     */
     public int diff(int u1, int u2){
-        int ret;
-//        synchronized (bdd) {
-            int tmp = bdd.ref(bdd.not(u2));
-            ret = bdd.ref(bdd.and(u1, tmp));
-            bdd.deref(tmp);
-//        }
+        cnt++;
+        return bdd.ref(bdd.diff(u1, u2));
+    }
+
+    // ========== 新增：切分与包含/不相交判断 ==========
+
+    /**
+     * 一次遍历得到 {u1 AND u2, u1 AND NOT u2}，与diff一样两个结果都已ref
+     */
+    public int[] split(int u1, int u2){
+        cnt++;
+        int[] ret = bdd.split(u1, u2);
+        bdd.ref(ret[0]);
+        bdd.ref(ret[1]);
         return ret;
     }
 
+    /**
+     * u1是否包含于u2，不构造新节点
+     */
+    public boolean leq(int u1, int u2){
+        return bdd.leq(u1, u2);
+    }
+
+    /**
+     * u1与u2是否不相交，不构造新节点
+     */
+    public boolean disjoint(int u1, int u2){
+        return bdd.disjoint(u1, u2);
+    }
+    // ========== 新增结束 ==========
+
     public int ref(int u1){
 //        synchronized (bdd){
             return bdd.ref(u1);
@@ -162,10 +343,26 @@ public class TSBDD implements Cloneable, Serializable {
 //        }
     }
 
+    public int prefixCube(int[] vars, int bits, long value, int len){
+        return bdd.prefixCube(vars, bits, value, len);
+    }
+
+    public int prefixCube(int[] vars, int bits, long[] value, int len){
+        return bdd.prefixCube(vars, bits, value, len);
+    }
+
+    public int rangeCube(int[] vars, int bits, long lo, long hi){
+        return bdd.rangeCube(vars, bits, lo, hi);
+    }
+
     public void gc(){
 //        synchronized (bdd){
             bdd.gc();
 //        }
+        // GC后缓存中属于本引擎的节点ID可能已被回收
+        if (predicateCache != null) {
+            predicateCache.invalidateEngine(this);
+        }
     }
 
     public int exists(int u, int cube){
@@ -198,24 +395,25 @@ public class TSBDD implements Cloneable, Serializable {
         }
 
         // L3缓存检查
-        L3CacheKey cacheKey = L3CacheKey.forBinary("AND", predId1, predId2);
-        Integer cachedResult = predicateCache.getL3(cacheKey);
-
-        if (cachedResult != null) {
+        L3OperationCache l3 = l3Ops();
+        int cachedResult = l3.lookup(L3OperationCache.OP_AND, predId1, predId2);
+        if (cachedResult != L3OperationCache.MISS) {
+            getPredicateCache().recordL3Hit();
             return cachedResult;
         }
+        getPredicateCache().recordL3Miss();
 
         // 执行实际计算
-        int node1 = predicateRegistry.getBDDNode(predId1);
-        int node2 = predicateRegistry.getBDDNode(predId2);
+        int node1 = getPredicateRegistry().getBDDNode(predId1);
+        int node2 = getPredicateRegistry().getBDDNode(predId2);
         int resultNode = bdd.and(node1, node2);
 
         // 封装并注册
         BDDPredicate resultPredicate = new BDDPredicate(resultNode, this);
-        int resultId = predicateRegistry.getOrCreateId(resultPredicate, this);
+        int resultId = getPredicateRegistry().getOrCreateId(resultPredicate, this);
 
         // 缓存
-        predicateCache.putL3(cacheKey, resultId);
+        l3.insert(L3OperationCache.OP_AND, predId1, predId2, resultId);
 
         return resultId;
     }
@@ -229,22 +427,23 @@ public class TSBDD implements Cloneable, Serializable {
         }
 
         // L3缓存检查
-        L3CacheKey cacheKey = L3CacheKey.forBinary("OR", predId1, predId2);
-        Integer cachedResult = predicateCache.getL3(cacheKey);
-
-        if (cachedResult != null) {
+        L3OperationCache l3 = l3Ops();
+        int cachedResult = l3.lookup(L3OperationCache.OP_OR, predId1, predId2);
+        if (cachedResult != L3OperationCache.MISS) {
+            getPredicateCache().recordL3Hit();
             return cachedResult;
         }
+        getPredicateCache().recordL3Miss();
 
         // 执行实际计算
-        int node1 = predicateRegistry.getBDDNode(predId1);
-        int node2 = predicateRegistry.getBDDNode(predId2);
+        int node1 = getPredicateRegistry().getBDDNode(predId1);
+        int node2 = getPredicateRegistry().getBDDNode(predId2);
         int resultNode = bdd.or(node1, node2);
 
         BDDPredicate resultPredicate = new BDDPredicate(resultNode, this);
-        int resultId = predicateRegistry.getOrCreateId(resultPredicate, this);
+        int resultId = getPredicateRegistry().getOrCreateId(resultPredicate, this);
 
-        predicateCache.putL3(cacheKey, resultId);
+        l3.insert(L3OperationCache.OP_OR, predId1, predId2, resultId);
 
         return resultId;
     }
@@ -258,21 +457,22 @@ public class TSBDD implements Cloneable, Serializable {
         }
 
         // L3缓存检查
-        L3CacheKey cacheKey = L3CacheKey.forNot(predId);
-        Integer cachedResult = predicateCache.getL3(cacheKey);
-
-        if (cachedResult != null) {
+        L3OperationCache l3 = l3Ops();
+        int cachedResult = l3.lookup(L3OperationCache.OP_NOT, predId, 0);
+        if (cachedResult != L3OperationCache.MISS) {
+            getPredicateCache().recordL3Hit();
             return cachedResult;
         }
+        getPredicateCache().recordL3Miss();
 
         // 执行实际计算
-        int node = predicateRegistry.getBDDNode(predId);
+        int node = getPredicateRegistry().getBDDNode(predId);
         int resultNode = bdd.not(node);
 
         BDDPredicate resultPredicate = new BDDPredicate(resultNode, this);
-        int resultId = predicateRegistry.getOrCreateId(resultPredicate, this);
+        int resultId = getPredicateRegistry().getOrCreateId(resultPredicate, this);
 
-        predicateCache.putL3(cacheKey, resultId);
+        l3.insert(L3OperationCache.OP_NOT, predId, 0, resultId);
 
         return resultId;
     }
@@ -309,19 +509,22 @@ public class TSBDD implements Cloneable, Serializable {
         }
 
         // L3缓存检查
-        L3CacheKey cacheKey = L3CacheKey.forDiff(predId1, predId2);
-        Integer cachedResult = predicateCache.getL3(cacheKey);
-
-        if (cachedResult != null) {
+        int cachedResult = l3Ops().lookup(L3OperationCache.OP_DIFF, predId1, predId2);
+        if (cachedResult != L3OperationCache.MISS) {
+            getPredicateCache().recordL3Hit();
             return cachedResult;
         }
+        getPredicateCache().recordL3Miss();
 
-        // diff(u1, u2) = u1 AND NOT(u2)
-        int notPredId2 = notWithCache(predId2);
-        int resultId = andWithCache(predId1, notPredId2);
+        int node1 = getPredicateRegistry().getBDDNode(predId1);
+        int node2 = getPredicateRegistry().getBDDNode(predId2);
+        int resultNode = bdd.diff(node1, node2);
+
+        BDDPredicate resultPredicate = new BDDPredicate(resultNode, this);
+        int resultId = getPredicateRegistry().getOrCreateId(resultPredicate, this);
 
         // 缓存结果
-        predicateCache.putL3(cacheKey, resultId);
+        l3Ops().insert(L3OperationCache.OP_DIFF, predId1, predId2, resultId);
 
         return resultId;
     }
@@ -334,25 +537,63 @@ public class TSBDD implements Cloneable, Serializable {
             return xor(predId1, predId2);
         }
 
-        L3CacheKey cacheKey = L3CacheKey.forBinary("XOR", predId1, predId2);
-        Integer cachedResult = predicateCache.getL3(cacheKey);
-
-        if (cachedResult != null) {
+        // L3缓存检查
+        L3OperationCache l3 = l3Ops();
+        int cachedResult = l3.lookup(L3OperationCache.OP_XOR, predId1, predId2);
+        if (cachedResult != L3OperationCache.MISS) {
+            getPredicateCache().recordL3Hit();
             return cachedResult;
         }
+        getPredicateCache().recordL3Miss();
 
-        int node1 = predicateRegistry.getBDDNode(predId1);
-        int node2 = predicateRegistry.getBDDNode(predId2);
+        int node1 = getPredicateRegistry().getBDDNode(predId1);
+        int node2 = getPredicateRegistry().getBDDNode(predId2);
         int resultNode = bdd.xor(node1, node2);
 
         BDDPredicate resultPredicate = new BDDPredicate(resultNode, this);
-        int resultId = predicateRegistry.getOrCreateId(resultPredicate, this);
+        int resultId = getPredicateRegistry().getOrCreateId(resultPredicate, this);
 
-        predicateCache.putL3(cacheKey, resultId);
+        l3.insert(L3OperationCache.OP_XOR, predId1, predId2, resultId);
 
         return resultId;
     }
 
+    /**
+     * 带缓存的split操作，返回两部分的谓词ID
+     */
+    public int[] splitWithCache(int predId1, int predId2) {
+        if (!BDDEngine.isNPBDDEnabled()) {
+            return split(predId1, predId2);
+        }
+
+        int node1 = getPredicateRegistry().getBDDNode(predId1);
+        int node2 = getPredicateRegistry().getBDDNode(predId2);
+        int[] ret = split(node1, node2);
+        ret[0] = getPredicateRegistry().getOrCreateId(new BDDPredicate(ret[0], this), this);
+        ret[1] = getPredicateRegistry().getOrCreateId(new BDDPredicate(ret[1], this), this);
+        return ret;
+    }
+
+    /**
+     * 谓词ID版本的leq，只转换为BDD节点，不经过L3缓存
+     */
+    public boolean leqWithCache(int predId1, int predId2) {
+        if (!BDDEngine.isNPBDDEnabled()) {
+            return leq(predId1, predId2);
+        }
+        return leq(getPredicateRegistry().getBDDNode(predId1), getPredicateRegistry().getBDDNode(predId2));
+    }
+
+    /**
+     * 谓词ID版本的disjoint，只转换为BDD节点，不经过L3缓存
+     */
+    public boolean disjointWithCache(int predId1, int predId2) {
+        if (!BDDEngine.isNPBDDEnabled()) {
+            return disjoint(predId1, predId2);
+        }
+        return disjoint(getPredicateRegistry().getBDDNode(predId1), getPredicateRegistry().getBDDNode(predId2));
+    }
+
     /**
      * 带缓存的ref操作
      */
@@ -362,7 +603,7 @@ public class TSBDD implements Cloneable, Serializable {
         }
 
         // ref操作不需要缓存，直接调用原方法
-        int node = predicateRegistry.getBDDNode(predId);
+        int node = getPredicateRegistry().getBDDNode(predId);
         return ref(node);
     }
 
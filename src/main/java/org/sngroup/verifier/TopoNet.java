@@ -126,6 +126,29 @@ public class TopoNet extends DVNet {
         return reused;
     }
 
+    /**
+     * 阻塞式从引擎池取出BDD引擎（并行验证用）
+     * 池为空时等待其他任务归还，从而限制同时在用的引擎数量
+     *
+     * @return 是否取到池中的引擎
+     */
+    public boolean takeBddEngine(LinkedBlockingDeque<BDDEngine> sharedQue) {
+        if (sharedQue == null) {
+            System.err.println("[TopoNet] 警告: sharedQue为null，无法获取BDD引擎");
+            this.bddEngine = null;
+            return false;
+        }
+        try {
+            this.bddEngine = sharedQue.take();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("[TopoNet] 获取BDD引擎被中断: " + e.getMessage());
+            this.bddEngine = null;
+            return false;
+        }
+    }
+
 
     public void setNodeBdd() {
         for (Node node : nodesTable.values()) {
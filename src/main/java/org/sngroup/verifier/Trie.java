@@ -1,17 +1,25 @@
 package org.sngroup.verifier;
 
+import org.sngroup.util.ForwardAction;
+import org.sngroup.util.ForwardType;
 import org.sngroup.util.Rule;
+import org.sngroup.util.RuleIPV6;
+import org.sngroup.util.Utility;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.net.UnknownHostException;
+import java.util.*;
 
 class TrieNode {
     ArrayList<Rule> rules;
 
     TrieNode left, right;
 
+    // 批量构建LEC时本节点前缀的所属动作下标（同一前缀只有第一条规则生效），没有规则以本节点为前缀时为null
+    int[] lecActions;
+
     public TrieNode() {
-        rules = new ArrayList<>();
+        // 规则列表按需创建，批量构建LEC时前缀树的绝大多数节点不挂规则
+        rules = null;
         left = right = null;
     }
 
@@ -30,11 +38,14 @@ class TrieNode {
     }
 
     public void add(Rule rule) {
+        if (this.rules == null) {
+            this.rules = new ArrayList<>();
+        }
         this.rules.add(rule);
     }
 
-    public ArrayList<Rule> getRules() {
-        return this.rules;
+    public List<Rule> getRules() {
+        return this.rules == null ? Collections.<Rule>emptyList() : this.rules;
     }
 
     public void explore(ArrayList<Rule> ret) {
@@ -145,4 +156,210 @@ public class Trie {
 
 
 
+    // ========== 新增：基于前缀树的批量LEC构建 ==========
+
+    /**
+     * 批量把一个设备的全部规则编码为LEC：每个ForwardAction（按端口拆开）一个BDD
+     *
+     * 所有规则先插入二叉前缀树，最长前缀匹配由树结构直接决定：一个地址属于其路径上
+     * 最深的、有规则的节点。然后自底向上遍历一次前缀树，在每个树节点上对子树中出现的
+     * 每个动作调用一次mk，直接得到各动作的BDD，不再对不断增长的allBdd做not/and/or。
+     * 工作量与前缀树节点数成正比（乘以子树中的动作数）。
+     *
+     * 结果与Device中逐条规则not/and/or的做法完全相同（同一BDD中节点ID相同），
+     * 前缀相同的多条规则只有第一条生效。
+     *
+     * @return 每个动作的BDD，均已ref；被完全覆盖的动作对应0
+     */
+    public static Map<ForwardAction, Integer> encodeLecs(List<Rule> rules, BDDEngine bddEngine) {
+        Trie trie = new Trie();
+        Map<ForwardAction, Integer> actionIndex = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            trie.insertForLec(0L, rule.ip, rule.prefixLen, 32,
+                    actionIds(rule.forwardAction, actionIndex));
+        }
+        return trie.buildLecs(bddEngine, 32, actionIndex);
+    }
+
+    public static Map<ForwardAction, Integer> encodeLecsIPV6(List<RuleIPV6> rules, BDDEngine bddEngine)
+            throws UnknownHostException {
+        Trie trie = new Trie();
+        Map<ForwardAction, Integer> actionIndex = new LinkedHashMap<>();
+        for (RuleIPV6 rule : rules) {
+            long[] words = Utility.ipToLongArray(rule.ip);
+            trie.insertForLec(words[1], words[0], rule.prefixLen, BDDEngine.ipBits,
+                    actionIds(rule.forwardAction, actionIndex));
+        }
+        return trie.buildLecs(bddEngine, BDDEngine.ipBits, actionIndex);
+    }
+
+    /**
+     * 逐条加入地址已打包的规则再批量编码，结果与encodeLecs相同；增量更新时由RuleIndex遍历重叠规则直接加入
+     */
+    static final class LecBuilder {
+        private final Trie trie = new Trie();
+        private final Map<ForwardAction, Integer> actionIndex = new LinkedHashMap<>();
+        private final int bits;
+
+        LecBuilder(int bits) {
+            this.bits = bits;
+        }
+
+        /**
+         * 地址的第i位为(hi:lo)的第i位；同一前缀只有先加入的规则生效
+         */
+        void add(long hi, long lo, int prefixLen, ForwardAction forwardAction) {
+            trie.insertForLec(hi, lo, prefixLen, bits, actionIds(forwardAction, actionIndex));
+        }
+
+        Map<ForwardAction, Integer> build(BDDEngine bddEngine) {
+            return trie.buildLecs(bddEngine, bits, actionIndex);
+        }
+    }
+
+    /**
+     * 按端口拆开规则的动作，返回排好序的动作下标
+     */
+    private static int[] actionIds(ForwardAction forwardAction, Map<ForwardAction, Integer> actionIndex) {
+        ForwardType forwardType = forwardAction.forwardType;
+        int[] ids = new int[forwardAction.ports.size()];
+        int n = 0;
+        for (String port : forwardAction.ports) {
+            ForwardAction action = new ForwardAction(forwardType, port);
+            Integer id = actionIndex.get(action);
+            if (id == null) {
+                id = actionIndex.size();
+                actionIndex.put(action, id);
+            }
+            ids[n++] = id;
+        }
+        Arrays.sort(ids, 0, n);
+        return ids;
+    }
+
+    /**
+     * 插入一条规则的前缀，地址的第i位为(hi:lo)的第i位，从最高位(bits-1)开始走
+     */
+    private void insertForLec(long hi, long lo, int prefixLen, int bits, int[] actions) {
+        TrieNode t = this.root;
+        for (int i = bits - 1; i >= bits - prefixLen; i--) {
+            long word = i >= 64 ? hi : lo;
+            t = t.getNext((int) (word >>> (i & 63)) & 1);
+        }
+        if (t.lecActions == null) {
+            t.lecActions = actions;
+        }
+    }
+
+    private Map<ForwardAction, Integer> buildLecs(BDDEngine bddEngine, int bits, Map<ForwardAction, Integer> actionIndex) {
+        TSBDD bdd = bddEngine.getBDD();
+        // 第d层树节点对应的BDD变量，最高位在最上层
+        int[] levelVar = new int[bits];
+        boolean ordered = true;
+        for (int d = 0; d < bits; d++) {
+            levelVar[d] = bdd.getVarUnmasked(BDDEngine.dstIP[bits - 1 - d]);
+            ordered &= d == 0 || levelVar[d] > levelVar[d - 1];
+        }
+        // 变量顺序不是最高位在上（bdd.bitorder=lsb或动态重排之后）时，mk不再适用，改用变量BDD做ite
+        int[] varBdd = null;
+        if (!ordered) {
+            varBdd = new int[bits];
+            for (int d = 0; d < bits; d++) {
+                varBdd[d] = BDDEngine.dstIP[bits - 1 - d];
+            }
+        }
+
+        LecSlice slice = build(bdd, levelVar, varBdd, root, 0, null);
+
+        int[] result = new int[actionIndex.size()];
+        for (int i = 0; i < slice.size; i++) {
+            result[slice.ids[i]] = slice.bdds[i];
+        }
+        Map<ForwardAction, Integer> lecs = new LinkedHashMap<>();
+        for (Map.Entry<ForwardAction, Integer> entry : actionIndex.entrySet()) {
+            lecs.put(entry.getKey(), result[entry.getValue()]);
+        }
+        return lecs;
+    }
+
+    /**
+     * 自底向上构建t子树内各动作的BDD（只含t以下各层的变量）
+     * 子树中没有规则覆盖的部分属于继承下来的动作inherited
+     * 返回的每个BDD都已ref，调用方用完后负责deref
+     * varBdd不为null时各层变量不是自上而下排列，用ite代替mk
+     */
+    private static LecSlice build(TSBDD bdd, int[] levelVar, int[] varBdd, TrieNode t, int depth, int[] inherited) {
+        int[] own = t.lecActions != null ? t.lecActions : inherited;
+        if (t.left == null && t.right == null) {
+            return LecSlice.whole(own);
+        }
+
+        LecSlice low = t.left != null ? build(bdd, levelVar, varBdd, t.left, depth + 1, own) : LecSlice.whole(own);
+        LecSlice high = t.right != null ? build(bdd, levelVar, varBdd, t.right, depth + 1, own) : LecSlice.whole(own);
+
+        // 按动作下标归并两个子结果，每个动作一次mk
+        LecSlice ret = new LecSlice(low.size + high.size);
+        int var = levelVar[depth];
+        int i = 0, j = 0;
+        while (i < low.size || j < high.size) {
+            int id, l = 0, h = 0;
+            if (j >= high.size || (i < low.size && low.ids[i] < high.ids[j])) {
+                id = low.ids[i];
+                l = low.bdds[i++];
+            } else if (i >= low.size || high.ids[j] < low.ids[i]) {
+                id = high.ids[j];
+                h = high.bdds[j++];
+            } else {
+                id = low.ids[i];
+                l = low.bdds[i++];
+                h = high.bdds[j++];
+            }
+            int node = bdd.ref(varBdd == null ? bdd.mk(var, l, h) : bdd.bdd.ite(varBdd[depth], h, l));
+            if (node != 0) {
+                ret.add(id, node);
+            }
+        }
+        low.deref(bdd);
+        high.deref(bdd);
+        return ret;
+    }
+
+    /**
+     * 一棵子树的构建结果：动作下标（递增）与对应BDD的平行数组，结果为0的动作不出现
+     */
+    private static final class LecSlice {
+        private static final LecSlice EMPTY = new LecSlice(0);
+
+        final int[] ids;
+        final int[] bdds;
+        int size;
+
+        LecSlice(int capacity) {
+            ids = new int[capacity];
+            bdds = new int[capacity];
+        }
+
+        static LecSlice whole(int[] actions) {
+            if (actions == null) {
+                return EMPTY;
+            }
+            LecSlice slice = new LecSlice(actions.length);
+            for (int id : actions) {
+                slice.add(id, 1);
+            }
+            return slice;
+        }
+
+        void add(int id, int bdd) {
+            ids[size] = id;
+            bdds[size++] = bdd;
+        }
+
+        void deref(TSBDD bdd) {
+            for (int i = 0; i < size; i++) {
+                bdd.deref(bdds[i]);
+            }
+        }
+    }
+    // ========== 新增结束 ==========
 }
@@ -3,6 +3,8 @@ package org.sngroup.verifier.npbdd;
 import jdd.bdd.BDD;
 import org.sngroup.verifier.TSBDD;
 
+import java.util.HashMap;
+
 /**
  * BDD谓词封装类
  * 
@@ -19,6 +21,8 @@ public class BDDPredicate {
     private final int bddNode;           // JDD库中的BDD节点ID
     private final int structureHash;     // 基于BDD结构的哈希值
     private final String signature;      // BDD结构签名（用于调试）
+    private long fingerprint;            // 全图指纹，懒计算（0表示尚未计算）
+    private int fingerprintOrder;        // 计算指纹时节点表的变量顺序版本（BDD.getOrderVersion）
 
     /**
      * 构造函数
@@ -56,6 +60,86 @@ public class BDDPredicate {
         return hash;
     }
     
+    /**
+     * 获取全图规范指纹（首次调用时计算，变量顺序变化后重新计算）
+     *
+     * 与computeStructureHash只看根节点的 var/low/high 不同，指纹自底向上覆盖整个BDD图，
+     * 且不依赖节点ID，因此变量顺序相同的不同NodeTable中结构相同的BDD得到相同的指纹，可用于跨引擎去重。
+     */
+    public long getFingerprint(TSBDD tsbdd) {
+        int order = tsbdd.bdd.getOrderVersion();
+        if (fingerprint == 0 || fingerprintOrder != order) {
+            fingerprint = computeFingerprint(bddNode, tsbdd);
+            fingerprintOrder = order;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * 计算BDD的全图指纹（64位），每个内部节点只访问一次
+     */
+    public static long computeFingerprint(int node, TSBDD tsbdd) {
+        return fingerprintRec(node, tsbdd.bdd, new HashMap<>());
+    }
+
+    private static long fingerprintRec(int node, BDD bdd, HashMap<Integer, Long> memo) {
+        if (node < 2) {
+            return node == 0 ? 0x5bd1e9955bd1e995L : 0x27d4eb2f165667c5L;
+        }
+        Long cached = memo.get(node);
+        if (cached != null) {
+            return cached;
+        }
+
+        long low = fingerprintRec(bdd.getLow(node), bdd, memo);
+        long high = fingerprintRec(bdd.getHigh(node), bdd, memo);
+        // 混入的是变量编号而不是所在层，但图的形状取决于变量顺序：同一函数在不同顺序下的指纹不同，
+        // 指纹只在变量顺序相同的节点表之间可比，注册表在顺序变化后丢弃已有的指纹索引
+        long h = mix64(bdd.getVariableAt(bdd.getVar(node)) * 0x9e3779b97f4a7c15L + low);
+        h = mix64(h ^ Long.rotateLeft(high, 31));
+        if (h == 0) h = 1; // 0 保留为"未计算"
+
+        memo.put(node, h);
+        return h;
+    }
+
+    /**
+     * 逐节点比较两个节点表中的BDD图是否相同（变量按声明编号比较，与指纹一致），
+     * 用于确认指纹命中不是哈希碰撞；共享子图只比较一次
+     */
+    public static boolean sameGraph(int node1, BDD bdd1, int node2, BDD bdd2) {
+        return sameGraphRec(node1, bdd1, node2, bdd2, new HashMap<>());
+    }
+
+    private static boolean sameGraphRec(int node1, BDD bdd1, int node2, BDD bdd2, HashMap<Integer, Integer> matched) {
+        if (node1 < 2 || node2 < 2) {
+            return node1 == node2;
+        }
+        Integer seen = matched.get(node1);
+        if (seen != null) {
+            // 规范BDD中一个子图只对应一个节点
+            return seen == node2;
+        }
+        if (bdd1.getVariableAt(bdd1.getVar(node1)) != bdd2.getVariableAt(bdd2.getVar(node2))) {
+            return false;
+        }
+        if (!sameGraphRec(bdd1.getLow(node1), bdd1, bdd2.getLow(node2), bdd2, matched)
+                || !sameGraphRec(bdd1.getHigh(node1), bdd1, bdd2.getHigh(node2), bdd2, matched)) {
+            return false;
+        }
+        matched.put(node1, node2);
+        return true;
+    }
+
+    /**
+     * splitmix64 的最终混合函数
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     /**
      * 计算BDD结构签名（用于调试和日志）
      */
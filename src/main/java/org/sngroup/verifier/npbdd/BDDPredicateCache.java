@@ -1,136 +1,191 @@
 package org.sngroup.verifier.npbdd;
 
-import java.util.concurrent.ConcurrentHashMap;
+import org.sngroup.verifier.TSBDD;
 
-public class BDDPredicateCache {
+import java.util.concurrent.atomic.LongAdder;
 
-    private static final BDDPredicateCache INSTANCE = new BDDPredicateCache();
+/**
+ * NP-BDD三层缓存
+ *
+ * 每个TSBDD持有自己的缓存实例（见TSBDD.getPredicateCache）。
+ *
+ * 每一层都是有界的分段LRU缓存（见SegmentedLruCache），容量同时受条目数和估算字节数约束：
+ * - 条目数上限：L1_CAPACITY/L2_CAPACITY/L3_CAPACITY，可通过系统属性
+ *   npbdd.cache.l1 / npbdd.cache.l2 / npbdd.cache.l3 覆盖
+ * - 字节上限：npbdd.cache.maxMB（默认512MB），按 L1:L2:L3 = 2:3:5 分配
+ *
+ * 缓存值中保存的是BDD节点/谓词ID，只在写入它的TSBDD中有效，并且在该TSBDD发生GC后可能失效。
+ * 因此所有读写都带上所属的TSBDD：条目记录引擎标识和GC计数，不匹配时按未命中处理。
+ */
+public class BDDPredicateCache {
 
-    private final ConcurrentHashMap<L1CacheKey, L1CacheValue> l1Cache;
-    private final ConcurrentHashMap<L2CacheKey, Integer> l2EncodeCache;
-    private final ConcurrentHashMap<L2CacheKey, L2CacheKey.L2HitResult> l2HitCache;
-    private final ConcurrentHashMap<L2CacheKey, L2CacheKey.L2MergeResult> l2MergeCache;
-    private final ConcurrentHashMap<L3CacheKey, Integer> l3Cache;
+    private final SegmentedLruCache<L1CacheKey, L1CacheValue> l1Cache;
+    private final SegmentedLruCache<L2CacheKey, Integer> l2EncodeCache;
+    private final SegmentedLruCache<L2CacheKey, L2CacheKey.L2HitResult> l2HitCache;
+    private final SegmentedLruCache<L2CacheKey, L2CacheKey.L2MergeResult> l2MergeCache;
+    private final SegmentedLruCache<L3CacheKey, Integer> l3Cache;
 
-    private long l1Hits = 0;
-    private long l1Misses = 0;
-    private long l2EncodeHits = 0;
-    private long l2EncodeMisses = 0;
-    private long l2HitHits = 0;
-    private long l2HitMisses = 0;
-    private long l2MergeHits = 0;
-    private long l2MergeMisses = 0;
-    private long l3Hits = 0;
-    private long l3Misses = 0;
+    // 多线程并发更新，使用分段计数器
+    private final LongAdder l1Hits = new LongAdder();
+    private final LongAdder l1Misses = new LongAdder();
+    private final LongAdder l2EncodeHits = new LongAdder();
+    private final LongAdder l2EncodeMisses = new LongAdder();
+    private final LongAdder l2HitHits = new LongAdder();
+    private final LongAdder l2HitMisses = new LongAdder();
+    private final LongAdder l2MergeHits = new LongAdder();
+    private final LongAdder l2MergeMisses = new LongAdder();
+    private final LongAdder l3Hits = new LongAdder();
+    private final LongAdder l3Misses = new LongAdder();
 
-    private static final int L1_CAPACITY = 5000;
-    private static final int L2_CAPACITY = 20000;
-    private static final int L3_CAPACITY = 50000;
+    private static final int L1_CAPACITY = Integer.getInteger("npbdd.cache.l1", 5000);
+    private static final int L2_CAPACITY = Integer.getInteger("npbdd.cache.l2", 20000);
+    private static final int L3_CAPACITY = Integer.getInteger("npbdd.cache.l3", 50000);
+    private static final long MAX_BYTES = Long.getLong("npbdd.cache.maxMB", 512) * 1024 * 1024;
 
-    private BDDPredicateCache() {
-        this.l1Cache = new ConcurrentHashMap<>(L1_CAPACITY);
-        this.l2EncodeCache = new ConcurrentHashMap<>(L2_CAPACITY);
-        this.l2HitCache = new ConcurrentHashMap<>(L2_CAPACITY);
-        this.l2MergeCache = new ConcurrentHashMap<>(L2_CAPACITY);
-        this.l3Cache = new ConcurrentHashMap<>(L3_CAPACITY);
-    }
+    // 键对象的字节估算（对象头 + 字段）
+    private static final int L1_KEY_BYTES = 48;
+    private static final int L2_KEY_BYTES = 40;
+    private static final int L3_KEY_BYTES = 40;
+    private static final int MAP_ENTRY_BYTES = 64;
 
-    public static BDDPredicateCache getInstance() {
-        return INSTANCE;
+    public BDDPredicateCache() {
+        this.l1Cache = new SegmentedLruCache<>("L1", L1_CAPACITY, MAX_BYTES / 10 * 2,
+            v -> L1_KEY_BYTES + 32 + (v.updatedPortSpaces != null ? v.updatedPortSpaces.size() * MAP_ENTRY_BYTES : 0));
+        this.l2EncodeCache = new SegmentedLruCache<>("L2-encode", L2_CAPACITY, MAX_BYTES / 10,
+            v -> L2_KEY_BYTES + 16);
+        this.l2HitCache = new SegmentedLruCache<>("L2-hit", L2_CAPACITY, MAX_BYTES / 10,
+            v -> L2_KEY_BYTES + 24);
+        this.l2MergeCache = new SegmentedLruCache<>("L2-merge", L2_CAPACITY, MAX_BYTES / 10,
+            v -> L2_KEY_BYTES + 24 + (v.updatedPortMap != null ? v.updatedPortMap.size() * MAP_ENTRY_BYTES : 0));
+        this.l3Cache = new SegmentedLruCache<>("L3", L3_CAPACITY, MAX_BYTES / 10 * 5,
+            v -> L3_KEY_BYTES + 16);
     }
 
-    public L1CacheValue getL1(L1CacheKey key) {
-        L1CacheValue value = l1Cache.get(key);
+    public L1CacheValue getL1(L1CacheKey key, TSBDD owner) {
+        L1CacheValue value = l1Cache.get(key, owner.getEngineId(), owner.getGCEpoch());
         if (value != null) {
-            l1Hits++;
+            l1Hits.increment();
             return value;
         }
-        l1Misses++;
+        l1Misses.increment();
         return null;
     }
 
-    public void putL1(L1CacheKey key, L1CacheValue value) {
-        l1Cache.put(key, value);
+    public void putL1(L1CacheKey key, L1CacheValue value, TSBDD owner) {
+        l1Cache.put(key, value, owner.getEngineId(), owner.getGCEpoch());
     }
 
-    public Integer getL2Encode(L2CacheKey key) {
-        Integer value = l2EncodeCache.get(key);
+    public Integer getL2Encode(L2CacheKey key, TSBDD owner) {
+        Integer value = l2EncodeCache.get(key, owner.getEngineId(), owner.getGCEpoch());
         if (value != null) {
-            l2EncodeHits++;
+            l2EncodeHits.increment();
             return value;
         }
-        l2EncodeMisses++;
+        l2EncodeMisses.increment();
         return null;
     }
 
-    public void putL2Encode(L2CacheKey key, Integer value) {
-        l2EncodeCache.put(key, value);
+    public void putL2Encode(L2CacheKey key, Integer value, TSBDD owner) {
+        l2EncodeCache.put(key, value, owner.getEngineId(), owner.getGCEpoch());
     }
 
-    public L2CacheKey.L2HitResult getL2Hit(L2CacheKey key) {
-        L2CacheKey.L2HitResult value = l2HitCache.get(key);
+    public L2CacheKey.L2HitResult getL2Hit(L2CacheKey key, TSBDD owner) {
+        L2CacheKey.L2HitResult value = l2HitCache.get(key, owner.getEngineId(), owner.getGCEpoch());
         if (value != null) {
-            l2HitHits++;
+            l2HitHits.increment();
             return value;
         }
-        l2HitMisses++;
+        l2HitMisses.increment();
         return null;
     }
 
-    public void putL2Hit(L2CacheKey key, L2CacheKey.L2HitResult value) {
-        l2HitCache.put(key, value);
+    public void putL2Hit(L2CacheKey key, L2CacheKey.L2HitResult value, TSBDD owner) {
+        l2HitCache.put(key, value, owner.getEngineId(), owner.getGCEpoch());
     }
 
-    public L2CacheKey.L2MergeResult getL2Merge(L2CacheKey key) {
-        L2CacheKey.L2MergeResult value = l2MergeCache.get(key);
+    public L2CacheKey.L2MergeResult getL2Merge(L2CacheKey key, TSBDD owner) {
+        L2CacheKey.L2MergeResult value = l2MergeCache.get(key, owner.getEngineId(), owner.getGCEpoch());
         if (value != null) {
-            l2MergeHits++;
+            l2MergeHits.increment();
             return value;
         }
-        l2MergeMisses++;
+        l2MergeMisses.increment();
         return null;
     }
 
-    public void putL2Merge(L2CacheKey key, L2CacheKey.L2MergeResult value) {
-        l2MergeCache.put(key, value);
+    public void putL2Merge(L2CacheKey key, L2CacheKey.L2MergeResult value, TSBDD owner) {
+        l2MergeCache.put(key, value, owner.getEngineId(), owner.getGCEpoch());
     }
 
-    public Integer getL3(L3CacheKey key) {
-        Integer value = l3Cache.get(key);
+    public Integer getL3(L3CacheKey key, TSBDD owner) {
+        Integer value = l3Cache.get(key, owner.getEngineId(), owner.getGCEpoch());
         if (value != null) {
-            l3Hits++;
+            l3Hits.increment();
             return value;
         }
-        l3Misses++;
+        l3Misses.increment();
         return null;
     }
 
-    public void putL3(L3CacheKey key, Integer value) {
-        l3Cache.put(key, value);
+    public void putL3(L3CacheKey key, Integer value, TSBDD owner) {
+        l3Cache.put(key, value, owner.getEngineId(), owner.getGCEpoch());
+    }
+
+    /**
+     * 记录TSBDD中原始类型L3表（L3OperationCache）的命中/未命中，计入L3统计
+     */
+    public void recordL3Hit() {
+        l3Hits.increment();
+    }
+
+    public void recordL3Miss() {
+        l3Misses.increment();
+    }
+
+    /**
+     * GC钩子：清除某个TSBDD写入的全部条目
+     *
+     * 查找时的GC计数校验已保证不会返回失效节点，这里用于及时释放这些条目占用的内存。
+     */
+    public void invalidateEngine(TSBDD owner) {
+        int engineId = owner.getEngineId();
+        l1Cache.invalidateEngine(engineId);
+        l2EncodeCache.invalidateEngine(engineId);
+        l2HitCache.invalidateEngine(engineId);
+        l2MergeCache.invalidateEngine(engineId);
+        l3Cache.invalidateEngine(engineId);
+    }
+
+    /**
+     * 三层缓存当前占用的估算字节数
+     */
+    public long getEstimatedBytes() {
+        return l1Cache.byteSize() + l2EncodeCache.byteSize() + l2HitCache.byteSize()
+            + l2MergeCache.byteSize() + l3Cache.byteSize();
     }
 
     public CacheStats getStats() {
         return new CacheStats(
-            l1Hits, l1Misses, l1Cache.size(),
-            l2EncodeHits, l2EncodeMisses,
-            l2HitHits, l2HitMisses,
-            l2MergeHits, l2MergeMisses,
+            l1Hits.sum(), l1Misses.sum(), l1Cache.size(),
+            l2EncodeHits.sum(), l2EncodeMisses.sum(),
+            l2HitHits.sum(), l2HitMisses.sum(),
+            l2MergeHits.sum(), l2MergeMisses.sum(),
             l2EncodeCache.size() + l2HitCache.size() + l2MergeCache.size(),
-            l3Hits, l3Misses, l3Cache.size()
+            l3Hits.sum(), l3Misses.sum(), l3Cache.size()
         );
     }
 
     public void resetStats() {
-        l1Hits = 0;
-        l1Misses = 0;
-        l2EncodeHits = 0;
-        l2EncodeMisses = 0;
-        l2HitHits = 0;
-        l2HitMisses = 0;
-        l2MergeHits = 0;
-        l2MergeMisses = 0;
-        l3Hits = 0;
-        l3Misses = 0;
+        l1Hits.reset();
+        l1Misses.reset();
+        l2EncodeHits.reset();
+        l2EncodeMisses.reset();
+        l2HitHits.reset();
+        l2HitMisses.reset();
+        l2MergeHits.reset();
+        l2MergeMisses.reset();
+        l3Hits.reset();
+        l3Misses.reset();
     }
 
     public void clear() {
@@ -159,6 +214,11 @@ public class BDDPredicateCache {
         System.out.println("  命中: " + stats.l3Hits + ", 未命中: " + stats.l3Misses);
         System.out.println("  命中率: " + String.format("%.2f%%", stats.getL3HitRate()));
         System.out.println("  大小: " + stats.l3Size);
+        System.out.println("占用内存(估算): " + String.format("%.1f MB", getEstimatedBytes() / 1024.0 / 1024.0));
+        for (SegmentedLruCache<?, ?> c : new SegmentedLruCache<?, ?>[] {
+                l1Cache, l2EncodeCache, l2HitCache, l2MergeCache, l3Cache}) {
+            System.out.println("  " + c.getName() + " - 淘汰: " + c.getEvictions() + ", GC失效: " + c.getStaleDrops());
+        }
     }
 
     public static class CacheStats {
@@ -2,69 +2,299 @@ package org.sngroup.verifier.npbdd;
 
 import org.sngroup.verifier.TSBDD;
 
+import java.lang.ref.WeakReference;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 谓词注册表
+ *
+ * 每个TSBDD持有自己的注册表（见TSBDD.getPredicateRegistry），谓词ID只在所属引擎及其
+ * 节点表副本（forkFor）中有意义；谓词需要跨引擎使用时通过TSBDD.importPredicate转换。
+ * 派生出的注册表以父注册表冻结的层为只读上层，只写入自己新增的条目。
+ *
+ * 约简有序BDD在同一个NodeTable内是规范的：结构相同即根节点ID相同。
+ * 因此注册表以 (引擎标识, 根节点ID) 打包成的long作为主索引，命中时只做一次无锁的
+ * ConcurrentHashMap查找，注册代价与注册表规模无关。
+ *
+ * 可选的跨引擎去重（系统属性 npbdd.fingerprint=true）：主索引未命中时再按
+ * BDDPredicate的全图指纹查找，不同引擎中结构相同的BDD复用同一个谓词ID。
+ * 指纹依赖变量顺序，引擎动态重排后（BDD.getOrderVersion变化）之前记录的指纹全部作废。
+ * 指纹命中后还要与登记该指纹的BDD逐节点比对（BDDPredicate.sameGraph），
+ * 比对不一致（哈希碰撞）或登记方引擎已被回收时分配新的ID，不覆盖已有的指纹条目。
+ */
 public class BDDPredicateRegistry {
 
-    private static final BDDPredicateRegistry INSTANCE = new BDDPredicateRegistry();
+    /**
+     * 注册表的一层索引。派生（forkFor）时当前层被冻结，此后只读，由父注册表和派生出的
+     * 注册表共同读取；两者的新条目各自写入新的一层。
+     */
+    private static final class Layer {
+        final ConcurrentHashMap<Long, Integer> nodeIndex;         // (引擎, 根节点) -> 谓词ID
+        final ConcurrentHashMap<Long, FingerprintEntry> fingerprintIndex;  // 全图指纹 -> 谓词ID及登记的BDD
+        final ConcurrentHashMap<Integer, BDDPredicate> idToPredicate;
+        final int engineId;   // 写入本层的注册表所属引擎
+        final Layer parent;   // 已冻结的上层
+        final int depth;
 
-    private final ConcurrentHashMap<BDDPredicate, Integer> predicateToId;
-    private final ConcurrentHashMap<Integer, BDDPredicate> idToPredicate;
+        Layer(int engineId, Layer parent, int capacity) {
+            this.nodeIndex = new ConcurrentHashMap<>(capacity);
+            this.fingerprintIndex = new ConcurrentHashMap<>(capacity);
+            this.idToPredicate = new ConcurrentHashMap<>(capacity);
+            this.engineId = engineId;
+            this.parent = parent;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+
+        boolean isEmpty() {
+            return idToPredicate.isEmpty() && nodeIndex.isEmpty();
+        }
+    }
+
+    /**
+     * 指纹条目：谓词ID和登记时的BDD（所在引擎弱引用，不延长引擎的生命周期）
+     */
+    private static final class FingerprintEntry {
+        final int id;
+        final int bddNode;
+        final WeakReference<TSBDD> engine;
+
+        FingerprintEntry(int id, int bddNode, TSBDD engine) {
+            this.id = id;
+            this.bddNode = bddNode;
+            this.engine = new WeakReference<>(engine);
+        }
+
+        /**
+         * 是否为bdd中的node登记的条目
+         */
+        boolean registeredBy(int node, TSBDD bdd) {
+            return bddNode == node && engine.get() == bdd;
+        }
+
+        /**
+         * 登记的BDD与bdd中的node是否为同一个图
+         */
+        boolean sameGraph(int node, TSBDD bdd) {
+            TSBDD owner = engine.get();
+            if (owner == null) {
+                return false;
+            }
+            if (owner == bdd) {
+                // 同一节点表内结构相同即节点相同
+                return bddNode == node;
+            }
+            return BDDPredicate.sameGraph(bddNode, owner.bdd, node, bdd.bdd);
+        }
+    }
+
+    /** 所属引擎的标识；为0时不区分所属引擎（没有经过派生的独立注册表） */
+    private final int ownerEngineId;
+    private volatile Layer top;
+    /** 指纹索引对应的变量顺序版本；查找指纹时只看fingerprintFloor以上的层 */
+    private volatile int fingerprintOrder;
+    private volatile Layer fingerprintFloor;
     private final AtomicInteger idCounter;
     private final AtomicLong totalPredicates = new AtomicLong(0);
     private final AtomicLong cacheHits = new AtomicLong(0);
     private final AtomicLong cacheMisses = new AtomicLong(0);
+    private final AtomicLong fingerprintHits = new AtomicLong(0);
 
     private static final int INITIAL_CAPACITY = 10000;
+    private static final int FORK_CAPACITY = 256;
     private static final int STARTING_ID = 2;
+    /** 冻结层数达到该值时派生前先合并上层，限制查找链长度 */
+    private static final int MAX_LAYER_DEPTH = 8;
+
+    /**
+     * 是否启用跨引擎的全图指纹去重，默认关闭
+     */
+    private volatile boolean canonicalFingerprint = Boolean.getBoolean("npbdd.fingerprint");
 
-    private BDDPredicateRegistry() {
-        this.predicateToId = new ConcurrentHashMap<>(INITIAL_CAPACITY);
-        this.idToPredicate = new ConcurrentHashMap<>(INITIAL_CAPACITY);
+    public BDDPredicateRegistry() {
+        this(0);
+    }
+
+    public BDDPredicateRegistry(int ownerEngineId) {
+        this.ownerEngineId = ownerEngineId;
+        this.top = new Layer(ownerEngineId, null, INITIAL_CAPACITY);
         this.idCounter = new AtomicInteger(STARTING_ID);
     }
 
-    public static BDDPredicateRegistry getInstance() {
-        return INSTANCE;
+    /**
+     * 为节点表复制自本注册表所属引擎的child引擎派生注册表
+     *
+     * 副本中节点ID与源引擎一致，因此已分配的谓词ID在child中仍然有效。派生不复制条目：
+     * 本注册表的当前层被冻结并作为child的只读上层，本注册表和child此后各自在新的一层中
+     * 分配ID，互不可见。代价与注册表规模无关（冻结层数达到MAX_LAYER_DEPTH时合并较小的上层，见compact）。
+     */
+    public synchronized BDDPredicateRegistry forkFor(TSBDD child) {
+        Layer frozen = top;
+        if (frozen.isEmpty()) {
+            frozen = frozen.parent;
+        } else {
+            if (frozen.depth >= MAX_LAYER_DEPTH) {
+                frozen = compact(frozen);
+            }
+            top = new Layer(ownerEngineId, frozen, FORK_CAPACITY);
+        }
+        BDDPredicateRegistry fork = new BDDPredicateRegistry(child.getEngineId(), frozen);
+        fork.idCounter.set(idCounter.get());
+        fork.totalPredicates.set(totalPredicates.get());
+        fork.canonicalFingerprint = canonicalFingerprint;
+        fork.fingerprintOrder = fingerprintOrder;
+        fork.fingerprintFloor = fingerprintFloor;
+        return fork;
+    }
+
+    private BDDPredicateRegistry(int ownerEngineId, Layer frozen) {
+        this.ownerEngineId = ownerEngineId;
+        this.top = new Layer(ownerEngineId, frozen, FORK_CAPACITY);
+        this.idCounter = new AtomicInteger(STARTING_ID);
+    }
+
+    /**
+     * 从layer开始自顶向下合并冻结层，所属引擎的条目统一按ownerEngineId打包
+     *
+     * 较小的上层被并入，下一层的条目数超过已合并条数的两倍、且剩余层数不超过MAX_LAYER_DEPTH/2时停止，
+     * 大的底层不会被反复复制，每个条目被复制的次数是对数级的。
+     */
+    private Layer compact(Layer layer) {
+        int merged = 0;
+        int count = 0;
+        Layer stop = layer;
+        while (stop != null) {
+            if (count >= 2 && stop.nodeIndex.size() > 2 * merged && stop.depth < MAX_LAYER_DEPTH / 2) {
+                break;
+            }
+            merged += stop.nodeIndex.size();
+            count++;
+            stop = stop.parent;
+        }
+        Layer result = new Layer(ownerEngineId, stop, Math.max(FORK_CAPACITY, merged));
+        // fingerprintFloor及其以下的层的指纹已经作废，不并入新层
+        Layer floor = fingerprintFloor;
+        boolean validFingerprints = true;
+        for (Layer l = layer; l != stop; l = l.parent) {
+            if (l == floor) {
+                validFingerprints = false;
+            }
+            for (java.util.Map.Entry<Long, Integer> entry : l.nodeIndex.entrySet()) {
+                long key = entry.getKey();
+                if ((int) (key >>> 32) == l.engineId) {
+                    key = nodeKey(ownerEngineId, (int) key);
+                }
+                result.nodeIndex.putIfAbsent(key, entry.getValue());
+            }
+            if (validFingerprints) {
+                for (java.util.Map.Entry<Long, FingerprintEntry> entry : l.fingerprintIndex.entrySet()) {
+                    result.fingerprintIndex.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            result.idToPredicate.putAll(l.idToPredicate);
+        }
+        if (!validFingerprints) {
+            fingerprintFloor = stop;
+        }
+        return result;
+    }
+
+    public void setCanonicalFingerprint(boolean enabled) {
+        this.canonicalFingerprint = enabled;
+    }
+
+    public boolean isCanonicalFingerprint() {
+        return canonicalFingerprint;
     }
 
     public int getOrCreateId(BDDPredicate predicate, TSBDD bdd) {
-        Integer existingId = predicateToId.get(predicate);
+        int engineId = bdd.getEngineId();
+        Layer layer = top;
+        Integer existingId = findNode(layer, engineId, predicate.getBddNode());
         if (existingId != null) {
             cacheHits.incrementAndGet();
             return existingId;
         }
 
-        synchronized (this) {
-            existingId = predicateToId.get(predicate);
-            if (existingId != null) {
-                cacheHits.incrementAndGet();
-                return existingId;
+        cacheMisses.incrementAndGet();
+        return layer.nodeIndex.computeIfAbsent(nodeKey(engineId, predicate.getBddNode()), k -> {
+            if (!canonicalFingerprint) {
+                return allocateId(layer, predicate);
             }
-
-            cacheMisses.incrementAndGet();
-
-            for (java.util.Map.Entry<BDDPredicate, Integer> entry : predicateToId.entrySet()) {
-                if (entry.getKey().structurallyEquals(predicate, bdd)) {
-                    int id = entry.getValue();
-                    predicateToId.put(predicate, id);
-                    cacheHits.incrementAndGet();
-                    return id;
+            if (bdd.bdd.getOrderVersion() != fingerprintOrder) {
+                discardFingerprints(bdd.bdd.getOrderVersion());
+            }
+            long fp = predicate.getFingerprint(bdd);
+            int node = predicate.getBddNode();
+            FingerprintEntry entry = findFingerprint(layer, fp);
+            if (entry == null) {
+                entry = layer.fingerprintIndex.computeIfAbsent(fp,
+                        f -> new FingerprintEntry(allocateId(layer, predicate), node, bdd));
+                if (entry.registeredBy(node, bdd)) {
+                    return entry.id;
                 }
             }
+            if (entry.sameGraph(node, bdd)) {
+                fingerprintHits.incrementAndGet();
+                return entry.id;
+            }
+            return allocateId(layer, predicate);
+        });
+    }
+
+    /**
+     * 自顶向下逐层查找；所属引擎的条目在各层中按写入该层时的引擎标识打包
+     */
+    private Integer findNode(Layer layer, int engineId, int bddNode) {
+        boolean owner = engineId == ownerEngineId;
+        for (Layer l = layer; l != null; l = l.parent) {
+            Integer id = l.nodeIndex.get(nodeKey(owner ? l.engineId : engineId, bddNode));
+            if (id != null) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 变量顺序变化后丢弃已有的指纹：清空本层的指纹索引，冻结的上层不再参与指纹查找
+     * （它们可能仍被变量顺序未变的派生注册表使用）
+     */
+    private synchronized void discardFingerprints(int order) {
+        if (order == fingerprintOrder) {
+            return;
+        }
+        Layer layer = top;
+        layer.fingerprintIndex.clear();
+        fingerprintFloor = layer.parent;
+        fingerprintOrder = order;
+    }
 
-            int newId = idCounter.getAndIncrement();
-            totalPredicates.incrementAndGet();
-            predicateToId.put(predicate, newId);
-            idToPredicate.put(newId, predicate);
-            return newId;
+    private FingerprintEntry findFingerprint(Layer layer, long fp) {
+        Layer floor = fingerprintFloor;
+        for (Layer l = layer; l != null && l != floor; l = l.parent) {
+            FingerprintEntry entry = l.fingerprintIndex.get(fp);
+            if (entry != null) {
+                return entry;
+            }
         }
+        return null;
+    }
+
+    private int allocateId(Layer layer, BDDPredicate predicate) {
+        int newId = idCounter.getAndIncrement();
+        totalPredicates.incrementAndGet();
+        layer.idToPredicate.put(newId, predicate);
+        return newId;
+    }
+
+    private static long nodeKey(int engineId, int bddNode) {
+        return ((long) engineId << 32) | (bddNode & 0xFFFFFFFFL);
     }
 
     public int getBDDNode(int predicateId) {
-        BDDPredicate predicate = idToPredicate.get(predicateId);
+        BDDPredicate predicate = getPredicate(predicateId);
         if (predicate == null) {
             return predicateId;
         }
@@ -72,26 +302,45 @@ public class BDDPredicateRegistry {
     }
 
     public BDDPredicate getPredicate(int predicateId) {
-        return idToPredicate.get(predicateId);
+        for (Layer l = top; l != null; l = l.parent) {
+            BDDPredicate predicate = l.idToPredicate.get(predicateId);
+            if (predicate != null) {
+                return predicate;
+            }
+        }
+        return null;
     }
 
     public RegistryStats getStats() {
         return new RegistryStats(
             totalPredicates.get(),
-            predicateToId.size(),
+            indexSize(),
             cacheHits.get(),
-            cacheMisses.get()
+            cacheMisses.get(),
+            fingerprintHits.get()
         );
     }
 
+    private int indexSize() {
+        int size = 0;
+        for (Layer l = top; l != null; l = l.parent) {
+            size += l.nodeIndex.size();
+        }
+        return size;
+    }
+
     public void resetStats() {
         cacheHits.set(0);
         cacheMisses.set(0);
+        fingerprintHits.set(0);
     }
 
-    public void clear() {
-        predicateToId.clear();
-        idToPredicate.clear();
+    /**
+     * 清空本注册表；已冻结的层可能仍被派生出的注册表使用，只是不再被引用
+     */
+    public synchronized void clear() {
+        top = new Layer(ownerEngineId, null, INITIAL_CAPACITY);
+        fingerprintFloor = null;
         idCounter.set(STARTING_ID);
         resetStats();
         totalPredicates.set(0);
@@ -104,6 +353,9 @@ public class BDDPredicateRegistry {
         System.out.println("当前注册: " + stats.currentSize);
         System.out.println("查找命中: " + stats.cacheHits);
         System.out.println("查找未命中: " + stats.cacheMisses);
+        if (canonicalFingerprint) {
+            System.out.println("指纹去重命中: " + stats.fingerprintHits);
+        }
         if (stats.cacheHits + stats.cacheMisses > 0) {
             System.out.println("命中率: " + String.format("%.2f%%", stats.getHitRate()));
         }
@@ -114,12 +366,15 @@ public class BDDPredicateRegistry {
         public final int currentSize;
         public final long cacheHits;
         public final long cacheMisses;
+        public final long fingerprintHits;
 
-        public RegistryStats(long totalPredicates, int currentSize, long cacheHits, long cacheMisses) {
+        public RegistryStats(long totalPredicates, int currentSize, long cacheHits, long cacheMisses,
+                             long fingerprintHits) {
             this.totalPredicates = totalPredicates;
             this.currentSize = currentSize;
             this.cacheHits = cacheHits;
             this.cacheMisses = cacheMisses;
+            this.fingerprintHits = fingerprintHits;
         }
 
         public double getHitRate() {
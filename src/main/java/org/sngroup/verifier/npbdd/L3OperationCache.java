@@ -0,0 +1,130 @@
+package org.sngroup.verifier.npbdd;
+
+import java.util.Arrays;
+
+/**
+ * L3缓存（基础BDD操作）的原始类型实现
+ *
+ * TSBDD.andWithCache/orWithCache/notWithCache等位于CIB更新的最内层循环，
+ * 这里用开放寻址表代替 ConcurrentHashMap&lt;L3CacheKey, Integer&gt;：
+ * - 键：两个操作数打包成一个long，操作码单独存一个byte
+ * - 值：int谓词ID
+ * 命中路径不创建任何对象，也不装箱。
+ *
+ * 与JDD的计算表一样是有损缓存：探测MAX_PROBE个槽位都被占用时直接覆盖第一个槽位。
+ * 每个TSBDD持有一个实例（BDD本身不是线程安全的，因此不需要同步），
+ * 所属BDD发生GC后整表清空，避免返回已被回收的节点ID。
+ */
+public final class L3OperationCache {
+
+    public static final int OP_AND = 1, OP_OR = 2, OP_NOT = 3, OP_DIFF = 4, OP_XOR = 5;
+
+    /** 未命中时lookup的返回值 */
+    public static final int MISS = -1;
+
+    private static final int MAX_PROBE = 4;
+    private static final int DEFAULT_BITS = Integer.getInteger("npbdd.l3.bits", 16);
+
+    private final int capacity;
+    private final int mask;
+
+    // 首次写入时才分配，未使用NP-BDD的引擎不占内存
+    private long[] keys;
+    private byte[] ops;
+    private int[] values;
+
+    private long gcEpoch = -1;
+    private int size;
+
+    public L3OperationCache() {
+        this(DEFAULT_BITS);
+    }
+
+    public L3OperationCache(int bits) {
+        this.capacity = 1 << bits;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * 与所属BDD的GC计数同步，GC计数变化时清空整表
+     */
+    public void validate(long currentGcEpoch) {
+        if (currentGcEpoch != gcEpoch) {
+            gcEpoch = currentGcEpoch;
+            if (ops != null && size > 0) {
+                Arrays.fill(ops, (byte) 0);
+                size = 0;
+            }
+        }
+    }
+
+    public int lookup(int op, int a, int b) {
+        if (ops == null) {
+            return MISS;
+        }
+        long key = pack(op, a, b);
+        int slot = slot(key, op);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int s = (slot + i) & mask;
+            if (ops[s] == 0) {
+                return MISS;
+            }
+            if (ops[s] == op && keys[s] == key) {
+                return values[s];
+            }
+        }
+        return MISS;
+    }
+
+    public void insert(int op, int a, int b, int value) {
+        if (ops == null) {
+            keys = new long[capacity];
+            ops = new byte[capacity];
+            values = new int[capacity];
+        }
+        long key = pack(op, a, b);
+        int slot = slot(key, op);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int s = (slot + i) & mask;
+            if (ops[s] == 0) {
+                size++;
+                write(s, op, key, value);
+                return;
+            }
+            if (ops[s] == op && keys[s] == key) {
+                values[s] = value;
+                return;
+            }
+        }
+        write(slot, op, key, value);
+    }
+
+    private void write(int s, int op, long key, int value) {
+        keys[s] = key;
+        ops[s] = (byte) op;
+        values[s] = value;
+    }
+
+    /**
+     * AND/OR/XOR满足交换律，操作数按大小排序后再打包
+     */
+    private static long pack(int op, int a, int b) {
+        if ((op == OP_AND || op == OP_OR || op == OP_XOR) && a > b) {
+            int t = a; a = b; b = t;
+        }
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    private int slot(long key, int op) {
+        long h = (key + op) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getMemoryUsage() {
+        return ops == null ? 0 : (long) capacity * (8 + 1 + 4);
+    }
+}
@@ -31,8 +31,15 @@ public class NPBDDIntegrationGuide {
     public static class BDDEngineEnhanced {
         
         private TSBDD tsbdd;
-        private BDDPredicateRegistry registry = BDDPredicateRegistry.getInstance();
-        private BDDPredicateCache cache = BDDPredicateCache.getInstance();
+        private BDDPredicateRegistry registry;
+        private BDDPredicateCache cache;
+
+        public BDDEngineEnhanced(TSBDD tsbdd) {
+            // 注册表和缓存由每个TSBDD独立持有
+            this.tsbdd = tsbdd;
+            this.registry = tsbdd.getPredicateRegistry();
+            this.cache = tsbdd.getPredicateCache();
+        }
         
         /**
          * 增强版的encodeDstIPPrefix - 集成L3缓存
@@ -40,7 +47,7 @@ public class NPBDDIntegrationGuide {
         public int encodeDstIPPrefixWithCache(long ip, int prefixLen) {
             // === L3缓存检查：MAKE操作 ===
             L3CacheKey l3Key = L3CacheKey.forMake(ip, prefixLen);
-            Integer cachedPredicateId = cache.getL3(l3Key);
+            Integer cachedPredicateId = cache.getL3(l3Key, tsbdd);
             if (cachedPredicateId != null) {
                 // 缓存命中，直接返回
                 return cachedPredicateId;
@@ -57,7 +64,7 @@ public class NPBDDIntegrationGuide {
             int predicateId = registry.getOrCreateId(predicate, tsbdd);
             
             // 4. 缓存结果
-            cache.putL3(l3Key, predicateId);
+            cache.putL3(l3Key, predicateId, tsbdd);
             
             return predicateId;
         }
@@ -77,7 +84,7 @@ public class NPBDDIntegrationGuide {
         public int andWithCache(int predicateId1, int predicateId2) {
             // === L3缓存检查：AND操作 ===
             L3CacheKey l3Key = L3CacheKey.forBinary("AND", predicateId1, predicateId2);
-            Integer cachedResult = cache.getL3(l3Key);
+            Integer cachedResult = cache.getL3(l3Key, tsbdd);
             if (cachedResult != null) {
                 return cachedResult;
             }
@@ -95,7 +102,7 @@ public class NPBDDIntegrationGuide {
             int resultId = registry.getOrCreateId(resultPred, tsbdd);
             
             // 4. 缓存
-            cache.putL3(l3Key, resultId);
+            cache.putL3(l3Key, resultId, tsbdd);
             
             return resultId;
         }
@@ -108,7 +115,11 @@ public class NPBDDIntegrationGuide {
      */
     public static class DeviceEnhanced {
         
-        private BDDPredicateCache cache = BDDPredicateCache.getInstance();
+        private BDDPredicateCache cache;
+
+        public DeviceEnhanced(TSBDD tsbdd) {
+            this.cache = tsbdd.getPredicateCache();
+        }
         
         /**
          * 增强版的规则编码 - 集成L1/L2缓存
@@ -169,12 +180,13 @@ public class NPBDDIntegrationGuide {
         /**
          * 在验证开始时，初始化NP-BDD组件
          */
-        public void initializeNPBDD() {
+        public void initializeNPBDD(TSBDD srcBdd) {
             System.out.println("初始化NP-BDD组件...");
             
-            // 全局单例，无需显式初始化
-            BDDPredicateRegistry registry = BDDPredicateRegistry.getInstance();
-            BDDPredicateCache cache = BDDPredicateCache.getInstance();
+            // 注册表和缓存随TSBDD创建，每个引擎独立；
+            // 拷贝srcBdd得到的引擎通过inheritPredicatesFrom继承谓词ID
+            BDDPredicateRegistry registry = srcBdd.getPredicateRegistry();
+            BDDPredicateCache cache = srcBdd.getPredicateCache();
             
             // 可选：清空之前的缓存
             cache.clear();
@@ -186,14 +198,11 @@ public class NPBDDIntegrationGuide {
         /**
          * 在验证结束时，打印统计信息
          */
-        public void printNPBDDStats() {
+        public void printNPBDDStats(TSBDD bdd) {
             System.out.println("\n========== NP-BDD性能统计 ==========");
             
-            BDDPredicateRegistry registry = BDDPredicateRegistry.getInstance();
-            registry.printStats();
-            
-            BDDPredicateCache cache = BDDPredicateCache.getInstance();
-            cache.printStats();
+            bdd.getPredicateRegistry().printStats();
+            bdd.getPredicateCache().printStats();
             
             System.out.println("====================================\n");
         }
@@ -222,7 +231,7 @@ public class NPBDDIntegrationGuide {
         System.out.println("3. TopoRunner改造：");
         System.out.println("   - 在start()开始时初始化NP-BDD");
         System.out.println("   - 在验证结束时打印统计信息");
-        System.out.println("   - BDD引擎池继续使用，但共享全局谓词表\n");
+        System.out.println("   - 每个BDD引擎持有独立的谓词表和缓存，跨引擎用importPredicate转换\n");
         
         System.out.println("=== 预期收益 ===\n");
         System.out.println("根据HeTu论文的实验结果：");
@@ -0,0 +1,231 @@
+package org.sngroup.verifier.npbdd;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * 有界的分段LRU缓存（Segmented LRU）
+ *
+ * 每个分片由两段组成：
+ * 1. probation - 新写入的条目先进入试用段
+ * 2. protected - 在试用段中再次命中的条目晋升到保护段，保护段满时其最久未用条目降级回试用段
+ * 淘汰总是从试用段的最久未用端开始，因此只被访问一次的条目不会冲掉热点条目。
+ *
+ * 容量同时受条目数和估算字节数约束。
+ *
+ * 每个条目记录写入时所属的引擎标识及该引擎的GC计数：BDD节点在GC后可能被回收并复用，
+ * 查找时引擎不一致按未命中处理，GC计数不一致则删除该条目，保证不会返回已被回收的节点ID。
+ */
+class SegmentedLruCache<K, V> {
+
+    private static final int SHARDS = 16;
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** 每个条目的固定开销估算：LinkedHashMap节点 + Entry对象 + 键值对象头 */
+    static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final String name;
+    private final Shard<K, V>[] shards;
+    private final ToIntFunction<V> valueWeigher;
+
+    private final AtomicLong bytes = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong staleDrops = new AtomicLong(0);
+
+    SegmentedLruCache(String name, int maxEntries, long maxBytes, ToIntFunction<V> valueWeigher) {
+        this.name = name;
+        this.valueWeigher = valueWeigher;
+        // 泛型数组只能这样创建，抑制范围限定在这一个局部变量上
+        @SuppressWarnings("unchecked")
+        Shard<K, V>[] shards = (Shard<K, V>[]) new Shard<?, ?>[SHARDS];
+        this.shards = shards;
+        int shardEntries = Math.max(1, maxEntries / SHARDS);
+        long shardBytes = Math.max(ENTRY_OVERHEAD_BYTES, maxBytes / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard<>(shardEntries, shardBytes);
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int engineId;
+        final long gcEpoch;
+        final int weight;
+
+        Entry(V value, int engineId, long gcEpoch, int weight) {
+            this.value = value;
+            this.engineId = engineId;
+            this.gcEpoch = gcEpoch;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Shard<K, V> {
+        final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<K, Entry<V>> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+        final int maxEntries;
+        final int maxProtected;
+        final long maxBytes;
+        long bytes;
+
+        Shard(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxProtected = Math.max(1, maxEntries * PROTECTED_PERCENT / 100);
+            this.maxBytes = maxBytes;
+        }
+
+        int size() {
+            return probation.size() + protectedSegment.size();
+        }
+    }
+
+    private Shard<K, V> shardFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & (SHARDS - 1)];
+    }
+
+    /**
+     * 查找条目：不属于该引擎时视为未命中，该引擎写入后发生过GC时视为未命中并删除
+     */
+    V get(K key, int engineId, long gcEpoch) {
+        Shard<K, V> shard = shardFor(key);
+        synchronized (shard) {
+            Entry<V> entry = shard.protectedSegment.get(key);
+            if (entry == null) {
+                entry = shard.probation.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.engineId != engineId) {
+                    return null;
+                }
+                if (entry.gcEpoch != gcEpoch) {
+                    removeEntry(shard, shard.probation, key, entry);
+                    staleDrops.incrementAndGet();
+                    return null;
+                }
+                // 试用段再次命中：晋升到保护段
+                shard.probation.remove(key);
+                shard.protectedSegment.put(key, entry);
+                if (shard.protectedSegment.size() > shard.maxProtected) {
+                    Iterator<Map.Entry<K, Entry<V>>> it = shard.protectedSegment.entrySet().iterator();
+                    Map.Entry<K, Entry<V>> eldest = it.next();
+                    it.remove();
+                    shard.probation.put(eldest.getKey(), eldest.getValue());
+                }
+                return entry.value;
+            }
+            if (entry.engineId != engineId) {
+                return null;
+            }
+            if (entry.gcEpoch != gcEpoch) {
+                removeEntry(shard, shard.protectedSegment, key, entry);
+                staleDrops.incrementAndGet();
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    void put(K key, V value, int engineId, long gcEpoch) {
+        int weight = ENTRY_OVERHEAD_BYTES + valueWeigher.applyAsInt(value);
+        Entry<V> entry = new Entry<>(value, engineId, gcEpoch, weight);
+        Shard<K, V> shard = shardFor(key);
+        synchronized (shard) {
+            Entry<V> old = shard.protectedSegment.get(key);
+            if (old != null) {
+                shard.protectedSegment.put(key, entry);
+            } else {
+                old = shard.probation.put(key, entry);
+            }
+            long delta = weight - (old != null ? old.weight : 0);
+            shard.bytes += delta;
+            bytes.addAndGet(delta);
+            evictIfNeeded(shard);
+        }
+    }
+
+    private void evictIfNeeded(Shard<K, V> shard) {
+        while (shard.size() > shard.maxEntries || (shard.bytes > shard.maxBytes && shard.size() > 1)) {
+            LinkedHashMap<K, Entry<V>> victimSegment =
+                shard.probation.isEmpty() ? shard.protectedSegment : shard.probation;
+            Iterator<Map.Entry<K, Entry<V>>> it = victimSegment.entrySet().iterator();
+            Map.Entry<K, Entry<V>> eldest = it.next();
+            it.remove();
+            shard.bytes -= eldest.getValue().weight;
+            bytes.addAndGet(-eldest.getValue().weight);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void removeEntry(Shard<K, V> shard, LinkedHashMap<K, Entry<V>> segment, K key, Entry<V> entry) {
+        segment.remove(key);
+        shard.bytes -= entry.weight;
+        bytes.addAndGet(-entry.weight);
+    }
+
+    /**
+     * 主动清除某个引擎的全部条目（例如该引擎显式GC或被回收时）
+     */
+    void invalidateEngine(int engineId) {
+        for (Shard<K, V> shard : shards) {
+            synchronized (shard) {
+                purge(shard, shard.probation, engineId);
+                purge(shard, shard.protectedSegment, engineId);
+            }
+        }
+    }
+
+    private void purge(Shard<K, V> shard, LinkedHashMap<K, Entry<V>> segment, int engineId) {
+        Iterator<Entry<V>> it = segment.values().iterator();
+        while (it.hasNext()) {
+            Entry<V> entry = it.next();
+            if (entry.engineId == engineId) {
+                it.remove();
+                shard.bytes -= entry.weight;
+                bytes.addAndGet(-entry.weight);
+            }
+        }
+    }
+
+    void clear() {
+        for (Shard<K, V> shard : shards) {
+            synchronized (shard) {
+                shard.probation.clear();
+                shard.protectedSegment.clear();
+                bytes.addAndGet(-shard.bytes);
+                shard.bytes = 0;
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Shard<K, V> shard : shards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    long byteSize() {
+        return bytes.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    long getStaleDrops() {
+        return staleDrops.get();
+    }
+
+    String getName() {
+        return name;
+    }
+}